@@ -13,6 +13,8 @@ public class RuleConstants {
     public static final String CIRCULAR_ROUTE_MODE = "CIRCULAR_ROUTE_MODE";
     public static final String PROXIMITY_SENSITIVITY = "PROXIMITY_SENSITIVITY";
     public static final String MANUAL_DIRECTION_OVERRIDE = "MANUAL_DIRECTION_OVERRIDE";
+    // Smart bus selection ranking: stop-index, distance or eta (see BusSelectionMode)
+    public static final String BUS_SELECTION_MODE = "BUS_SELECTION_MODE";
 
     // Tracking & Privacy Rules
     public static final String GEOFENCED_TRACKING = "GEOFENCED_TRACKING";
@@ -5,6 +5,7 @@ import org.springframework.transaction.annotation.Transactional;
 import com.backend.onebus.service.BusStreamingService;
 import com.backend.onebus.service.BusSelectionService;
 import com.backend.onebus.service.MetricsService;
+import com.backend.onebus.service.SubscriberOutbox;
 import com.backend.onebus.service.routing.BusCompanyStrategyFactory;
 import com.backend.onebus.service.routing.BusCompanyRoutingStrategy;
 import com.backend.onebus.repository.BusNumberRepository;
@@ -47,6 +48,9 @@ public class BusStreamingController {
     @Autowired
     private BusNumberRepository busNumberRepository;
     
+    @Autowired
+    private SubscriberOutbox subscriberOutbox;
+    
     /**
      * Handle subscription request from client with location and bus stop index
      */
@@ -103,7 +107,7 @@ public class BusStreamingController {
                 // CRITICAL: Also register for route-based subscription so Shadow Bus strategy works
                 streamingService.subscribeToBus(sessionId, busNumber, direction);
                 streamingService.storeClientSubscription(sessionId, busNumber, direction, 
-                                                       clientLat, clientLon, clientBusStopIndex, selectedBusId);
+                                                       clientLat, clientLon, clientBusStopIndex, selectedBusId, strategy);
                 
                 // Record smart bus selection metrics
                 metricsService.recordSmartBusSelection(sessionId, direction, selectedBusId, false);
@@ -126,6 +130,11 @@ public class BusStreamingController {
             } else {
                 // Fallback to traditional subscription if no suitable bus found
                 streamingService.subscribeToBus(sessionId, busNumber, direction);
+                if (strategy.supportsSmartBusSelection()) {
+                    // Wait for a bus: the route's next fix re-runs selection for this client
+                    streamingService.storeClientSubscription(sessionId, busNumber, direction,
+                                                           clientLat, clientLon, clientBusStopIndex, null, strategy);
+                }
                 logger.info("No suitable bus found, using traditional subscription for session {} to bus {} direction {}", 
                            sessionId, busNumber, direction);
                 
@@ -172,6 +181,38 @@ public class BusStreamingController {
         );
     }
     
+    /**
+     * Switch the session's update rate: "map" while the map is on screen, "background" otherwise
+     */
+    @MessageMapping("/delivery-mode")
+    @SendToUser("/topic/subscription/status")
+    public Map<String, Object> setDeliveryMode(
+            @Payload Map<String, String> modeRequest,
+            SimpMessageHeaderAccessor headerAccessor) {
+        
+        String sessionId = headerAccessor.getSessionId();
+        String mode = modeRequest.get("mode");
+        SubscriberOutbox.DeliveryMode deliveryMode;
+        if ("map".equalsIgnoreCase(mode)) {
+            deliveryMode = SubscriberOutbox.DeliveryMode.MAP;
+        } else if ("background".equalsIgnoreCase(mode)) {
+            deliveryMode = SubscriberOutbox.DeliveryMode.BACKGROUND;
+        } else {
+            logger.warn("Invalid delivery mode request from session {}: {}", sessionId, mode);
+            return Map.of(
+                "status", "error",
+                "message", "mode must be map or background"
+            );
+        }
+        
+        subscriberOutbox.setMode(sessionId, deliveryMode);
+        return Map.of(
+            "status", "success",
+            "message", "Delivery mode set to " + mode.toLowerCase(),
+            "mode", mode.toLowerCase()
+        );
+    }
+    
     /**
      * Handle unsubscription request from client
      */
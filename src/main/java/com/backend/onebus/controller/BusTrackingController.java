@@ -6,13 +6,13 @@ import com.backend.onebus.dto.RouteCreateDTO;
 import com.backend.onebus.dto.RegisteredBusCreateDTO;
 import com.backend.onebus.dto.RegisteredBusResponseDTO;
 import com.backend.onebus.dto.ActiveBusDTO;
+import com.backend.onebus.event.RouteTopologyChangedEvent;
 import com.backend.onebus.model.Bus;
 import com.backend.onebus.model.BusLocation;
 import com.backend.onebus.model.Route;
 import com.backend.onebus.model.RouteStop;
 import com.backend.onebus.model.FullRoute;
 import com.backend.onebus.repository.BusRepository;
-import com.backend.onebus.repository.BusLocationRepository;
 import com.backend.onebus.repository.RouteRepository;
 import com.backend.onebus.repository.RouteStopRepository;
 import com.backend.onebus.repository.FullRouteRepository;
@@ -21,10 +21,14 @@ import com.backend.onebus.service.BusSelectionService;
 import com.backend.onebus.service.RegisteredBusService;
 import com.backend.onebus.service.DashboardStatsService;
 import com.backend.onebus.service.MetricsService;
+import com.backend.onebus.service.TrackerIngestService;
+import com.backend.onebus.service.ActiveBusService;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
@@ -66,8 +70,6 @@ public class BusTrackingController {
     @Autowired
     private FullRouteRepository fullRouteRepository;
     @Autowired
-    private BusLocationRepository busLocationRepository;
-    @Autowired
     private ObjectMapper objectMapper;
     @Autowired
     private BusSelectionService busSelectionService;
@@ -77,36 +79,79 @@ public class BusTrackingController {
     private DashboardStatsService dashboardStatsService;
     @Autowired
     private MetricsService metricsService;
+    @Autowired
+    private TrackerIngestService trackerIngestService;
+    @Autowired
+    private ActiveBusService activeBusService;
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(BusTrackingController.class);
 
     @PostMapping("/tracker/payload")
-    @Operation(summary = "Receive tracker payload", description = "Receives GPS tracking data from bus tracking devices")
+    @Operation(summary = "Receive tracker payload", description = "Receives GPS tracking data from bus tracking devices and queues it for processing")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Payload received successfully"),
-        @ApiResponse(responseCode = "400", description = "Invalid payload format")
+        @ApiResponse(responseCode = "400", description = "Invalid payload format"),
+        @ApiResponse(responseCode = "429", description = "Ingest queue full - retry after the indicated delay")
     })
     public ResponseEntity<?> receiveTrackerPayload(@RequestBody BusLocation payload) {
-        long startTime = System.currentTimeMillis();
         String imei = payload.getTrackerImei();
-        String ts = payload.getTimestamp();
         
-        logger.info("[RECEPTION] [IMEI:{}] Received payload with timestamp: {} at system time: {}", 
-            imei, ts, startTime);
+        logger.debug("[RECEPTION] [IMEI:{}] Received payload with timestamp: {}", imei, payload.getTimestamp());
         
         // Record metrics
         metricsService.recordTrackerPayloadReceived(payload.getBusId(), imei);
         
-        trackingService.processTrackerPayload(payload);
-        
-        long endTime = System.currentTimeMillis();
-        long processingTime = endTime - startTime;
+        if (!trackerIngestService.submit(payload)) {
+            return ingestBackpressure(0, 1);
+        }
+        return ResponseEntity.ok().build();
+    }
+
+    @PostMapping("/tracker/payload/batch")
+    @Operation(summary = "Receive batched tracker payloads",
+               description = "Receives an ordered array of GPS fixes (e.g. from a buffering gateway) and queues them for processing")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "202", description = "All payloads accepted"),
+        @ApiResponse(responseCode = "400", description = "Invalid payload format"),
+        @ApiResponse(responseCode = "413", description = "More payloads than the batch limit - none were accepted; split the batch"),
+        @ApiResponse(responseCode = "429", description = "Ingest queue full - resend the payloads after the accepted count once the retry delay has passed")
+    })
+    public ResponseEntity<?> receiveTrackerPayloadBatch(@RequestBody List<BusLocation> payloads) {
+        if (payloads == null || payloads.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Payload array is empty"));
+        }
+        int maxBatch = trackerIngestService.getMaxBatch();
+        if (payloads.size() > maxBatch) {
+            metricsService.recordTrackerPayloadsRejected(payloads.size());
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(Map.of(
+                "error", "Batch exceeds " + maxBatch + " payloads",
+                "accepted", 0,
+                "rejected", payloads.size(),
+                "maxBatch", maxBatch
+            ));
+        }
         
-        logger.info("[RECEPTION-DONE] [IMEI:{}] Processed payload in {}ms. Total system time: {}", 
-            imei, processingTime, endTime);
-            
-        metricsService.recordBusLocationProcessed(payload.getBusId(), processingTime);
+        for (BusLocation payload : payloads) {
+            metricsService.recordTrackerPayloadReceived(payload.getBusId(), payload.getTrackerImei());
+        }
         
-        return ResponseEntity.ok().build();
+        int accepted = trackerIngestService.submitAll(payloads);
+        if (accepted < payloads.size()) {
+            return ingestBackpressure(accepted, payloads.size() - accepted);
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(Map.of("accepted", accepted, "rejected", 0));
+    }
+
+    private ResponseEntity<?> ingestBackpressure(int accepted, int rejected) {
+        int retryAfter = trackerIngestService.getRetryAfterSeconds();
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter))
+            .body(Map.of(
+                "accepted", accepted,
+                "rejected", rejected,
+                "retryAfterSeconds", retryAfter
+            ));
     }
 
     @GetMapping("/buses/nearest")
@@ -217,166 +262,8 @@ public class BusTrackingController {
             @RequestParam(required = false) String companyId,
             @RequestParam(required = false) String busNumber) {
         try {
-            long timeThresholdMillis = System.currentTimeMillis() - (10 * 60 * 1000); // 10 minutes
-
-                List<BusLocation> activeLocations = (companyId != null && !companyId.isEmpty())
-                    ? busLocationRepository.findActiveBusesByCompany(companyId, timeThresholdMillis)
-                    : busLocationRepository.findActiveBuses(timeThresholdMillis);
-
-                if (busNumber != null && !busNumber.isEmpty()) {
-                activeLocations = activeLocations.stream()
-                    .filter(loc -> busNumber.equalsIgnoreCase(loc.getBusNumber()))
-                    .toList();
-                }
-
-            // Deduplicate by tracker IMEI - keep only the most recent location for each bus
-            Map<String, BusLocation> deduplicatedByImei = new LinkedHashMap<>();
-            for (BusLocation location : activeLocations) {
-                String imei = location.getTrackerImei();
-                if (deduplicatedByImei.containsKey(imei)) {
-                    // Keep the one with the more recent timestamp (ISO format timestamps are lexicographically comparable)
-                    BusLocation existing = deduplicatedByImei.get(imei);
-                    if (location.getTimestamp().compareTo(existing.getTimestamp()) > 0) {
-                        deduplicatedByImei.put(imei, location);
-                    }
-                } else {
-                    deduplicatedByImei.put(imei, location);
-                }
-            }
-            activeLocations = new ArrayList<>(deduplicatedByImei.values());
-
-            List<ActiveBusDTO> response = new ArrayList<>();
-
-            for (BusLocation location : activeLocations) {
-                // Look up bus for richer metadata
-                Bus busEntity = busRepository.findByTrackerImei(location.getTrackerImei());
-
-                // Look up route (best effort) - handle multiple routes
-                Route routeEntity = null;
-                try {
-                    java.util.List<Route> routes = routeRepository.findByBusNumber(location.getBusNumber());
-                    if (!routes.isEmpty()) {
-                        // Try to match current direction
-                        if (location.getTripDirection() != null) {
-                            routeEntity = routes.stream()
-                                .filter(r -> location.getTripDirection().equalsIgnoreCase(r.getDirection()))
-                                .findFirst()
-                                .orElse(routes.get(0));
-                        } else {
-                            routeEntity = routes.get(0);
-                        }
-                    }
-                } catch (Exception e) {
-                    // Ignore route lookup errors
-                }
-
-                ActiveBusDTO.BusInfo busInfo = new ActiveBusDTO.BusInfo(
-                        location.getBusId(),
-                        location.getBusNumber(),
-                        location.getTrackerImei(),
-                        location.getBusDriverId(),
-                        location.getBusDriver()
-                );
-
-                ActiveBusDTO.RouteInfo routeInfo = null;
-                if (routeEntity != null) {
-                    routeInfo = new ActiveBusDTO.RouteInfo(
-                            routeEntity.getId(),
-                            routeEntity.getRouteName(),
-                            routeEntity.getCompany(),
-                            routeEntity.getBusNumber(),
-                            routeEntity.getDescription(),
-                            routeEntity.getDirection(),
-                            routeEntity.getStartPoint(),
-                            routeEntity.getEndPoint(),
-                            routeEntity.isActive()
-                    );
-                }
-
-                ActiveBusDTO.LocationInfo locationInfo = new ActiveBusDTO.LocationInfo(
-                        location.getLat(),
-                        location.getLon()
-                );
-
-                // Look up current and last stop information
-                ActiveBusDTO.StopInfo nextStopInfo = null;
-                ActiveBusDTO.StopInfo lastStopInfo = null;
-                
-                if (routeEntity != null && location.getBusStopIndex() != null) {
-                    // Get all stops for this route in the given direction
-                    List<RouteStop> routeStops = routeStopRepository
-                            .findByRouteIdAndDirectionOrderByBusStopIndex(routeEntity.getId(), location.getTripDirection());
-                    
-                    if (!routeStops.isEmpty()) {
-                        int currentIndex = location.getBusStopIndex();
-                        
-                        // Find current/next stop
-                        for (RouteStop stop : routeStops) {
-                            if (stop.getBusStopIndex() != null && stop.getBusStopIndex() == currentIndex) {
-                                nextStopInfo = new ActiveBusDTO.StopInfo(
-                                        String.valueOf(stop.getId()),
-                                        stop.getAddress(),
-                                        stop.getLatitude(),
-                                        stop.getLongitude(),
-                                        stop.getBusStopIndex()
-                                );
-                                break;
-                            }
-                        }
-                        
-                        // Find last stop (one before current)
-                        if (currentIndex > 0) {
-                            for (RouteStop stop : routeStops) {
-                                if (stop.getBusStopIndex() != null && stop.getBusStopIndex() == (currentIndex - 1)) {
-                                    lastStopInfo = new ActiveBusDTO.StopInfo(
-                                            String.valueOf(stop.getId()),
-                                            stop.getAddress(),
-                                            stop.getLatitude(),
-                                            stop.getLongitude(),
-                                            stop.getBusStopIndex()
-                                    );
-                                    break;
-                                }
-                            }
-                        }
-                    }
-                }
-
-                // Fallback if no route lookup
-                if (nextStopInfo == null && location.getBusStopIndex() != null) {
-                    nextStopInfo = new ActiveBusDTO.StopInfo(
-                            null,
-                            "Stop " + location.getBusStopIndex(),
-                            null,
-                            null,
-                            location.getBusStopIndex()
-                    );
-                }
-
-                String status = location.getSpeedKmh() < 1.0 ? "at_stop" : "on_route";
-
-                ActiveBusDTO dto = new ActiveBusDTO(
-                        String.valueOf(location.getId()),
-                        busInfo,
-                        routeInfo,
-                        locationInfo,
-                        nextStopInfo,
-                        lastStopInfo,
-                        status,
-                        null, // estimatedArrival not computed
-                        null, // passengerCount not tracked
-                        location.getLastSavedTimestamp(),
-                        location.getSpeedKmh(),
-                        location.getHeadingDegrees(),
-                        location.getHeadingCardinal(),
-                        location.getBusCompany(),
-                        location.getTripDirection()
-                );
-
-                response.add(dto);
-            }
-
-            return ResponseEntity.ok(response);
+            // Served from live tracking state with bulk route/stop lookups (no history table scan)
+            return ResponseEntity.ok(activeBusService.getActiveBuses(companyId, busNumber));
         } catch (Exception e) {
             logger.error("Failed to retrieve active buses: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
@@ -570,6 +457,7 @@ public class BusTrackingController {
                 }
                 logger.info("Created {} stops for new route ID {}", createdStops.size(), savedRoute.getId());
             }
+            eventPublisher.publishEvent(RouteTopologyChangedEvent.forRoutes(savedRoute.getId()));
 
             // Return the created route with a success message and any created stops
             return ResponseEntity.status(HttpStatus.CREATED).body(Map.of(
@@ -657,8 +545,8 @@ public class BusTrackingController {
                 }
             }
 
-            // Clear route cache to force reload
-            // routeStopsCache.clear(); // This line was not in the original file, so it's not added.
+            // Rebuild route topologies from the imported stops
+            eventPublisher.publishEvent(RouteTopologyChangedEvent.all());
 
             return ResponseEntity.ok().body(Map.of("message", "Routes imported successfully"));
         } catch (Exception e) {
@@ -855,6 +743,8 @@ public class BusTrackingController {
                        completeRoute.getId(), completeRoute.getCompany(), 
                        completeRoute.getBusNumber(), updatedStops.size());
             
+            eventPublisher.publishEvent(RouteTopologyChangedEvent.forRoutes(routeId));
+
             // Return a simple response to test if the issue is in response building
             return ResponseEntity.ok(Map.of("message", "Route updated successfully", "routeId", routeId));
         } catch (Exception e) {
@@ -1152,6 +1042,7 @@ public class BusTrackingController {
             // Save the new stop
             RouteStop savedStop = routeStopRepository.save(routeStop);
             logger.info("Successfully created bus stop {} for route {}", savedStop.getId(), routeId);
+            eventPublisher.publishEvent(RouteTopologyChangedEvent.forRoutes(routeId));
 
             return ResponseEntity.status(HttpStatus.CREATED).body(Map.of(
                 "message", "Bus stop created successfully",
@@ -1223,6 +1114,7 @@ public class BusTrackingController {
                     }
                 }
             }
+            eventPublisher.publishEvent(RouteTopologyChangedEvent.forRoutes(routeId));
             
             return ResponseEntity.ok(Map.of(
                 "message", "Stop deleted successfully",
@@ -1267,6 +1159,7 @@ public class BusTrackingController {
 
             routeRepository.delete(routeOpt.get());
             logger.info("Deleted route {} with {} stops and {} full route geometries", routeId, stops.size(), fullRoutes.size());
+            eventPublisher.publishEvent(RouteTopologyChangedEvent.forRoutes(routeId));
             return ResponseEntity.ok(Map.of(
                     "message", "Route deleted successfully",
                     "deletedRouteId", routeId,
@@ -1342,6 +1235,7 @@ public class BusTrackingController {
 
             target.setBusStopIndex(newIndex);
             routeStopRepository.save(target);
+            eventPublisher.publishEvent(RouteTopologyChangedEvent.forRoutes(routeId));
 
             return ResponseEntity.ok(Map.of("message", "Stop index updated", "stopId", stopId, "busStopIndex", newIndex));
         } catch (Exception e) {
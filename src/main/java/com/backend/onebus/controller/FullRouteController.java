@@ -72,6 +72,7 @@ public class FullRouteController {
             FullRoute entity = new FullRoute();
             applyRequestToEntity(request, entity);
             FullRoute saved = fullRouteRepository.save(entity);
+            routeGeometryService.invalidateRoute(saved.getRouteId());
             return ResponseEntity.status(HttpStatus.CREATED).body(toResponse(saved));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
@@ -88,8 +89,11 @@ public class FullRouteController {
         }
         try {
             FullRoute entity = existingOpt.get();
+            Long previousRouteId = entity.getRouteId();
             applyRequestToEntity(request, entity);
             FullRoute saved = fullRouteRepository.save(entity);
+            routeGeometryService.invalidateRoute(previousRouteId);
+            routeGeometryService.invalidateRoute(saved.getRouteId());
             return ResponseEntity.ok(toResponse(saved));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
@@ -100,11 +104,13 @@ public class FullRouteController {
     @DeleteMapping("/{id}")
     @Operation(summary = "Delete full route", description = "Remove a stored route geometry")
     public ResponseEntity<?> delete(@PathVariable Long id) {
-        if (!fullRouteRepository.existsById(id)) {
+        Optional<FullRoute> existingOpt = fullRouteRepository.findById(id);
+        if (existingOpt.isEmpty()) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
                     .body(Collections.singletonMap("error", "FullRoute not found"));
         }
         fullRouteRepository.deleteById(id);
+        routeGeometryService.invalidateRoute(existingOpt.get().getRouteId());
         return ResponseEntity.noContent().build();
     }
 
@@ -154,6 +160,10 @@ public class FullRouteController {
             }
         }
 
+        if (updatedCount > 0) {
+            routeGeometryService.invalidateAll();
+        }
+
         logger.info("Backfill complete. Updated: {}, Skipped: {}, Errors: {}, Total: {}", 
                     updatedCount, skippedCount, errorCount, totalProcessed);
 
@@ -2,6 +2,7 @@ package com.backend.onebus.controller;
 
 import com.backend.onebus.security.RoleBasedAccessControl;
 import com.backend.onebus.service.MetricsService;
+import com.backend.onebus.service.SubscriberOutbox;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -21,6 +22,9 @@ public class MetricsController {
     @Autowired
     private MetricsService metricsService;
     
+    @Autowired
+    private SubscriberOutbox subscriberOutbox;
+    
     @GetMapping("/current")
     @Operation(summary = "Get current system metrics", description = "Returns real-time performance metrics including counters, latency stats, and recent events")
     public ResponseEntity<Map<String, Object>> getCurrentMetrics() {
@@ -40,6 +44,12 @@ public class MetricsController {
         return ResponseEntity.ok(metricsService.getSessionMetrics());
     }
     
+    @GetMapping("/outbox")
+    @Operation(summary = "Get WebSocket delivery outbox metrics", description = "Returns per-session delivery mode, queued update count, and delivered and dropped (superseded) update counts")
+    public ResponseEntity<List<SubscriberOutbox.OutboxStats>> getOutboxMetrics() {
+        return ResponseEntity.ok(subscriberOutbox.getSessionStats());
+    }
+    
     @PostMapping("/cleanup-sessions")
     @Operation(summary = "Manual session cleanup for testing", description = "Manually triggers cleanup of orphaned WebSocket sessions (for testing purposes)")
     public ResponseEntity<Map<String, Object>> cleanupOrphanedSessions() {
@@ -0,0 +1,31 @@
+package com.backend.onebus.controller;
+
+import com.backend.onebus.service.StopArrivalService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+/**
+ * Controller for stop arrival boards. Boards are precomputed as buses move between stops, so a
+ * request only reads them; live updates are pushed to /topic/stops/{stopId}/arrivals.
+ */
+@RestController
+@RequestMapping("/api/stops")
+@Tag(name = "Stop Arrivals", description = "Predicted arrivals of the next buses at a stop")
+public class StopArrivalController {
+    
+    @Autowired
+    private StopArrivalService stopArrivalService;
+    
+    @GetMapping("/{stopId}/arrivals")
+    @Operation(summary = "Next arrivals at a stop",
+               description = "The next buses due at a route stop, soonest first, with predicted ETA in minutes")
+    public ResponseEntity<Map<String, Object>> getArrivals(@PathVariable Long stopId,
+                                                           @RequestParam(defaultValue = "5") int limit) {
+        return ResponseEntity.ok(stopArrivalService.getBoard(stopId, limit, System.currentTimeMillis()));
+    }
+}
@@ -0,0 +1,44 @@
+package com.backend.onebus.event;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Published when a route or its stops are created, edited, re-indexed or deleted.
+ *
+ * Carries the route ids whose compiled topology must be rebuilt, or asks for everything to be
+ * rebuilt (bulk imports).
+ */
+public class RouteTopologyChangedEvent {
+
+    private final Set<Long> routeIds;
+    private final boolean fullReload;
+
+    private RouteTopologyChangedEvent(Set<Long> routeIds, boolean fullReload) {
+        this.routeIds = routeIds;
+        this.fullReload = fullReload;
+    }
+
+    public static RouteTopologyChangedEvent forRoutes(Long... routeIds) {
+        Set<Long> ids = new HashSet<>();
+        for (Long routeId : routeIds) {
+            if (routeId != null) {
+                ids.add(routeId);
+            }
+        }
+        return new RouteTopologyChangedEvent(ids, false);
+    }
+
+    public static RouteTopologyChangedEvent all() {
+        return new RouteTopologyChangedEvent(Collections.emptySet(), true);
+    }
+
+    public Set<Long> getRouteIds() {
+        return routeIds;
+    }
+
+    public boolean isFullReload() {
+        return fullReload;
+    }
+}
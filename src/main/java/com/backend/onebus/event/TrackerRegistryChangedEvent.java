@@ -0,0 +1,44 @@
+package com.backend.onebus.event;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Published when a bus or tracker assignment changes in a way that affects the tracker registry
+ * (status, bus details, tracker assignment, registered bus CRUD).
+ *
+ * Carries the tracker IMEIs whose entries must be reloaded, or asks for a full reload.
+ */
+public class TrackerRegistryChangedEvent {
+
+    private final Set<String> trackerImeis;
+    private final boolean fullReload;
+
+    private TrackerRegistryChangedEvent(Set<String> trackerImeis, boolean fullReload) {
+        this.trackerImeis = trackerImeis;
+        this.fullReload = fullReload;
+    }
+
+    public static TrackerRegistryChangedEvent forImeis(String... trackerImeis) {
+        Set<String> imeis = new HashSet<>();
+        for (String imei : trackerImeis) {
+            if (imei != null && !imei.isBlank()) {
+                imeis.add(imei);
+            }
+        }
+        return new TrackerRegistryChangedEvent(imeis, false);
+    }
+
+    public static TrackerRegistryChangedEvent all() {
+        return new TrackerRegistryChangedEvent(Collections.emptySet(), true);
+    }
+
+    public Set<String> getTrackerImeis() {
+        return trackerImeis;
+    }
+
+    public boolean isFullReload() {
+        return fullReload;
+    }
+}
@@ -1,6 +1,7 @@
 package com.backend.onebus.event;
 
 import com.backend.onebus.service.BusStreamingService;
+import com.backend.onebus.service.SubscriberOutbox;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,6 +19,9 @@ public class WebSocketEventListener {
     @Autowired
     private BusStreamingService streamingService;
     
+    @Autowired
+    private SubscriberOutbox subscriberOutbox;
+    
     @EventListener
     public void handleWebSocketConnectListener(SessionConnectEvent event) {
         StompHeaderAccessor headerAccessor = StompHeaderAccessor.wrap(event.getMessage());
@@ -36,6 +40,7 @@ public class WebSocketEventListener {
         if (sessionId != null) {
             logger.info("WebSocket session disconnected: {}", sessionId);
             streamingService.removeClientSubscriptions(sessionId);
+            subscriberOutbox.removeSession(sessionId);
         }
     }
 } 
\ No newline at end of file
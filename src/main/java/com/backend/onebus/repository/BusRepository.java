@@ -12,6 +12,18 @@ public interface BusRepository extends JpaRepository<Bus, String> {
     @Query("SELECT b FROM Bus b LEFT JOIN FETCH b.busCompany WHERE b.trackerImei = :trackerImei")
     Bus findByTrackerImei(@Param("trackerImei") String trackerImei);
     
+    /**
+     * Uncached load of every bus that has a tracker, with its company, for the tracker registry
+     */
+    @Query("SELECT b FROM Bus b LEFT JOIN FETCH b.busCompany WHERE b.trackerImei IS NOT NULL")
+    List<Bus> findAllWithTrackerFetchCompany();
+    
+    /**
+     * Uncached load of the buses using the given trackers, with their company
+     */
+    @Query("SELECT b FROM Bus b LEFT JOIN FETCH b.busCompany WHERE b.trackerImei IN :trackerImeis")
+    List<Bus> findByTrackerImeiInFetchCompany(@Param("trackerImeis") java.util.Collection<String> trackerImeis);
+    
     /**
      * Find all buses by company name
      */
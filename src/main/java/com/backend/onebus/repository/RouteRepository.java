@@ -22,6 +22,9 @@ public interface RouteRepository extends JpaRepository<Route, Long> {
     @Query("SELECT r FROM Route r WHERE r.busNumber = :busNumber AND r.active = true")
     List<Route> findByBusNumber(@Param("busNumber") String busNumber);
     
+    @Query("SELECT r FROM Route r WHERE r.busNumber IN :busNumbers AND r.active = true ORDER BY r.id")
+    List<Route> findByBusNumberIn(@Param("busNumbers") java.util.Collection<String> busNumbers);
+    
     @Cacheable(value = "routes_by_dir", key = "#busNumber + '_' + #direction", unless = "#result == null")
     @Query("SELECT r FROM Route r WHERE r.busNumber = :busNumber AND r.direction = :direction AND r.active = true")
     Optional<Route> findByBusNumberAndDirection(@Param("busNumber") String busNumber, @Param("direction") String direction);
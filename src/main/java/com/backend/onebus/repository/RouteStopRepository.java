@@ -16,4 +16,7 @@ public interface RouteStopRepository extends JpaRepository<RouteStop, Long> {
     @Cacheable(value = "route_stops_by_dir", key = "#routeId + '_' + #direction", unless = "#result == null")
     @Query("SELECT rs FROM RouteStop rs WHERE rs.route.id = :routeId AND rs.direction = :direction ORDER BY rs.busStopIndex")
     List<RouteStop> findByRouteIdAndDirectionOrderByBusStopIndex(@Param("routeId") Long routeId, @Param("direction") String direction);
-} 
\ No newline at end of file
+    
+    @Query("SELECT rs FROM RouteStop rs JOIN FETCH rs.route r WHERE r.id IN :routeIds ORDER BY rs.busStopIndex")
+    List<RouteStop> findByRouteIdIn(@Param("routeIds") java.util.Collection<Long> routeIds);
+}
@@ -0,0 +1,186 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.dto.ActiveBusDTO;
+import com.backend.onebus.model.BusLocation;
+import com.backend.onebus.model.Route;
+import com.backend.onebus.model.RouteStop;
+import com.backend.onebus.repository.RouteRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds the fleet dashboard's active-bus view.
+ *
+ * Served from the live location index rather than a DISTINCT ON scan of the history table
+ * (buses the local mirror has not seen since startup are read from Redis), and assembled in
+ * bulk: one query for the routes of every active bus number, with stops served from the shared
+ * route topologies (one query for any not yet compiled), instead of three lookups per bus.
+ */
+@Service
+public class ActiveBusService {
+
+    private static final long ACTIVE_WINDOW_MS = 10 * 60 * 1000; // 10 minutes
+
+    @Autowired
+    private BusLocationIndex busLocationIndex;
+
+    @Autowired
+    private TrackerRegistry trackerRegistry;
+
+    @Autowired
+    private RouteRepository routeRepository;
+
+    @Autowired
+    private RouteTopologyService routeTopologyService;
+
+    /**
+     * Buses that reported within the last 10 minutes, optionally filtered by company (name or id)
+     * and bus number.
+     */
+    public List<ActiveBusDTO> getActiveBuses(String company, String busNumber) {
+        List<BusLocation> activeLocations = new ArrayList<>();
+        for (BusLocation location : busLocationIndex.getUpdatedSince(System.currentTimeMillis() - ACTIVE_WINDOW_MS)) {
+            if (busNumber != null && !busNumber.isEmpty() && !busNumber.equalsIgnoreCase(location.getBusNumber())) {
+                continue;
+            }
+            if (company != null && !company.isEmpty() && !matchesCompany(location, company)) {
+                continue;
+            }
+            activeLocations.add(location);
+        }
+        if (activeLocations.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // Bulk load routes for every active bus number, then the topologies not yet compiled
+        Set<String> busNumbers = new HashSet<>();
+        for (BusLocation location : activeLocations) {
+            if (location.getBusNumber() != null) {
+                busNumbers.add(location.getBusNumber());
+            }
+        }
+        Map<String, List<Route>> routesByBusNumber = new HashMap<>();
+        List<Route> routes = new ArrayList<>();
+        if (!busNumbers.isEmpty()) {
+            for (Route route : routeRepository.findByBusNumberIn(busNumbers)) {
+                routesByBusNumber.computeIfAbsent(route.getBusNumber(), k -> new ArrayList<>()).add(route);
+                routes.add(route);
+            }
+        }
+        Map<Long, RouteTopology> topologies = routes.isEmpty() ? Map.of() : routeTopologyService.getAll(routes);
+
+        List<ActiveBusDTO> response = new ArrayList<>(activeLocations.size());
+        for (BusLocation location : activeLocations) {
+            Route routeEntity = selectRoute(routesByBusNumber.get(location.getBusNumber()), location.getTripDirection());
+            response.add(toDto(location, routeEntity,
+                routeEntity != null ? topologies.get(routeEntity.getId()) : null));
+        }
+        return response;
+    }
+
+    private boolean matchesCompany(BusLocation location, String company) {
+        if (company.equalsIgnoreCase(location.getBusCompany())) {
+            return true;
+        }
+        TrackerRegistry.TrackerInfo tracker = trackerRegistry.get(location.getTrackerImei());
+        return tracker != null && tracker.getCompanyId() != null && company.equals(String.valueOf(tracker.getCompanyId()));
+    }
+
+    /**
+     * Prefer the route matching the bus's current direction, falling back to the first route.
+     */
+    private Route selectRoute(List<Route> routes, String direction) {
+        if (routes == null || routes.isEmpty()) return null;
+        if (direction != null) {
+            for (Route route : routes) {
+                if (direction.equalsIgnoreCase(route.getDirection())) {
+                    return route;
+                }
+            }
+        }
+        return routes.get(0);
+    }
+
+    private ActiveBusDTO toDto(BusLocation location, Route routeEntity, RouteTopology topology) {
+        ActiveBusDTO.BusInfo busInfo = new ActiveBusDTO.BusInfo(
+                location.getBusId(),
+                location.getBusNumber(),
+                location.getTrackerImei(),
+                location.getBusDriverId(),
+                location.getBusDriver()
+        );
+
+        ActiveBusDTO.RouteInfo routeInfo = null;
+        if (routeEntity != null) {
+            routeInfo = new ActiveBusDTO.RouteInfo(
+                    routeEntity.getId(),
+                    routeEntity.getRouteName(),
+                    routeEntity.getCompany(),
+                    routeEntity.getBusNumber(),
+                    routeEntity.getDescription(),
+                    routeEntity.getDirection(),
+                    routeEntity.getStartPoint(),
+                    routeEntity.getEndPoint(),
+                    routeEntity.isActive()
+            );
+        }
+
+        ActiveBusDTO.LocationInfo locationInfo = new ActiveBusDTO.LocationInfo(
+                location.getLat(),
+                location.getLon()
+        );
+
+        // Current/next stop and the one before it, among the route's stops in the bus's direction
+        ActiveBusDTO.StopInfo nextStopInfo = null;
+        ActiveBusDTO.StopInfo lastStopInfo = null;
+        Integer currentIndex = location.getBusStopIndex();
+        if (topology != null && currentIndex != null) {
+            RouteStop nextStop = topology.getStop(location.getTripDirection(), currentIndex);
+            RouteStop lastStop = currentIndex > 0 ? topology.getStop(location.getTripDirection(), currentIndex - 1) : null;
+            nextStopInfo = nextStop != null ? toStopInfo(nextStop) : null;
+            lastStopInfo = lastStop != null ? toStopInfo(lastStop) : null;
+        }
+
+        // Fallback if no route lookup
+        if (nextStopInfo == null && currentIndex != null) {
+            nextStopInfo = new ActiveBusDTO.StopInfo(null, "Stop " + currentIndex, null, null, currentIndex);
+        }
+
+        String status = location.getSpeedKmh() < 1.0 ? "at_stop" : "on_route";
+
+        return new ActiveBusDTO(
+                location.getBusId(),
+                busInfo,
+                routeInfo,
+                locationInfo,
+                nextStopInfo,
+                lastStopInfo,
+                status,
+                null, // estimatedArrival not computed
+                null, // passengerCount not tracked
+                busLocationIndex.getUpdatedAt(location.getTrackerImei()),
+                location.getSpeedKmh(),
+                location.getHeadingDegrees(),
+                location.getHeadingCardinal(),
+                location.getBusCompany(),
+                location.getTripDirection()
+        );
+    }
+
+    private static ActiveBusDTO.StopInfo toStopInfo(RouteStop stop) {
+        return new ActiveBusDTO.StopInfo(
+                String.valueOf(stop.getId()),
+                stop.getAddress(),
+                stop.getLatitude(),
+                stop.getLongitude(),
+                stop.getBusStopIndex()
+        );
+    }
+}
@@ -0,0 +1,84 @@
+package com.backend.onebus.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A broadcast body serialized to JSON once and shared by every destination it is sent to.
+ *
+ * {@link #message()} is immutable, so SimpMessagingTemplate copies only its headers per
+ * destination and every frame reuses the same byte[]. Per-subscriber route distance is spliced
+ * onto the serialized object as extra fields (a byte copy, no Jackson), giving the same JSON the
+ * subscriber would get from serializing the full map.
+ *
+ * Messages about a bus carry its id in {@link SubscriberOutbox#BUS_ID_HEADER} so per-session
+ * delivery can conflate them.
+ */
+final class BroadcastPayload {
+
+    private final byte[] json;
+    private final String busId;
+    private final Message<byte[]> message;
+
+    private BroadcastPayload(byte[] json, String busId) {
+        this.json = json;
+        this.busId = busId;
+        this.message = jsonMessage(json, busId);
+    }
+
+    /**
+     * Serialize a JSON object body (a map or bean, not an array or scalar) describing the bus
+     * {@code busId}.
+     */
+    static BroadcastPayload of(ObjectMapper objectMapper, Object body, String busId) throws JsonProcessingException {
+        byte[] json = objectMapper.writeValueAsBytes(body);
+        if (json.length < 2 || json[0] != '{' || json[json.length - 1] != '}') {
+            throw new IllegalArgumentException("Broadcast payload must serialize to a JSON object");
+        }
+        return new BroadcastPayload(json, busId);
+    }
+
+    Message<byte[]> message() {
+        return message;
+    }
+
+    /**
+     * This payload with distanceMeters, distanceKm and estimatedTimeMinutes added, or the shared
+     * message itself when there is no distance.
+     */
+    Message<byte[]> withRouteDistance(RouteGeometryService.RouteDistanceResult distance) {
+        if (distance == null) return message;
+        String fields = "\"distanceMeters\":" + number(distance.distanceMeters)
+            + ",\"distanceKm\":" + number(distance.distanceKm)
+            + ",\"estimatedTimeMinutes\":" + number(distance.estimatedTimeMinutes) + "}";
+        byte[] suffix = fields.getBytes(StandardCharsets.US_ASCII);
+        boolean emptyObject = json.length == 2;
+        // Drop the closing brace, add a separator unless the object is empty, then the fields
+        byte[] spliced = Arrays.copyOf(json, json.length - 1 + (emptyObject ? 0 : 1) + suffix.length);
+        int offset = json.length - 1;
+        if (!emptyObject) {
+            spliced[offset++] = ',';
+        }
+        System.arraycopy(suffix, 0, spliced, offset, suffix.length);
+        return jsonMessage(spliced, busId);
+    }
+
+    // Same text Jackson writes for a double; non-finite values are written as strings, as Jackson does
+    private static String number(double value) {
+        return Double.isFinite(value) ? Double.toString(value) : "\"" + value + "\"";
+    }
+
+    private static Message<byte[]> jsonMessage(byte[] json, String busId) {
+        return MessageBuilder.withPayload(json)
+            .setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_JSON)
+            .setHeader(SubscriberOutbox.BUS_ID_HEADER, busId)
+            .build();
+    }
+}
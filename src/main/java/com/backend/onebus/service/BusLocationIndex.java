@@ -0,0 +1,506 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.BusLocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Secondary index over live bus locations.
+ *
+ * Locations are stored in Redis under bus:location:{imei}. Finding the buses on a route used to
+ * require KEYS bus:location:* plus one GET per key; this index keeps a Redis set of IMEIs per
+ * route (busNumber + direction) and a busId -> IMEI hash, mirrored in-process, so a lookup costs
+ * O(buses on that route) and at most one MGET round trip when the local mirror is cold.
+ */
+@Service
+public class BusLocationIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(BusLocationIndex.class);
+    private static final String BUS_LOCATION_KEY = "bus:location:";
+    private static final String ROUTE_INDEX_KEY_PREFIX = "bus:route:";
+    private static final String BUS_ID_INDEX_KEY = "bus:ids";
+    // Every route set ever written, so clear() can find them without KEYS
+    private static final String ROUTE_KEYS_KEY = "bus:routes";
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    // Buses silent for longer than this are left out of selection rosters (0 disables)
+    @Value("${app.tracking.reselection.stale-ms:120000}")
+    private long staleMs;
+
+    // Route set members whose stored location is older than this are trimmed (0 disables)
+    @Value("${app.tracking.index.member-ttl-ms:600000}")
+    private long memberTtlMs;
+
+    // In-process mirror: imei -> latest location
+    private final Map<String, BusLocation> locationsByImei = new ConcurrentHashMap<>();
+    // Canonical route key (busnumber_direction, lowercase) -> imeis currently on that route
+    private final Map<String, Set<String>> imeisByRoute = new ConcurrentHashMap<>();
+    // busId -> imei
+    private final Map<String, String> imeiByBusId = new ConcurrentHashMap<>();
+    // imei -> wall-clock time the location was last updated by the ingest path
+    private final Map<String, Long> updatedAtByImei = new ConcurrentHashMap<>();
+    // Canonical route key -> buses on that route ordered by stop index, for selection
+    private final Map<String, BusRoster> rostersByRoute = new ConcurrentHashMap<>();
+    // When this instance started mirroring; buses that last reported before then are only in Redis
+    private final long mirroredSince = System.currentTimeMillis();
+
+    /**
+     * Canonical key for a route bucket. Matches the case-insensitive comparisons used by selection.
+     */
+    public static String routeKey(String busNumber, String direction) {
+        return (busNumber + "_" + direction).toLowerCase();
+    }
+
+    /**
+     * Record the latest location for a tracker, moving it between route buckets if its
+     * bus number or direction changed, and mirror the membership into Redis.
+     */
+    public void update(BusLocation location) {
+        if (location.getTrackerImei() == null) return;
+        BusLocation previous = updateLocal(location);
+        try {
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    appendRedisWrites((RedisOperations<String, Object>) operations, previous, location);
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            logger.error("[INDEX] Failed to update Redis index for IMEI {}: {}", location.getTrackerImei(), e.getMessage());
+        }
+    }
+
+    /**
+     * Update only the in-process mirror. Returns the location previously held for the same tracker.
+     */
+    BusLocation updateLocal(BusLocation location) {
+        return updateLocal(location, System.currentTimeMillis());
+    }
+
+    private BusLocation updateLocal(BusLocation location, long updatedAt) {
+        String imei = location.getTrackerImei();
+        if (imei == null) return null;
+
+        BusLocation previous = locationsByImei.put(imei, location);
+        updatedAtByImei.put(imei, updatedAt);
+        String previousKey = routeKeyOf(previous);
+        String currentKey = routeKeyOf(location);
+
+        if (previousKey != null && !previousKey.equals(currentKey)) {
+            removeFromRoute(previousKey, imei);
+        }
+        if (currentKey != null) {
+            imeisByRoute.computeIfAbsent(currentKey, k -> ConcurrentHashMap.newKeySet()).add(imei);
+            rostersByRoute.computeIfAbsent(currentKey, k -> new BusRoster(this::isCurrent)).put(imei, location);
+        }
+        if (previous != null && previous.getBusId() != null && !previous.getBusId().equals(location.getBusId())) {
+            imeiByBusId.remove(previous.getBusId(), imei);
+        }
+        if (location.getBusId() != null) {
+            imeiByBusId.put(location.getBusId(), imei);
+        }
+        return previous;
+    }
+
+    /**
+     * Mirror a location read back from Redis, unless the tracker is mirrored already: the
+     * ingest path may have stored a newer fix since the Redis read, and a warm read must never
+     * replace it. Returns the location now mirrored for the tracker.
+     */
+    private BusLocation warmLocal(BusLocation location) {
+        String imei = location.getTrackerImei();
+        if (imei == null) return location;
+        BusLocation current = locationsByImei.putIfAbsent(imei, location);
+        if (current != null) return current;
+
+        updatedAtByImei.putIfAbsent(imei, storedUpdatedAt(location));
+        String routeKey = routeKeyOf(location);
+        if (routeKey != null) {
+            imeisByRoute.computeIfAbsent(routeKey, k -> ConcurrentHashMap.newKeySet()).add(imei);
+            BusRoster roster = rostersByRoute.computeIfAbsent(routeKey, k -> new BusRoster(this::isCurrent));
+            // Skip the roster if an update raced in: it indexed its own, newer fix
+            if (locationsByImei.get(imei) == location) {
+                roster.put(imei, location);
+            }
+        }
+        if (location.getBusId() != null) {
+            imeiByBusId.putIfAbsent(location.getBusId(), imei);
+        }
+        return locationsByImei.getOrDefault(imei, location);
+    }
+
+    /**
+     * Queue the Redis side of an index update onto an existing (pipelined) connection.
+     */
+    void appendRedisWrites(RedisOperations<String, Object> operations, BusLocation previous, BusLocation current) {
+        String imei = current.getTrackerImei();
+        String previousKey = routeKeyOf(previous);
+        String currentKey = routeKeyOf(current);
+        if (previousKey != null && !previousKey.equals(currentKey)) {
+            operations.opsForSet().remove(ROUTE_INDEX_KEY_PREFIX + previousKey, imei);
+        }
+        if (currentKey != null) {
+            operations.opsForSet().add(ROUTE_INDEX_KEY_PREFIX + currentKey, imei);
+            operations.opsForSet().add(ROUTE_KEYS_KEY, currentKey);
+        }
+        if (current.getBusId() != null) {
+            operations.opsForHash().put(BUS_ID_INDEX_KEY, current.getBusId(), imei);
+        }
+    }
+
+    /**
+     * Drop a tracker from the index (bus went offline, details changed, etc).
+     */
+    public void remove(String imei) {
+        if (imei == null) return;
+        BusLocation previous = removeLocal(imei);
+        String routeKey = routeKeyOf(previous);
+        try {
+            if (routeKey != null) {
+                redisTemplate.opsForSet().remove(ROUTE_INDEX_KEY_PREFIX + routeKey, imei);
+            }
+            if (previous != null && previous.getBusId() != null) {
+                redisTemplate.opsForHash().delete(BUS_ID_INDEX_KEY, previous.getBusId());
+            }
+        } catch (Exception e) {
+            logger.error("[INDEX] Failed to remove IMEI {} from Redis index: {}", imei, e.getMessage());
+        }
+    }
+
+    /**
+     * Drop a tracker from the in-process mirror only. Returns the location it held.
+     */
+    BusLocation removeLocal(String imei) {
+        if (imei == null) return null;
+        BusLocation previous = locationsByImei.remove(imei);
+        updatedAtByImei.remove(imei);
+        String routeKey = routeKeyOf(previous);
+        if (routeKey != null) {
+            removeFromRoute(routeKey, imei);
+        }
+        if (previous != null && previous.getBusId() != null) {
+            imeiByBusId.remove(previous.getBusId(), imei);
+        }
+        return previous;
+    }
+
+    /**
+     * Clear the whole index, both locally and in Redis.
+     */
+    public void clear() {
+        locationsByImei.clear();
+        updatedAtByImei.clear();
+        imeisByRoute.clear();
+        imeiByBusId.clear();
+        rostersByRoute.clear();
+        Set<Object> routeKeys = redisTemplate.opsForSet().members(ROUTE_KEYS_KEY);
+        List<String> keys = new ArrayList<>();
+        if (routeKeys != null) {
+            for (Object routeKey : routeKeys) {
+                keys.add(ROUTE_INDEX_KEY_PREFIX + routeKey);
+            }
+        }
+        keys.add(ROUTE_KEYS_KEY);
+        keys.add(BUS_ID_INDEX_KEY);
+        redisTemplate.delete(keys);
+    }
+
+    /**
+     * Trim route sets: a tracker stays in its last route's set after it stops reporting, so
+     * cold reads would keep fetching dead buses until the nightly clear.
+     */
+    @Scheduled(fixedDelayString = "${app.tracking.index.sweep-ms:300000}")
+    public void trimRouteSets() {
+        trimRouteSets(System.currentTimeMillis());
+    }
+
+    /**
+     * Remove route set members whose stored location expired, moved to another route, or was
+     * last updated more than the member TTL ago. Members with no known update time are left to
+     * their location key's expiry. A trimmed bus that reports again is re-added by that update.
+     */
+    void trimRouteSets(long now) {
+        if (memberTtlMs <= 0) return;
+        try {
+            Set<Object> routeKeys = redisTemplate.opsForSet().members(ROUTE_KEYS_KEY);
+            if (routeKeys == null) return;
+            for (Object routeKey : routeKeys) {
+                String setKey = ROUTE_INDEX_KEY_PREFIX + routeKey;
+                Set<Object> members = redisTemplate.opsForSet().members(setKey);
+                if (members == null || members.isEmpty()) continue;
+
+                List<Object> imeis = new ArrayList<>(members);
+                List<String> keys = new ArrayList<>(imeis.size());
+                for (Object imei : imeis) {
+                    keys.add(BUS_LOCATION_KEY + imei);
+                }
+                List<Object> values = redisTemplate.opsForValue().multiGet(keys);
+                if (values == null) continue;
+                List<Object> expired = new ArrayList<>();
+                for (int i = 0; i < imeis.size(); i++) {
+                    Object value = values.get(i);
+                    if (!(value instanceof BusLocation location) || !routeKey.equals(routeKeyOf(location))) {
+                        expired.add(imeis.get(i));
+                        continue;
+                    }
+                    long updatedAt = storedUpdatedAt(location);
+                    if (updatedAt > 0 && now - updatedAt > memberTtlMs) {
+                        expired.add(imeis.get(i));
+                    }
+                }
+                if (!expired.isEmpty()) {
+                    redisTemplate.opsForSet().remove(setKey, expired.toArray());
+                    logger.debug("[INDEX] Trimmed {} members from {}", expired.size(), setKey);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("[INDEX] Failed to trim route sets: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Live buses on a route in a direction ordered by stop index, warmed from Redis when the local
+     * mirror has none.
+     */
+    public BusRoster getRoster(String busNumber, String direction) {
+        if (busNumber == null || direction == null) return BusRoster.empty();
+        String routeKey = routeKey(busNumber, direction);
+        BusRoster roster = rostersByRoute.get(routeKey);
+        if (roster == null || roster.isEmpty()) {
+            getLocationsForRoute(busNumber, direction);
+            roster = rostersByRoute.get(routeKey);
+        }
+        return roster != null ? roster : BusRoster.empty();
+    }
+
+    /**
+     * All live locations on a route in a direction.
+     */
+    public List<BusLocation> getLocationsForRoute(String busNumber, String direction) {
+        List<BusLocation> result = new ArrayList<>();
+        if (busNumber == null || direction == null) return result;
+
+        String routeKey = routeKey(busNumber, direction);
+        Set<String> imeis = imeisByRoute.get(routeKey);
+        if (imeis != null && !imeis.isEmpty()) {
+            for (String imei : imeis) {
+                BusLocation location = locationsByImei.get(imei);
+                if (matches(location, busNumber, direction)) {
+                    result.add(location);
+                } else {
+                    // Stale membership left behind by a concurrent direction change
+                    imeis.remove(imei);
+                }
+            }
+            return result;
+        }
+
+        // Local mirror is cold (e.g. after a restart) - one SMEMBERS + one MGET against Redis
+        try {
+            Set<Object> members = redisTemplate.opsForSet().members(ROUTE_INDEX_KEY_PREFIX + routeKey);
+            if (members == null || members.isEmpty()) return result;
+
+            List<String> keys = new ArrayList<>(members.size());
+            for (Object member : members) {
+                keys.add(BUS_LOCATION_KEY + member);
+            }
+            List<Object> values = redisTemplate.opsForValue().multiGet(keys);
+            if (values == null) return result;
+            for (Object value : values) {
+                if (value instanceof BusLocation location && matches(location, busNumber, direction)) {
+                    BusLocation mirrored = warmLocal(location);
+                    if (matches(mirrored, busNumber, direction)) {
+                        result.add(mirrored);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.error("[INDEX] Error reading route index for {} {}: {}", busNumber, direction, e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Latest location for a bus by its busId (locations are keyed by IMEI in Redis).
+     */
+    public BusLocation getByBusId(String busId) {
+        if (busId == null) return null;
+        String imei = imeiByBusId.get(busId);
+        if (imei == null) {
+            try {
+                Object stored = redisTemplate.opsForHash().get(BUS_ID_INDEX_KEY, busId);
+                imei = stored != null ? stored.toString() : null;
+            } catch (Exception e) {
+                logger.error("[INDEX] Error reading busId index for {}: {}", busId, e.getMessage());
+            }
+        }
+        if (imei == null) return null;
+        BusLocation location = getByImei(imei);
+        return location != null && busId.equals(location.getBusId()) ? location : null;
+    }
+
+    /**
+     * Latest location for a tracker IMEI, falling back to Redis when not mirrored locally.
+     */
+    public BusLocation getByImei(String imei) {
+        if (imei == null) return null;
+        BusLocation location = locationsByImei.get(imei);
+        if (location != null) return location;
+        try {
+            Object stored = redisTemplate.opsForValue().get(BUS_LOCATION_KEY + imei);
+            if (stored instanceof BusLocation redisLocation) {
+                return warmLocal(redisLocation);
+            }
+        } catch (Exception e) {
+            logger.error("[INDEX] Error reading location for IMEI {}: {}", imei, e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * All locations held in the local mirror.
+     */
+    public Collection<BusLocation> getAll() {
+        return new ArrayList<>(locationsByImei.values());
+    }
+
+    /**
+     * Locations updated at or after the given wall-clock time. Locations warmed from Redis
+     * rather than received by this instance count as updated at their fix time. While the
+     * mirror does not yet cover the whole window (e.g. after a restart), buses missing from it
+     * are warmed from the Redis busId index first.
+     */
+    public List<BusLocation> getUpdatedSince(long sinceMillis) {
+        if (sinceMillis < mirroredSince) {
+            warmAllFromRedis();
+        }
+        List<BusLocation> result = new ArrayList<>();
+        for (Map.Entry<String, BusLocation> entry : locationsByImei.entrySet()) {
+            Long updatedAt = updatedAtByImei.get(entry.getKey());
+            if (updatedAt != null && updatedAt >= sinceMillis) {
+                result.add(entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Mirror every bus in the Redis busId index that is not mirrored yet: one HVALS + one MGET.
+     */
+    private void warmAllFromRedis() {
+        try {
+            List<Object> imeis = redisTemplate.opsForHash().values(BUS_ID_INDEX_KEY);
+            if (imeis == null || imeis.isEmpty()) return;
+
+            List<String> keys = new ArrayList<>();
+            for (Object imei : imeis) {
+                if (!locationsByImei.containsKey(imei.toString())) {
+                    keys.add(BUS_LOCATION_KEY + imei);
+                }
+            }
+            if (keys.isEmpty()) return;
+            List<Object> values = redisTemplate.opsForValue().multiGet(keys);
+            if (values == null) return;
+            for (Object value : values) {
+                if (value instanceof BusLocation location) {
+                    warmLocal(location);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("[INDEX] Error warming the mirror from the busId index: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Wall-clock time a tracker's location was last updated, or 0 if unknown.
+     */
+    public long getUpdatedAt(String imei) {
+        Long updatedAt = imei != null ? updatedAtByImei.get(imei) : null;
+        return updatedAt != null ? updatedAt : 0L;
+    }
+
+    private void removeFromRoute(String routeKey, String imei) {
+        imeisByRoute.computeIfPresent(routeKey, (k, imeis) -> {
+            imeis.remove(imei);
+            return imeis.isEmpty() ? null : imeis;
+        });
+        BusRoster roster = rostersByRoute.get(routeKey);
+        if (roster != null) {
+            roster.remove(imei);
+        }
+    }
+
+    private boolean isCurrent(String imei, BusLocation location) {
+        return locationsByImei.get(imei) == location && !isStale(imei, System.currentTimeMillis());
+    }
+
+    /**
+     * Whether a tracker has not been updated for the stale interval. Locations with no known
+     * update time (warmed from Redis without a usable timestamp) count as stale until a new fix.
+     */
+    public boolean isStale(String imei, long now) {
+        if (staleMs <= 0) return false;
+        long updatedAt = getUpdatedAt(imei);
+        return updatedAt <= 0 || now - updatedAt > staleMs;
+    }
+
+    /**
+     * Update time for a location read back from Redis: the later of its fix timestamp and its
+     * last persisted time, or 0 if neither is known. Never the local clock, so a dead bus whose
+     * key has not expired yet does not look fresh after a restart or on another node.
+     */
+    private static long storedUpdatedAt(BusLocation location) {
+        return Math.max(fixTimeOrZero(location), location.getLastSavedTimestamp());
+    }
+
+    /**
+     * Whether a location's fix is older than the fix mirrored for the same tracker. Locations
+     * without a parseable timestamp are never considered older.
+     */
+    public boolean isOlderThanCurrent(BusLocation location) {
+        BusLocation current = location.getTrackerImei() != null ? locationsByImei.get(location.getTrackerImei()) : null;
+        if (current == null) return false;
+        long fixTime = fixTimeOrZero(location);
+        return fixTime > 0 && fixTime < fixTimeOrZero(current);
+    }
+
+    private static long fixTimeOrZero(BusLocation location) {
+        try {
+            return BusTrackingService.parseTimestampToMillis(location.getTimestamp());
+        } catch (IllegalArgumentException e) {
+            return 0L;
+        }
+    }
+
+    private static String routeKeyOf(BusLocation location) {
+        if (location == null || location.getBusNumber() == null || location.getTripDirection() == null) {
+            return null;
+        }
+        return routeKey(location.getBusNumber(), location.getTripDirection());
+    }
+
+    private static boolean matches(BusLocation location, String busNumber, String direction) {
+        return location != null &&
+            busNumber.equalsIgnoreCase(location.getBusNumber()) &&
+            direction.equalsIgnoreCase(location.getTripDirection());
+    }
+}
@@ -1,52 +1,194 @@
 package com.backend.onebus.service;
 
 import com.backend.onebus.model.BusLocation;
-import com.backend.onebus.repository.BusLocationRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Write-behind persistence of bus location history.
+ *
+ * Fixes are placed in a bounded buffer and written by a single background thread as JDBC
+ * batch inserts (see {@link LocationHistoryService} for the table layout), flushed every
+ * {@code flush-interval-ms} or as soon as {@code batch-size} rows are waiting. When the buffer
+ * is full the oldest row is dropped so the live pipeline never blocks on the database. Fixes
+ * can be downsampled to one row per bus per {@code min-interval-ms}, unless the bus reached a
+ * new stop or changed direction.
+ */
 @Service
 public class BusPersistenceService {
-    
+
     private static final Logger logger = LoggerFactory.getLogger(BusPersistenceService.class);
-    
+
     @Autowired
-    private BusLocationRepository busLocationRepository;
+    private LocationHistoryService locationHistoryService;
+
+    @Autowired
+    private MetricsService metricsService;
 
     @Value("${app.tracking.persistence.enabled:true}")
     private boolean persistenceEnabled;
 
+    @Value("${app.tracking.persistence.buffer-capacity:50000}")
+    private int bufferCapacity;
+
+    @Value("${app.tracking.persistence.batch-size:500}")
+    private int batchSize;
+
+    @Value("${app.tracking.persistence.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    @Value("${app.tracking.persistence.min-interval-ms:10000}")
+    private long minIntervalMs;
+
+    private BlockingQueue<BusLocation> buffer;
+    // trackerImei -> last fix accepted for persistence (downsampling)
+    private final Map<String, PersistedSample> lastPersisted = new ConcurrentHashMap<>();
+    private Thread writer;
+    private volatile boolean running;
+
     @jakarta.annotation.PostConstruct
     public void init() {
         logger.info("[PERSISTENCE-CONFIG] Tracking persistence is {}", persistenceEnabled ? "ENABLED" : "DISABLED");
+        if (!persistenceEnabled) {
+            return;
+        }
+        buffer = new ArrayBlockingQueue<>(bufferCapacity);
+        running = true;
+        writer = new Thread(this::run, "bus-location-writer");
+        writer.setDaemon(true);
+        writer.start();
+        logger.info("[PERSISTENCE-CONFIG] Buffer capacity {}, batch size {}, flush interval {}ms, min interval per bus {}ms",
+            bufferCapacity, batchSize, flushIntervalMs, minIntervalMs);
+    }
+
+    @jakarta.annotation.PreDestroy
+    public void shutdown() {
+        if (writer == null) return;
+        running = false;
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Write whatever is still buffered
+        List<BusLocation> remaining = new ArrayList<>();
+        buffer.drainTo(remaining);
+        for (int from = 0; from < remaining.size(); from += batchSize) {
+            writeBatch(remaining.subList(from, Math.min(remaining.size(), from + batchSize)));
+        }
     }
-    
+
     /**
-     * Persist bus location to database asynchronously to avoid blocking the real-time pipeline.
+     * Queue a processed fix for persistence. Never blocks: if the buffer is full the oldest
+     * queued row is dropped.
      */
-    @Async
-    public void saveLocationAsync(BusLocation payload) {
+    public void enqueueLocation(BusLocation payload) {
         if (!persistenceEnabled) {
             return;
         }
+        long fixTime = BusTrackingService.fixTimeMillis(payload);
+        if (!shouldPersist(payload, fixTime)) {
+            metricsService.recordPersistenceRowsDownsampled(1);
+            return;
+        }
+        // Always stamp the payload before saving
+        payload.setLastSavedTimestamp(Instant.now().toEpochMilli());
+        while (!buffer.offer(payload)) {
+            if (buffer.poll() != null) {
+                metricsService.recordPersistenceRowsDropped(1);
+            }
+        }
+    }
+
+    public int getQueueDepth() {
+        return buffer != null ? buffer.size() : 0;
+    }
+
+    /**
+     * Downsampling policy: keep a fix if the bus has no persisted fix yet, reached a different
+     * stop index or direction, or the last persisted fix is at least min-interval-ms older.
+     */
+    boolean shouldPersist(BusLocation payload, long fixTime) {
+        if (minIntervalMs <= 0 || payload.getTrackerImei() == null) {
+            return true;
+        }
+        PersistedSample last = lastPersisted.get(payload.getTrackerImei());
+        boolean keep = last == null ||
+            !Objects.equals(last.busStopIndex, payload.getBusStopIndex()) ||
+            !Objects.equals(last.tripDirection, payload.getTripDirection()) ||
+            Math.abs(fixTime - last.fixTime) >= minIntervalMs;
+        if (keep) {
+            lastPersisted.put(payload.getTrackerImei(),
+                new PersistedSample(fixTime, payload.getBusStopIndex(), payload.getTripDirection()));
+        }
+        return keep;
+    }
+
+    private void run() {
+        List<BusLocation> batch = new ArrayList<>(batchSize);
+        long deadline = System.currentTimeMillis() + flushIntervalMs;
+        while (running) {
+            try {
+                long wait = deadline - System.currentTimeMillis();
+                BusLocation next = wait > 0 ? buffer.poll(wait, TimeUnit.MILLISECONDS) : null;
+                if (next != null) {
+                    batch.add(next);
+                    buffer.drainTo(batch, batchSize - batch.size());
+                }
+                if (batch.size() >= batchSize || System.currentTimeMillis() >= deadline) {
+                    if (!batch.isEmpty()) {
+                        writeBatch(batch);
+                        batch.clear();
+                    }
+                    metricsService.recordGauge("persistence_queue_depth", buffer.size());
+                    deadline = System.currentTimeMillis() + flushIntervalMs;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeBatch(batch);
+        }
+    }
+
+    private void writeBatch(List<BusLocation> batch) {
         long dbStart = System.currentTimeMillis();
         try {
-            // Always stamp the payload before saving
-            payload.setLastSavedTimestamp(Instant.now().toEpochMilli());
-            
-            busLocationRepository.save(payload);
-            long dbEnd = System.currentTimeMillis();
-            logger.debug("[ASYNC-DB] [IMEI:{}] Saved to DB in {}ms", 
-                payload.getTrackerImei(), (dbEnd - dbStart));
+            locationHistoryService.insertBatch(batch);
+            long flushTime = System.currentTimeMillis() - dbStart;
+            metricsService.recordPersistenceFlush(batch.size(), flushTime);
+            logger.debug("[ASYNC-DB] Wrote {} locations in {}ms", batch.size(), flushTime);
         } catch (Exception e) {
-            logger.error("[ASYNC-DB] Error saving position for bus {}: {}", 
-                payload.getBusId(), e.getMessage());
+            metricsService.recordPersistenceRowsDropped(batch.size());
+            logger.error("[ASYNC-DB] Error writing batch of {} locations: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    private static final class PersistedSample {
+        private final long fixTime;
+        private final Integer busStopIndex;
+        private final String tripDirection;
+
+        PersistedSample(long fixTime, Integer busStopIndex, String tripDirection) {
+            this.fixTime = fixTime;
+            this.busStopIndex = busStopIndex;
+            this.tripDirection = tripDirection;
         }
     }
 }
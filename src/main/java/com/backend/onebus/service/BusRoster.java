@@ -0,0 +1,137 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.BusLocation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiPredicate;
+
+/**
+ * Live buses on one route and direction, ordered by bus stop index.
+ *
+ * Kept up to date by {@link BusLocationIndex} on every fix (O(log n) per move), so selection is a
+ * floor / ceiling lookup instead of filtering and sorting every live bus. Buses without a stop
+ * index are not listed. Reads never block; an entry superseded by a concurrent update is skipped.
+ */
+public final class BusRoster {
+
+    private static final BusRoster EMPTY = new BusRoster((key, location) -> true);
+
+    // stop index -> (key -> location) of the buses at that stop
+    private final ConcurrentSkipListMap<Integer, Map<String, BusLocation>> byStopIndex = new ConcurrentSkipListMap<>();
+    // Guarded by this: key -> stop index it is listed under
+    private final Map<String, Integer> stopIndexByKey = new HashMap<>();
+    private final BiPredicate<String, BusLocation> isCurrent;
+
+    BusRoster(BiPredicate<String, BusLocation> isCurrent) {
+        this.isCurrent = isCurrent;
+    }
+
+    public static BusRoster empty() {
+        return EMPTY;
+    }
+
+    /**
+     * A standalone roster of the given buses, keyed by busId.
+     */
+    public static BusRoster of(Collection<BusLocation> buses) {
+        BusRoster roster = new BusRoster((key, location) -> true);
+        for (BusLocation bus : buses) {
+            roster.put(bus.getBusId(), bus);
+        }
+        return roster;
+    }
+
+    /**
+     * List or move a bus, or drop it when it has no stop index.
+     */
+    synchronized void put(String key, BusLocation location) {
+        Integer stopIndex = location.getBusStopIndex();
+        Integer previous = stopIndex != null ? stopIndexByKey.put(key, stopIndex) : stopIndexByKey.remove(key);
+        if (previous != null && !previous.equals(stopIndex)) {
+            unlist(previous, key);
+        }
+        if (stopIndex != null) {
+            byStopIndex.computeIfAbsent(stopIndex, index -> new ConcurrentHashMap<>()).put(key, location);
+        }
+    }
+
+    synchronized void remove(String key) {
+        Integer previous = stopIndexByKey.remove(key);
+        if (previous != null) {
+            unlist(previous, key);
+        }
+    }
+
+    private void unlist(int stopIndex, String key) {
+        byStopIndex.computeIfPresent(stopIndex, (index, buses) -> {
+            buses.remove(key);
+            return buses.isEmpty() ? null : buses;
+        });
+    }
+
+    public boolean isEmpty() {
+        for (Map<String, BusLocation> buses : byStopIndex.values()) {
+            if (firstCurrent(buses) != null) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The bus with the highest stop index at or below {@code stopIndex}: the closest bus
+     * approaching (or at) that stop.
+     */
+    public BusLocation closestAtOrBehind(int stopIndex) {
+        return firstCurrent(byStopIndex.headMap(stopIndex, true).descendingMap());
+    }
+
+    /**
+     * The bus whose stop index is closest to {@code stopIndex} on either side, ignoring buses
+     * below {@code minStopIndex}. On a tie the bus behind the stop wins.
+     */
+    public BusLocation closest(int stopIndex, int minStopIndex) {
+        BusLocation behind = stopIndex >= minStopIndex
+            ? firstCurrent(byStopIndex.subMap(minStopIndex, true, stopIndex, true).descendingMap())
+            : null;
+        BusLocation ahead = firstCurrent(byStopIndex.tailMap(Math.max(stopIndex + 1, minStopIndex), true));
+        if (behind == null) return ahead;
+        if (ahead == null) return behind;
+        int behindDistance = stopIndex - behind.getBusStopIndex();
+        int aheadDistance = ahead.getBusStopIndex() - stopIndex;
+        return aheadDistance < behindDistance ? ahead : behind;
+    }
+
+    /**
+     * All listed buses, lowest stop index first.
+     */
+    public List<BusLocation> toList() {
+        List<BusLocation> result = new ArrayList<>();
+        for (Map<String, BusLocation> buses : byStopIndex.values()) {
+            buses.forEach((key, location) -> {
+                if (isCurrent.test(key, location)) result.add(location);
+            });
+        }
+        return result;
+    }
+
+    private BusLocation firstCurrent(NavigableMap<Integer, Map<String, BusLocation>> stops) {
+        for (Map<String, BusLocation> buses : stops.values()) {
+            BusLocation location = firstCurrent(buses);
+            if (location != null) return location;
+        }
+        return null;
+    }
+
+    private BusLocation firstCurrent(Map<String, BusLocation> buses) {
+        for (Map.Entry<String, BusLocation> entry : buses.entrySet()) {
+            if (isCurrent.test(entry.getKey(), entry.getValue())) return entry.getValue();
+        }
+        return null;
+    }
+}
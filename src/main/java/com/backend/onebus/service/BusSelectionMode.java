@@ -0,0 +1,26 @@
+package com.backend.onebus.service;
+
+/**
+ * How smart bus selection ranks the buses approaching a client.
+ */
+public enum BusSelectionMode {
+    /** Closest by stop index difference (the original rule) */
+    STOP_INDEX,
+    /** Least distance along the route between the bus and the client */
+    DISTANCE,
+    /** Earliest arrival: distance along the route at the bus's current speed */
+    ETA;
+
+    /**
+     * Parse a configured mode ({@code stop-index}, {@code distance}, {@code eta}, any case),
+     * returning {@code fallback} when it is blank or unknown.
+     */
+    public static BusSelectionMode parse(String value, BusSelectionMode fallback) {
+        if (value == null || value.isBlank()) return fallback;
+        try {
+            return valueOf(value.trim().replace('-', '_').toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+}
@@ -4,7 +4,6 @@ import com.backend.onebus.model.BusLocation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
@@ -14,11 +13,10 @@ import java.util.stream.Collectors;
 public class BusSelectionService {
     
     private static final Logger logger = LoggerFactory.getLogger(BusSelectionService.class);
-    private static final String BUS_LOCATION_KEY = "bus:location:";
     private static final int MAX_INDEX_DIFFERENCE = 3; // Disregard buses with index > clientIndex + 3
     
     @Autowired
-    private RedisTemplate<String, Object> redisTemplate;
+    private BusLocationIndex busLocationIndex;
     
     /**
      * Select the best bus for a client based on their location and bus stop index, following the updated rules:
@@ -33,131 +31,64 @@ public class BusSelectionService {
         logger.info("Selecting best bus for client at index {} on route {} {}", 
                    clientBusStopIndex, busNumber, direction);
 
-        // 1. Get all active buses for this route in the requested direction
-        List<BusLocation> busesRequestedDir = getActiveBusesForRoute(busNumber, direction);
-        // 2. Get all active buses for this route in the opposite direction
-        String oppositeDirection = direction.equalsIgnoreCase("Northbound") ? "Southbound" : "Northbound";
-        List<BusLocation> busesOppositeDir = getActiveBusesForRoute(busNumber, oppositeDirection);
+        // 1. Live buses for this route in the requested direction, ordered by stop index
+        BusRoster requested = getRoster(busNumber, direction);
 
-        // 3. Filter buses in requested direction: BEHIND or AT client (approaching)
-        List<BusLocation> suitableRequested = busesRequestedDir.stream()
-            .filter(bus -> bus.getBusStopIndex() != null && bus.getBusStopIndex() <= clientBusStopIndex)
-            .collect(Collectors.toList());
-
-        if (!suitableRequested.isEmpty()) {
-            // 4. Return the closest bus in requested direction
-            BusLocation best = findClosestIndexBus(suitableRequested, clientBusStopIndex);
+        // 2. Closest bus BEHIND or AT client (approaching): a floor lookup
+        BusLocation best = requested.closestAtOrBehind(clientBusStopIndex);
+        if (best != null) {
             logger.info("Selected bus {} (index: {}) in requested direction {} for client at index {} (Approaching)", 
                 best.getBusId(), best.getBusStopIndex(), direction, clientBusStopIndex);
             return best.getBusId();
         }
 
-        // 5. If no suitable bus in requested direction, try opposite direction
+        // 3. If no suitable bus in requested direction, try opposite direction
         // BUT ONLY IF there are NO buses in the requested direction at all.
-        // If there ARE buses in the requested direction, but they have passed the user (filtered out),
+        // If there ARE buses in the requested direction, but they have passed the user,
         // we should NOT fallback to the opposite direction.
-        if (busesRequestedDir.isEmpty() && !busesOppositeDir.isEmpty()) {
+        if (requested.isEmpty()) {
+            String oppositeDirection = oppositeDirection(direction);
             // Never suggest a bus with a negative index
-            List<BusLocation> suitableOpposite = busesOppositeDir.stream()
-                .filter(bus -> bus.getBusStopIndex() != null && bus.getBusStopIndex() >= 0)
-                .collect(Collectors.toList());
-            if (!suitableOpposite.isEmpty()) {
-                BusLocation bestOpp = findClosestIndexBus(suitableOpposite, clientBusStopIndex);
+            BusLocation bestOpp = getRoster(busNumber, oppositeDirection).closest(clientBusStopIndex, 0);
+            if (bestOpp != null) {
                 logger.info("Selected bus {} (index: {}) in opposite direction {} for client at index {}", 
                     bestOpp.getBusId(), bestOpp.getBusStopIndex(), oppositeDirection, clientBusStopIndex);
                 return bestOpp.getBusId();
             }
-        }
-        
-        // Log explicitly if we are not falling back because buses exist but passed
-        if (!busesRequestedDir.isEmpty() && suitableRequested.isEmpty()) {
+        } else {
+            // Log explicitly if we are not falling back because buses exist but passed
             logger.info("Buses exist in requested direction {} but have all passed client at index {}. Not falling back to opposite.", 
                 direction, clientBusStopIndex);
         }
 
-        // 6. No buses available in either direction
+        // 4. No buses available in either direction
         logger.warn("No suitable buses available for route {}.", busNumber);
         return null;
     }
     
+    private static String oppositeDirection(String direction) {
+        return direction.equalsIgnoreCase("Northbound") ? "Southbound" : "Northbound";
+    }
+    
     /**
-     * Get all active buses for a specific route and direction
+     * Live buses for a route and direction ordered by stop index
      */
-    private List<BusLocation> getActiveBusesForRoute(String busNumber, String direction) {
-        List<BusLocation> activeBuses = new ArrayList<>();
-        
+    private BusRoster getRoster(String busNumber, String direction) {
         try {
-            Set<String> keys = redisTemplate.keys(BUS_LOCATION_KEY + "*");
-            
-            if (keys != null) {
-                for (String key : keys) {
-                    BusLocation location = (BusLocation) redisTemplate.opsForValue().get(key);
-                    
-                    if (location != null && 
-                        busNumber.equalsIgnoreCase(location.getBusNumber()) && 
-                        direction.equalsIgnoreCase(location.getTripDirection()) &&
-                        location.getBusStopIndex() != null) {
-                        activeBuses.add(location);
-                    }
-                }
-            }
+            BusRoster roster = busLocationIndex.getRoster(busNumber, direction);
+            return roster != null ? roster : BusRoster.empty();
         } catch (Exception e) {
-            logger.error("Error getting active buses for route {} {}: {}", busNumber, direction, e.getMessage());
+            logger.error("Error getting bus roster for route {} {}: {}", busNumber, direction, e.getMessage());
+            return BusRoster.empty();
         }
-        
-        return activeBuses;
-    }
-    
-    /**
-     * Filter buses to only include those suitable for the client
-     * - Only include buses that are BEHIND or AT the client's position (Approaching)
-     * - Disregard buses that are too far behind (optional, depends on MAX_INDEX_DIFFERENCE usage)
-     */
-    private List<BusLocation> filterSuitableBuses(List<BusLocation> activeBuses, int clientBusStopIndex) {
-        return activeBuses.stream()
-                .filter(bus -> {
-                    Integer busIndex = bus.getBusStopIndex();
-                    if (busIndex == null) return false;
-                    
-                    // Only consider buses that are BEHIND or AT the client (Approaching)
-                    if (busIndex > clientBusStopIndex) return false;
-                    
-                    // Disregard buses that are too far away? (Optional, kept logic consistent with direction fix)
-                    // if (busIndex < clientBusStopIndex - MAX_INDEX_DIFFERENCE) return false;
-                    
-                    return true;
-                })
-                .collect(Collectors.toList());
-    }
-    
-    /**
-     * Find the bus with the closest index to the client's index
-     * Prefer buses that are closest to the client's position
-     */
-    private BusLocation findClosestIndexBus(List<BusLocation> suitableBuses, int clientBusStopIndex) {
-        if (suitableBuses.isEmpty()) return null;
-        
-        // Sort by index difference (closest first)
-        suitableBuses.sort((bus1, bus2) -> {
-            int diff1 = Math.abs(bus1.getBusStopIndex() - clientBusStopIndex);
-            int diff2 = Math.abs(bus2.getBusStopIndex() - clientBusStopIndex);
-            return Integer.compare(diff1, diff2);
-        });
-        
-        BusLocation bestBus = suitableBuses.get(0);
-        logger.debug("Closest bus: {} (index: {}, difference: {})", 
-                    bestBus.getBusId(), bestBus.getBusStopIndex(), 
-                    Math.abs(bestBus.getBusStopIndex() - clientBusStopIndex));
-        
-        return bestBus;
     }
     
     /**
      * Get all available buses for a route and direction with their indices
-     * Useful for debugging and monitoring
+     * (the selection candidates, lowest stop index first). Useful for debugging and monitoring
      */
     public List<Map<String, Object>> getAvailableBusesForRoute(String busNumber, String direction) {
-        List<BusLocation> activeBuses = getActiveBusesForRoute(busNumber, direction);
+        List<BusLocation> activeBuses = getRoster(busNumber, direction).toList();
         
         return activeBuses.stream()
                 .map(bus -> {
@@ -181,7 +112,7 @@ public class BusSelectionService {
      */
     public boolean isBusStillSuitable(String busId, int clientBusStopIndex) {
         try {
-            BusLocation busLocation = (BusLocation) redisTemplate.opsForValue().get(BUS_LOCATION_KEY + busId);
+            BusLocation busLocation = busLocationIndex.getByBusId(busId);
             if (busLocation == null || busLocation.getBusStopIndex() == null) {
                 return false;
             }
@@ -1,28 +1,41 @@
 package com.backend.onebus.service;
 
+import com.backend.onebus.event.RouteTopologyChangedEvent;
 import com.backend.onebus.model.BusLocation;
+import com.backend.onebus.model.Route;
 import com.backend.onebus.service.MetricsService;
+import com.backend.onebus.service.routing.BusCompanyRoutingStrategy;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class BusStreamingService {
     
     private static final Logger logger = LoggerFactory.getLogger(BusStreamingService.class);
-    private static final String BUS_LOCATION_KEY = "bus:location:";
+    
+    // Heartbeat wheel resolution: 64 slots of 500ms cover 32s per revolution
+    private static final long HEARTBEAT_TICK_MS = 500;
+    private static final int HEARTBEAT_SLOTS = 64;
     
     @Autowired
-    private RedisTemplate<String, Object> redisTemplate;
+    private BusLocationIndex busLocationIndex;
     
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
@@ -33,9 +46,27 @@ public class BusStreamingService {
     @Autowired
     private RouteGeometryService routeGeometryService;
     
+    @Autowired
+    private MapMatchingService mapMatchingService;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Autowired
+    private SubscriberOutbox subscriberOutbox;
+    
     @Autowired
     private com.backend.onebus.repository.RouteRepository routeRepository;
     
+    @Autowired
+    private BusSelectionService busSelectionService;
+    
+    @Autowired
+    private SegmentTravelTimeService segmentTravelTimeService;
+    
+    @Value("${app.tracking.heartbeat.interval-ms:5000}")
+    private long heartbeatIntervalMs;
+    
     // Track active subscriptions: Map<busNumber_direction, Set<sessionId>>
     private final Map<String, Set<String>> activeSubscriptions = new ConcurrentHashMap<>();
     // Map canonical (lowercase) subscription key -> original subscriptionKey(s)
@@ -46,16 +77,31 @@ public class BusStreamingService {
     
     // Track client subscriptions for dynamic re-evaluation: Map<sessionId, ClientSubscription>
     private final Map<String, ClientSubscription> clientSubscriptions = new ConcurrentHashMap<>();
+    // Reverse index of clientSubscriptions by selected bus: Map<busId, Set<ClientSubscription>>
+    private final Map<String, Set<ClientSubscription>> subscriptionsByBus = new ConcurrentHashMap<>();
+    // Subscriptions whose re-selection found no bus, by lowercase bus number; re-run on the route's next fix
+    private final Map<String, Set<ClientSubscription>> waitingByBusNumber = new ConcurrentHashMap<>();
+    
+    // Keys each session joined, so disconnect cleanup only touches those:
+    // Map<sessionId, Set<busNumber_direction>> and Map<sessionId, Set<busId>>
+    private final Map<String, Set<String>> routeKeysBySession = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> busIdsBySession = new ConcurrentHashMap<>();
+    
+    // Last location sent on each route key (busId@timestamp), so heartbeats skip unchanged keys
+    private final Map<String, String> lastSentLocations = new ConcurrentHashMap<>();
+    // Next heartbeat per route key, pushed back whenever the key gets a real-time update
+    private final TimerWheel<String> heartbeats = new TimerWheel<>(HEARTBEAT_TICK_MS, HEARTBEAT_SLOTS);
     
     /**
      * Subscribe a client to a specific bus and direction
      */
     public void subscribeToBus(String sessionId, String busNumber, String direction) {
         String subscriptionKey = busNumber + "_" + direction;
-        activeSubscriptions.computeIfAbsent(subscriptionKey, k -> ConcurrentHashMap.newKeySet()).add(sessionId);
-        // Also register the canonical key mapping
-        String canonical = (busNumber + "_" + direction).toLowerCase();
-        canonicalToOriginalKeys.computeIfAbsent(canonical, k -> ConcurrentHashMap.newKeySet()).add(subscriptionKey);
+        addSubscriber(activeSubscriptions, subscriptionKey, sessionId);
+        // Also register the canonical key mapping, after the key has a subscriber (see removeRouteSubscriber)
+        addSubscriber(canonicalToOriginalKeys, subscriptionKey.toLowerCase(), subscriptionKey);
+        addSubscriber(routeKeysBySession, sessionId, subscriptionKey);
+        heartbeats.schedule(subscriptionKey, System.currentTimeMillis() + heartbeatIntervalMs);
         
         // Record metrics
         metricsService.recordWebSocketConnection(sessionId, busNumber, direction);
@@ -79,20 +125,8 @@ public class BusStreamingService {
      */
     public void unsubscribeFromBus(String sessionId, String busNumber, String direction) {
         String subscriptionKey = busNumber + "_" + direction;
-        Set<String> subscribers = activeSubscriptions.get(subscriptionKey);
-        if (subscribers != null) {
-            subscribers.remove(sessionId);
-            if (subscribers.isEmpty()) {
-                activeSubscriptions.remove(subscriptionKey);
-                // Remove from canonical mapping as well
-                String canonical = subscriptionKey.toLowerCase();
-                Set<String> originals = canonicalToOriginalKeys.get(canonical);
-                if (originals != null) {
-                    originals.remove(subscriptionKey);
-                    if (originals.isEmpty()) canonicalToOriginalKeys.remove(canonical);
-                }
-            }
-        }
+        removeSubscriber(routeKeysBySession, sessionId, subscriptionKey);
+        removeRouteSubscriber(subscriptionKey, sessionId);
         logger.info("Client {} unsubscribed from bus {} direction {}", sessionId, busNumber, direction);
     }
     
@@ -100,7 +134,8 @@ public class BusStreamingService {
      * Subscribe a client to a specific bus by bus ID
      */
     public void subscribeToSpecificBus(String sessionId, String busId) {
-        specificBusSubscriptions.computeIfAbsent(busId, k -> ConcurrentHashMap.newKeySet()).add(sessionId);
+        addSubscriber(specificBusSubscriptions, busId, sessionId);
+        addSubscriber(busIdsBySession, sessionId, busId);
         logger.info("Client {} subscribed to specific bus {}", sessionId, busId);
         
         // Send current location immediately if available
@@ -115,14 +150,11 @@ public class BusStreamingService {
      * Unsubscribe a client from a specific bus by bus ID
      */
     public void unsubscribeFromSpecificBus(String sessionId, String busId) {
-        Set<String> subscribers = specificBusSubscriptions.get(busId);
-        if (subscribers != null) {
-            subscribers.remove(sessionId);
-            if (subscribers.isEmpty()) {
-                specificBusSubscriptions.remove(busId);
-            }
-        }
-        clientSubscriptions.remove(sessionId);
+        removeSubscriber(busIdsBySession, sessionId, busId);
+        removeSubscriber(specificBusSubscriptions, busId, sessionId);
+        ClientSubscription removed = clientSubscriptions.remove(sessionId);
+        unindexByBus(removed);
+        unindexWaiting(removed);
         logger.info("Client {} unsubscribed from specific bus {}", sessionId, busId);
     }
     
@@ -131,9 +163,72 @@ public class BusStreamingService {
      */
     public void storeClientSubscription(String sessionId, String busNumber, String direction, 
                                       double clientLat, double clientLon, int clientBusStopIndex, String busId) {
+        storeClientSubscription(sessionId, busNumber, direction, clientLat, clientLon, clientBusStopIndex, busId, null);
+    }
+    
+    /**
+     * Store client subscription details, re-running selection with {@code strategy} (or the
+     * default rules when null) whenever the selected bus stops being suitable. With no
+     * {@code busId} the client waits for the next fix on the route.
+     */
+    public void storeClientSubscription(String sessionId, String busNumber, String direction, 
+                                      double clientLat, double clientLon, int clientBusStopIndex, String busId,
+                                      BusCompanyRoutingStrategy strategy) {
         ClientSubscription subscription = new ClientSubscription(
-            sessionId, busNumber, direction, clientLat, clientLon, clientBusStopIndex, busId);
-        clientSubscriptions.put(sessionId, subscription);
+            sessionId, busNumber, direction, clientLat, clientLon, clientBusStopIndex, busId, strategy);
+        // The client's position is fixed for the subscription, so snap it once up front
+        resolveSubscriberSnap(subscription);
+        // Re-subscribing replaces the previous selection, possibly for another bus
+        ClientSubscription previous = clientSubscriptions.put(sessionId, subscription);
+        unindexByBus(previous);
+        unindexWaiting(previous);
+        if (busId != null) {
+            indexByBus(subscription);
+        } else {
+            indexWaiting(subscription);
+        }
+    }
+    
+    private void indexByBus(ClientSubscription subscription) {
+        if (subscription.getBusId() == null) return;
+        subscriptionsByBus.compute(subscription.getBusId(), (busId, subscriptions) -> {
+            Set<ClientSubscription> set = subscriptions != null ? subscriptions : ConcurrentHashMap.newKeySet();
+            set.add(subscription);
+            return set;
+        });
+    }
+    
+    private void unindexByBus(ClientSubscription subscription) {
+        if (subscription == null || subscription.getBusId() == null) return;
+        subscriptionsByBus.computeIfPresent(subscription.getBusId(), (busId, subscriptions) -> {
+            subscriptions.remove(subscription);
+            return subscriptions.isEmpty() ? null : subscriptions;
+        });
+    }
+    
+    private void indexWaiting(ClientSubscription subscription) {
+        if (subscription.getBusNumber() == null) return;
+        waitingByBusNumber.compute(subscription.getBusNumber().toLowerCase(), (busNumber, subscriptions) -> {
+            Set<ClientSubscription> set = subscriptions != null ? subscriptions : ConcurrentHashMap.newKeySet();
+            set.add(subscription);
+            return set;
+        });
+    }
+    
+    private void unindexWaiting(ClientSubscription subscription) {
+        if (subscription == null || subscription.getBusId() != null || subscription.getBusNumber() == null) return;
+        waitingByBusNumber.computeIfPresent(subscription.getBusNumber().toLowerCase(), (busNumber, subscriptions) -> {
+            subscriptions.remove(subscription);
+            return subscriptions.isEmpty() ? null : subscriptions;
+        });
+    }
+    
+    /**
+     * Routes, stops or full routes changed: re-resolve subscriber snaps on their next update.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRouteTopologyChanged(RouteTopologyChangedEvent event) {
+        clientSubscriptions.values().forEach(subscription -> subscription.snap = null);
     }
     
     /**
@@ -143,43 +238,80 @@ public class BusStreamingService {
         // Record disconnection metrics
         metricsService.recordWebSocketDisconnection(sessionId);
         
-        // Remove from route-based subscriptions
-        activeSubscriptions.values().forEach(subscribers -> subscribers.remove(sessionId));
-        activeSubscriptions.entrySet().removeIf(entry -> entry.getValue().isEmpty());
+        // Remove from the route-based subscriptions this session joined
+        Set<String> routeKeys = routeKeysBySession.remove(sessionId);
+        if (routeKeys != null) {
+            routeKeys.forEach(subscriptionKey -> removeRouteSubscriber(subscriptionKey, sessionId));
+        }
         
-        // Remove from specific bus subscriptions
-        specificBusSubscriptions.values().forEach(subscribers -> subscribers.remove(sessionId));
-        specificBusSubscriptions.entrySet().removeIf(entry -> entry.getValue().isEmpty());
+        // Remove from the specific bus subscriptions this session joined
+        Set<String> busIds = busIdsBySession.remove(sessionId);
+        if (busIds != null) {
+            busIds.forEach(busId -> removeSubscriber(specificBusSubscriptions, busId, sessionId));
+        }
         
         // Remove client subscription details
-        clientSubscriptions.remove(sessionId);
+        ClientSubscription removed = clientSubscriptions.remove(sessionId);
+        unindexByBus(removed);
+        unindexWaiting(removed);
         
         logger.info("Removed all subscriptions for client {}", sessionId);
     }
     
     /**
-     * Get current bus location from Redis
+     * Remove a session from a route key, dropping the key's canonical mapping once it has no
+     * subscribers left. The mapping is only removed while no subscriber exists for the key, checked
+     * under the canonical entry's lock; subscribeToBus adds the subscriber before the mapping, so a
+     * concurrent subscribe either sees its mapping kept or re-adds it.
      */
-    private BusLocation getCurrentBusLocation(String busNumber, String direction) {
-        Set<String> keys = redisTemplate.keys(BUS_LOCATION_KEY + "*");
-        if (keys != null) {
-            for (String key : keys) {
-                BusLocation location = (BusLocation) redisTemplate.opsForValue().get(key);
-                if (location != null && 
-                    busNumber.equalsIgnoreCase(location.getBusNumber()) && 
-                    direction.equalsIgnoreCase(location.getTripDirection())) {
-                    return location;
-                }
+    private void removeRouteSubscriber(String subscriptionKey, String sessionId) {
+        if (!removeSubscriber(activeSubscriptions, subscriptionKey, sessionId)) return;
+        lastSentLocations.remove(subscriptionKey);
+        heartbeats.cancel(subscriptionKey);
+        canonicalToOriginalKeys.computeIfPresent(subscriptionKey.toLowerCase(), (canonical, originals) -> {
+            if (!activeSubscriptions.containsKey(subscriptionKey)) {
+                originals.remove(subscriptionKey);
             }
-        }
-        return null;
+            return originals.isEmpty() ? null : originals;
+        });
+    }
+    
+    private static void addSubscriber(Map<String, Set<String>> index, String key, String value) {
+        index.compute(key, (k, values) -> {
+            Set<String> set = values != null ? values : ConcurrentHashMap.newKeySet();
+            set.add(value);
+            return set;
+        });
+    }
+    
+    /**
+     * Remove a value from a key's set, dropping the key when the set becomes empty.
+     *
+     * @return true if the key was dropped
+     */
+    private static boolean removeSubscriber(Map<String, Set<String>> index, String key, String value) {
+        boolean[] emptied = new boolean[1];
+        index.computeIfPresent(key, (k, values) -> {
+            values.remove(value);
+            emptied[0] = values.isEmpty();
+            return emptied[0] ? null : values;
+        });
+        return emptied[0];
+    }
+    
+    /**
+     * Get current bus location for a route from the live location index
+     */
+    private BusLocation getCurrentBusLocation(String busNumber, String direction) {
+        java.util.List<BusLocation> locations = busLocationIndex.getLocationsForRoute(busNumber, direction);
+        return locations.isEmpty() ? null : locations.get(0);
     }
     
     /**
      * Get bus location by bus ID
      */
     private BusLocation getBusLocationById(String busId) {
-        return (BusLocation) redisTemplate.opsForValue().get(BUS_LOCATION_KEY + busId);
+        return busLocationIndex.getByBusId(busId);
     }
     
     /**
@@ -200,77 +332,50 @@ public class BusStreamingService {
             return;
         }
         
+        // Bus position matched once per route geometry for this update, shared by all subscribers
+        Map<RouteGeometry, RouteGeometryService.SnapResult> busSnaps = new HashMap<>();
+        // Shadow bus bodies by requested direction, and the route/fallback bodies, each built once
+        Map<String, BroadcastPayload> shadowPayloads = new HashMap<>();
+        BroadcastPayload routePayload = null;
+        BroadcastPayload fallbackPayload = null;
+        
         // SHADOW BUS STRATEGY: Check if this bus is selected for any client subscriptions
         // and send its data to the route topics they subscribed to
-        for (ClientSubscription clientSub : clientSubscriptions.values()) {
-            if (location.getBusId().equals(clientSub.getBusId())) {
-                // This bus is selected for a client - send data to their requested route topic
-                String requestedTopic = "/topic/bus/" + clientSub.getBusNumber() + "_" + clientSub.getDirection();
-                
-                // Create enhanced location data with fallback information
-                Map<String, Object> enhancedLocation = new HashMap<>();
-                enhancedLocation.put("busId", location.getBusId());
-                enhancedLocation.put("busNumber", location.getBusNumber());
-                enhancedLocation.put("lat", location.getLat());
-                enhancedLocation.put("lon", location.getLon());
-                enhancedLocation.put("speedKmh", location.getSpeedKmh());
-                enhancedLocation.put("tripDirection", location.getTripDirection());
-                enhancedLocation.put("timestamp", location.getTimestamp());
-                enhancedLocation.put("busStopIndex", location.getBusStopIndex());
-                
-                // Add fallback information if the selected bus direction differs from requested
-                boolean isFallback = !location.getTripDirection().equalsIgnoreCase(clientSub.getDirection());
-                if (isFallback) {
-                    enhancedLocation.put("isFallback", true);
-                    enhancedLocation.put("requestedDirection", clientSub.getDirection());
-                    enhancedLocation.put("actualDirection", location.getTripDirection());
-                    logger.info("SHADOW BUS: Sending fallback data - client requested {} but selected bus {} is running {}", 
-                               clientSub.getDirection(), location.getBusId(), location.getTripDirection());
-                } else {
-                    enhancedLocation.put("isFallback", false);
-                }
+        Set<ClientSubscription> selectedBy = subscriptionsByBus.get(location.getBusId());
+        for (ClientSubscription clientSub : selectedBy != null ? selectedBy : Set.<ClientSubscription>of()) {
+            // This bus is selected for a client - send data to their requested route topic, on the
+            // client's own user destination since the distance fields are theirs alone
+            String requestedTopic = "/topic/bus/" + clientSub.getBusNumber() + "_" + clientSub.getDirection();
+            
+            // Same body for every subscriber requesting this direction: serialized once per update
+            BroadcastPayload shadowPayload = shadowPayloads.computeIfAbsent(clientSub.getDirection(),
+                requestedDirection -> serialize(shadowLocation(location, requestedDirection), location.getBusId()));
+            if (shadowPayload == null) continue;
+            
+            // Calculate route-based distance for this subscriber
+            RouteGeometryService.RouteDistanceResult distanceResult = null;
+            try {
+                long distStart = System.currentTimeMillis();
+                distanceResult = distanceForSubscriber(location, clientSub, busSnaps);
+                long distEnd = System.currentTimeMillis();
                 
-                // Calculate route-based distance for this subscriber
-                try {
-                    com.backend.onebus.model.Route route = routeRepository.findByBusNumber(clientSub.getBusNumber())
-                        .stream()
-                        .filter(r -> clientSub.getDirection().equalsIgnoreCase(r.getDirection()))
-                        .findFirst()
-                        .orElse(null);
-                    
-                    if (route != null) {
-                        long distStart = System.currentTimeMillis();
-                        RouteGeometryService.RouteDistanceResult distanceResult = 
-                            routeGeometryService.calculateRouteDistance(
-                                location.getLat(),
-                                location.getLon(),
-                                clientSub.getClientLat(),
-                                clientSub.getClientLon(),
-                                route.getId(),
-                                clientSub.getDirection()
-                            );
-                        long distEnd = System.currentTimeMillis();
-                        
-                        if (distanceResult != null) {
-                            enhancedLocation.put("distanceMeters", distanceResult.distanceMeters);
-                            enhancedLocation.put("distanceKm", distanceResult.distanceKm);
-                            enhancedLocation.put("estimatedTimeMinutes", distanceResult.estimatedTimeMinutes);
-                            logger.debug("[DISTANCE] Calculated in {}ms for session:{}", 
-                                (distEnd - distStart), clientSub.getSessionId());
-                        }
-                    }
-                } catch (Exception e) {
-                    logger.warn("Failed to calculate distance for subscriber {}: {}", clientSub.getSessionId(), e.getMessage());
-                    // Continue without distance - client can fall back to straight-line calculation
+                if (distanceResult != null) {
+                    logger.debug("[DISTANCE] Calculated in {}ms for session:{}", 
+                        (distEnd - distStart), clientSub.getSessionId());
                 }
-                
-                // Send to the requested route topic, not the bus ID topic
-                messagingTemplate.convertAndSend(requestedTopic, enhancedLocation);
-                totalSubscribers++;
-                
-                logger.debug("[SHADOW-BROADCAST] [IMEI:{}] Sent to session:{}, topic:{}", 
-                    imei, clientSub.getSessionId(), requestedTopic);
+            } catch (Exception e) {
+                logger.warn("Failed to calculate distance for subscriber {}: {}", clientSub.getSessionId(), e.getMessage());
+                // Continue without distance - client can fall back to straight-line calculation
             }
+            
+            // Send to the requested route topic, not the bus ID topic; only the distance fields
+            // are added per subscriber
+            messagingTemplate.send(userDestination(clientSub.getSessionId(), requestedTopic),
+                shadowPayload.withRouteDistance(distanceResult));
+            totalSubscribers++;
+            
+            logger.debug("[SHADOW-BROADCAST] [IMEI:{}] Sent to session:{}, topic:{}", 
+                imei, clientSub.getSessionId(), requestedTopic);
         }
         
         // Also broadcast to route-based subscribers (for backward compatibility)
@@ -289,7 +394,13 @@ public class BusStreamingService {
                         logger.debug("Route subscribers: {}", routeSubscribers);
                         String destination = "/topic/bus/" + activeKey; // send to the stored key so clients receive it
                         logger.debug("Broadcasting to destination: {}", destination);
-                        messagingTemplate.convertAndSend(destination, location);
+                        if (routePayload == null) {
+                            routePayload = serialize(location, location.getBusId());
+                            if (routePayload == null) break;
+                        }
+                        messagingTemplate.send(destination, routePayload.message());
+                        lastSentLocations.put(activeKey, sentLocationKey(location));
+                        heartbeats.schedule(activeKey, System.currentTimeMillis() + heartbeatIntervalMs);
                         totalSubscribers += routeSubscribers.size();
                     }
                 }
@@ -313,27 +424,22 @@ public class BusStreamingService {
                                     location.getTripDirection(), fallbackSubscribers.size(), oppositeDirection, activeKey);
                         
                         // Send with fallback flag so client knows this is opposite direction
-                        Map<String, Object> fallbackLocation = new HashMap<>();
-                        fallbackLocation.put("busId", location.getBusId());
-                        fallbackLocation.put("busNumber", location.getBusNumber());
-                        fallbackLocation.put("tripDirection", location.getTripDirection());
-                        fallbackLocation.put("lat", location.getLat());
-                        fallbackLocation.put("lon", location.getLon());
-                        fallbackLocation.put("speedKmh", location.getSpeedKmh());
-                        fallbackLocation.put("timestamp", location.getTimestamp());
-                        fallbackLocation.put("busStopIndex", location.getBusStopIndex());
-                        fallbackLocation.put("isFallback", true);
-                        fallbackLocation.put("requestedDirection", oppositeDirection);
-                        fallbackLocation.put("actualDirection", location.getTripDirection());
+                        if (fallbackPayload == null) {
+                            fallbackPayload = serialize(shadowLocation(location, oppositeDirection), location.getBusId());
+                            if (fallbackPayload == null) break;
+                        }
                         
                         String destination = "/topic/bus/" + activeKey;
-                        messagingTemplate.convertAndSend(destination, fallbackLocation);
+                        messagingTemplate.send(destination, fallbackPayload.message());
                         totalSubscribers += fallbackSubscribers.size();
                     }
                 }
             }
         }
         
+        // Riders whose bus just became unsuitable, or who are waiting for one on this route
+        reselectAfterUpdate(location, selectedBy);
+        
         // Record broadcast metrics
         long endTime = System.currentTimeMillis();
         long broadcastTime = endTime - startTime;
@@ -344,11 +450,121 @@ public class BusStreamingService {
         metricsService.recordWebSocketBroadcast(location.getBusId(), totalSubscribers, broadcastTime);
     }
 
+    /**
+     * The destination {@code convertAndSendToUser} would use, for sending a prebuilt message to
+     * one session (clients subscribe to it as /user{destination}).
+     */
+    private String userDestination(String sessionId, String destination) {
+        return messagingTemplate.getUserDestinationPrefix() + sessionId + destination;
+    }
+
+    /**
+     * Location body sent to subscribers of {@code requestedDirection}, flagged as a fallback when
+     * the bus runs the other way.
+     */
+    private Map<String, Object> shadowLocation(BusLocation location, String requestedDirection) {
+        Map<String, Object> enhancedLocation = new LinkedHashMap<>();
+        enhancedLocation.put("busId", location.getBusId());
+        enhancedLocation.put("busNumber", location.getBusNumber());
+        enhancedLocation.put("lat", location.getLat());
+        enhancedLocation.put("lon", location.getLon());
+        enhancedLocation.put("speedKmh", location.getSpeedKmh());
+        enhancedLocation.put("tripDirection", location.getTripDirection());
+        enhancedLocation.put("timestamp", location.getTimestamp());
+        enhancedLocation.put("busStopIndex", location.getBusStopIndex());
+        
+        // Add fallback information if the selected bus direction differs from requested
+        boolean isFallback = !location.getTripDirection().equalsIgnoreCase(requestedDirection);
+        if (isFallback) {
+            enhancedLocation.put("isFallback", true);
+            enhancedLocation.put("requestedDirection", requestedDirection);
+            enhancedLocation.put("actualDirection", location.getTripDirection());
+            logger.info("SHADOW BUS: Sending fallback data - client requested {} but selected bus {} is running {}", 
+                       requestedDirection, location.getBusId(), location.getTripDirection());
+        } else {
+            enhancedLocation.put("isFallback", false);
+        }
+        return enhancedLocation;
+    }
+    
+    private BroadcastPayload serialize(Object body, String busId) {
+        try {
+            return BroadcastPayload.of(objectMapper, body, busId);
+        } catch (Exception e) {
+            logger.error("Failed to serialize broadcast payload: {}", e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Route distance from the bus to a subscriber: the bus is matched once per geometry and
+     * update (shared through busSnaps) and the subscriber's snap is reused from subscribe time,
+     * so each subscriber costs a subtraction. The ETA comes from learned stop-to-stop travel
+     * times when the bus runs the subscriber's direction and every segment up to their stop has
+     * been observed.
+     */
+    private RouteGeometryService.RouteDistanceResult distanceForSubscriber(
+            BusLocation location, ClientSubscription clientSub,
+            Map<RouteGeometry, RouteGeometryService.SnapResult> busSnaps) {
+        SubscriberSnap userSnap = resolveSubscriberSnap(clientSub);
+        if (userSnap == null || userSnap.geometry == null) return null;
+        RouteGeometryService.SnapResult busSnap = busSnaps.computeIfAbsent(userSnap.geometry,
+            geometry -> mapMatchingService.match(location.getBusId(), geometry, location.getLat(), location.getLon()));
+        if (busSnap == null) return null;
+        RouteGeometryService.RouteDistanceResult distance = routeGeometryService.distanceBetween(busSnap, userSnap.snap);
+        if (location.getTripDirection() != null && location.getTripDirection().equalsIgnoreCase(clientSub.getDirection())) {
+            Double learnedMinutes = segmentTravelTimeService.estimateMinutes(
+                location, clientSub.getClientBusStopIndex(), System.currentTimeMillis());
+            if (learnedMinutes != null) {
+                distance = distance.withEstimatedTimeMinutes(learnedMinutes);
+            }
+        }
+        return distance;
+    }
+    
+    /**
+     * The subscriber's position snapped to the full route of its requested bus number and
+     * direction. Cached on the subscription and rebuilt when that route's geometry is recompiled
+     * or routes change; a missing route or full route is cached too.
+     */
+    private SubscriberSnap resolveSubscriberSnap(ClientSubscription clientSub) {
+        SubscriberSnap cached = clientSub.snap;
+        if (cached != null && (cached.routeId == null
+                || routeGeometryService.getGeometry(cached.routeId, clientSub.getDirection()) == cached.geometry)) {
+            return cached;
+        }
+        SubscriberSnap resolved;
+        try {
+            Route route = clientSub.getBusNumber() == null || clientSub.getDirection() == null ? null
+                : routeRepository.findByBusNumber(clientSub.getBusNumber())
+                    .stream()
+                    .filter(r -> clientSub.getDirection().equalsIgnoreCase(r.getDirection()))
+                    .findFirst()
+                    .orElse(null);
+            if (route == null) {
+                resolved = new SubscriberSnap(null, null, null);
+            } else {
+                RouteGeometry geometry = routeGeometryService.getGeometry(route.getId(), clientSub.getDirection());
+                RouteGeometryService.SnapResult snap = geometry != null
+                    ? geometry.snap(clientSub.getClientLat(), clientSub.getClientLon()) : null;
+                resolved = new SubscriberSnap(route.getId(), snap != null ? geometry : null, snap);
+            }
+        } catch (Exception e) {
+            // Not cached, so the next update retries
+            logger.warn("Failed to resolve route for subscriber {}: {}", clientSub.getSessionId(), e.getMessage());
+            return null;
+        }
+        clientSub.snap = resolved;
+        return resolved;
+    }
+    
     /**
      * Broadcast that a bus went offline so clients can drop it immediately.
      */
     public void broadcastBusOffline(BusLocation offline) {
         if (offline == null) return;
+        // Queued updates for this bus must not arrive after the offline event
+        subscriberOutbox.discardBus(offline.getBusId());
 
         Map<String, Object> payload = new HashMap<>();
         payload.put("event", "bus-offline");
@@ -381,26 +597,205 @@ public class BusStreamingService {
                 }
             }
         }
+
+        // Riders assigned to the bus get another one
+        if (offline.getBusId() != null) {
+            reselectAll(subscriptionsByBus.get(offline.getBusId()), "bus-offline");
+        }
     }
     
     /**
-     * Scheduled task to periodically check for bus updates and broadcast to subscribers
-     * This ensures clients get updates even if they miss the real-time broadcast
+     * Re-run selection for riders assigned to the updated bus when it passed their stop or
+     * switched direction, and for riders on its route still waiting for a bus. Riders assigned
+     * to other buses are not touched.
      */
-    @Scheduled(fixedRate = 5000) // Check every 5 seconds
-    public void broadcastPeriodicUpdates() {
-        for (Map.Entry<String, Set<String>> entry : activeSubscriptions.entrySet()) {
-            String[] parts = entry.getKey().split("_", 2);
-            if (parts.length == 2) {
-                String busNumber = parts[0];
-                String direction = parts[1];
-                
-                BusLocation currentLocation = getCurrentBusLocation(busNumber, direction);
-                if (currentLocation != null) {
-                    messagingTemplate.convertAndSend("/topic/bus/" + entry.getKey(), currentLocation);
+    private void reselectAfterUpdate(BusLocation location, Set<ClientSubscription> selectedBy) {
+        if (selectedBy != null) {
+            for (ClientSubscription clientSub : selectedBy) {
+                String reason = reselectionReason(clientSub, location);
+                if (reason != null) {
+                    reselect(clientSub, reason);
                 }
             }
         }
+        if (location.getBusNumber() != null && !waitingByBusNumber.isEmpty()) {
+            reselectAll(waitingByBusNumber.get(location.getBusNumber().toLowerCase()), "bus-available");
+        }
+    }
+    
+    private static String reselectionReason(ClientSubscription clientSub, BusLocation location) {
+        String busDirection = location.getTripDirection();
+        String previousDirection = clientSub.busDirection;
+        clientSub.busDirection = busDirection;
+        if (busDirection == null) return null;
+        if (previousDirection != null && !previousDirection.equalsIgnoreCase(busDirection)) {
+            return "bus-direction-changed";
+        }
+        // Stop indexes are only comparable when the bus runs the direction the rider asked for
+        if (busDirection.equalsIgnoreCase(clientSub.getDirection())
+                && location.getBusStopIndex() != null
+                && location.getBusStopIndex() > clientSub.getClientBusStopIndex()) {
+            return "bus-passed";
+        }
+        return null;
+    }
+    
+    /**
+     * Re-run selection for riders whose bus stopped reporting: it left the live index or has
+     * not been updated for the stale interval. Only buses with assigned riders are checked;
+     * stale buses are already left out of the selection rosters, so riders move to another bus.
+     */
+    @Scheduled(fixedDelayString = "${app.tracking.reselection.sweep-ms:30000}")
+    public void reselectStaleAssignments() {
+        reselectStaleAssignments(System.currentTimeMillis());
+    }
+    
+    void reselectStaleAssignments(long now) {
+        for (Map.Entry<String, Set<ClientSubscription>> entry : subscriptionsByBus.entrySet()) {
+            BusLocation bus = busLocationIndex.getByBusId(entry.getKey());
+            if (bus == null || busLocationIndex.isStale(bus.getTrackerImei(), now)) {
+                reselectAll(entry.getValue(), "bus-stale");
+            }
+        }
+    }
+    
+    /**
+     * Re-run selection for many riders at once, e.g. everyone waiting on a route when its first
+     * bus reports after a deploy. Riders with a company strategy are selected in bulk per
+     * strategy, bus number and direction, so each route's roster and geometry are read once.
+     */
+    private void reselectAll(Set<ClientSubscription> subscriptions, String reason) {
+        if (subscriptions == null || subscriptions.isEmpty()) return;
+        // Re-selection moves subscriptions out of the set being walked
+        Map<List<Object>, List<ClientSubscription>> byRoute = new LinkedHashMap<>();
+        for (ClientSubscription clientSub : List.copyOf(subscriptions)) {
+            if (clientSub.strategy == null) {
+                reselect(clientSub, reason);
+            } else {
+                byRoute.computeIfAbsent(Arrays.asList(clientSub.strategy, clientSub.getBusNumber(), clientSub.getDirection()),
+                    key -> new ArrayList<>()).add(clientSub);
+            }
+        }
+        for (List<ClientSubscription> riders : byRoute.values()) {
+            ClientSubscription first = riders.get(0);
+            List<BusCompanyRoutingStrategy.ClientPosition> clients = new ArrayList<>(riders.size());
+            for (ClientSubscription clientSub : riders) {
+                clients.add(new BusCompanyRoutingStrategy.ClientPosition(
+                    clientSub.getClientLat(), clientSub.getClientLon(), clientSub.getClientBusStopIndex()));
+            }
+            List<String> selected;
+            try {
+                selected = first.strategy.selectBestBusesForClients(first.getBusNumber(), first.getDirection(), clients);
+            } catch (Exception e) {
+                logger.warn("[RESELECT] Bulk selection failed for route {} {}: {}",
+                    first.getBusNumber(), first.getDirection(), e.getMessage());
+                continue;
+            }
+            for (int i = 0; i < riders.size(); i++) {
+                reassign(riders.get(i), selected.get(i), reason);
+            }
+        }
+    }
+    
+    /**
+     * Run selection again for one rider and, if it picks a different bus (or none), move the
+     * subscription and send the rider a single assignment-changed frame.
+     */
+    private void reselect(ClientSubscription clientSub, String reason) {
+        String sessionId = clientSub.getSessionId();
+        String selectedBusId;
+        try {
+            selectedBusId = clientSub.strategy != null
+                ? clientSub.strategy.selectBestBusForClient(clientSub.getBusNumber(), clientSub.getDirection(),
+                    clientSub.getClientLat(), clientSub.getClientLon(), clientSub.getClientBusStopIndex())
+                : busSelectionService.selectBestBusForClient(clientSub.getBusNumber(), clientSub.getDirection(),
+                    clientSub.getClientLat(), clientSub.getClientLon(), clientSub.getClientBusStopIndex());
+        } catch (Exception e) {
+            logger.warn("[RESELECT] Selection failed for session {}: {}", sessionId, e.getMessage());
+            return;
+        }
+        reassign(clientSub, selectedBusId, reason);
+    }
+    
+    /**
+     * Move a rider to {@code selectedBusId} (or to waiting when null) and send the rider a single
+     * assignment-changed frame; nothing happens when the bus is unchanged.
+     */
+    private void reassign(ClientSubscription clientSub, String selectedBusId, String reason) {
+        String sessionId = clientSub.getSessionId();
+        String previousBusId = clientSub.getBusId();
+        if (Objects.equals(selectedBusId, previousBusId)) return;
+        
+        ClientSubscription updated = clientSub.withBusId(selectedBusId);
+        // Lost to a concurrent re-subscribe, disconnect or re-selection
+        if (!clientSubscriptions.replace(sessionId, clientSub, updated)) return;
+        unindexByBus(clientSub);
+        unindexWaiting(clientSub);
+        if (selectedBusId != null) {
+            indexByBus(updated);
+        } else {
+            indexWaiting(updated);
+        }
+        if (clientSubscriptions.get(sessionId) != updated) {
+            // Removed while we were indexing it
+            unindexByBus(updated);
+            unindexWaiting(updated);
+            return;
+        }
+        
+        if (previousBusId != null) {
+            removeSubscriber(specificBusSubscriptions, previousBusId, sessionId);
+            removeSubscriber(busIdsBySession, sessionId, previousBusId);
+        }
+        if (selectedBusId != null) {
+            addSubscriber(specificBusSubscriptions, selectedBusId, sessionId);
+            addSubscriber(busIdsBySession, sessionId, selectedBusId);
+            metricsService.recordSmartBusSelection(sessionId, clientSub.getDirection(), selectedBusId, false);
+        }
+        
+        Map<String, Object> frame = new LinkedHashMap<>();
+        frame.put("event", "assignment-changed");
+        frame.put("reason", reason);
+        frame.put("busNumber", clientSub.getBusNumber());
+        frame.put("direction", clientSub.getDirection());
+        frame.put("previousBusId", previousBusId);
+        frame.put("selectedBusId", selectedBusId);
+        frame.put("sessionId", sessionId);
+        messagingTemplate.convertAndSendToUser(sessionId, "/topic/subscription/status", frame);
+        logger.info("[RESELECT] Session {} moved from bus {} to {} ({})", sessionId, previousBusId, selectedBusId, reason);
+    }
+    
+    /**
+     * Heartbeat for route keys that went quiet, so clients get the latest location even if they
+     * missed the real-time broadcast. Only keys with no update for a heartbeat interval come due
+     * on the timer wheel, and of those only keys whose latest location was not sent yet are resent.
+     */
+    @Scheduled(fixedDelay = HEARTBEAT_TICK_MS)
+    public void broadcastPeriodicUpdates() {
+        sendDueHeartbeats(System.currentTimeMillis());
+    }
+    
+    void sendDueHeartbeats(long now) {
+        for (String subscriptionKey : heartbeats.advance(now)) {
+            // Keys whose last subscriber left are not rescheduled
+            if (!activeSubscriptions.containsKey(subscriptionKey)) continue;
+            heartbeats.schedule(subscriptionKey, now + heartbeatIntervalMs);
+            
+            String[] parts = subscriptionKey.split("_", 2);
+            if (parts.length != 2) continue;
+            BusLocation currentLocation = getCurrentBusLocation(parts[0], parts[1]);
+            if (currentLocation == null) continue;
+            String sentKey = sentLocationKey(currentLocation);
+            if (sentKey.equals(lastSentLocations.get(subscriptionKey))) continue;
+            BroadcastPayload payload = serialize(currentLocation, currentLocation.getBusId());
+            if (payload == null) continue;
+            messagingTemplate.send("/topic/bus/" + subscriptionKey, payload.message());
+            lastSentLocations.put(subscriptionKey, sentKey);
+        }
+    }
+    
+    private static String sentLocationKey(BusLocation location) {
+        return location.getBusId() + "@" + location.getTimestamp();
     }
     
     /**
@@ -414,9 +809,16 @@ public class BusStreamingService {
         private final double clientLon;
         private final int clientBusStopIndex;
         private final String busId;
+        // Selection to re-run when the bus stops being suitable; null for the default rules
+        private final BusCompanyRoutingStrategy strategy;
+        // Client position snapped to the requested route, resolved lazily
+        private volatile SubscriberSnap snap;
+        // Direction the selected bus was running at its last update, to notice it turning around
+        private volatile String busDirection;
         
         public ClientSubscription(String sessionId, String busNumber, String direction, 
-                                double clientLat, double clientLon, int clientBusStopIndex, String busId) {
+                                double clientLat, double clientLon, int clientBusStopIndex, String busId,
+                                BusCompanyRoutingStrategy strategy) {
             this.sessionId = sessionId;
             this.busNumber = busNumber;
             this.direction = direction;
@@ -424,6 +826,17 @@ public class BusStreamingService {
             this.clientLon = clientLon;
             this.clientBusStopIndex = clientBusStopIndex;
             this.busId = busId;
+            this.strategy = strategy;
+        }
+        
+        /**
+         * The same subscription assigned to another bus (or none), keeping the client's snap
+         */
+        private ClientSubscription withBusId(String busId) {
+            ClientSubscription reassigned = new ClientSubscription(
+                sessionId, busNumber, direction, clientLat, clientLon, clientBusStopIndex, busId, strategy);
+            reassigned.snap = snap;
+            return reassigned;
         }
         
         // Getters
@@ -435,4 +848,19 @@ public class BusStreamingService {
         public int getClientBusStopIndex() { return clientBusStopIndex; }
         public String getBusId() { return busId; }
     }
-} 
\ No newline at end of file
+    
+    /**
+     * A subscriber's position snapped to a compiled route geometry
+     */
+    private static final class SubscriberSnap {
+        private final Long routeId;
+        private final RouteGeometry geometry;
+        private final RouteGeometryService.SnapResult snap;
+        
+        private SubscriberSnap(Long routeId, RouteGeometry geometry, RouteGeometryService.SnapResult snap) {
+            this.routeId = routeId;
+            this.geometry = geometry;
+            this.snap = snap;
+        }
+    }
+}
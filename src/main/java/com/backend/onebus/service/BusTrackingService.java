@@ -1,28 +1,30 @@
 package com.backend.onebus.service;
 
+import com.backend.onebus.event.TrackerRegistryChangedEvent;
 import com.backend.onebus.model.Bus;
 import com.backend.onebus.model.BusLocation;
-import com.backend.onebus.model.BusStop;
 import com.backend.onebus.model.Route;
 import com.backend.onebus.model.RouteStop;
-import com.backend.onebus.repository.BusLocationRepository;
 import com.backend.onebus.repository.BusRepository;
 import com.backend.onebus.repository.RouteRepository;
-import com.backend.onebus.repository.RouteStopRepository;
 import com.backend.onebus.service.routing.BusCompanyRoutingStrategy;
 import com.backend.onebus.service.RuleEngineService;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.geo.Circle;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.Metrics;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
@@ -32,11 +34,12 @@ import org.springframework.scheduling.annotation.Async;
 import org.springframework.cache.annotation.Cacheable;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -49,8 +52,6 @@ public class BusTrackingService {
     @Autowired
     private BusPersistenceService busPersistenceService;
     
-    @Autowired
-    private BusLocationRepository busLocationRepository;
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
     @Autowired
@@ -58,11 +59,9 @@ public class BusTrackingService {
     @Autowired
     private GeometryFactory geometryFactory;
     @Autowired
-    private BusStreamingService streamingService;
+    private BusUpdateRelay busUpdateRelay;
     @Autowired
     private RouteRepository routeRepository;
-    @Autowired
-    private RouteStopRepository routeStopRepository;
 
     @Autowired
     private com.backend.onebus.service.routing.BusCompanyStrategyFactory strategyFactory;
@@ -71,119 +70,71 @@ public class BusTrackingService {
     private BusSelectionService busSelectionService;
     @Autowired
     private RuleEngineService ruleEngineService;
+    @Autowired
+    private BusLocationIndex busLocationIndex;
+    @Autowired
+    private RouteTopologyService routeTopologyService;
+    @Autowired
+    private TrackerRegistry trackerRegistry;
+    @Autowired
+    private LocationHistoryService locationHistoryService;
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    @Autowired
+    private SegmentTravelTimeService segmentTravelTimeService;
+    @Autowired
+    private StopArrivalService stopArrivalService;
     private static final String BUS_LOCATION_KEY = "bus:location:";
     private static final String ACTIVE_BUS_KEY_PREFIX = "active:bus:";
     private static final String BUS_GEO_KEY = "bus:geo";
     private static final long SAVE_INTERVAL_MS = 30 * 60 * 1000; // 30 minutes
 
-    // In-memory cache: company_busNumber -> list of stops
-    private static final Map<String, List<BusStop>> routeStopsCache = new HashMap<>();
     private static final Map<String, Route> routeCache = new ConcurrentHashMap<>();
     private static final Map<String, List<Route>> routesByBusCache = new ConcurrentHashMap<>();
+    // Per-worker tracker state handed out to the ingest shards
+    private final List<TrackerShardState> shardStates = new CopyOnWriteArrayList<>();
     private static final double STOP_PROXIMITY_METERS = 30.0;
     private static final ObjectMapper objectMapper = new ObjectMapper();
 
     private static final Logger logger = LoggerFactory.getLogger(BusTrackingService.class);
 
-    private void loadRouteStopsIfNeeded(String company, String busNumber) {
-        String cacheKey = company + "_" + busNumber;
-        if (routeStopsCache.containsKey(cacheKey)) return;
-        
-        try {
-            // Find route in database (handle multiple routes by bus number)
-            Route route = null;
-            try {
-                java.util.List<Route> routes = routeRepository.findByBusNumber(busNumber);
-                if (!routes.isEmpty()) {
-                    // Prefer route matching company if multiple exist
-                    route = routes.stream()
-                        .filter(r -> r.getCompany() != null && r.getCompany().equalsIgnoreCase(company))
-                        .findFirst()
-                        .orElse(routes.get(0));  // Fallback to first route
-                }
-            } catch (Exception e) {
-                logger.warn("Error fetching route for company: {} and busNumber: {}: {}", company, busNumber, e.getMessage());
-            }
-            
-            if (route == null) {
-                logger.warn("No route found for company: {} and busNumber: {}", company, busNumber);
-                return;
-            }
-            
-            // Load stops for this route
-            List<RouteStop> routeStops = routeStopRepository.findByRouteIdOrderByBusStopIndex(route.getId());
-            List<BusStop> stops = new ArrayList<>();
-            
-            for (RouteStop routeStop : routeStops) {
-                BusStop stop = new BusStop();
-                stop.setLatitude(routeStop.getLatitude());
-                stop.setLongitude(routeStop.getLongitude());
-                stop.setAddress(routeStop.getAddress());
-                stop.setBusStopIndex(routeStop.getBusStopIndex());
-                stop.setDirection(routeStop.getDirection());
-                stop.setType(routeStop.getType());
-                stop.setNorthboundIndex(routeStop.getNorthboundIndex());
-                stop.setSouthboundIndex(routeStop.getSouthboundIndex());
-                stops.add(stop);
-            }
-            
-            routeStopsCache.put(cacheKey, stops);
-            logger.info("Loaded {} stops for route {} (company: {}, busNumber: {})", 
-                       stops.size(), route.getRouteName(), company, busNumber);
-            
-        } catch (Exception e) {
-            logger.error("Failed to load route stops for company: {} and busNumber: {}: {}", 
-                        company, busNumber, e.getMessage());
-        }
-    }
-
-    private BusStop findNearbyStop(String company, String busNumber, double lat, double lon, String currentDirection) {
-        loadRouteStopsIfNeeded(company, busNumber);
-        String cacheKey = company + "_" + busNumber;
-        List<BusStop> stops = routeStopsCache.get(cacheKey);
-        if (stops == null) return null;
-        
-        // Priority 1: Find a stop that matches the current direction (or is bidirectional)
-        for (BusStop stop : stops) {
-            if (distanceMeters(lat, lon, stop.getLatitude(), stop.getLongitude()) <= STOP_PROXIMITY_METERS) {
-                if (currentDirection == null || 
-                    "bidirectional".equalsIgnoreCase(stop.getDirection()) || 
-                    currentDirection.equalsIgnoreCase(stop.getDirection())) {
-                    return stop;
-                }
-            }
-        }
-        
-        // Priority 2: Fallback to any stop only if we don't have a direction yet
-        if (currentDirection == null) {
-            for (BusStop stop : stops) {
-                if (distanceMeters(lat, lon, stop.getLatitude(), stop.getLongitude()) <= STOP_PROXIMITY_METERS) {
-                    return stop;
-                }
-            }
-        }
-        
-        return null;
-    }
-
-    // Haversine formula for distance in meters
-    private double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
-        final int R = 6371000; // meters
-        double dLat = Math.toRadians(lat2 - lat1);
-        double dLon = Math.toRadians(lon2 - lon1);
-        double a = Math.sin(dLat/2) * Math.sin(dLat/2) +
-                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
-                Math.sin(dLon/2) * Math.sin(dLon/2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a));
-        return R * c;
+    private RouteStop findNearbyStop(String company, String busNumber, double lat, double lon, String currentDirection) {
+        RouteTopology topology = routeTopologyService.forBus(company, busNumber);
+        return topology != null ? topology.findNearbyStop(lat, lon, currentDirection, STOP_PROXIMITY_METERS) : null;
     }
 
     private static final String LAST_PAYLOAD_KEY = "last:payload:";
     
     public void processTrackerPayload(BusLocation payload) {
-        // Deduplication: Check if we've already processed this exact payload recently
-        String dedupeKey = LAST_PAYLOAD_KEY + payload.getTrackerImei();
-        Object lastPayload = redisTemplate.opsForValue().get(dedupeKey);
+        processTrackerPayload(payload, null);
+    }
+
+    /**
+     * Process a tracker fix. When called from an ingest worker, {@code shard} holds that worker's
+     * per-tracker state: the prior payload and location are read from memory instead of Redis and
+     * the Redis writes are queued for the worker's next flush. With no shard, state is read from
+     * and written to Redis directly.
+     */
+    void processTrackerPayload(BusLocation payload, TrackerShardState shard) {
+        // Deduplication: Check if we've already processed this exact payload recently.
+        // Prior state comes from the owning shard, or from Redis in a single MGET on a miss.
+        String imei = payload.getTrackerImei();
+        String dedupeKey = LAST_PAYLOAD_KEY + imei;
+        String redisKey = BUS_LOCATION_KEY + imei;
+        TrackerShardState.Entry known = shard != null ? shard.get(imei) : null;
+        Object lastPayload;
+        BusLocation cachedLocation;
+        if (known != null) {
+            lastPayload = known.getLastPayload();
+            cachedLocation = known.getLocation();
+        } else {
+            List<Object> priorState = redisTemplate.opsForValue().multiGet(Arrays.asList(dedupeKey, redisKey));
+            lastPayload = priorState != null && !priorState.isEmpty() ? priorState.get(0) : null;
+            cachedLocation = priorState != null && priorState.size() > 1 ? (BusLocation) priorState.get(1) : null;
+            if (shard != null) {
+                shard.seed(imei, (BusLocation) lastPayload, cachedLocation);
+            }
+        }
         
         if (lastPayload != null) {
             BusLocation last = (BusLocation) lastPayload;
@@ -209,35 +160,28 @@ public class BusTrackingService {
             }
         }
         
-        // Store this payload as the last one processed for this IMEI
-        redisTemplate.opsForValue().set(dedupeKey, payload, 5, TimeUnit.MINUTES);
-        
-        // Rule 1: Validate IMEI is registered
-        String redisKey = BUS_LOCATION_KEY + payload.getTrackerImei();
-        BusLocation cachedLocation = (BusLocation) redisTemplate.opsForValue().get(redisKey);
-
-        Bus bus = null;
+        // Rule 1: Validate IMEI is registered (served from the in-process registry, not JPA)
+        TrackerRegistry.TrackerInfo tracker = trackerRegistry.get(imei);
         Long companyId = null;
         if (cachedLocation == null) {
-            bus = busRepository.findByTrackerImei(payload.getTrackerImei());
-            if (bus == null) {
+            if (tracker == null) {
                 logger.warn("[REJECTED] Unregistered trackerImei: {} - Ignoring foreign device", payload.getTrackerImei());
+                markPayloadSeen(shard, dedupeKey, payload);
                 return;
             }
             
             // Rule 2 & 3: Check operational status before processing
-            if (!"active".equalsIgnoreCase(bus.getOperationalStatus())) {
+            if (!tracker.isActive()) {
                 logger.info("[IGNORED] Bus {} (IMEI: {}) has status '{}' - Not saving coordinates", 
-                    bus.getBusNumber(), payload.getTrackerImei(), bus.getOperationalStatus());
+                    tracker.getBusNumber(), payload.getTrackerImei(), tracker.getOperationalStatus());
+                markPayloadSeen(shard, dedupeKey, payload);
                 return;
             }
-            payload.setBusId(bus.getBusId());
-            payload.setBusNumber(bus.getBusNumber());
-            payload.setBusDriverId(bus.getDriverId());
-            payload.setBusDriver(bus.getDriverName());
-            // Use the company name or the legacy busCompanyName field
-            String companyName = (bus.getBusCompany() != null) ? 
-                bus.getBusCompany().getName() : bus.getBusCompanyName();
+            payload.setBusId(tracker.getBusId());
+            payload.setBusNumber(tracker.getBusNumber());
+            payload.setBusDriverId(tracker.getDriverId());
+            payload.setBusDriver(tracker.getDriverName());
+            String companyName = tracker.getCompanyName();
             
             // CRITICAL: Initialize tripDirection from route default for first GPS
             // Fetch route immediately to get direction, even if company is unknown
@@ -250,29 +194,26 @@ public class BusTrackingService {
                     if (initialRoute.getDirection() != null) {
                         payload.setTripDirection(initialRoute.getDirection());
                         logger.info("[INIT] Set tripDirection='{}' for bus {} from route", 
-                            initialRoute.getDirection(), bus.getBusId());
+                            initialRoute.getDirection(), tracker.getBusId());
                     }
                     // Also try to resolve company from route if not found
                     if (companyName == null && initialRoute.getCompany() != null) {
                         companyName = initialRoute.getCompany();
-                        logger.info("[INIT] Resolved company='{}' for bus {} from route", companyName, bus.getBusId());
+                        logger.info("[INIT] Resolved company='{}' for bus {} from route", companyName, tracker.getBusId());
                     }
                 } else {
-                    logger.warn("[INIT] No route found for bus {}", bus.getBusNumber());
+                    logger.warn("[INIT] No route found for bus {}", tracker.getBusNumber());
                 }
             }
             
-            if (bus.getBusCompany() != null) {
-                companyId = bus.getBusCompany().getId();
-            }
+            companyId = tracker.getCompanyId();
             payload.setBusCompany(companyName);
         } else {
             // If using cached location, we still need to verify the bus is active
-            // Re-fetch bus to check current operational status
-            bus = busRepository.findByTrackerImei(payload.getTrackerImei());
-            if (bus != null && !"active".equalsIgnoreCase(bus.getOperationalStatus())) {
+            if (tracker != null && !tracker.isActive()) {
                 logger.info("[IGNORED] Cached bus {} has status '{}' - Not saving coordinates", 
-                    cachedLocation.getBusNumber(), bus.getOperationalStatus());
+                    cachedLocation.getBusNumber(), tracker.getOperationalStatus());
+                markPayloadSeen(shard, dedupeKey, payload);
                 return;
             }
             
@@ -293,8 +234,8 @@ public class BusTrackingService {
                 }
             }
             
-            if (bus != null && bus.getBusCompany() != null) {
-                companyId = bus.getBusCompany().getId();
+            if (tracker != null) {
+                companyId = tracker.getCompanyId();
             }
         }
 
@@ -353,7 +294,7 @@ public class BusTrackingService {
                 }
                 
                 // Step 3: Update busStopIndex based on proximity to stops
-                BusStop nearbyStop = findNearbyStop(company, busNumber, payload.getLat(), payload.getLon(), payload.getTripDirection());
+                RouteStop nearbyStop = findNearbyStop(company, busNumber, payload.getLat(), payload.getLon(), payload.getTripDirection());
                 if (nearbyStop != null) {
                     // Only update direction if not bidirectional
                     if (!"bidirectional".equalsIgnoreCase(nearbyStop.getDirection())) {
@@ -382,7 +323,7 @@ public class BusTrackingService {
                 logger.error("[Strategy] Error applying routing strategy for bus {}: {}", 
                     busNumber, e.getMessage(), e);
                 // Continue with existing logic if strategy fails
-                BusStop nearbyStop = findNearbyStop(company, busNumber, payload.getLat(), payload.getLon(), payload.getTripDirection());
+                RouteStop nearbyStop = findNearbyStop(company, busNumber, payload.getLat(), payload.getLon(), payload.getTripDirection());
                 if (nearbyStop != null) {
                     if (!"bidirectional".equalsIgnoreCase(nearbyStop.getDirection())) {
                         payload.setTripDirection(nearbyStop.getDirection());
@@ -406,19 +347,79 @@ public class BusTrackingService {
             checkAndSwitchRouteAtEnd(payload);
         }
 
-        // Save to Redis and Geo
-        redisTemplate.opsForValue().set(redisKey, payload, 24, TimeUnit.HOURS);
-        redisTemplate.opsForGeo().add(BUS_GEO_KEY, new RedisGeoCommands.GeoLocation<>(
-            payload.getBusId(), new org.springframework.data.geo.Point(payload.getLon(), payload.getLat())));
+        // Save to Redis (location, geo, active marker, route index) in one pipelined flush,
+        // or queue it for the owning shard's next flush
+        String activeKey = ACTIVE_BUS_KEY_PREFIX + (companyId != null ? companyId + ":" : "unknown:") + payload.getBusId();
+        BusLocation previous = busLocationIndex.updateLocal(payload);
+        if (shard != null) {
+            shard.recordProcessed(imei, dedupeKey, redisKey, activeKey, previous, payload);
+        } else {
+            flushTrackerState(List.of(new TrackerShardState.PendingWrite(dedupeKey, payload, redisKey, activeKey, previous, payload)));
+        }
 
-        // Persist to database asynchronously
-        busPersistenceService.saveLocationAsync(payload);
+        // Queue for write-behind persistence to the history table
+        busPersistenceService.enqueueLocation(payload);
         
-        // Mark bus as active in Redis (TTL: 2 minutes)
-        String activeKey = ACTIVE_BUS_KEY_PREFIX + (companyId != null ? companyId + ":" : "unknown:") + payload.getBusId();
-        redisTemplate.opsForValue().set(activeKey, "active", 2, TimeUnit.MINUTES);
+        // Learn stop-to-stop travel times for ETAs, then refresh the arrival boards of the
+        // stops ahead if the bus reached another stop
+        long fixTime = fixTimeMillis(payload);
+        segmentTravelTimeService.observe(payload, fixTime);
+        stopArrivalService.onBusUpdate(payload, fixTime);
         
-        streamingService.broadcastBusUpdate(payload);
+        busUpdateRelay.publishUpdate(payload);
+    }
+
+    /**
+     * Write everything the given fixes change in Redis as one pipelined round trip:
+     * dedupe marker, location, geo position, active marker and the live location index.
+     */
+    void flushTrackerState(List<TrackerShardState.PendingWrite> writes) {
+        if (writes.isEmpty()) return;
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, Object> ops = (RedisOperations<String, Object>) operations;
+                for (TrackerShardState.PendingWrite write : writes) {
+                    ops.opsForValue().set(write.getDedupeKey(), write.getLastPayload(), 5, TimeUnit.MINUTES);
+                    BusLocation location = write.getLocation();
+                    if (location == null) continue;
+                    ops.opsForValue().set(write.getLocationKey(), location, 24, TimeUnit.HOURS);
+                    ops.opsForGeo().add(BUS_GEO_KEY, new RedisGeoCommands.GeoLocation<>(
+                        location.getBusId(), new org.springframework.data.geo.Point(location.getLon(), location.getLat())));
+                    ops.opsForValue().set(write.getActiveKey(), "active", 2, TimeUnit.MINUTES);
+                    busLocationIndex.appendRedisWrites(ops, write.getPrevious(), location);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Remember a payload that was rejected after the dedupe check so retries are still deduplicated.
+     */
+    private void markPayloadSeen(TrackerShardState shard, String dedupeKey, BusLocation payload) {
+        if (shard != null) {
+            shard.recordSeen(payload.getTrackerImei(), dedupeKey, payload);
+        } else {
+            redisTemplate.opsForValue().set(dedupeKey, payload, 5, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Create the per-tracker state for an ingest worker. The state is registered here so that
+     * status and detail changes can invalidate it.
+     */
+    TrackerShardState newShardState() {
+        TrackerShardState state = new TrackerShardState();
+        shardStates.add(state);
+        return state;
+    }
+
+    private void forgetTrackerState(String imei) {
+        for (TrackerShardState state : shardStates) {
+            state.forget(imei);
+        }
     }
 
     public BusLocation findNearestBus(double lat, double lon, String tripDirection) {
@@ -428,7 +429,7 @@ public class BusTrackingService {
         if (results != null) {
             for (GeoResult<RedisGeoCommands.GeoLocation<Object>> result : results) {
                 String busId = (String) result.getContent().getName();
-                BusLocation location = (BusLocation) redisTemplate.opsForValue().get(BUS_LOCATION_KEY + busId);
+                BusLocation location = busLocationIndex.getByBusId(busId);
                 if (location != null && tripDirection.equalsIgnoreCase(location.getTripDirection())) {
                     return location;
                 }
@@ -461,18 +462,11 @@ public class BusTrackingService {
     }
 
     /**
-     * Locate a bus in Redis by its busId (keys are stored by tracker IMEI).
+     * Locate a bus by its busId (Redis keys are stored by tracker IMEI).
      */
     private BusLocation getBusLocationById(String busId) {
         try {
-            Set<String> keys = redisTemplate.keys(BUS_LOCATION_KEY + "*");
-            if (keys == null) return null;
-            for (String key : keys) {
-                BusLocation loc = (BusLocation) redisTemplate.opsForValue().get(key);
-                if (loc != null && busId.equals(loc.getBusId())) {
-                    return loc;
-                }
-            }
+            return busLocationIndex.getByBusId(busId);
         } catch (Exception e) {
             logger.error("Error finding bus location by id {}: {}", busId, e.getMessage());
         }
@@ -480,8 +474,16 @@ public class BusTrackingService {
     }
 
     public void updateBusDetails(Bus bus) {
+        String oldTrackerImei = busRepository.findById(bus.getBusId()).map(Bus::getTrackerImei).orElse(null);
         busRepository.save(bus);
-        redisTemplate.delete(BUS_LOCATION_KEY + bus.getTrackerImei());
+        // A moved tracker must stop resolving to this bus as well
+        eventPublisher.publishEvent(TrackerRegistryChangedEvent.forImeis(oldTrackerImei, bus.getTrackerImei()));
+        for (String imei : new String[] { oldTrackerImei, bus.getTrackerImei() }) {
+            if (imei == null) continue;
+            forgetTrackerState(imei);
+            redisTemplate.delete(BUS_LOCATION_KEY + imei);
+            busLocationIndex.remove(imei);
+        }
     }
     
     /**
@@ -502,6 +504,7 @@ public class BusTrackingService {
         String oldStatus = bus.getOperationalStatus();
         bus.setOperationalStatus(newStatus);
         busRepository.save(bus);
+        eventPublisher.publishEvent(TrackerRegistryChangedEvent.forImeis(bus.getTrackerImei()));
         
         logger.info("Bus {} status changed: {} → {}", busId, oldStatus, newStatus);
         
@@ -510,20 +513,23 @@ public class BusTrackingService {
             "maintenance".equalsIgnoreCase(newStatus) || 
             "retired".equalsIgnoreCase(newStatus)) {
             String redisKey = BUS_LOCATION_KEY + bus.getTrackerImei();
-            BusLocation offlineLocation = (BusLocation) redisTemplate.opsForValue().get(redisKey);
+            BusLocation offlineLocation = busLocationIndex.getByImei(bus.getTrackerImei());
 
+            forgetTrackerState(bus.getTrackerImei());
             redisTemplate.delete(redisKey);
+            busLocationIndex.remove(bus.getTrackerImei());
+            stopArrivalService.removeBus(busId);
             logger.info("Cleared Redis cache for inactive bus: {}", bus.getTrackerImei());
 
             if (offlineLocation != null) {
                 // Let clients drop the inactive bus immediately
-                streamingService.broadcastBusOffline(offlineLocation);
+                busUpdateRelay.publishOffline(offlineLocation);
 
                 // Find a replacement bus using existing selection rules
                 BusLocation replacement = findReplacementBus(offlineLocation);
                 if (replacement != null) {
                     logger.info("Broadcasting replacement bus {} for offline bus {}", replacement.getBusId(), offlineLocation.getBusId());
-                    streamingService.broadcastBusUpdate(replacement);
+                    busUpdateRelay.publishUpdate(replacement);
                 } else {
                     logger.info("No replacement bus available for offline bus {} on route {} {}", 
                             offlineLocation.getBusId(), offlineLocation.getBusNumber(), offlineLocation.getTripDirection());
@@ -535,11 +541,16 @@ public class BusTrackingService {
     }
 
     public Bus saveBus(Bus bus) {
-        return busRepository.save(bus);
+        Bus saved = busRepository.save(bus);
+        eventPublisher.publishEvent(TrackerRegistryChangedEvent.forImeis(saved.getTrackerImei()));
+        return saved;
     }
 
     @Scheduled(cron = "0 0 0 * * ?", zone = "Africa/Johannesburg")
     public void clearRedisData() {
+        for (TrackerShardState state : shardStates) {
+            state.forgetAll();
+        }
         Set<String> locationKeys = redisTemplate.keys(BUS_LOCATION_KEY + "*");
         if (locationKeys != null) {
             redisTemplate.delete(locationKeys);
@@ -551,12 +562,13 @@ public class BusTrackingService {
         }
         
         redisTemplate.delete(BUS_GEO_KEY);
+        busLocationIndex.clear();
     }
 
     public void clearTrackingData() {
         clearRedisData();
-        // Also clear all bus location records from database
-        busLocationRepository.deleteAll();
+        // Also clear all bus location history from the database (truncate, not row-by-row deletes)
+        locationHistoryService.clear();
         logger.info("Cleared all tracking data from both Redis and database");
     }
 
@@ -564,18 +576,8 @@ public class BusTrackingService {
      * Get current location for a specific bus and direction
      */
     public BusLocation getBusLocation(String busNumber, String direction) {
-        Set<String> keys = redisTemplate.keys(BUS_LOCATION_KEY + "*");
-        if (keys != null) {
-            for (String key : keys) {
-                BusLocation location = (BusLocation) redisTemplate.opsForValue().get(key);
-                if (location != null && 
-                    busNumber.equalsIgnoreCase(location.getBusNumber()) && 
-                    direction.equalsIgnoreCase(location.getTripDirection())) {
-                    return location;
-                }
-            }
-        }
-        return null;
+        List<BusLocation> locations = busLocationIndex.getLocationsForRoute(busNumber, direction);
+        return locations.isEmpty() ? null : locations.get(0);
     }
 
     /**
@@ -583,13 +585,9 @@ public class BusTrackingService {
      */
     public Set<String> getActiveBuses() {
         Set<String> activeBuses = new java.util.HashSet<>();
-        Set<String> keys = redisTemplate.keys(BUS_LOCATION_KEY + "*");
-        if (keys != null) {
-            for (String key : keys) {
-                BusLocation location = (BusLocation) redisTemplate.opsForValue().get(key);
-                if (location != null && location.getBusNumber() != null) {
-                    activeBuses.add(location.getBusNumber());
-                }
+        for (BusLocation location : busLocationIndex.getAll()) {
+            if (location.getBusNumber() != null) {
+                activeBuses.add(location.getBusNumber());
             }
         }
         return activeBuses;
@@ -613,6 +611,9 @@ public class BusTrackingService {
         }
         
         logger.info("Cleanup complete: deleted {} orphaned buses", deleted);
+        if (deleted > 0) {
+            eventPublisher.publishEvent(TrackerRegistryChangedEvent.all());
+        }
         return deleted;
     }
 
@@ -671,10 +672,7 @@ public class BusTrackingService {
                 String oldDirection = payload.getTripDirection();
                 payload.setTripDirection(newDirection);
                 payload.setBusStopIndex(0); // Reset to first stop
-                
-                // Update in Redis immediately
-                String redisKey = BUS_LOCATION_KEY + payload.getTrackerImei();
-                redisTemplate.opsForValue().set(redisKey, payload, 24, TimeUnit.HOURS);
+                // Persisted to Redis by the pipelined flush at the end of processTrackerPayload
                 
                 logger.info("[ROUTE-SWITCH] ✅ Bus {} switched from {} to {} (stop 0)", 
                     payload.getBusId(), oldDirection, newDirection);
@@ -690,27 +688,13 @@ public class BusTrackingService {
      */
     private String checkAndSwitchRouteDefault(BusLocation payload, Route route) {
         try {
-            // Get all stops for this route
-            java.util.List<RouteStop> routeStops = routeStopRepository.findByRouteIdOrderByBusStopIndex(route.getId());
-            if (routeStops.isEmpty()) {
+            RouteTopology topology = routeTopologyService.get(route);
+            if (topology == null || topology.size() == 0) {
                 return null;
             }
             
-            // Find max stop index for current direction
-            Integer maxStopIndex = null;
-            if ("Northbound".equalsIgnoreCase(payload.getTripDirection())) {
-                maxStopIndex = routeStops.stream()
-                    .filter(s -> s.getNorthboundIndex() != null)
-                    .map(RouteStop::getNorthboundIndex)
-                    .max(Integer::compareTo)
-                    .orElse(null);
-            } else if ("Southbound".equalsIgnoreCase(payload.getTripDirection())) {
-                maxStopIndex = routeStops.stream()
-                    .filter(s -> s.getSouthboundIndex() != null)
-                    .map(RouteStop::getSouthboundIndex)
-                    .max(Integer::compareTo)
-                    .orElse(null);
-            }
+            // Max stop index for current direction (precomputed per route)
+            Integer maxStopIndex = topology.getMaxDirectionalIndex(payload.getTripDirection());
             
             // Check if bus reached the end
             if (maxStopIndex != null && payload.getBusStopIndex() != null && payload.getBusStopIndex() >= maxStopIndex) {
@@ -740,11 +724,25 @@ public class BusTrackingService {
         Set<String> activeBusIds = redisTemplate.keys(ACTIVE_BUS_KEY_PREFIX + companyId + ":*");
         return activeBusIds != null ? activeBusIds.size() : 0;
     }
+
+    /**
+     * Fix time reported by the tracker, falling back to the server clock when the timestamp is
+     * missing, zero or unparseable.
+     */
+    static long fixTimeMillis(BusLocation payload) {
+        try {
+            long fixTime = parseTimestampToMillis(payload.getTimestamp());
+            return fixTime > 0 ? fixTime : System.currentTimeMillis();
+        } catch (IllegalArgumentException e) {
+            return System.currentTimeMillis();
+        }
+    }
+
     /**
      * Parse timestamp string to milliseconds. Handles both numeric strings (millis) 
      * and ISO-8601 format strings.
      */
-    private long parseTimestampToMillis(String timestamp) {
+    static long parseTimestampToMillis(String timestamp) {
         if (timestamp == null) return 0;
         try {
             // Try parsing as numeric milliseconds
@@ -0,0 +1,17 @@
+package com.backend.onebus.service;
+
+import java.util.function.Consumer;
+
+/**
+ * Publish/subscribe channel shared by every backend node, carrying serialized bus events.
+ * Every subscriber on every node receives every published message, including its own.
+ */
+interface BusUpdateChannel {
+
+    void publish(String message);
+
+    void subscribe(Consumer<String> listener);
+
+    default void close() {
+    }
+}
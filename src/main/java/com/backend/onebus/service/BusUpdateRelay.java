@@ -0,0 +1,147 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.BusLocation;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Fan-out of bus updates across backend nodes.
+ *
+ * WebSocket sessions, and the subscription maps in {@link BusStreamingService}, only exist on the
+ * node the rider connected to, while a tracker's fixes are ingested by whichever node received
+ * them. In {@code local} mode (a single node) updates are broadcast straight to this node's
+ * sessions. In {@code redis} mode they are also published on a shared Redis pub/sub channel; every
+ * other node mirrors the location into its {@link BusLocationIndex} and broadcasts it to its own
+ * sessions, so each node keeps only local sessions and riders on every node see every bus.
+ */
+@Service
+public class BusUpdateRelay {
+
+    private static final Logger logger = LoggerFactory.getLogger(BusUpdateRelay.class);
+
+    private static final String TYPE_UPDATE = "update";
+    private static final String TYPE_OFFLINE = "offline";
+
+    @Autowired
+    private BusStreamingService streamingService;
+
+    @Autowired
+    private BusLocationIndex busLocationIndex;
+
+    @Autowired
+    private SegmentTravelTimeService segmentTravelTimeService;
+
+    @Autowired
+    private StopArrivalService stopArrivalService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private RedisConnectionFactory redisConnectionFactory;
+
+    @Value("${app.tracking.fanout.mode:local}")
+    private String mode;
+
+    @Value("${app.tracking.fanout.channel:onebus:bus-updates}")
+    private String channelName;
+
+    @Value("${app.tracking.fanout.queue-capacity:10000}")
+    private int queueCapacity;
+
+    // Lets a node recognise (and skip) its own messages echoed back by the channel
+    private final String nodeId = UUID.randomUUID().toString();
+    private volatile BusUpdateChannel channel;
+
+    @PostConstruct
+    public void start() {
+        if (!"redis".equalsIgnoreCase(mode)) return;
+        connect(new RedisBusUpdateChannel(redisConnectionFactory, channelName, queueCapacity));
+        logger.info("[FANOUT] Relaying bus updates over Redis channel {} as node {}", channelName, nodeId);
+    }
+
+    @PreDestroy
+    public void stop() {
+        BusUpdateChannel current = channel;
+        channel = null;
+        if (current != null) current.close();
+    }
+
+    void connect(BusUpdateChannel channel) {
+        channel.subscribe(this::receive);
+        this.channel = channel;
+    }
+
+    /**
+     * Broadcast a bus update to this node's sessions and relay it to the other nodes.
+     */
+    public void publishUpdate(BusLocation location) {
+        streamingService.broadcastBusUpdate(location);
+        relay(TYPE_UPDATE, location);
+    }
+
+    /**
+     * Broadcast that a bus went offline to this node's sessions and relay it to the other nodes.
+     */
+    public void publishOffline(BusLocation location) {
+        streamingService.broadcastBusOffline(location);
+        relay(TYPE_OFFLINE, location);
+    }
+
+    private void relay(String type, BusLocation location) {
+        BusUpdateChannel current = channel;
+        if (current == null) return;
+        try {
+            Map<String, Object> event = new LinkedHashMap<>();
+            event.put("type", type);
+            event.put("origin", nodeId);
+            event.put("location", location);
+            current.publish(objectMapper.writeValueAsString(event));
+        } catch (Exception e) {
+            // Local sessions already have it; other nodes catch up on the next fix
+            logger.warn("[FANOUT] Failed to relay {} for bus {}: {}", type, location.getBusId(), e.getMessage());
+        }
+    }
+
+    void receive(String message) {
+        try {
+            JsonNode event = objectMapper.readTree(message);
+            if (nodeId.equals(event.path("origin").asText())) return;
+            BusLocation location = objectMapper.treeToValue(event.get("location"), BusLocation.class);
+            if (location == null) return;
+
+            if (TYPE_OFFLINE.equals(event.path("type").asText())) {
+                busLocationIndex.removeLocal(location.getTrackerImei());
+                stopArrivalService.removeBus(location.getBusId());
+                streamingService.broadcastBusOffline(location);
+            } else {
+                // A fix older than the one already mirrored (e.g. delayed in the backlog) is dropped
+                if (busLocationIndex.isOlderThanCurrent(location)) {
+                    logger.debug("[FANOUT] Dropping out-of-order fix for IMEI {}", location.getTrackerImei());
+                    return;
+                }
+                busLocationIndex.updateLocal(location);
+                // Every node keeps its own travel times and arrival boards for its riders,
+                // learning from the fix time like the ingesting node does
+                long fixTime = BusTrackingService.fixTimeMillis(location);
+                segmentTravelTimeService.observe(location, fixTime);
+                stopArrivalService.onBusUpdate(location, fixTime);
+                streamingService.broadcastBusUpdate(location);
+            }
+        } catch (Exception e) {
+            logger.error("[FANOUT] Failed to handle relayed bus event: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.BusLocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Storage of bus location history.
+ *
+ * In {@code legacy} mode fixes go to the wide bus_locations table. In {@code partitioned} mode
+ * they go to bus_location_history (see V6 migration): epoch-millisecond timestamps, foreign keys
+ * to buses / bus_companies instead of repeated names, and declarative range partitions on
+ * recorded_at. This service creates partitions ahead of time, moves rows that fell into the
+ * default partition into partitions of their own, and enforces retention by dropping whole
+ * partitions, so queries bounded by recorded_at only scan the partitions they need and clearing
+ * history never needs a row-by-row delete.
+ */
+@Service
+public class LocationHistoryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocationHistoryService.class);
+
+    private static final String HISTORY_TABLE = "bus_location_history";
+    private static final String DEFAULT_PARTITION = HISTORY_TABLE + "_default";
+    private static final Pattern PARTITION_NAME = Pattern.compile(HISTORY_TABLE + "_p(\\d{8}|\\d{10})");
+    private static final DateTimeFormatter DAILY_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter HOURLY_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMddHH");
+
+    private static final String LEGACY_INSERT_SQL =
+        "INSERT INTO bus_locations (bus_id, tracker_imei, timestamp, location, lat, lon, speed_kmh, heading_degrees, " +
+        "heading_cardinal, trip_direction, bus_number, bus_driver_id, bus_driver, bus_company, last_saved_timestamp, " +
+        "bus_stop_index) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String HISTORY_INSERT_SQL =
+        "INSERT INTO " + HISTORY_TABLE + " (recorded_at, fix_time, bus_id, company_id, tracker_imei, lat, lon, " +
+        "speed_kmh, heading_degrees, trip_direction, bus_stop_index) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TrackerRegistry trackerRegistry;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${app.tracking.history.mode:legacy}")
+    private String mode;
+
+    @Value("${app.tracking.history.partition-interval:daily}")
+    private String partitionInterval;
+
+    @Value("${app.tracking.history.partitions-ahead:2}")
+    private int partitionsAhead;
+
+    @Value("${app.tracking.history.retention-days:30}")
+    private int retentionDays;
+
+    public boolean isPartitioned() {
+        return "partitioned".equalsIgnoreCase(mode);
+    }
+
+    /**
+     * Insert a batch of fixes with a single JDBC batch.
+     */
+    public void insertBatch(List<BusLocation> batch) {
+        if (isPartitioned()) {
+            jdbcTemplate.batchUpdate(HISTORY_INSERT_SQL, batch, batch.size(), this::bindHistoryRow);
+        } else {
+            jdbcTemplate.batchUpdate(LEGACY_INSERT_SQL, batch, batch.size(), this::bindLegacyRow);
+        }
+    }
+
+    /**
+     * Remove all stored history.
+     */
+    public void clear() {
+        jdbcTemplate.execute("TRUNCATE TABLE " + (isPartitioned() ? HISTORY_TABLE : "bus_locations"));
+    }
+
+    /**
+     * Create upcoming partitions, move rows that landed in the default partition into partitions
+     * of their own, and drop the ones past retention. Each step (and each partition) fails on its
+     * own, so one bad range never blocks the rest or retention.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "0 5 * * * ?")
+    public void maintainPartitions() {
+        if (!isPartitioned()) return;
+        ChronoUnit unit = isHourly() ? ChronoUnit.HOURS : ChronoUnit.DAYS;
+        LocalDateTime start = LocalDateTime.now(ZoneOffset.UTC).truncatedTo(unit);
+        int ahead = unit == ChronoUnit.HOURS ? partitionsAhead * 24 : partitionsAhead;
+        for (int i = 0; i <= ahead; i++) {
+            createPartitionSafely(start.plus(i, unit), unit);
+        }
+        try {
+            repartitionDefaultRows(unit);
+        } catch (Exception e) {
+            logger.error("[HISTORY] Failed to read default partition: {}", e.getMessage());
+        }
+        try {
+            dropExpiredPartitions();
+        } catch (Exception e) {
+            logger.error("[HISTORY] Partition retention failed: {}", e.getMessage());
+        }
+    }
+
+    private void createPartitionSafely(LocalDateTime from, ChronoUnit unit) {
+        try {
+            createPartition(from, unit);
+        } catch (Exception e) {
+            logger.error("[HISTORY] Failed to create partition from {}: {}", from, e.getMessage());
+        }
+    }
+
+    /**
+     * Rows written before the first maintenance run, or during downtime longer than
+     * partitions-ahead, land in the default partition. Give each range still within retention a
+     * partition of its own (which moves its rows out of the default partition).
+     */
+    private void repartitionDefaultRows(ChronoUnit unit) {
+        long unitMillis = unit.getDuration().toMillis();
+        long cutoffMillis = retentionCutoff().toInstant(ZoneOffset.UTC).toEpochMilli();
+        List<Long> starts = jdbcTemplate.queryForList(
+            "SELECT DISTINCT recorded_at - recorded_at % ? FROM " + DEFAULT_PARTITION + " WHERE recorded_at >= ?",
+            Long.class, unitMillis, cutoffMillis);
+        for (Long startMillis : starts) {
+            createPartitionSafely(LocalDateTime.ofInstant(Instant.ofEpochMilli(startMillis), ZoneOffset.UTC), unit);
+        }
+    }
+
+    /**
+     * Create the partition for one range. A range the default partition already holds rows for
+     * cannot be created with PARTITION OF, so the partition is built as a plain table, the rows
+     * are moved into it and it is attached, all in one transaction.
+     */
+    private void createPartition(LocalDateTime from, ChronoUnit unit) {
+        String name = HISTORY_TABLE + "_p" + from.format(unit == ChronoUnit.HOURS ? HOURLY_SUFFIX : DAILY_SUFFIX);
+        long fromMillis = from.toInstant(ZoneOffset.UTC).toEpochMilli();
+        long toMillis = from.plus(1, unit).toInstant(ZoneOffset.UTC).toEpochMilli();
+        String exists = jdbcTemplate.queryForObject("SELECT to_regclass(?)::text", String.class, name);
+        if (exists != null) return;
+
+        String range = "recorded_at >= " + fromMillis + " AND recorded_at < " + toMillis;
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.execute("CREATE TABLE " + name + " (LIKE " + HISTORY_TABLE + " INCLUDING DEFAULTS INCLUDING CONSTRAINTS)");
+            jdbcTemplate.execute("WITH moved AS (DELETE FROM " + DEFAULT_PARTITION + " WHERE " + range + " RETURNING *) " +
+                "INSERT INTO " + name + " SELECT * FROM moved");
+            jdbcTemplate.execute("ALTER TABLE " + HISTORY_TABLE + " ATTACH PARTITION " + name +
+                " FOR VALUES FROM (" + fromMillis + ") TO (" + toMillis + ")");
+        });
+    }
+
+    private void dropExpiredPartitions() {
+        LocalDateTime cutoff = retentionCutoff();
+        List<String> partitions = jdbcTemplate.queryForList(
+            "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+            "JOIN pg_class p ON p.oid = i.inhparent WHERE p.relname = ?", String.class, HISTORY_TABLE);
+        for (String partition : partitions) {
+            Matcher matcher = PARTITION_NAME.matcher(partition);
+            if (!matcher.matches()) continue;
+            String suffix = matcher.group(1);
+            LocalDateTime end = suffix.length() == 10
+                ? LocalDateTime.parse(suffix + "0000", DateTimeFormatter.ofPattern("yyyyMMddHHmmss")).plusHours(1)
+                : LocalDateTime.parse(suffix + "000000", DateTimeFormatter.ofPattern("yyyyMMddHHmmss")).plusDays(1);
+            if (!end.isAfter(cutoff)) {
+                jdbcTemplate.execute("DROP TABLE IF EXISTS " + partition);
+                logger.info("[HISTORY] Dropped expired partition {}", partition);
+            }
+        }
+        // Expired rows that never got a partition of their own
+        int deleted = jdbcTemplate.update("DELETE FROM " + DEFAULT_PARTITION + " WHERE recorded_at < ?",
+            cutoff.toInstant(ZoneOffset.UTC).toEpochMilli());
+        if (deleted > 0) {
+            logger.info("[HISTORY] Deleted {} expired rows from {}", deleted, DEFAULT_PARTITION);
+        }
+    }
+
+    private LocalDateTime retentionCutoff() {
+        return LocalDateTime.now(ZoneOffset.UTC).minusDays(retentionDays);
+    }
+
+    private boolean isHourly() {
+        return "hourly".equalsIgnoreCase(partitionInterval);
+    }
+
+    private void bindLegacyRow(PreparedStatement ps, BusLocation location) throws SQLException {
+        ps.setString(1, location.getBusId());
+        ps.setString(2, location.getTrackerImei());
+        ps.setString(3, location.getTimestamp());
+        ps.setString(4, location.getLocation());
+        ps.setDouble(5, location.getLat());
+        ps.setDouble(6, location.getLon());
+        ps.setDouble(7, location.getSpeedKmh());
+        ps.setDouble(8, location.getHeadingDegrees());
+        ps.setString(9, location.getHeadingCardinal());
+        ps.setString(10, location.getTripDirection());
+        ps.setString(11, location.getBusNumber());
+        ps.setString(12, location.getBusDriverId());
+        ps.setString(13, location.getBusDriver());
+        ps.setString(14, location.getBusCompany());
+        ps.setLong(15, location.getLastSavedTimestamp());
+        setNullableInt(ps, 16, location.getBusStopIndex());
+    }
+
+    private void bindHistoryRow(PreparedStatement ps, BusLocation location) throws SQLException {
+        TrackerRegistry.TrackerInfo tracker = trackerRegistry.get(location.getTrackerImei());
+        ps.setLong(1, location.getLastSavedTimestamp());
+        Long fixTime = parseFixTime(location.getTimestamp());
+        if (fixTime != null) {
+            ps.setLong(2, fixTime);
+        } else {
+            ps.setNull(2, Types.BIGINT);
+        }
+        ps.setString(3, location.getBusId());
+        if (tracker != null && tracker.getCompanyId() != null) {
+            ps.setLong(4, tracker.getCompanyId());
+        } else {
+            ps.setNull(4, Types.BIGINT);
+        }
+        ps.setString(5, location.getTrackerImei());
+        ps.setDouble(6, location.getLat());
+        ps.setDouble(7, location.getLon());
+        ps.setFloat(8, (float) location.getSpeedKmh());
+        ps.setFloat(9, (float) location.getHeadingDegrees());
+        ps.setString(10, location.getTripDirection());
+        setNullableInt(ps, 11, location.getBusStopIndex());
+    }
+
+    private static Long parseFixTime(String timestamp) {
+        if (timestamp == null) return null;
+        try {
+            return BusTrackingService.parseTimestampToMillis(timestamp);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void setNullableInt(PreparedStatement ps, int index, Integer value) throws SQLException {
+        if (value != null) {
+            ps.setInt(index, value);
+        } else {
+            ps.setNull(index, Types.INTEGER);
+        }
+    }
+}
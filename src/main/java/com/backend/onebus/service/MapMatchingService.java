@@ -0,0 +1,140 @@
+package com.backend.onebus.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stateful, per-bus map matching against compiled full routes.
+ *
+ * Each bus remembers the segment and distance along the route of its last match on a given
+ * route and direction. The next fix is snapped only to a forward window starting at that
+ * segment, which keeps the bus on the leg it is actually driving (out-and-back roads have a
+ * parallel segment within GPS noise) and costs O(window) instead of a whole-route search.
+ * When the windowed projection is further off the route than the threshold (first fix, long
+ * gap, detour, or a route that changed underneath), the fix is matched globally instead.
+ *
+ * Distance along the route never decreases while the bus stays matched, so jitter around a
+ * stop or at traffic lights does not move it backwards.
+ */
+@Service
+public class MapMatchingService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MapMatchingService.class);
+
+    @Value("${app.tracking.map-matching.window-meters:1000}")
+    private double windowMeters;
+
+    @Value("${app.tracking.map-matching.max-projection-meters:60}")
+    private double maxProjectionMeters;
+
+    @Value("${app.tracking.map-matching.state-ttl-ms:900000}")
+    private long stateTtlMs;
+
+    // busId|routeId_direction -> last match
+    private final Map<String, MatchState> states = new ConcurrentHashMap<>();
+
+    /**
+     * Match a bus position to the geometry, continuing from the bus's previous match on it.
+     *
+     * @return the matched position, or null for an empty geometry
+     */
+    public RouteGeometryService.SnapResult match(String busId, RouteGeometry geometry, double lat, double lon) {
+        if (geometry == null || geometry.isEmpty()) return null;
+        if (busId == null) return geometry.snap(lat, lon);
+
+        MatchState next = states.compute(stateKey(busId, geometry.getRouteId(), geometry.getDirection()),
+            (key, previous) -> advance(previous, geometry, lat, lon));
+        return next.result;
+    }
+
+    /**
+     * Distance along the route of the bus's last match on this route and direction, or null when
+     * the bus has not been matched on it.
+     */
+    public Double getDistanceAlongRoute(String busId, Long routeId, String direction) {
+        if (busId == null) return null;
+        MatchState state = states.get(stateKey(busId, routeId, direction));
+        return state != null ? state.result.cumulativeDistance : null;
+    }
+
+    /**
+     * Forget all matches of a bus, e.g. when it goes off duty.
+     */
+    public void reset(String busId) {
+        if (busId == null) return;
+        String prefix = busId + "|";
+        states.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    public int size() {
+        return states.size();
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void evictStale() {
+        long cutoff = System.currentTimeMillis() - stateTtlMs;
+        int before = states.size();
+        states.values().removeIf(state -> state.updatedAt < cutoff);
+        int evicted = before - states.size();
+        if (evicted > 0) {
+            logger.debug("[MAP-MATCH] Evicted {} stale match states", evicted);
+        }
+    }
+
+    private MatchState advance(MatchState previous, RouteGeometry geometry, double lat, double lon) {
+        long now = System.currentTimeMillis();
+        // A recompiled geometry may have different segment numbering
+        if (previous == null || previous.geometry != geometry) {
+            return new MatchState(geometry, lat, lon, geometry.snap(lat, lon), now);
+        }
+        // Same fix (several subscribers measuring from one update): reuse the match
+        if (previous.lat == lat && previous.lon == lon) {
+            previous.updatedAt = now;
+            return previous;
+        }
+
+        RouteGeometryService.SnapResult forward =
+            geometry.snapForward(lat, lon, previous.result.segmentIndex, windowMeters);
+        if (forward.projectionDistance > maxProjectionMeters) {
+            RouteGeometryService.SnapResult global = geometry.snap(lat, lon);
+            logger.debug("[MAP-MATCH] Re-matched globally on route {} {}: window projection {}m, global {}m",
+                geometry.getRouteId(), geometry.getDirection(),
+                Math.round(forward.projectionDistance), Math.round(global.projectionDistance));
+            return new MatchState(geometry, lat, lon, global, now);
+        }
+        if (forward.cumulativeDistance < previous.result.cumulativeDistance) {
+            // Backward jitter within the current segment: hold the previous distance
+            forward = new RouteGeometryService.SnapResult(previous.result.segmentIndex,
+                previous.result.cumulativeDistance, previous.result.snappedLat, previous.result.snappedLon,
+                RouteGeometry.haversineDistance(lat, lon, previous.result.snappedLat, previous.result.snappedLon));
+        }
+        return new MatchState(geometry, lat, lon, forward, now);
+    }
+
+    private static String stateKey(String busId, Long routeId, String direction) {
+        return busId + "|" + routeId + "_" + direction;
+    }
+
+    private static final class MatchState {
+        private final RouteGeometry geometry;
+        private final double lat;
+        private final double lon;
+        private final RouteGeometryService.SnapResult result;
+        private volatile long updatedAt;
+
+        private MatchState(RouteGeometry geometry, double lat, double lon,
+                           RouteGeometryService.SnapResult result, long updatedAt) {
+            this.geometry = geometry;
+            this.lat = lat;
+            this.lon = lon;
+            this.result = result;
+            this.updatedAt = updatedAt;
+        }
+    }
+}
@@ -37,6 +37,30 @@ public class MetricsService {
         recordPipelineEvent(busId, "BUS_LOCATION_PROCESSED", System.currentTimeMillis(), processingTimeMs);
     }
     
+    public void recordTrackerPayloadsRejected(int count) {
+        counters.computeIfAbsent("tracker_payloads_rejected", k -> new AtomicLong(0)).addAndGet(count);
+    }
+    
+    public void recordPersistenceFlush(int rows, long flushTimeMs) {
+        counters.computeIfAbsent("persistence_rows_written", k -> new AtomicLong(0)).addAndGet(rows);
+        recordLatency("persistence_flush", flushTimeMs);
+    }
+    
+    public void recordPersistenceRowsDropped(int rows) {
+        counters.computeIfAbsent("persistence_rows_dropped", k -> new AtomicLong(0)).addAndGet(rows);
+    }
+    
+    public void recordPersistenceRowsDownsampled(int rows) {
+        counters.computeIfAbsent("persistence_rows_downsampled", k -> new AtomicLong(0)).addAndGet(rows);
+    }
+    
+    /**
+     * Record the latest value of a point-in-time measurement (queue depth, etc).
+     */
+    public void recordGauge(String key, long value) {
+        currentStats.put(key, value);
+    }
+    
     public void recordWebSocketBroadcast(String busId, int subscriberCount, long broadcastTimeMs) {
         incrementCounter("websocket_broadcasts");
         recordLatency("websocket_broadcast", broadcastTimeMs);
@@ -138,6 +162,9 @@ public class MetricsService {
         });
         metrics.put("latency", latencyStats);
         
+        // Point-in-time gauges
+        metrics.put("gauges", new HashMap<>(currentStats));
+        
         // Active WebSocket sessions
         long activeSessions = sessionMetrics.values().stream()
             .filter(session -> session.getDisconnectedAt() == null)
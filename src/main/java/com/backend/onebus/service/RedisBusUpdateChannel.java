@@ -0,0 +1,77 @@
+package com.backend.onebus.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * {@link BusUpdateChannel} over Redis pub/sub, using the Redis instance the nodes already share
+ * for live locations.
+ *
+ * Messages are handed to listeners on one dispatch thread in the order Redis delivered them (the
+ * container's default executor would start a thread per message and lose that order). If the
+ * bounded backlog fills up the oldest message is dropped; a later fix for the same bus supersedes
+ * it anyway.
+ */
+class RedisBusUpdateChannel implements BusUpdateChannel {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisBusUpdateChannel.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final ChannelTopic topic;
+    private final ThreadPoolExecutor dispatcher;
+    private final RedisMessageListenerContainer container;
+
+    RedisBusUpdateChannel(RedisConnectionFactory connectionFactory, String channel, int queueCapacity) {
+        this.redisTemplate = new StringRedisTemplate(connectionFactory);
+        this.topic = new ChannelTopic(channel);
+        this.dispatcher = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            runnable -> {
+                Thread thread = new Thread(runnable, "bus-update-relay");
+                thread.setDaemon(true);
+                return thread;
+            },
+            (runnable, executor) -> {
+                if (executor.isShutdown()) return;
+                executor.getQueue().poll();
+                logger.warn("[FANOUT] Relay backlog full ({} messages) - dropped the oldest", queueCapacity);
+                executor.getQueue().offer(runnable);
+            });
+        this.container = new RedisMessageListenerContainer();
+        this.container.setConnectionFactory(connectionFactory);
+        this.container.setTaskExecutor(dispatcher);
+        this.container.afterPropertiesSet();
+        this.container.start();
+    }
+
+    @Override
+    public void publish(String message) {
+        redisTemplate.convertAndSend(topic.getTopic(), message);
+    }
+
+    @Override
+    public void subscribe(Consumer<String> listener) {
+        container.addMessageListener(
+            (message, pattern) -> listener.accept(new String(message.getBody(), StandardCharsets.UTF_8)), topic);
+    }
+
+    @Override
+    public void close() {
+        try {
+            container.destroy();
+        } catch (Exception ignored) {
+            // Shutting down anyway
+        }
+        dispatcher.shutdown();
+    }
+}
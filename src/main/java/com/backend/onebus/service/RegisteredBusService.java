@@ -2,6 +2,7 @@ package com.backend.onebus.service;
 
 import com.backend.onebus.dto.RegisteredBusCreateDTO;
 import com.backend.onebus.dto.RegisteredBusResponseDTO;
+import com.backend.onebus.event.TrackerRegistryChangedEvent;
 import com.backend.onebus.model.Bus;
 import com.backend.onebus.model.BusCompany;
 import com.backend.onebus.model.RegisteredBus;
@@ -13,6 +14,7 @@ import com.backend.onebus.repository.DriverRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -41,6 +43,9 @@ public class RegisteredBusService {
     @Autowired
     private DriverRepository driverRepository;
 
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
     /**
      * Create a new registered bus
      */
@@ -78,6 +83,7 @@ public class RegisteredBusService {
         
         // Update dashboard stats
         dashboardStatsService.incrementBuses();
+        eventPublisher.publishEvent(TrackerRegistryChangedEvent.forImeis(savedBus.getTrackerImei()));
 
         return convertToResponseDTO(savedBus);
     }
@@ -89,8 +95,9 @@ public class RegisteredBusService {
         RegisteredBus registeredBus = registeredBusRepository.findById(id)
             .orElseThrow(() -> new IllegalArgumentException("Registered bus not found with ID: " + id));
 
-        // Track the old driver ID before updating
+        // Track the old driver ID and tracker before updating
         String oldDriverId = registeredBus.getDriverId();
+        String oldTrackerImei = registeredBus.getTrackerImei();
         String newDriverId = updateDTO.getDriverId();
 
         // Validate company exists if companyId is provided
@@ -126,6 +133,7 @@ public class RegisteredBusService {
 
         // Handle driver status changes
         handleDriverStatusChange(oldDriverId, newDriverId, RegisteredBus.BusStatus.valueOf(updateDTO.getStatus().toUpperCase()));
+        eventPublisher.publishEvent(TrackerRegistryChangedEvent.forImeis(oldTrackerImei, savedBus.getTrackerImei()));
 
         return convertToResponseDTO(savedBus);
     }
@@ -134,10 +142,10 @@ public class RegisteredBusService {
      * Delete a registered bus
      */
     public void deleteRegisteredBus(Long id) {
-        if (!registeredBusRepository.existsById(id)) {
-            throw new IllegalArgumentException("Registered bus not found with ID: " + id);
-        }
+        RegisteredBus registeredBus = registeredBusRepository.findById(id)
+            .orElseThrow(() -> new IllegalArgumentException("Registered bus not found with ID: " + id));
         registeredBusRepository.deleteById(id);
+        eventPublisher.publishEvent(TrackerRegistryChangedEvent.forImeis(registeredBus.getTrackerImei()));
         
         // Update dashboard stats
         dashboardStatsService.decrementBuses();
@@ -0,0 +1,95 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.BusLocation;
+import com.backend.onebus.model.Route;
+import com.backend.onebus.repository.RouteRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+
+/**
+ * Ranks the buses approaching a client by distance along the route or by ETA, instead of by
+ * stop index difference (which treats a 200m and a 2km stop gap alike).
+ *
+ * The client is snapped to the route's compiled geometry and each bus is placed by
+ * {@link MapMatchingService}, which continues from the bus's previous match and reuses it for a
+ * fix it has already matched (e.g. during the last broadcast).
+ */
+@Service
+public class RouteDistanceSelector {
+
+    private static final Logger logger = LoggerFactory.getLogger(RouteDistanceSelector.class);
+
+    // A bus this close past the client's position still counts as at the stop
+    private static final double AT_CLIENT_METERS = 30.0;
+    // Speed assumed for ETA when the bus reports none (same as route distance ETAs), and the
+    // floor applied so a bus waiting at a stop is not ranked as never arriving
+    private static final double DEFAULT_SPEED_KMH = 30.0;
+    private static final double MIN_SPEED_KMH = 10.0;
+
+    @Autowired
+    private RouteRepository routeRepository;
+
+    @Autowired
+    private RouteGeometryService routeGeometryService;
+
+    @Autowired
+    private MapMatchingService mapMatchingService;
+
+    /**
+     * Compiled geometry of a bus number's route in a direction, or null when it has none (the
+     * caller then falls back to stop indexes).
+     */
+    public RouteGeometry geometryFor(String busNumber, String direction) {
+        if (busNumber == null || direction == null) return null;
+        try {
+            Route route = routeRepository.findByBusNumber(busNumber)
+                .stream()
+                .filter(r -> direction.equalsIgnoreCase(r.getDirection()))
+                .findFirst()
+                .orElse(null);
+            if (route == null) return null;
+            RouteGeometry geometry = routeGeometryService.getGeometry(route.getId(), direction);
+            return geometry != null && !geometry.isEmpty() ? geometry : null;
+        } catch (Exception e) {
+            logger.warn("[SELECTION] Failed to load route geometry for {} {}: {}", busNumber, direction, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The bus behind or at the client along the route with the least distance ({@code DISTANCE})
+     * or the earliest arrival ({@code ETA}), or null if every bus has passed the client.
+     */
+    public BusLocation closestApproaching(RouteGeometry geometry, double clientLat, double clientLon,
+                                          Collection<BusLocation> buses, BusSelectionMode mode) {
+        RouteGeometryService.SnapResult client = geometry.snap(clientLat, clientLon);
+        if (client == null) return null;
+
+        BusLocation best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (BusLocation bus : buses) {
+            RouteGeometryService.SnapResult snap = mapMatchingService.match(bus.getBusId(), geometry, bus.getLat(), bus.getLon());
+            if (snap == null) continue;
+            double gapMeters = client.cumulativeDistance - snap.cumulativeDistance;
+            if (gapMeters < -AT_CLIENT_METERS) continue;
+
+            double score = Math.max(0, gapMeters);
+            if (mode == BusSelectionMode.ETA) {
+                double speedKmh = bus.getSpeedKmh() > 0 ? Math.max(bus.getSpeedKmh(), MIN_SPEED_KMH) : DEFAULT_SPEED_KMH;
+                score = score / (speedKmh / 3.6);
+            }
+            if (score < bestScore) {
+                best = bus;
+                bestScore = score;
+            }
+        }
+        if (best != null) {
+            logger.debug("[SELECTION] {} ranking picked bus {} (score {})", mode, best.getBusId(), Math.round(bestScore));
+        }
+        return best;
+    }
+}
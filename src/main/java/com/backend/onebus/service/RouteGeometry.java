@@ -0,0 +1,387 @@
+package com.backend.onebus.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled, immutable polyline of one full route (route id + direction).
+ *
+ * Coordinates and cumulative distances are held as primitive arrays, parsed once from the
+ * FullRoute JSON columns, so snapping a position and measuring along the route needs no JSON
+ * parsing or boxing.
+ *
+ * Long polylines also get a uniform grid over segment bounding boxes. A snap searches outward
+ * ring by ring from the position's cell and stops once no unvisited cell can hold a segment
+ * closer than the best found so far, using great-circle lower bounds on distance. The result is
+ * identical to {@link #snapLinear} (same segment, same tie-break on the lowest index).
+ */
+public final class RouteGeometry {
+
+    static final RouteGeometry EMPTY = new RouteGeometry(null, null, new double[0], new double[0], new double[0]);
+
+    private static final double EARTH_RADIUS_METERS = 6371000.0;
+    private static final double METERS_PER_DEGREE = EARTH_RADIUS_METERS * Math.PI / 180.0;
+    // Below this many segments a linear scan is as fast as the index
+    static final int INDEX_MIN_SEGMENTS = 64;
+    // Cells hold a handful of segments: a few average segment lengths, within these limits
+    private static final double GRID_CELL_SEGMENTS = 4.0;
+    private static final double GRID_CELL_MIN_METERS = 25.0;
+    private static final double GRID_CELL_MAX_METERS = 500.0;
+    // Positions further than this outside the route's bounds use the linear scan
+    private static final double INDEX_MAX_OFFSET_METERS = 2_000.0;
+    // Lower bounds are pruned with a relative margin so rounding can never drop a tie
+    private static final double BOUND_EPSILON = 1e-9;
+
+    private final Long routeId;
+    private final String direction;
+    private final double[] lats;
+    private final double[] lons;
+    private final double[] cumulativeDistances;
+    private final SegmentGrid grid;
+
+    RouteGeometry(Long routeId, String direction, double[] lats, double[] lons, double[] cumulativeDistances) {
+        this.routeId = routeId;
+        this.direction = direction;
+        this.lats = lats;
+        this.lons = lons;
+        this.cumulativeDistances = cumulativeDistances;
+        this.grid = lats.length - 1 >= INDEX_MIN_SEGMENTS ? new SegmentGrid(lats, lons) : null;
+    }
+
+    /**
+     * Build a geometry, computing cumulative distances when none (or a mismatched set) are given.
+     */
+    static RouteGeometry of(Long routeId, String direction, double[] lats, double[] lons, double[] cumulativeDistances) {
+        if (cumulativeDistances == null || cumulativeDistances.length != lats.length) {
+            cumulativeDistances = cumulativeDistances(lats, lons);
+        }
+        return new RouteGeometry(routeId, direction, lats, lons, cumulativeDistances);
+    }
+
+    public Long getRouteId() {
+        return routeId;
+    }
+
+    public String getDirection() {
+        return direction;
+    }
+
+    public int size() {
+        return lats.length;
+    }
+
+    public boolean isEmpty() {
+        return lats.length == 0;
+    }
+
+    public double getLat(int vertex) {
+        return lats[vertex];
+    }
+
+    public double getLon(int vertex) {
+        return lons[vertex];
+    }
+
+    public double getCumulativeDistance(int vertex) {
+        return cumulativeDistances[vertex];
+    }
+
+    /**
+     * Total length of the polyline in meters.
+     */
+    public double getLengthMeters() {
+        return cumulativeDistances.length > 0 ? cumulativeDistances[cumulativeDistances.length - 1] : 0.0;
+    }
+
+    /**
+     * Snap a GPS position to the closest point on the polyline.
+     *
+     * @return the snapped position and its cumulative distance, or null for an empty route
+     */
+    public RouteGeometryService.SnapResult snap(double gpsLat, double gpsLon) {
+        if (lats.length == 0) return null;
+        if (grid == null || !grid.covers(gpsLat, gpsLon)) {
+            return snapLinear(gpsLat, gpsLon);
+        }
+        Nearest nearest = new Nearest();
+        grid.search(this, gpsLat, gpsLon, nearest);
+        return toSnapResult(gpsLat, gpsLon, nearest);
+    }
+
+    /**
+     * Snap to the segments starting at {@code fromSegment} and reaching no further than
+     * {@code windowMeters} along the route from that segment's start. At least one segment is
+     * always tested. Used to follow a vehicle forward from its previous match.
+     *
+     * @return the snapped position within the window, or null for an empty route
+     */
+    public RouteGeometryService.SnapResult snapForward(double gpsLat, double gpsLon, int fromSegment, double windowMeters) {
+        if (lats.length < 2) return snapLinear(gpsLat, gpsLon);
+        int segments = lats.length - 1;
+        int first = Math.max(0, Math.min(fromSegment, segments - 1));
+        double limit = cumulativeDistances[first] + windowMeters;
+        Nearest nearest = new Nearest();
+        for (int i = first; i < segments; i++) {
+            if (i > first && cumulativeDistances[i] > limit) break;
+            testSegment(i, gpsLat, gpsLon, nearest);
+        }
+        return toSnapResult(gpsLat, gpsLon, nearest);
+    }
+
+    /**
+     * Snap by testing every segment. Reference implementation for the indexed {@link #snap}.
+     */
+    RouteGeometryService.SnapResult snapLinear(double gpsLat, double gpsLon) {
+        if (lats.length == 0) return null;
+        Nearest nearest = new Nearest();
+        for (int i = 0; i < lats.length - 1; i++) {
+            testSegment(i, gpsLat, gpsLon, nearest);
+        }
+        return toSnapResult(gpsLat, gpsLon, nearest);
+    }
+
+    /**
+     * Project onto segment i in degree space (t = 0 is the start point, t = 1 the end) and keep
+     * it if closer than the current best, or equally close with a lower index.
+     */
+    private void testSegment(int i, double gpsLat, double gpsLon, Nearest nearest) {
+        double x1 = lats[i];
+        double y1 = lons[i];
+        double dx = lats[i + 1] - x1;
+        double dy = lons[i + 1] - y1;
+
+        double t = 0.0;
+        if (dx != 0 || dy != 0) {
+            t = ((gpsLat - x1) * dx + (gpsLon - y1) * dy) / (dx * dx + dy * dy);
+            t = Math.max(0.0, Math.min(1.0, t));
+        }
+        double lat = x1 + t * dx;
+        double lon = y1 + t * dy;
+        double distance = haversineDistance(gpsLat, gpsLon, lat, lon);
+
+        if (distance < nearest.distance || (distance == nearest.distance && i < nearest.segment)) {
+            nearest.distance = distance;
+            nearest.segment = i;
+            nearest.t = t;
+            nearest.lat = lat;
+            nearest.lon = lon;
+        }
+    }
+
+    private RouteGeometryService.SnapResult toSnapResult(double gpsLat, double gpsLon, Nearest nearest) {
+        double interpolatedDistance;
+        if (lats.length == 1) {
+            nearest.lat = lats[0];
+            nearest.lon = lons[0];
+            nearest.distance = haversineDistance(gpsLat, gpsLon, lats[0], lons[0]);
+            interpolatedDistance = cumulativeDistances[0];
+        } else {
+            double distanceAtSegmentStart = cumulativeDistances[nearest.segment];
+            double distanceAtSegmentEnd = cumulativeDistances[nearest.segment + 1];
+            interpolatedDistance = distanceAtSegmentStart +
+                (distanceAtSegmentEnd - distanceAtSegmentStart) * nearest.t;
+        }
+
+        return new RouteGeometryService.SnapResult(
+            nearest.segment,
+            interpolatedDistance,
+            nearest.lat,
+            nearest.lon,
+            nearest.distance
+        );
+    }
+
+    static double[] cumulativeDistances(double[] lats, double[] lons) {
+        double[] cumulative = new double[lats.length];
+        for (int i = 1; i < lats.length; i++) {
+            cumulative[i] = cumulative[i - 1] + haversineDistance(lats[i - 1], lons[i - 1], lats[i], lons[i]);
+        }
+        return cumulative;
+    }
+
+    /**
+     * Haversine formula to calculate distance between two lat/lon points in meters.
+     */
+    static double haversineDistance(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                   Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
+                   Math.sin(dLon / 2) * Math.sin(dLon / 2);
+
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+
+        return EARTH_RADIUS_METERS * c;
+    }
+
+    /**
+     * Best segment found so far during a snap.
+     */
+    private static final class Nearest {
+        private int segment = 0;
+        private double t = 0.0;
+        private double lat;
+        private double lon;
+        private double distance = Double.MAX_VALUE;
+    }
+
+    /**
+     * Uniform grid over segment bounding boxes: each non-empty cell lists the segments whose box
+     * overlaps it, in index order.
+     */
+    private static final class SegmentGrid {
+        private final double cellLat;
+        private final double cellLon;
+        private final int minRow;
+        private final int maxRow;
+        private final int minColumn;
+        private final int maxColumn;
+        private final double minLat;
+        private final double maxLat;
+        private final double minLon;
+        private final double maxLon;
+        // Smallest cos(latitude) over the route, for longitude distance lower bounds
+        private final double minCosLat;
+        private final double[] segMinLat;
+        private final double[] segMaxLat;
+        private final double[] segMinLon;
+        private final double[] segMaxLon;
+        private final Map<Long, int[]> cells;
+
+        private SegmentGrid(double[] lats, double[] lons) {
+            int segments = lats.length - 1;
+            segMinLat = new double[segments];
+            segMaxLat = new double[segments];
+            segMinLon = new double[segments];
+            segMaxLon = new double[segments];
+            double loLat = Double.MAX_VALUE, hiLat = -Double.MAX_VALUE;
+            double loLon = Double.MAX_VALUE, hiLon = -Double.MAX_VALUE;
+            for (int i = 0; i < segments; i++) {
+                segMinLat[i] = Math.min(lats[i], lats[i + 1]);
+                segMaxLat[i] = Math.max(lats[i], lats[i + 1]);
+                segMinLon[i] = Math.min(lons[i], lons[i + 1]);
+                segMaxLon[i] = Math.max(lons[i], lons[i + 1]);
+                loLat = Math.min(loLat, segMinLat[i]);
+                hiLat = Math.max(hiLat, segMaxLat[i]);
+                loLon = Math.min(loLon, segMinLon[i]);
+                hiLon = Math.max(hiLon, segMaxLon[i]);
+            }
+            minLat = loLat;
+            maxLat = hiLat;
+            minLon = loLon;
+            maxLon = hiLon;
+            minCosLat = Math.max(Math.min(Math.cos(Math.toRadians(loLat)), Math.cos(Math.toRadians(hiLat))), 0.01);
+            double lengthMeters = 0;
+            for (int i = 0; i < segments; i++) {
+                lengthMeters += haversineDistance(lats[i], lons[i], lats[i + 1], lons[i + 1]);
+            }
+            double cellMeters = Math.max(GRID_CELL_MIN_METERS,
+                Math.min(GRID_CELL_MAX_METERS, GRID_CELL_SEGMENTS * lengthMeters / segments));
+            cellLat = cellMeters / METERS_PER_DEGREE;
+            cellLon = cellMeters / (METERS_PER_DEGREE * minCosLat);
+            minRow = row(loLat);
+            maxRow = row(hiLat);
+            minColumn = column(loLon);
+            maxColumn = column(hiLon);
+
+            Map<Long, List<Integer>> buckets = new HashMap<>();
+            for (int i = 0; i < segments; i++) {
+                for (int r = row(segMinLat[i]); r <= row(segMaxLat[i]); r++) {
+                    for (int c = column(segMinLon[i]); c <= column(segMaxLon[i]); c++) {
+                        buckets.computeIfAbsent(key(r, c), k -> new ArrayList<>()).add(i);
+                    }
+                }
+            }
+            cells = new HashMap<>();
+            buckets.forEach((k, list) -> cells.put(k, list.stream().mapToInt(Integer::intValue).toArray()));
+        }
+
+        private boolean covers(double lat, double lon) {
+            double latMargin = INDEX_MAX_OFFSET_METERS / METERS_PER_DEGREE;
+            double lonMargin = INDEX_MAX_OFFSET_METERS / (METERS_PER_DEGREE * minCosLat);
+            return lat >= minLat - latMargin && lat <= maxLat + latMargin
+                && lon >= minLon - lonMargin && lon <= maxLon + lonMargin;
+        }
+
+        private void search(RouteGeometry geometry, double lat, double lon, Nearest nearest) {
+            int row = row(lat);
+            int column = column(lon);
+            double cosLat = Math.cos(Math.toRadians(lat));
+            for (int ring = 0; ; ring++) {
+                for (int r = row - ring; r <= row + ring; r++) {
+                    boolean edgeRow = r == row - ring || r == row + ring;
+                    int step = edgeRow ? 1 : 2 * ring;
+                    for (int c = column - ring; c <= column + ring; c += Math.max(step, 1)) {
+                        int[] segments = cells.get(key(r, c));
+                        if (segments == null) continue;
+                        for (int i : segments) {
+                            if (lowerBound(lat, lon, cosLat, segMinLat[i], segMaxLat[i], segMinLon[i], segMaxLon[i])
+                                    > nearest.distance * (1 + BOUND_EPSILON)) {
+                                continue;
+                            }
+                            geometry.testSegment(i, lat, lon, nearest);
+                        }
+                    }
+                }
+                boolean coversGrid = row - ring <= minRow && row + ring >= maxRow
+                    && column - ring <= minColumn && column + ring >= maxColumn;
+                if (coversGrid) return;
+                // Anything not yet visited lies outside this block of cells
+                double outside = distanceToOutside(lat, lon, cosLat,
+                    (row - ring) * cellLat, (row + ring + 1) * cellLat,
+                    (column - ring) * cellLon, (column + ring + 1) * cellLon);
+                if (outside > nearest.distance * (1 + BOUND_EPSILON)) return;
+            }
+        }
+
+        /**
+         * Great-circle lower bound from a position to any point inside a lat/lon box.
+         */
+        private double lowerBound(double lat, double lon, double cosLat,
+                                  double boxMinLat, double boxMaxLat, double boxMinLon, double boxMaxLon) {
+            double dLat = Math.max(0.0, Math.max(boxMinLat - lat, lat - boxMaxLat));
+            double dLon = Math.max(0.0, Math.max(boxMinLon - lon, lon - boxMaxLon));
+            return boundMeters(dLat, dLon, cosLat);
+        }
+
+        /**
+         * Great-circle lower bound from a position inside a lat/lon box to any point outside it.
+         */
+        private double distanceToOutside(double lat, double lon, double cosLat,
+                                         double boxMinLat, double boxMaxLat, double boxMinLon, double boxMaxLon) {
+            double dLat = Math.max(0.0, Math.min(lat - boxMinLat, boxMaxLat - lat));
+            double dLon = Math.max(0.0, Math.min(lon - boxMinLon, boxMaxLon - lon));
+            return Math.min(boundMeters(dLat, 0.0, cosLat), boundMeters(0.0, dLon, cosLat));
+        }
+
+        /**
+         * Haversine: hav(d) = hav(dLat) + cos(lat1)cos(lat2)hav(dLon), with cos(lat2) >= minCosLat.
+         * Bounded below without trig using asin(x) >= x and sin(y) >= y - y^3/6 (y >= 0).
+         */
+        private double boundMeters(double dLatDegrees, double dLonDegrees, double cosLat) {
+            double sinLat = sinLowerBound(Math.toRadians(dLatDegrees) / 2);
+            double sinLon = sinLowerBound(Math.toRadians(Math.min(dLonDegrees, 180.0)) / 2);
+            double h = sinLat * sinLat + Math.max(cosLat, 0.0) * minCosLat * sinLon * sinLon;
+            return 2 * EARTH_RADIUS_METERS * Math.sqrt(h);
+        }
+
+        private static double sinLowerBound(double y) {
+            return Math.max(0.0, y - y * y * y / 6);
+        }
+
+        private int row(double lat) {
+            return (int) Math.floor(lat / cellLat);
+        }
+
+        private int column(double lon) {
+            return (int) Math.floor(lon / cellLon);
+        }
+
+        private static long key(int row, int column) {
+            return ((long) row << 32) | (column & 0xffffffffL);
+        }
+    }
+}
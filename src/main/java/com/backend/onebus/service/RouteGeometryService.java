@@ -1,27 +1,36 @@
 package com.backend.onebus.service;
 
 import com.backend.onebus.controller.FullRouteController.Coordinate;
+import com.backend.onebus.event.RouteTopologyChangedEvent;
 import com.backend.onebus.model.FullRoute;
 import com.backend.onebus.repository.FullRouteRepository;
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Service for route geometry calculations using linear referencing.
  * Provides snap-to-path and distance-along-route calculations for accurate bus tracking.
+ *
+ * Full routes are compiled once into {@link RouteGeometry} instances (primitive coordinate and
+ * cumulative distance arrays) and cached per route id and direction, including "no full route"
+ * results. The cache is invalidated when full routes are written or their route changes.
  */
 @Service
 public class RouteGeometryService {
     
     private static final Logger logger = LoggerFactory.getLogger(RouteGeometryService.class);
-    private static final double EARTH_RADIUS_METERS = 6371000.0; // Earth radius in meters
     
     @Autowired
     private FullRouteRepository fullRouteRepository;
@@ -29,6 +38,15 @@ public class RouteGeometryService {
     @Autowired
     private ObjectMapper objectMapper;
     
+    @Autowired(required = false)
+    private CacheManager cacheManager;
+    
+    @Autowired(required = false)
+    private MapMatchingService mapMatchingService;
+    
+    // routeId_direction -> compiled geometry (RouteGeometry.EMPTY when there is no full route)
+    private final Map<String, RouteGeometry> geometries = new ConcurrentHashMap<>();
+    
     /**
      * Calculate cumulative distances along a route from the start point.
      * Returns an array where each element is the total distance from the start to that coordinate.
@@ -52,7 +70,7 @@ public class RouteGeometryService {
             Coordinate prev = coordinates.get(i - 1);
             Coordinate curr = coordinates.get(i);
             
-            double segmentDistance = haversineDistance(
+            double segmentDistance = RouteGeometry.haversineDistance(
                 prev.getLat(), prev.getLon(),
                 curr.getLat(), curr.getLon()
             );
@@ -91,49 +109,49 @@ public class RouteGeometryService {
             return null;
         }
         
-        double minDistance = Double.MAX_VALUE;
-        int closestSegmentIndex = 0;
-        double closestSegmentT = 0.0; // Parameter t in range [0, 1] for interpolation
-        double closestLat = routeCoordinates.get(0).getLat();
-        double closestLon = routeCoordinates.get(0).getLon();
-        
-        // Check each segment of the route
-        for (int i = 0; i < routeCoordinates.size() - 1; i++) {
-            Coordinate p1 = routeCoordinates.get(i);
-            Coordinate p2 = routeCoordinates.get(i + 1);
-            
-            // Find the closest point on this segment to the GPS position
-            PointOnSegment pointOnSegment = closestPointOnSegment(
-                gpsLat, gpsLon,
-                p1.getLat(), p1.getLon(),
-                p2.getLat(), p2.getLon()
-            );
-            
-            if (pointOnSegment.distance < minDistance) {
-                minDistance = pointOnSegment.distance;
-                closestSegmentIndex = i;
-                closestSegmentT = pointOnSegment.t;
-                closestLat = pointOnSegment.lat;
-                closestLon = pointOnSegment.lon;
-            }
+        int n = routeCoordinates.size();
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        double[] cumulative = new double[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = routeCoordinates.get(i).getLat();
+            lons[i] = routeCoordinates.get(i).getLon();
+            cumulative[i] = cumulativeDistances.get(i);
+        }
+        return new RouteGeometry(null, null, lats, lons, cumulative).snap(gpsLat, gpsLon);
+    }
+    
+    /**
+     * Compiled geometry of the full route for a route id and direction, loaded and parsed on
+     * first use. Returns null if no full route with coordinates exists.
+     */
+    public RouteGeometry getGeometry(Long routeId, String direction) {
+        RouteGeometry geometry = geometries.computeIfAbsent(routeId + "_" + direction, k -> loadGeometry(routeId, direction));
+        return geometry.isEmpty() ? null : geometry;
+    }
+    
+    /**
+     * Drop the compiled geometries (all directions) of a route.
+     */
+    public void invalidateRoute(Long routeId) {
+        if (routeId == null) return;
+        String prefix = routeId + "_";
+        geometries.keySet().removeIf(key -> key.startsWith(prefix));
+        clearFullRouteCache();
+    }
+    
+    public void invalidateAll() {
+        geometries.clear();
+        clearFullRouteCache();
+    }
+    
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRouteTopologyChanged(RouteTopologyChangedEvent event) {
+        if (event.isFullReload()) {
+            invalidateAll();
+        } else {
+            event.getRouteIds().forEach(this::invalidateRoute);
         }
-        
-        // Calculate the interpolated cumulative distance
-        double distanceAtSegmentStart = cumulativeDistances.get(closestSegmentIndex);
-        double distanceAtSegmentEnd = cumulativeDistances.get(closestSegmentIndex + 1);
-        double interpolatedDistance = distanceAtSegmentStart + 
-            (distanceAtSegmentEnd - distanceAtSegmentStart) * closestSegmentT;
-        
-        logger.debug("Snapped GPS ({}, {}) to segment {} at t={}, cumulative distance: {} meters, projection distance: {} meters",
-                    gpsLat, gpsLon, closestSegmentIndex, closestSegmentT, interpolatedDistance, minDistance);
-        
-        return new SnapResult(
-            closestSegmentIndex,
-            interpolatedDistance,
-            closestLat,
-            closestLon,
-            minDistance
-        );
     }
     
     /**
@@ -151,55 +169,36 @@ public class RouteGeometryService {
     public RouteDistanceResult calculateRouteDistance(double busLat, double busLon,
                                                       double userLat, double userLon,
                                                       Long routeId, String direction) {
+        return calculateRouteDistance(null, busLat, busLon, userLat, userLon, routeId, direction);
+    }
+    
+    /**
+     * Calculate the distance along a route from a tracked bus to a user. The bus position is
+     * map-matched from its previous position on the route (see {@link MapMatchingService}), so its
+     * distance along the route only moves forward; without a bus id it is snapped globally.
+     */
+    public RouteDistanceResult calculateRouteDistance(String busId, double busLat, double busLon,
+                                                      double userLat, double userLon,
+                                                      Long routeId, String direction) {
         try {
-            // Find the full route
-            List<FullRoute> routes = fullRouteRepository.findByRouteIdAndDirection(routeId, direction);
-            if (routes.isEmpty()) {
+            RouteGeometry geometry = getGeometry(routeId, direction);
+            if (geometry == null) {
                 logger.warn("No full route found for routeId={}, direction={}", routeId, direction);
                 return null;
             }
             
-            FullRoute fullRoute = routes.get(0);
-            
-            // Parse coordinates and cumulative distances
-            List<Coordinate> coordinates = parseCoordinates(fullRoute.getCoordinatesJson());
-            List<Double> cumulativeDistances = parseCumulativeDistances(fullRoute.getCumulativeDistancesJson());
-            
-            // If cumulative distances are missing, calculate them on the fly
-            if (cumulativeDistances == null || cumulativeDistances.isEmpty()) {
-                logger.info("Cumulative distances not found for route {}, calculating on the fly", routeId);
-                cumulativeDistances = calculateCumulativeDistances(coordinates);
-            }
-            
             // Snap bus and user to the route
-            SnapResult busSnap = snapToPath(busLat, busLon, coordinates, cumulativeDistances);
-            SnapResult userSnap = snapToPath(userLat, userLon, coordinates, cumulativeDistances);
+            SnapResult busSnap = mapMatchingService != null
+                ? mapMatchingService.match(busId, geometry, busLat, busLon)
+                : geometry.snap(busLat, busLon);
+            SnapResult userSnap = geometry.snap(userLat, userLon);
             
             if (busSnap == null || userSnap == null) {
                 logger.warn("Failed to snap positions to route");
                 return null;
             }
             
-            // Calculate distance along the route
-            double distanceMeters = Math.abs(userSnap.cumulativeDistance - busSnap.cumulativeDistance);
-            
-            // Calculate ETA (assuming average speed of 30 km/h)
-            double averageSpeedKmH = 30.0;
-            double distanceKm = distanceMeters / 1000.0;
-            double estimatedTimeMinutes = (distanceKm / averageSpeedKmH) * 60.0;
-            
-            logger.info("Route distance calculated: {} meters ({} km), ETA: {} minutes", 
-                       distanceMeters, distanceKm, estimatedTimeMinutes);
-            
-            return new RouteDistanceResult(
-                distanceMeters,
-                distanceKm,
-                estimatedTimeMinutes,
-                busSnap.segmentIndex,
-                userSnap.segmentIndex,
-                busSnap.projectionDistance,
-                userSnap.projectionDistance
-            );
+            return distanceBetween(busSnap, userSnap);
             
         } catch (Exception e) {
             logger.error("Error calculating route distance: {}", e.getMessage(), e);
@@ -208,88 +207,82 @@ public class RouteGeometryService {
     }
     
     /**
-     * Haversine formula to calculate distance between two lat/lon points in meters.
+     * Distance and ETA along a route between two positions already snapped to the same geometry.
      */
-    private double haversineDistance(double lat1, double lon1, double lat2, double lon2) {
-        double dLat = Math.toRadians(lat2 - lat1);
-        double dLon = Math.toRadians(lon2 - lon1);
+    public RouteDistanceResult distanceBetween(SnapResult busSnap, SnapResult userSnap) {
+        // Calculate distance along the route
+        double distanceMeters = Math.abs(userSnap.cumulativeDistance - busSnap.cumulativeDistance);
         
-        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
-                   Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
-                   Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        // Calculate ETA (assuming average speed of 30 km/h)
+        double averageSpeedKmH = 30.0;
+        double distanceKm = distanceMeters / 1000.0;
+        double estimatedTimeMinutes = (distanceKm / averageSpeedKmH) * 60.0;
         
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        logger.debug("Route distance calculated: {} meters ({} km), ETA: {} minutes", 
+                   distanceMeters, distanceKm, estimatedTimeMinutes);
         
-        return EARTH_RADIUS_METERS * c;
+        return new RouteDistanceResult(
+            distanceMeters,
+            distanceKm,
+            estimatedTimeMinutes,
+            busSnap.segmentIndex,
+            userSnap.segmentIndex,
+            busSnap.projectionDistance,
+            userSnap.projectionDistance
+        );
     }
     
-    /**
-     * Find the closest point on a line segment to a given point.
-     * Uses vector projection to find the perpendicular point on the segment.
-     */
-    private PointOnSegment closestPointOnSegment(double px, double py,
-                                                  double x1, double y1,
-                                                  double x2, double y2) {
-        // Vector from point 1 to point 2
-        double dx = x2 - x1;
-        double dy = y2 - y1;
-        
-        // If the segment is actually a point, return that point
-        if (dx == 0 && dy == 0) {
-            double distance = haversineDistance(px, py, x1, y1);
-            return new PointOnSegment(x1, y1, 0.0, distance);
+    private RouteGeometry loadGeometry(Long routeId, String direction) {
+        List<FullRoute> routes = fullRouteRepository.findByRouteIdAndDirection(routeId, direction);
+        if (routes.isEmpty()) {
+            return RouteGeometry.EMPTY;
         }
+        FullRoute fullRoute = routes.get(0);
         
-        // Vector from point 1 to the GPS point
-        double dpx = px - x1;
-        double dpy = py - y1;
-        
-        // Calculate the projection parameter t
-        // t = 0 means closest point is p1, t = 1 means closest point is p2
-        double segmentLengthSquared = dx * dx + dy * dy;
-        double t = (dpx * dx + dpy * dy) / segmentLengthSquared;
-        
-        // Clamp t to [0, 1] to stay on the segment
-        t = Math.max(0.0, Math.min(1.0, t));
-        
-        // Calculate the closest point
-        double closestLat = x1 + t * dx;
-        double closestLon = y1 + t * dy;
+        JsonNode coordinates = readJson(fullRoute.getCoordinatesJson(), "coordinates");
+        if (coordinates == null || coordinates.size() == 0) {
+            return RouteGeometry.EMPTY;
+        }
+        int n = coordinates.size();
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = coordinates.get(i).path("lat").asDouble();
+            lons[i] = coordinates.get(i).path("lon").asDouble();
+        }
         
-        // Calculate distance from GPS point to closest point
-        double distance = haversineDistance(px, py, closestLat, closestLon);
+        double[] cumulative = null;
+        JsonNode distances = readJson(fullRoute.getCumulativeDistancesJson(), "cumulative distances");
+        if (distances != null && distances.size() == n) {
+            cumulative = new double[n];
+            for (int i = 0; i < n; i++) {
+                cumulative[i] = distances.get(i).asDouble();
+            }
+        } else {
+            logger.info("Cumulative distances not found for route {}, calculating them", routeId);
+        }
         
-        return new PointOnSegment(closestLat, closestLon, t, distance);
+        RouteGeometry geometry = RouteGeometry.of(routeId, direction, lats, lons, cumulative);
+        logger.info("[GEOMETRY] Compiled full route {} {}: {} points, {} meters",
+                   routeId, direction, geometry.size(), Math.round(geometry.getLengthMeters()));
+        return geometry;
     }
     
-    /**
-     * Parse coordinates JSON string to List of Coordinate objects
-     */
-    private List<Coordinate> parseCoordinates(String coordinatesJson) {
+    private JsonNode readJson(String json, String what) {
+        if (json == null || json.isEmpty()) {
+            return null;
+        }
         try {
-            if (coordinatesJson == null || coordinatesJson.isEmpty()) {
-                return new ArrayList<>();
-            }
-            return objectMapper.readValue(coordinatesJson, new TypeReference<List<Coordinate>>() {});
+            return objectMapper.readTree(json);
         } catch (Exception e) {
-            logger.error("Error parsing coordinates JSON: {}", e.getMessage());
-            return new ArrayList<>();
+            logger.error("Error parsing {} JSON: {}", what, e.getMessage());
+            return null;
         }
     }
     
-    /**
-     * Parse cumulative distances JSON string to List of Double
-     */
-    private List<Double> parseCumulativeDistances(String cumulativeDistancesJson) {
-        try {
-            if (cumulativeDistancesJson == null || cumulativeDistancesJson.isEmpty()) {
-                return new ArrayList<>();
-            }
-            return objectMapper.readValue(cumulativeDistancesJson, new TypeReference<List<Double>>() {});
-        } catch (Exception e) {
-            logger.error("Error parsing cumulative distances JSON: {}", e.getMessage());
-            return new ArrayList<>();
-        }
+    private void clearFullRouteCache() {
+        Cache cache = cacheManager != null ? cacheManager.getCache("full_routes") : null;
+        if (cache != null) cache.clear();
     }
     
     // --- DTOs ---
@@ -337,22 +330,13 @@ public class RouteGeometryService {
             this.busProjectionDistance = busProjectionDistance;
             this.userProjectionDistance = userProjectionDistance;
         }
-    }
-    
-    /**
-     * Helper class for closest point on segment calculation
-     */
-    private static class PointOnSegment {
-        public final double lat;
-        public final double lon;
-        public final double t;         // Parameter in [0, 1]
-        public final double distance;  // Distance from GPS point to this point
         
-        public PointOnSegment(double lat, double lon, double t, double distance) {
-            this.lat = lat;
-            this.lon = lon;
-            this.t = t;
-            this.distance = distance;
+        /**
+         * The same distance with another ETA, e.g. one from learned travel times
+         */
+        public RouteDistanceResult withEstimatedTimeMinutes(double estimatedTimeMinutes) {
+            return new RouteDistanceResult(distanceMeters, distanceKm, estimatedTimeMinutes,
+                busSnapIndex, userSnapIndex, busProjectionDistance, userProjectionDistance);
         }
     }
 }
@@ -0,0 +1,238 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.Route;
+import com.backend.onebus.model.RouteStop;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled, immutable view of one route's stops.
+ *
+ * Built once from the route's stops (ordered by busStopIndex) when the route is first used or
+ * after it changes, then shared by the tracking pipeline, the routing strategies and the
+ * controllers. Coordinates are held in flat arrays bucketed into a uniform grid for proximity
+ * checks, and per-direction stop lists, index lookups, terminal stops and the maximum
+ * northbound/southbound indices are precomputed so none of them is derived per GPS fix.
+ */
+public final class RouteTopology {
+
+    private static final double EARTH_RADIUS_METERS = 6371000;
+    private static final double METERS_PER_DEGREE_LAT = 111_320.0;
+    // Grid cell edge; the default 30m stop radius spans at most 2x2 cells
+    private static final double GRID_CELL_METERS = 50.0;
+    // Equirectangular error stays far below this at stop-radius distances
+    private static final double PREFILTER_SLACK = 1.01;
+
+    private final Long routeId;
+    private final String busNumber;
+    private final String company;
+    private final String defaultDirection;
+
+    private final RouteStop[] stops;
+    private final double[] lats;
+    private final double[] lons;
+    private final String[] directions;
+
+    // Uniform grid: cell key -> stop positions in index order
+    private final double cellLatDegrees;
+    private final double cellLonDegrees;
+    private final Map<Long, int[]> grid;
+
+    private final Map<String, DirectionStops> byDirection;
+    private final Integer maxNorthboundIndex;
+    private final Integer maxSouthboundIndex;
+
+    public RouteTopology(Route route, List<RouteStop> orderedStops) {
+        this.routeId = route != null ? route.getId() : null;
+        this.busNumber = route != null ? route.getBusNumber() : null;
+        this.company = route != null ? route.getCompany() : null;
+        this.defaultDirection = route != null ? route.getDirection() : null;
+
+        int n = orderedStops.size();
+        this.stops = orderedStops.toArray(new RouteStop[0]);
+        this.lats = new double[n];
+        this.lons = new double[n];
+        this.directions = new String[n];
+
+        Map<String, List<RouteStop>> grouped = new HashMap<>();
+        Integer maxNorthbound = null;
+        Integer maxSouthbound = null;
+        for (int i = 0; i < n; i++) {
+            RouteStop stop = stops[i];
+            lats[i] = stop.getLatitude();
+            lons[i] = stop.getLongitude();
+            directions[i] = stop.getDirection();
+            if (stop.getDirection() != null) {
+                grouped.computeIfAbsent(stop.getDirection(), k -> new ArrayList<>()).add(stop);
+            }
+            if (stop.getNorthboundIndex() != null && (maxNorthbound == null || stop.getNorthboundIndex() > maxNorthbound)) {
+                maxNorthbound = stop.getNorthboundIndex();
+            }
+            if (stop.getSouthboundIndex() != null && (maxSouthbound == null || stop.getSouthboundIndex() > maxSouthbound)) {
+                maxSouthbound = stop.getSouthboundIndex();
+            }
+        }
+
+        this.cellLatDegrees = GRID_CELL_METERS / METERS_PER_DEGREE_LAT;
+        double referenceLat = n > 0 ? (lats[0] + lats[n - 1]) / 2 : 0;
+        this.cellLonDegrees = GRID_CELL_METERS / (METERS_PER_DEGREE_LAT * Math.max(Math.cos(Math.toRadians(referenceLat)), 0.01));
+        Map<Long, List<Integer>> buckets = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            buckets.computeIfAbsent(cellKey(cellRow(lats[i]), cellColumn(lons[i])), k -> new ArrayList<>()).add(i);
+        }
+        Map<Long, int[]> cells = new HashMap<>();
+        buckets.forEach((key, positions) -> cells.put(key, positions.stream().mapToInt(Integer::intValue).toArray()));
+        this.grid = cells;
+
+        Map<String, DirectionStops> views = new HashMap<>();
+        grouped.forEach((direction, list) -> views.put(direction, new DirectionStops(list)));
+        this.byDirection = Collections.unmodifiableMap(views);
+        this.maxNorthboundIndex = maxNorthbound;
+        this.maxSouthboundIndex = maxSouthbound;
+    }
+
+    public Long getRouteId() {
+        return routeId;
+    }
+
+    public String getBusNumber() {
+        return busNumber;
+    }
+
+    public String getCompany() {
+        return company;
+    }
+
+    public String getDefaultDirection() {
+        return defaultDirection;
+    }
+
+    public int size() {
+        return stops.length;
+    }
+
+    /**
+     * Stops whose direction is exactly {@code direction}, in index order.
+     */
+    public List<RouteStop> getStops(String direction) {
+        DirectionStops view = direction != null ? byDirection.get(direction) : null;
+        return view != null ? view.stops : Collections.emptyList();
+    }
+
+    public int getStopCount(String direction) {
+        return getStops(direction).size();
+    }
+
+    /**
+     * The first stop in {@code direction} with the given busStopIndex, or null.
+     */
+    public RouteStop getStop(String direction, int busStopIndex) {
+        DirectionStops view = direction != null ? byDirection.get(direction) : null;
+        return view != null ? view.byIndex.get(busStopIndex) : null;
+    }
+
+    public RouteStop getFirstStop(String direction) {
+        List<RouteStop> list = getStops(direction);
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    public RouteStop getLastStop(String direction) {
+        List<RouteStop> list = getStops(direction);
+        return list.isEmpty() ? null : list.get(list.size() - 1);
+    }
+
+    /**
+     * Highest northboundIndex / southboundIndex on the route for "Northbound" / "Southbound",
+     * null for any other direction or when no stop carries one.
+     */
+    public Integer getMaxDirectionalIndex(String direction) {
+        if ("Northbound".equalsIgnoreCase(direction)) return maxNorthboundIndex;
+        if ("Southbound".equalsIgnoreCase(direction)) return maxSouthboundIndex;
+        return null;
+    }
+
+    /**
+     * The first stop (in index order) within {@code radiusMeters} whose direction matches
+     * {@code currentDirection} or is bidirectional. With no current direction any stop matches.
+     *
+     * Only stops in the grid cells overlapping the search radius are considered; each passes an
+     * equirectangular distance check before the exact haversine.
+     */
+    public RouteStop findNearbyStop(double lat, double lon, String currentDirection, double radiusMeters) {
+        if (stops.length == 0) return null;
+        double cosLat = Math.cos(Math.toRadians(lat));
+        double latDelta = radiusMeters / METERS_PER_DEGREE_LAT;
+        double lonDelta = radiusMeters / (METERS_PER_DEGREE_LAT * Math.max(cosLat, 0.01));
+        double prefilterSquared = radiusMeters * radiusMeters * PREFILTER_SLACK * PREFILTER_SLACK;
+
+        int best = Integer.MAX_VALUE;
+        int rowTo = cellRow(lat + latDelta);
+        int columnTo = cellColumn(lon + lonDelta);
+        for (int row = cellRow(lat - latDelta); row <= rowTo; row++) {
+            for (int column = cellColumn(lon - lonDelta); column <= columnTo; column++) {
+                int[] positions = grid.get(cellKey(row, column));
+                if (positions == null) continue;
+                for (int i : positions) {
+                    // Positions are ascending, so nothing later in this cell can win
+                    if (i >= best) break;
+                    if (currentDirection != null
+                            && !"bidirectional".equalsIgnoreCase(directions[i])
+                            && !currentDirection.equalsIgnoreCase(directions[i])) {
+                        continue;
+                    }
+                    double dy = (lats[i] - lat) * METERS_PER_DEGREE_LAT;
+                    double dx = (lons[i] - lon) * METERS_PER_DEGREE_LAT * cosLat;
+                    if (dx * dx + dy * dy > prefilterSquared) continue;
+                    if (distanceMeters(lat, lon, lats[i], lons[i]) <= radiusMeters) {
+                        best = i;
+                        break;
+                    }
+                }
+            }
+        }
+        return best != Integer.MAX_VALUE ? stops[best] : null;
+    }
+
+    private int cellRow(double lat) {
+        return (int) Math.floor(lat / cellLatDegrees);
+    }
+
+    private int cellColumn(double lon) {
+        return (int) Math.floor(lon / cellLonDegrees);
+    }
+
+    private static long cellKey(int row, int column) {
+        return ((long) row << 32) | (column & 0xffffffffL);
+    }
+
+    // Haversine formula for distance in meters
+    static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
+                Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        return EARTH_RADIUS_METERS * c;
+    }
+
+    private static final class DirectionStops {
+        private final List<RouteStop> stops;
+        private final Map<Integer, RouteStop> byIndex;
+
+        private DirectionStops(List<RouteStop> ordered) {
+            this.stops = Collections.unmodifiableList(ordered);
+            Map<Integer, RouteStop> index = new HashMap<>();
+            for (RouteStop stop : ordered) {
+                if (stop.getBusStopIndex() != null) {
+                    index.putIfAbsent(stop.getBusStopIndex(), stop);
+                }
+            }
+            this.byIndex = index;
+        }
+    }
+}
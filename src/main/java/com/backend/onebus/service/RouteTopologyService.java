@@ -0,0 +1,175 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.event.RouteTopologyChangedEvent;
+import com.backend.onebus.model.Route;
+import com.backend.onebus.model.RouteStop;
+import com.backend.onebus.repository.RouteRepository;
+import com.backend.onebus.repository.RouteStopRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared cache of compiled {@link RouteTopology} instances, keyed by route id.
+ *
+ * A topology is built the first time its route is used and kept until a
+ * {@link RouteTopologyChangedEvent} names the route (or asks for a full reload), at which point
+ * the topology and the Spring route/stop caches it was loaded through are dropped so the next
+ * lookup rebuilds from the database.
+ */
+@Service
+public class RouteTopologyService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RouteTopologyService.class);
+
+    private static final String[] ROUTE_CACHES = {
+        "routes", "routes_by_bus", "routes_by_dir", "routes_by_company",
+        "routes_company_dir", "routes_ignorecase", "route_stops_by_dir"
+    };
+
+    @Autowired
+    private RouteRepository routeRepository;
+
+    @Autowired
+    private RouteStopRepository routeStopRepository;
+
+    @Autowired(required = false)
+    private CacheManager cacheManager;
+
+    private final Map<Long, RouteTopology> topologies = new ConcurrentHashMap<>();
+    // company_busNumber -> route id used for stop proximity lookups
+    private final Map<String, Long> routeIdsByBus = new ConcurrentHashMap<>();
+
+    /**
+     * Topology for a route, building it on first use. Returns null if the route is null or its
+     * stops could not be loaded.
+     */
+    public RouteTopology get(Route route) {
+        if (route == null || route.getId() == null) return null;
+        return topologies.computeIfAbsent(route.getId(), id -> load(route));
+    }
+
+    /**
+     * Topologies for several routes, loading all missing ones with a single stop query.
+     */
+    public Map<Long, RouteTopology> getAll(Collection<Route> routes) {
+        Map<Long, RouteTopology> result = new HashMap<>();
+        Map<Long, Route> missing = new HashMap<>();
+        for (Route route : routes) {
+            if (route == null || route.getId() == null) continue;
+            RouteTopology topology = topologies.get(route.getId());
+            if (topology != null) {
+                result.put(route.getId(), topology);
+            } else {
+                missing.put(route.getId(), route);
+            }
+        }
+        if (missing.isEmpty()) return result;
+
+        Map<Long, List<RouteStop>> stopsByRoute = new HashMap<>();
+        try {
+            for (RouteStop stop : routeStopRepository.findByRouteIdIn(missing.keySet())) {
+                stopsByRoute.computeIfAbsent(stop.getRoute().getId(), k -> new ArrayList<>()).add(stop);
+            }
+        } catch (Exception e) {
+            logger.error("[TOPOLOGY] Failed to load stops for routes {}: {}", missing.keySet(), e.getMessage());
+            return result;
+        }
+        for (Route route : missing.values()) {
+            RouteTopology built = new RouteTopology(route, stopsByRoute.getOrDefault(route.getId(), List.of()));
+            RouteTopology topology = topologies.putIfAbsent(route.getId(), built);
+            result.put(route.getId(), topology != null ? topology : built);
+        }
+        return result;
+    }
+
+    /**
+     * Topology of the route a bus runs on, preferring the route owned by {@code company} when
+     * several share the bus number.
+     */
+    public RouteTopology forBus(String company, String busNumber) {
+        if (busNumber == null) return null;
+        String key = company + "_" + busNumber;
+        Long routeId = routeIdsByBus.get(key);
+        if (routeId != null) {
+            RouteTopology topology = topologies.get(routeId);
+            if (topology != null) return topology;
+        }
+        Route route = resolveRoute(company, busNumber);
+        if (route == null) return null;
+        routeIdsByBus.put(key, route.getId());
+        return get(route);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRouteTopologyChanged(RouteTopologyChangedEvent event) {
+        if (event.isFullReload()) {
+            topologies.clear();
+            clearCache("route_stops");
+        } else {
+            for (Long routeId : event.getRouteIds()) {
+                topologies.remove(routeId);
+                evictCache("route_stops", routeId);
+            }
+        }
+        // Route metadata or bus number assignments may have changed with the stops
+        routeIdsByBus.clear();
+        for (String cacheName : ROUTE_CACHES) {
+            clearCache(cacheName);
+        }
+        logger.debug("[TOPOLOGY] Invalidated {}", event.isFullReload() ? "all routes" : event.getRouteIds());
+    }
+
+    private RouteTopology load(Route route) {
+        try {
+            List<RouteStop> stops = routeStopRepository.findByRouteIdOrderByBusStopIndex(route.getId());
+            RouteTopology topology = new RouteTopology(route, stops);
+            logger.info("[TOPOLOGY] Compiled route {} ({} {}) with {} stops",
+                route.getId(), route.getBusNumber(), route.getDirection(), topology.size());
+            return topology;
+        } catch (Exception e) {
+            // Not cached, so the next lookup retries
+            logger.error("[TOPOLOGY] Failed to load stops for route {}: {}", route.getId(), e.getMessage());
+            return null;
+        }
+    }
+
+    private Route resolveRoute(String company, String busNumber) {
+        try {
+            List<Route> routes = routeRepository.findByBusNumber(busNumber);
+            if (routes.isEmpty()) {
+                logger.warn("No route found for company: {} and busNumber: {}", company, busNumber);
+                return null;
+            }
+            // Prefer route matching company if multiple exist
+            return routes.stream()
+                .filter(r -> r.getCompany() != null && r.getCompany().equalsIgnoreCase(company))
+                .findFirst()
+                .orElse(routes.get(0));
+        } catch (Exception e) {
+            logger.warn("Error fetching route for company: {} and busNumber: {}: {}", company, busNumber, e.getMessage());
+            return null;
+        }
+    }
+
+    private void evictCache(String cacheName, Object key) {
+        Cache cache = cacheManager != null ? cacheManager.getCache(cacheName) : null;
+        if (cache != null) cache.evict(key);
+    }
+
+    private void clearCache(String cacheName) {
+        Cache cache = cacheManager != null ? cacheManager.getCache(cacheName) : null;
+        if (cache != null) cache.clear();
+    }
+}
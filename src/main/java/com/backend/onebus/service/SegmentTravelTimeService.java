@@ -0,0 +1,245 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.BusLocation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ETA from travel times learned on the live fix stream.
+ *
+ * Each time a bus's stop index moves forward, the time since it reached the previous stop is
+ * recorded against the segments in between (see {@link SegmentTravelTimes}), bucketed by the time
+ * of day it left that stop. An ETA is then the learned time from the bus's stop to the rider's,
+ * less the time the bus has already spent on its current segment. Routes, buckets or segments
+ * without samples give no estimate, and callers keep their distance-based one.
+ *
+ * Tables are held in memory, written to a Redis hash every persist interval (only those that
+ * changed) and read back at startup.
+ */
+@Service
+public class SegmentTravelTimeService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentTravelTimeService.class);
+
+    private static final String SEGMENT_TIMES_KEY = "eta:segments";
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    // Progress of buses that stopped reporting is dropped after this long
+    private static final long PROGRESS_TTL_MS = 60 * 60 * 1000L;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${app.tracking.eta.bucket-minutes:60}")
+    private int bucketMinutes;
+
+    @Value("${app.tracking.eta.alpha:0.2}")
+    private double alpha;
+
+    @Value("${app.tracking.eta.max-segment-seconds:1800}")
+    private double maxSegmentSeconds;
+
+    @Value("${app.tracking.eta.max-stops-per-sample:3}")
+    private int maxStopsPerSample;
+
+    // busNumber_direction (lowercase) -> learned segment times
+    private final Map<String, SegmentTravelTimes> tables = new ConcurrentHashMap<>();
+    // busId -> stop the bus last reached, and when
+    private final Map<String, Progress> progressByBus = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void load() {
+        try {
+            Map<Object, Object> stored = redisTemplate.opsForHash().entries(SEGMENT_TIMES_KEY);
+            int restored = 0;
+            for (Map.Entry<Object, Object> entry : stored.entrySet()) {
+                if (restore(entry.getKey().toString(), entry.getValue())) restored++;
+            }
+            logger.info("[ETA] Restored segment travel times for {} routes", restored);
+        } catch (Exception e) {
+            logger.warn("[ETA] Could not restore segment travel times: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        persist();
+    }
+
+    /**
+     * Learn from a processed fix: when the bus's stop index moved forward by up to
+     * max-stops-per-sample stops, the time since it reached the previous stop is split evenly
+     * over the segments passed.
+     */
+    public void observe(BusLocation location, long fixTime) {
+        Integer stopIndex = location.getBusStopIndex();
+        if (location.getBusId() == null || stopIndex == null) return;
+        String routeKey = routeKey(location.getBusNumber(), location.getTripDirection());
+        if (routeKey == null) return;
+
+        Progress previous = progressByBus.get(location.getBusId());
+        if (previous != null && previous.routeKey.equals(routeKey) && previous.stopIndex == stopIndex) return;
+        progressByBus.put(location.getBusId(), new Progress(routeKey, stopIndex, fixTime));
+        // First sighting, new route or direction: nothing to measure yet
+        if (previous == null || !previous.routeKey.equals(routeKey)) return;
+
+        int stops = stopIndex - previous.stopIndex;
+        long elapsedMs = fixTime - previous.reachedAt;
+        if (stops < 1 || stops > maxStopsPerSample || elapsedMs <= 0) return;
+        double perSegment = elapsedMs / 1000.0 / stops;
+        // Layovers and tracker gaps, not travel
+        if (perSegment > maxSegmentSeconds) return;
+
+        SegmentTravelTimes table = tables.computeIfAbsent(routeKey, key -> newTable());
+        int bucket = bucketOf(previous.reachedAt);
+        for (int segment = previous.stopIndex; segment < stopIndex; segment++) {
+            table.observe(segment, bucket, perSegment);
+        }
+    }
+
+    /**
+     * Learned minutes from stop {@code fromStopIndex} to stop {@code toStopIndex} when leaving
+     * at {@code at}, or null without samples for every segment in between.
+     */
+    public Double travelMinutes(String busNumber, String direction, int fromStopIndex, int toStopIndex, long at) {
+        String routeKey = routeKey(busNumber, direction);
+        SegmentTravelTimes table = routeKey != null ? tables.get(routeKey) : null;
+        if (table == null) return null;
+        double seconds = table.travelSeconds(fromStopIndex, toStopIndex, bucketOf(at));
+        return Double.isNaN(seconds) ? null : seconds / 60.0;
+    }
+
+    /**
+     * Learned minutes until {@code bus} reaches stop {@code toStopIndex}, or null when the bus
+     * has no stop index, is past that stop or a segment in between has no samples.
+     */
+    public Double estimateMinutes(BusLocation bus, int toStopIndex, long now) {
+        Integer fromStopIndex = bus.getBusStopIndex();
+        if (fromStopIndex == null || toStopIndex < fromStopIndex) return null;
+        Double minutes = travelMinutes(bus.getBusNumber(), bus.getTripDirection(), fromStopIndex, toStopIndex, now);
+        if (minutes == null || toStopIndex == fromStopIndex) return minutes;
+
+        // Take off the time already spent on the first segment, but never more than that segment
+        Progress progress = progressByBus.get(bus.getBusId());
+        if (progress != null && progress.stopIndex == fromStopIndex
+                && progress.routeKey.equals(routeKey(bus.getBusNumber(), bus.getTripDirection()))) {
+            Double firstSegment = travelMinutes(bus.getBusNumber(), bus.getTripDirection(),
+                fromStopIndex, fromStopIndex + 1, now);
+            double elapsedMinutes = Math.max(0, now - progress.reachedAt) / 60_000.0;
+            minutes -= Math.min(elapsedMinutes, firstSegment != null ? firstSegment : 0.0);
+        }
+        return minutes;
+    }
+
+    /**
+     * Write the tables that changed since the last persist, and drop progress of silent buses.
+     */
+    @Scheduled(fixedDelayString = "${app.tracking.eta.persist-ms:300000}")
+    public void persist() {
+        long cutoff = System.currentTimeMillis() - PROGRESS_TTL_MS;
+        progressByBus.values().removeIf(progress -> progress.reachedAt < cutoff);
+
+        Map<String, Object> changed = new LinkedHashMap<>();
+        tables.forEach((routeKey, table) -> {
+            if (!table.isDirty()) return;
+            try {
+                Map<String, Object> stored = new LinkedHashMap<>();
+                stored.put("bucketMinutes", bucketMinutes);
+                stored.put("seconds", boxed(table.snapshot()));
+                changed.put(routeKey, objectMapper.writeValueAsString(stored));
+            } catch (Exception e) {
+                logger.warn("[ETA] Failed to serialize segment times for {}: {}", routeKey, e.getMessage());
+            }
+        });
+        if (changed.isEmpty()) return;
+        try {
+            redisTemplate.opsForHash().putAll(SEGMENT_TIMES_KEY, changed);
+            logger.debug("[ETA] Persisted segment travel times for {} routes", changed.size());
+        } catch (Exception e) {
+            logger.warn("[ETA] Failed to persist segment travel times: {}", e.getMessage());
+        }
+    }
+
+    private boolean restore(String routeKey, Object value) {
+        try {
+            Map<?, ?> stored = objectMapper.readValue(value.toString(), Map.class);
+            if (!Integer.valueOf(bucketMinutes).equals(stored.get("bucketMinutes"))) return false;
+            Double[][] boxed = objectMapper.convertValue(stored.get("seconds"), Double[][].class);
+            SegmentTravelTimes table = newTable();
+            if (!table.restore(unboxed(boxed))) return false;
+            tables.put(routeKey, table);
+            return true;
+        } catch (Exception e) {
+            logger.warn("[ETA] Ignoring stored segment times for {}: {}", routeKey, e.getMessage());
+            return false;
+        }
+    }
+
+    private SegmentTravelTimes newTable() {
+        return new SegmentTravelTimes((MINUTES_PER_DAY + bucketMinutes - 1) / bucketMinutes, alpha);
+    }
+
+    private int bucketOf(long epochMillis) {
+        LocalTime time = Instant.ofEpochMilli(epochMillis).atZone(ZoneId.systemDefault()).toLocalTime();
+        return (time.getHour() * 60 + time.getMinute()) / bucketMinutes;
+    }
+
+    private static String routeKey(String busNumber, String direction) {
+        if (busNumber == null || direction == null) return null;
+        return (busNumber + "_" + direction).toLowerCase();
+    }
+
+    // Unobserved segments are NaN in memory and null in JSON
+    private static Double[][] boxed(double[][] table) {
+        Double[][] boxed = new Double[table.length][];
+        for (int row = 0; row < table.length; row++) {
+            boxed[row] = new Double[table[row].length];
+            for (int i = 0; i < table[row].length; i++) {
+                boxed[row][i] = Double.isNaN(table[row][i]) ? null : table[row][i];
+            }
+        }
+        return boxed;
+    }
+
+    private static double[][] unboxed(Double[][] boxed) {
+        if (boxed == null) return null;
+        double[][] table = new double[boxed.length][];
+        for (int row = 0; row < boxed.length; row++) {
+            if (boxed[row] == null) return null;
+            table[row] = new double[boxed[row].length];
+            for (int i = 0; i < boxed[row].length; i++) {
+                table[row][i] = boxed[row][i] != null ? boxed[row][i] : Double.NaN;
+            }
+        }
+        return table;
+    }
+
+    private static final class Progress {
+        private final String routeKey;
+        private final int stopIndex;
+        private final long reachedAt;
+
+        private Progress(String routeKey, int stopIndex, long reachedAt) {
+            this.routeKey = routeKey;
+            this.stopIndex = stopIndex;
+            this.reachedAt = reachedAt;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.backend.onebus.service;
+
+import java.util.Arrays;
+
+/**
+ * Learned travel times between consecutive stops of one route and direction.
+ *
+ * Segment {@code i} runs from stop index {@code i} to {@code i + 1}. Each segment keeps an
+ * exponentially weighted average of observed seconds per time-of-day bucket, plus one all-day
+ * average used when a bucket has no samples yet. Queries read a per-bucket prefix sum, so the
+ * travel time between any two stops is a subtraction; the prefix is rebuilt (O(segments)) on the
+ * first query after a new sample. Reads never block.
+ */
+final class SegmentTravelTimes {
+
+    private final int bucketCount;
+    private final double alpha;
+    // Guarded by this: [bucket][segment] seconds, NaN when never observed; the last row is all-day
+    private double[][] seconds;
+    // Per-bucket prefix sums over the effective (bucket, else all-day) times; null when stale
+    private volatile Prefix[] prefixes;
+    private volatile boolean dirty;
+
+    SegmentTravelTimes(int bucketCount, double alpha) {
+        this.bucketCount = bucketCount;
+        this.alpha = alpha;
+        this.seconds = new double[bucketCount + 1][0];
+        this.prefixes = new Prefix[bucketCount];
+    }
+
+    /**
+     * Fold one observed traversal of {@code segment} into its bucket and all-day averages.
+     */
+    synchronized void observe(int segment, int bucket, double observedSeconds) {
+        if (segment < 0 || bucket < 0 || bucket >= bucketCount) return;
+        ensureSegments(segment + 1);
+        fold(seconds[bucket], segment, observedSeconds);
+        fold(seconds[bucketCount], segment, observedSeconds);
+        // The all-day row backs every bucket, so every prefix may have changed
+        prefixes = new Prefix[bucketCount];
+        dirty = true;
+    }
+
+    private void fold(double[] row, int segment, double observedSeconds) {
+        double current = row[segment];
+        row[segment] = Double.isNaN(current) ? observedSeconds : current + alpha * (observedSeconds - current);
+    }
+
+    private void ensureSegments(int count) {
+        if (seconds[0].length >= count) return;
+        for (int row = 0; row < seconds.length; row++) {
+            int previous = seconds[row].length;
+            seconds[row] = Arrays.copyOf(seconds[row], count);
+            Arrays.fill(seconds[row], previous, count, Double.NaN);
+        }
+    }
+
+    /**
+     * Learned seconds from stop {@code fromIndex} to stop {@code toIndex} in {@code bucket}, or
+     * NaN when any segment in between has never been observed.
+     */
+    double travelSeconds(int fromIndex, int toIndex, int bucket) {
+        if (fromIndex < 0 || toIndex < fromIndex || bucket < 0 || bucket >= bucketCount) return Double.NaN;
+        if (fromIndex == toIndex) return 0.0;
+        Prefix prefix = prefix(bucket);
+        if (toIndex > prefix.sums.length - 1) return Double.NaN;
+        if (prefix.missing[toIndex] - prefix.missing[fromIndex] > 0) return Double.NaN;
+        return prefix.sums[toIndex] - prefix.sums[fromIndex];
+    }
+
+    private Prefix prefix(int bucket) {
+        Prefix[] current = prefixes;
+        Prefix prefix = current[bucket];
+        if (prefix != null) return prefix;
+        synchronized (this) {
+            current = prefixes;
+            if (current[bucket] == null) {
+                current[bucket] = buildPrefix(bucket);
+            }
+            return current[bucket];
+        }
+    }
+
+    private Prefix buildPrefix(int bucket) {
+        double[] row = seconds[bucket];
+        double[] allDay = seconds[bucketCount];
+        double[] sums = new double[row.length + 1];
+        int[] missing = new int[row.length + 1];
+        for (int i = 0; i < row.length; i++) {
+            double value = !Double.isNaN(row[i]) ? row[i] : allDay[i];
+            boolean known = !Double.isNaN(value);
+            sums[i + 1] = sums[i] + (known ? value : 0.0);
+            missing[i + 1] = missing[i] + (known ? 0 : 1);
+        }
+        return new Prefix(sums, missing);
+    }
+
+    int bucketCount() {
+        return bucketCount;
+    }
+
+    /**
+     * Copy of the table ([bucket][segment], all-day row last) for persisting; clears the dirty flag.
+     */
+    synchronized double[][] snapshot() {
+        dirty = false;
+        double[][] copy = new double[seconds.length][];
+        for (int row = 0; row < seconds.length; row++) {
+            copy[row] = seconds[row].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * Replace the table with a persisted one of the same shape; ignored otherwise.
+     */
+    synchronized boolean restore(double[][] table) {
+        if (table == null || table.length != bucketCount + 1) return false;
+        int segments = table[0].length;
+        for (double[] row : table) {
+            if (row == null || row.length != segments) return false;
+        }
+        double[][] copy = new double[table.length][];
+        for (int row = 0; row < table.length; row++) {
+            copy[row] = table[row].clone();
+        }
+        seconds = copy;
+        prefixes = new Prefix[bucketCount];
+        return true;
+    }
+
+    boolean isDirty() {
+        return dirty;
+    }
+
+    private static final class Prefix {
+        private final double[] sums;
+        private final int[] missing;
+
+        private Prefix(double[] sums, int[] missing) {
+            this.sums = sums;
+            this.missing = missing;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.BusLocation;
+import com.backend.onebus.model.RouteStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Precomputed arrival boards: the next buses due at every route stop.
+ *
+ * When a bus's stop index (or route or direction) changes, its predicted arrival time at each
+ * stop ahead of it is computed once, from learned segment travel times
+ * ({@link SegmentTravelTimeService}) or else the straight-line distance at 30 km/h, and it is
+ * taken off the stops it has passed. Fixes that leave the stop index unchanged cost a map lookup.
+ * Reading a board only sorts the buses listed at that stop, so any number of riders watching a
+ * stop share one computation per stop change. Boards that changed are pushed to
+ * {@code /topic/stops/{stopId}/arrivals}.
+ */
+@Service
+public class StopArrivalService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StopArrivalService.class);
+
+    private static final double DEFAULT_SPEED_KMH = 30.0;
+
+    @Autowired
+    private RouteTopologyService routeTopologyService;
+
+    @Autowired
+    private SegmentTravelTimeService segmentTravelTimeService;
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Value("${app.tracking.arrivals.limit:5}")
+    private int arrivalLimit;
+
+    @Value("${app.tracking.arrivals.overdue-ms:600000}")
+    private long overdueMs;
+
+    // stopId -> busId -> predicted arrival at that stop
+    private final Map<Long, Map<String, StopArrival>> arrivalsByStop = new ConcurrentHashMap<>();
+    // busId -> where the bus was last placed, and the stops it is listed at
+    private final Map<String, Placement> placementByBus = new ConcurrentHashMap<>();
+
+    /**
+     * Re-place a bus after a processed fix. Does nothing unless its stop index, route or
+     * direction changed since the last call. {@code fixTime} is the tracker's clock and is only
+     * used against the learned travel times; arrival times are on the server clock, like the
+     * boards that are read against them, so a skewed or buffered fix cannot shift a board.
+     */
+    public void onBusUpdate(BusLocation location, long fixTime) {
+        onBusUpdate(location, fixTime, System.currentTimeMillis());
+    }
+
+    void onBusUpdate(BusLocation location, long fixTime, long now) {
+        String busId = location.getBusId();
+        Integer stopIndex = location.getBusStopIndex();
+        String direction = location.getTripDirection();
+        if (busId == null || stopIndex == null || direction == null) return;
+        RouteTopology topology = routeTopologyService.forBus(location.getBusCompany(), location.getBusNumber());
+        if (topology == null || topology.getRouteId() == null) return;
+
+        Placement previous = placementByBus.get(busId);
+        if (previous != null && previous.isAt(topology.getRouteId(), direction, stopIndex)) return;
+
+        Map<Long, StopArrival> ahead = new HashMap<>();
+        for (RouteStop stop : stopsIn(topology, direction)) {
+            Integer index = indexIn(stop, direction);
+            if (stop.getId() == null || index == null || index <= stopIndex) continue;
+            ahead.put(stop.getId(), predict(location, stop, index - stopIndex, index, fixTime, now));
+        }
+
+        Set<Long> changed = new HashSet<>(ahead.keySet());
+        if (previous != null) {
+            for (Long stopId : previous.stopIds) {
+                if (!ahead.containsKey(stopId)) {
+                    unlist(stopId, busId);
+                    changed.add(stopId);
+                }
+            }
+        }
+        ahead.forEach((stopId, arrival) ->
+            arrivalsByStop.computeIfAbsent(stopId, id -> new ConcurrentHashMap<>()).put(busId, arrival));
+        placementByBus.put(busId, new Placement(topology.getRouteId(), direction, stopIndex, ahead.keySet()));
+
+        publish(changed, now);
+    }
+
+    /**
+     * Take a bus off every board, e.g. when it goes offline.
+     */
+    public void removeBus(String busId) {
+        if (busId == null) return;
+        Placement previous = placementByBus.remove(busId);
+        if (previous == null) return;
+        for (Long stopId : previous.stopIds) {
+            unlist(stopId, busId);
+        }
+        publish(previous.stopIds, System.currentTimeMillis());
+    }
+
+    /**
+     * The next {@code limit} (at most the configured limit) buses due at a stop, soonest first.
+     * Buses more than the overdue interval past their predicted time are left out.
+     */
+    public List<Map<String, Object>> getArrivals(Long stopId, int limit, long now) {
+        Map<String, StopArrival> arrivals = stopId != null ? arrivalsByStop.get(stopId) : null;
+        if (arrivals == null || arrivals.isEmpty()) return List.of();
+        List<StopArrival> due = new ArrayList<>();
+        for (StopArrival arrival : arrivals.values()) {
+            if (now - arrival.arrivalAt <= overdueMs) due.add(arrival);
+        }
+        due.sort(Comparator.comparingLong(arrival -> arrival.arrivalAt));
+        int count = Math.max(0, Math.min(due.size(), Math.min(limit, arrivalLimit)));
+        List<Map<String, Object>> board = new ArrayList<>();
+        for (StopArrival arrival : due.subList(0, count)) {
+            board.add(arrival.toMap(now));
+        }
+        return board;
+    }
+
+    /**
+     * Board body served by the REST endpoint and pushed to the stop's topic.
+     */
+    public Map<String, Object> getBoard(Long stopId, int limit, long now) {
+        Map<String, Object> board = new LinkedHashMap<>();
+        board.put("stopId", stopId);
+        board.put("arrivals", getArrivals(stopId, limit, now));
+        board.put("timestamp", now);
+        return board;
+    }
+
+    private StopArrival predict(BusLocation location, RouteStop stop, int stopsAway, int stopIndex, long fixTime, long now) {
+        Double learnedMinutes = segmentTravelTimeService.estimateMinutes(location, stopIndex, fixTime);
+        double minutes = learnedMinutes != null
+            ? learnedMinutes
+            : RouteTopology.distanceMeters(location.getLat(), location.getLon(), stop.getLatitude(), stop.getLongitude())
+                / 1000.0 / DEFAULT_SPEED_KMH * 60.0;
+        return new StopArrival(location.getBusId(), location.getBusNumber(), location.getTripDirection(),
+            stopsAway, now + Math.round(minutes * 60_000), learnedMinutes != null ? "learned" : "distance");
+    }
+
+    private void unlist(Long stopId, String busId) {
+        arrivalsByStop.computeIfPresent(stopId, (id, arrivals) -> {
+            arrivals.remove(busId);
+            return arrivals.isEmpty() ? null : arrivals;
+        });
+    }
+
+    private void publish(Set<Long> stopIds, long now) {
+        for (Long stopId : stopIds) {
+            try {
+                messagingTemplate.convertAndSend("/topic/stops/" + stopId + "/arrivals", getBoard(stopId, arrivalLimit, now));
+            } catch (Exception e) {
+                logger.warn("[ARRIVALS] Failed to publish board for stop {}: {}", stopId, e.getMessage());
+            }
+        }
+    }
+
+    // Stops served in a direction: its own stops plus the bidirectional ones
+    private static List<RouteStop> stopsIn(RouteTopology topology, String direction) {
+        List<RouteStop> stops = new ArrayList<>(topology.getStops(direction));
+        stops.addAll(topology.getStops("bidirectional"));
+        return stops;
+    }
+
+    // A stop's index in a direction, matching how BusTrackingService indexes fixes near it
+    private static Integer indexIn(RouteStop stop, String direction) {
+        if (!"bidirectional".equalsIgnoreCase(stop.getDirection())) {
+            return direction.equalsIgnoreCase(stop.getDirection()) ? stop.getBusStopIndex() : null;
+        }
+        if ("Northbound".equalsIgnoreCase(direction)) return stop.getNorthboundIndex();
+        if ("Southbound".equalsIgnoreCase(direction)) return stop.getSouthboundIndex();
+        return null;
+    }
+
+    private static final class Placement {
+        private final Long routeId;
+        private final String direction;
+        private final int stopIndex;
+        private final Set<Long> stopIds;
+
+        private Placement(Long routeId, String direction, int stopIndex, Set<Long> stopIds) {
+            this.routeId = routeId;
+            this.direction = direction;
+            this.stopIndex = stopIndex;
+            this.stopIds = stopIds;
+        }
+
+        private boolean isAt(Long routeId, String direction, int stopIndex) {
+            return this.routeId.equals(routeId) && this.direction.equalsIgnoreCase(direction) && this.stopIndex == stopIndex;
+        }
+    }
+
+    private static final class StopArrival {
+        private final String busId;
+        private final String busNumber;
+        private final String direction;
+        private final int stopsAway;
+        private final long arrivalAt;
+        private final String etaSource;
+
+        private StopArrival(String busId, String busNumber, String direction, int stopsAway, long arrivalAt, String etaSource) {
+            this.busId = busId;
+            this.busNumber = busNumber;
+            this.direction = direction;
+            this.stopsAway = stopsAway;
+            this.arrivalAt = arrivalAt;
+            this.etaSource = etaSource;
+        }
+
+        private Map<String, Object> toMap(long now) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("busId", busId);
+            map.put("busNumber", busNumber);
+            map.put("direction", direction);
+            map.put("stopsAway", stopsAway);
+            map.put("etaMinutes", Math.max(0, arrivalAt - now) / 60_000.0);
+            map.put("arrivalAt", arrivalAt);
+            map.put("etaSource", etaSource);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.backend.onebus.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Conflating, rate-limited delivery of bus updates to each WebSocket session.
+ *
+ * Registered as an interceptor on the broker's client outbound channel, where topic messages
+ * have already been fanned out to one message per subscribed session. Bus frames (those carrying
+ * {@link #BUS_ID_HEADER}) are delivered at most once per interval per session: the first frame
+ * after a quiet interval goes straight through, later ones wait in the session's outbox, keyed by
+ * destination and bus so a newer frame replaces (drops) the pending one. A scheduled flush sends
+ * whatever is due. Everything else (status replies, offline events) passes through untouched.
+ * A rider's own distance frames arrive on their resolved user destination, so they are conflated
+ * apart from the shared route frames.
+ *
+ * Sessions default to the map view rate and can switch to the slower background rate when the
+ * app is not in the foreground.
+ */
+@Service
+public class SubscriberOutbox implements ChannelInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubscriberOutbox.class);
+
+    /**
+     * Message header naming the bus a broadcast frame is about. Not a STOMP native header, so
+     * it is never written to the client.
+     */
+    public static final String BUS_ID_HEADER = "onebusBusId";
+
+    // Idle outboxes of sessions that never disconnected cleanly are dropped after this long
+    private static final long IDLE_OUTBOX_MS = 10 * 60 * 1000L;
+
+    public enum DeliveryMode { MAP, BACKGROUND }
+
+    @Autowired
+    @Lazy
+    @Qualifier("clientOutboundChannel")
+    private MessageChannel clientOutboundChannel;
+
+    @Value("${app.tracking.outbox.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.tracking.outbox.map-interval-ms:1000}")
+    private long mapIntervalMs;
+
+    @Value("${app.tracking.outbox.background-interval-ms:5000}")
+    private long backgroundIntervalMs;
+
+    private final Map<String, SessionOutbox> outboxes = new ConcurrentHashMap<>();
+    // Set while flushing so our own sends pass through preSend
+    private final ThreadLocal<Boolean> flushing = ThreadLocal.withInitial(() -> false);
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (!enabled || flushing.get()) return message;
+        return offer(message, System.currentTimeMillis());
+    }
+
+    /**
+     * The message to send now, or null if it was queued for a later flush.
+     */
+    Message<?> offer(Message<?> message, long now) {
+        Object busId = message.getHeaders().get(BUS_ID_HEADER);
+        if (busId == null || SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE) {
+            return message;
+        }
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (sessionId == null || destination == null) return message;
+
+        SessionOutbox outbox = outboxes.computeIfAbsent(sessionId, id -> new SessionOutbox(mapIntervalMs));
+        return outbox.offer(destination + "|" + busId, message, now);
+    }
+
+    @Scheduled(fixedDelayString = "${app.tracking.outbox.flush-tick-ms:100}")
+    public void flush() {
+        flush(System.currentTimeMillis());
+    }
+
+    void flush(long now) {
+        for (Map.Entry<String, SessionOutbox> entry : outboxes.entrySet()) {
+            SessionOutbox outbox = entry.getValue();
+            List<Message<?>> due = outbox.drainIfDue(now);
+            if (due.isEmpty()) {
+                if (outbox.isIdleSince(now - IDLE_OUTBOX_MS)) {
+                    outboxes.remove(entry.getKey(), outbox);
+                }
+                continue;
+            }
+            flushing.set(true);
+            try {
+                for (Message<?> message : due) {
+                    clientOutboundChannel.send(message);
+                }
+            } catch (Exception e) {
+                logger.warn("[OUTBOX] Failed to flush session {}: {}", entry.getKey(), e.getMessage());
+            } finally {
+                flushing.set(false);
+            }
+        }
+    }
+
+    /**
+     * Switch a session between the map view and background delivery rates.
+     */
+    public void setMode(String sessionId, DeliveryMode mode) {
+        long intervalMs = mode == DeliveryMode.BACKGROUND ? backgroundIntervalMs : mapIntervalMs;
+        outboxes.computeIfAbsent(sessionId, id -> new SessionOutbox(intervalMs)).setMode(mode, intervalMs);
+        logger.debug("[OUTBOX] Session {} delivery mode {} ({}ms)", sessionId, mode, intervalMs);
+    }
+
+    /**
+     * Drop pending frames for a bus (e.g. it went offline) so they cannot arrive after its
+     * offline event.
+     */
+    public void discardBus(String busId) {
+        if (busId == null) return;
+        String suffix = "|" + busId;
+        outboxes.values().forEach(outbox -> outbox.discard(suffix));
+    }
+
+    public void removeSession(String sessionId) {
+        if (sessionId != null) outboxes.remove(sessionId);
+    }
+
+    /**
+     * Queue depth, delivered and dropped (superseded) frame counts per session.
+     */
+    public List<OutboxStats> getSessionStats() {
+        List<OutboxStats> stats = new ArrayList<>();
+        outboxes.forEach((sessionId, outbox) -> stats.add(outbox.stats(sessionId)));
+        return stats;
+    }
+
+    private static final class SessionOutbox {
+        private final Map<String, Message<?>> pending = new LinkedHashMap<>();
+        private DeliveryMode mode = DeliveryMode.MAP;
+        private long intervalMs;
+        private long nextDueAt;
+        private long lastActivityAt = System.currentTimeMillis();
+        private long delivered;
+        private long dropped;
+
+        private SessionOutbox(long intervalMs) {
+            this.intervalMs = intervalMs;
+        }
+
+        private synchronized Message<?> offer(String key, Message<?> message, long now) {
+            lastActivityAt = now;
+            if (pending.isEmpty() && now >= nextDueAt) {
+                nextDueAt = now + intervalMs;
+                delivered++;
+                return message;
+            }
+            if (pending.put(key, message) != null) {
+                dropped++;
+            }
+            return null;
+        }
+
+        private synchronized List<Message<?>> drainIfDue(long now) {
+            if (pending.isEmpty() || now < nextDueAt) return Collections.emptyList();
+            List<Message<?>> due = new ArrayList<>(pending.values());
+            pending.clear();
+            nextDueAt = now + intervalMs;
+            delivered += due.size();
+            return due;
+        }
+
+        private synchronized void setMode(DeliveryMode mode, long intervalMs) {
+            // Pull the next flush forward when speeding up, so the new rate applies immediately
+            this.nextDueAt = Math.min(nextDueAt, System.currentTimeMillis() + intervalMs);
+            this.mode = mode;
+            this.intervalMs = intervalMs;
+        }
+
+        private synchronized void discard(String keySuffix) {
+            pending.keySet().removeIf(key -> key.endsWith(keySuffix));
+        }
+
+        private synchronized boolean isIdleSince(long cutoff) {
+            return pending.isEmpty() && lastActivityAt < cutoff;
+        }
+
+        private synchronized OutboxStats stats(String sessionId) {
+            return new OutboxStats(sessionId, mode, intervalMs, pending.size(), delivered, dropped);
+        }
+    }
+
+    public static class OutboxStats {
+        private final String sessionId;
+        private final DeliveryMode mode;
+        private final long intervalMs;
+        private final int queueDepth;
+        private final long delivered;
+        private final long dropped;
+
+        public OutboxStats(String sessionId, DeliveryMode mode, long intervalMs, int queueDepth, long delivered, long dropped) {
+            this.sessionId = sessionId;
+            this.mode = mode;
+            this.intervalMs = intervalMs;
+            this.queueDepth = queueDepth;
+            this.delivered = delivered;
+            this.dropped = dropped;
+        }
+
+        public String getSessionId() { return sessionId; }
+        public DeliveryMode getMode() { return mode; }
+        public long getIntervalMs() { return intervalMs; }
+        public int getQueueDepth() { return queueDepth; }
+        public long getDelivered() { return delivered; }
+        public long getDropped() { return dropped; }
+    }
+}
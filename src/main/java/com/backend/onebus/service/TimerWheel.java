@@ -0,0 +1,95 @@
+package com.backend.onebus.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Hashed timer wheel of keyed deadlines.
+ *
+ * Each key has at most one deadline and sits in the slot its deadline falls in. Advancing the
+ * wheel only visits the slots that elapsed since the last advance, so the cost is proportional to
+ * the keys in those slots rather than to every scheduled key. Rescheduling and cancelling are
+ * O(1): the stored deadline is updated and a key found in a slot with a later (or no) deadline
+ * is moved on (or dropped) when that slot is next visited.
+ */
+final class TimerWheel<K> {
+
+    private final long tickMs;
+    private final AtomicReferenceArray<Set<K>> slots;
+    private final Map<K, Long> deadlines = new ConcurrentHashMap<>();
+    // Tick of the last advance; its slot is visited again by the next advance, and keys are never
+    // slotted before it
+    private volatile long lastTick;
+
+    TimerWheel(long tickMs, int slotCount) {
+        this.tickMs = tickMs;
+        this.slots = new AtomicReferenceArray<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.set(i, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    /**
+     * Set the key's deadline, replacing any earlier one.
+     */
+    void schedule(K key, long deadline) {
+        Long previous = deadlines.put(key, deadline);
+        // A key already slotted at or before this deadline is moved on lazily when its slot comes up
+        if (previous == null || deadline < previous) {
+            slot(deadline).add(key);
+        }
+    }
+
+    void cancel(K key) {
+        deadlines.remove(key);
+    }
+
+    /**
+     * Remove and return the keys whose deadline is at or before {@code now}.
+     */
+    synchronized List<K> advance(long now) {
+        List<K> expired = new ArrayList<>();
+        long currentTick = now / tickMs;
+        // Behind by more than a revolution: every slot is visited once
+        long firstTick = Math.max(lastTick, currentTick - slots.length() + 1);
+        lastTick = Math.max(lastTick, currentTick);
+        for (long tick = firstTick; tick <= currentTick; tick++) {
+            int index = (int) (tick % slots.length());
+            Set<K> due = slots.getAndSet(index, ConcurrentHashMap.newKeySet());
+            for (K key : due) {
+                expireOrReslot(key, now, expired);
+            }
+        }
+        return expired;
+    }
+
+    private void expireOrReslot(K key, long now, List<K> expired) {
+        while (true) {
+            Long deadline = deadlines.get(key);
+            if (deadline == null) return;
+            if (deadline > now) {
+                // Rescheduled later, or more than a revolution out
+                slot(deadline).add(key);
+                return;
+            }
+            if (deadlines.remove(key, deadline)) {
+                expired.add(key);
+                return;
+            }
+            // Rescheduled or cancelled since the read; its slot may be this one, so look again
+        }
+    }
+
+    int size() {
+        return deadlines.size();
+    }
+
+    private Set<K> slot(long deadline) {
+        long tick = Math.max(deadline / tickMs, lastTick);
+        return slots.get((int) (tick % slots.length()));
+    }
+}
@@ -0,0 +1,221 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.BusLocation;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous ingest queue for tracker payloads.
+ *
+ * Payloads are hashed by tracker IMEI onto a fixed shard; each shard has a bounded queue drained
+ * by a single worker thread, so fixes from one tracker are always processed in arrival order
+ * while different trackers are processed in parallel. A full shard rejects the payload instead
+ * of blocking the request thread, and the caller is expected to answer with a retry hint.
+ *
+ * Each worker is the only writer for its trackers, so it keeps their state in memory
+ * ({@link TrackerShardState}) and flushes the resulting Redis writes in one pipeline per
+ * drained batch rather than reading and writing Redis on every fix.
+ *
+ * Payloads are acknowledged once queued, so on shutdown new payloads are refused and each worker
+ * processes and flushes whatever is still in its queue before it exits.
+ */
+@Service
+public class TrackerIngestService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrackerIngestService.class);
+    private static final int DRAIN_BATCH_SIZE = 256;
+    private static final long SHUTDOWN_JOIN_MS = TimeUnit.SECONDS.toMillis(5);
+
+    @Autowired
+    private BusTrackingService trackingService;
+
+    @Autowired
+    private MetricsService metricsService;
+
+    @Value("${app.tracking.ingest.workers:0}")
+    private int configuredWorkers;
+
+    @Value("${app.tracking.ingest.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${app.tracking.ingest.retry-after-seconds:2}")
+    private int retryAfterSeconds;
+
+    @Value("${app.tracking.ingest.max-batch:500}")
+    private int maxBatch;
+
+    private Shard[] shards;
+    private volatile boolean running;
+    private volatile boolean accepting;
+
+    @PostConstruct
+    public void start() {
+        int workers = configuredWorkers > 0 ? configuredWorkers : Runtime.getRuntime().availableProcessors();
+        shards = new Shard[workers];
+        running = true;
+        for (int i = 0; i < workers; i++) {
+            shards[i] = new Shard(i, queueCapacity);
+            shards[i].thread.start();
+        }
+        accepting = true;
+        logger.info("[INGEST] Started {} ingest workers (queue capacity {} per worker)", workers, queueCapacity);
+    }
+
+    /**
+     * Refuse new payloads, then let every worker finish its queue and flush. Workers are not
+     * interrupted so a fix is never abandoned half-written; each gets up to 5s to drain.
+     */
+    @PreDestroy
+    public void stop() {
+        accepting = false;
+        running = false;
+        if (shards == null) return;
+        for (Shard shard : shards) {
+            try {
+                shard.thread.join(SHUTDOWN_JOIN_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (shard.thread.isAlive()) {
+                logger.warn("[INGEST] Shard {} still draining after {}ms ({} payloads queued)",
+                    shard.index, SHUTDOWN_JOIN_MS, shard.queue.size());
+            }
+        }
+    }
+
+    /**
+     * Queue a single payload. Returns false if its shard is full or the service is shutting down.
+     */
+    public boolean submit(BusLocation payload) {
+        if (!accepting) {
+            metricsService.recordTrackerPayloadsRejected(1);
+            return false;
+        }
+        Shard shard = shardFor(payload.getTrackerImei());
+        if (!shard.queue.offer(payload)) {
+            metricsService.recordTrackerPayloadsRejected(1);
+            logger.warn("[INGEST] Shard {} full - rejecting payload for IMEI {}", shard.index, payload.getTrackerImei());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Queue a batch in order, stopping at the first payload that does not fit. Returns how many
+     * payloads were accepted; the caller resends the remainder, which keeps per-tracker ordering.
+     */
+    public int submitAll(List<BusLocation> payloads) {
+        int accepted = 0;
+        for (BusLocation payload : payloads) {
+            if (!submit(payload)) {
+                metricsService.recordTrackerPayloadsRejected(payloads.size() - accepted - 1);
+                break;
+            }
+            accepted++;
+        }
+        return accepted;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * Largest number of payloads accepted in one batch request.
+     */
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    /**
+     * Total payloads waiting across all shards.
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Shard shard : shards) {
+            depth += shard.queue.size();
+        }
+        return depth;
+    }
+
+    private Shard shardFor(String imei) {
+        int hash = imei != null ? imei.hashCode() : 0;
+        return shards[Math.floorMod(hash, shards.length)];
+    }
+
+    private void process(BusLocation payload, TrackerShardState state) {
+        long startTime = System.currentTimeMillis();
+        try {
+            trackingService.processTrackerPayload(payload, state);
+        } catch (Exception e) {
+            logger.error("[INGEST] Error processing payload for IMEI {}: {}", payload.getTrackerImei(), e.getMessage(), e);
+        }
+        long processingTime = System.currentTimeMillis() - startTime;
+        metricsService.recordBusLocationProcessed(payload.getBusId(), processingTime);
+    }
+
+    private class Shard {
+        private final int index;
+        private final BlockingQueue<BusLocation> queue;
+        private final TrackerShardState state;
+        private final Thread thread;
+
+        Shard(int index, int capacity) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.state = trackingService.newShardState();
+            this.thread = new Thread(this::run, "tracker-ingest-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        private void run() {
+            List<BusLocation> batch = new ArrayList<>(DRAIN_BATCH_SIZE);
+            while (running) {
+                try {
+                    BusLocation first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+                    queue.drainTo(batch, DRAIN_BATCH_SIZE - 1);
+                    processBatch(batch);
+                    metricsService.recordGauge("ingest_queue_depth_" + index, queue.size());
+                } catch (InterruptedException e) {
+                    // Fall through and drain what was already accepted
+                    break;
+                }
+            }
+            while (queue.drainTo(batch, DRAIN_BATCH_SIZE) > 0) {
+                processBatch(batch);
+            }
+        }
+
+        private void processBatch(List<BusLocation> batch) {
+            for (BusLocation payload : batch) {
+                process(payload, state);
+            }
+            batch.clear();
+            flush();
+        }
+
+        private void flush() {
+            List<TrackerShardState.PendingWrite> writes = state.drainPendingWrites();
+            try {
+                trackingService.flushTrackerState(writes);
+            } catch (Exception e) {
+                // Redis is a replica of the shard state; the next fix for each tracker rewrites it
+                logger.error("[INGEST] Failed to flush {} tracker writes from shard {}: {}", writes.size(), index, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.event.TrackerRegistryChangedEvent;
+import com.backend.onebus.model.Bus;
+import com.backend.onebus.repository.BusRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process registry of tracker IMEI -> bus identity and operational status.
+ *
+ * The ingest hot path used to call busRepository.findByTrackerImei on every fix, which goes
+ * through a 10 minute Caffeine cache of detached entities with a lazy company. This registry
+ * holds a fully-loaded, immutable snapshot that is swapped atomically (copy-on-write) when a
+ * {@link TrackerRegistryChangedEvent} is published, so readers never touch JPA or take a lock.
+ * A periodic full reload covers changes made outside this instance.
+ *
+ * An IMEI missing from the snapshot (failed or not yet run initial load, or a tracker assigned
+ * on another node) is looked up once in the database and added; IMEIs still unknown are not
+ * looked up again for the miss interval.
+ */
+@Service
+public class TrackerRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrackerRegistry.class);
+
+    @Autowired
+    private BusRepository busRepository;
+
+    @Value("${app.tracking.registry.miss-ttl-ms:30000}")
+    private long missTtlMs;
+
+    private volatile Map<String, TrackerInfo> snapshot = Collections.emptyMap();
+    // IMEI -> time until which it is known not to be assigned to a bus
+    private final Map<String, Long> unknownUntil = new ConcurrentHashMap<>();
+
+    /**
+     * Registry entry for a tracker, or null if the IMEI is not assigned to a bus.
+     */
+    public TrackerInfo get(String trackerImei) {
+        if (trackerImei == null) return null;
+        TrackerInfo info = snapshot.get(trackerImei);
+        return info != null ? info : lookupMiss(trackerImei);
+    }
+
+    private TrackerInfo lookupMiss(String trackerImei) {
+        long now = System.currentTimeMillis();
+        Long until = unknownUntil.get(trackerImei);
+        if (until != null && until > now) return null;
+        try {
+            List<Bus> buses = busRepository.findByTrackerImeiInFetchCompany(Set.of(trackerImei));
+            if (buses.isEmpty()) {
+                unknownUntil.put(trackerImei, now + missTtlMs);
+                return null;
+            }
+            TrackerInfo info = TrackerInfo.from(buses.get(0));
+            synchronized (this) {
+                Map<String, TrackerInfo> next = new HashMap<>(snapshot);
+                next.put(trackerImei, info);
+                snapshot = Map.copyOf(next);
+            }
+            unknownUntil.remove(trackerImei);
+            logger.info("[REGISTRY] Loaded tracker {} missing from the snapshot", trackerImei);
+            return info;
+        } catch (Exception e) {
+            logger.error("[REGISTRY] Failed to look up tracker {}: {}", trackerImei, e.getMessage());
+            unknownUntil.put(trackerImei, now + missTtlMs);
+            return null;
+        }
+    }
+
+    public int size() {
+        return snapshot.size();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${app.tracking.registry.reload-ms:300000}", initialDelayString = "${app.tracking.registry.reload-ms:300000}")
+    public synchronized void reloadAll() {
+        try {
+            Map<String, TrackerInfo> next = new HashMap<>();
+            for (Bus bus : busRepository.findAllWithTrackerFetchCompany()) {
+                next.put(bus.getTrackerImei(), TrackerInfo.from(bus));
+            }
+            snapshot = Map.copyOf(next);
+            unknownUntil.clear();
+            logger.info("[REGISTRY] Loaded {} tracker registrations", next.size());
+        } catch (Exception e) {
+            logger.error("[REGISTRY] Failed to load tracker registrations: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Reload the given trackers and publish a new snapshot.
+     */
+    public synchronized void reload(Set<String> trackerImeis) {
+        if (trackerImeis.isEmpty()) return;
+        try {
+            List<Bus> buses = busRepository.findByTrackerImeiInFetchCompany(trackerImeis);
+            Map<String, TrackerInfo> next = new HashMap<>(snapshot);
+            next.keySet().removeAll(trackerImeis);
+            for (Bus bus : buses) {
+                next.put(bus.getTrackerImei(), TrackerInfo.from(bus));
+            }
+            snapshot = Map.copyOf(next);
+            unknownUntil.keySet().removeAll(trackerImeis);
+            logger.debug("[REGISTRY] Reloaded trackers {}", trackerImeis);
+        } catch (Exception e) {
+            logger.error("[REGISTRY] Failed to reload trackers {}: {}", trackerImeis, e.getMessage());
+        }
+    }
+
+    /**
+     * Runs after the publishing transaction commits (or immediately when there is none), so
+     * the reload sees the committed rows.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onTrackerRegistryChanged(TrackerRegistryChangedEvent event) {
+        if (event.isFullReload()) {
+            reloadAll();
+        } else {
+            reload(event.getTrackerImeis());
+        }
+    }
+
+    /**
+     * Immutable view of the bus a tracker is fitted to.
+     */
+    public static final class TrackerInfo {
+        private final String trackerImei;
+        private final String busId;
+        private final String busNumber;
+        private final Long companyId;
+        private final String companyName;
+        private final String driverId;
+        private final String driverName;
+        private final String operationalStatus;
+        private final boolean active;
+
+        public TrackerInfo(String trackerImei, String busId, String busNumber, Long companyId, String companyName,
+                           String driverId, String driverName, String operationalStatus) {
+            this.trackerImei = trackerImei;
+            this.busId = busId;
+            this.busNumber = busNumber;
+            this.companyId = companyId;
+            this.companyName = companyName;
+            this.driverId = driverId;
+            this.driverName = driverName;
+            this.operationalStatus = operationalStatus;
+            this.active = "active".equalsIgnoreCase(operationalStatus);
+        }
+
+        static TrackerInfo from(Bus bus) {
+            // Use the company name or the legacy busCompanyName field
+            Long companyId = bus.getBusCompany() != null ? bus.getBusCompany().getId() : null;
+            String companyName = bus.getBusCompany() != null ? bus.getBusCompany().getName() : bus.getBusCompanyName();
+            return new TrackerInfo(bus.getTrackerImei(), bus.getBusId(), bus.getBusNumber(), companyId, companyName,
+                bus.getDriverId(), bus.getDriverName(), bus.getOperationalStatus());
+        }
+
+        public String getTrackerImei() { return trackerImei; }
+        public String getBusId() { return busId; }
+        public String getBusNumber() { return busNumber; }
+        public Long getCompanyId() { return companyId; }
+        public String getCompanyName() { return companyName; }
+        public String getDriverId() { return driverId; }
+        public String getDriverName() { return driverName; }
+        public String getOperationalStatus() { return operationalStatus; }
+        public boolean isActive() { return active; }
+    }
+}
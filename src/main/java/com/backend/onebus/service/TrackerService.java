@@ -1,6 +1,7 @@
 package com.backend.onebus.service;
 
 import com.backend.onebus.dto.TrackerDTO;
+import com.backend.onebus.event.TrackerRegistryChangedEvent;
 import com.backend.onebus.model.BusCompany;
 import com.backend.onebus.model.Tracker;
 import com.backend.onebus.model.RegisteredBus;
@@ -8,6 +9,7 @@ import com.backend.onebus.repository.TrackerRepository;
 import com.backend.onebus.repository.BusCompanyRepository;
 import com.backend.onebus.repository.RegisteredBusRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -30,6 +32,9 @@ public class TrackerService {
     @Autowired
     private DashboardStatsService dashboardStatsService;
 
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
     /**
      * Get all trackers, optionally filtered by company
      */
@@ -220,6 +225,7 @@ public class TrackerService {
 
         registeredBusRepository.save(bus);
         Tracker updatedTracker = trackerRepository.save(tracker);
+        eventPublisher.publishEvent(TrackerRegistryChangedEvent.forImeis(tracker.getImei()));
 
         return new TrackerDTO(updatedTracker);
     }
@@ -241,6 +247,7 @@ public class TrackerService {
 
         registeredBusRepository.save(bus);
         Tracker updatedTracker = trackerRepository.save(tracker);
+        eventPublisher.publishEvent(TrackerRegistryChangedEvent.forImeis(tracker.getImei()));
 
         return new TrackerDTO(updatedTracker);
     }
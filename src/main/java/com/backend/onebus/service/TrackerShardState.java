@@ -0,0 +1,138 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.BusLocation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-tracker state owned by a single ingest worker.
+ *
+ * Every payload for an IMEI is processed by the same worker, so the last payload (dedupe) and
+ * last processed location live here instead of being read back from Redis on every fix. Redis
+ * becomes a write-behind replica: processed fixes queue a {@link PendingWrite}, coalesced per
+ * IMEI, which the worker flushes in one pipeline after each drained batch. The maps are
+ * concurrent only so that other threads can invalidate a tracker (status or details changed).
+ */
+class TrackerShardState {
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+
+    /**
+     * State held for a tracker, or null if this shard has not seen it since start-up or invalidation.
+     */
+    Entry get(String imei) {
+        return entries.get(imei);
+    }
+
+    /**
+     * Seed a tracker's state from Redis the first time the shard sees it.
+     */
+    void seed(String imei, BusLocation lastPayload, BusLocation location) {
+        entries.put(imei, new Entry(lastPayload, location));
+    }
+
+    /**
+     * Record a payload that was rejected after the dedupe check.
+     */
+    void recordSeen(String imei, String dedupeKey, BusLocation payload) {
+        Entry entry = entries.computeIfAbsent(imei, k -> new Entry(null, null));
+        entry.lastPayload = payload;
+        pendingWrites.merge(imei, new PendingWrite(dedupeKey, payload, null, null, null, null), PendingWrite::merge);
+    }
+
+    /**
+     * Record a processed fix and queue its Redis writes.
+     */
+    void recordProcessed(String imei, String dedupeKey, String redisKey, String activeKey,
+                         BusLocation previous, BusLocation payload) {
+        Entry entry = entries.computeIfAbsent(imei, k -> new Entry(null, null));
+        entry.lastPayload = payload;
+        entry.location = payload;
+        pendingWrites.merge(imei, new PendingWrite(dedupeKey, payload, redisKey, activeKey, previous, payload), PendingWrite::merge);
+    }
+
+    /**
+     * Take every queued write, leaving the queue empty.
+     */
+    List<PendingWrite> drainPendingWrites() {
+        List<PendingWrite> drained = new ArrayList<>(pendingWrites.size());
+        for (String imei : pendingWrites.keySet()) {
+            PendingWrite write = pendingWrites.remove(imei);
+            if (write != null) {
+                drained.add(write);
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Drop a tracker's state and any unflushed writes so the next fix is re-read from Redis.
+     */
+    void forget(String imei) {
+        entries.remove(imei);
+        pendingWrites.remove(imei);
+    }
+
+    void forgetAll() {
+        entries.clear();
+        pendingWrites.clear();
+    }
+
+    static class Entry {
+        private BusLocation lastPayload;
+        private BusLocation location;
+
+        Entry(BusLocation lastPayload, BusLocation location) {
+            this.lastPayload = lastPayload;
+            this.location = location;
+        }
+
+        BusLocation getLastPayload() { return lastPayload; }
+        BusLocation getLocation() { return location; }
+    }
+
+    /**
+     * Redis writes owed for one tracker. Only the newest values are kept, except the index
+     * "previous" location which stays the one Redis last saw, so route set moves stay correct.
+     */
+    static class PendingWrite {
+        private final String dedupeKey;
+        private final BusLocation lastPayload;
+        private final String locationKey;
+        private final String activeKey;
+        private final BusLocation previous;
+        private final BusLocation location;
+
+        PendingWrite(String dedupeKey, BusLocation lastPayload, String locationKey, String activeKey,
+                     BusLocation previous, BusLocation location) {
+            this.dedupeKey = dedupeKey;
+            this.lastPayload = lastPayload;
+            this.locationKey = locationKey;
+            this.activeKey = activeKey;
+            this.previous = previous;
+            this.location = location;
+        }
+
+        PendingWrite merge(PendingWrite newer) {
+            if (location == null) {
+                return newer;
+            }
+            if (newer.location == null) {
+                return new PendingWrite(newer.dedupeKey, newer.lastPayload, locationKey, activeKey, previous, location);
+            }
+            return new PendingWrite(newer.dedupeKey, newer.lastPayload, newer.locationKey, newer.activeKey,
+                previous, newer.location);
+        }
+
+        String getDedupeKey() { return dedupeKey; }
+        BusLocation getLastPayload() { return lastPayload; }
+        String getLocationKey() { return locationKey; }
+        String getActiveKey() { return activeKey; }
+        BusLocation getPrevious() { return previous; }
+        BusLocation getLocation() { return location; }
+    }
+}
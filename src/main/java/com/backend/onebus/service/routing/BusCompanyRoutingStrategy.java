@@ -3,15 +3,20 @@ package com.backend.onebus.service.routing;
 import com.backend.onebus.model.BusLocation;
 import com.backend.onebus.model.Route;
 import com.backend.onebus.model.RouteStop;
-import com.backend.onebus.repository.RouteStopRepository;
+import com.backend.onebus.service.BusLocationIndex;
+import com.backend.onebus.service.BusRoster;
+import com.backend.onebus.service.BusSelectionMode;
+import com.backend.onebus.service.RouteDistanceSelector;
+import com.backend.onebus.service.RouteGeometry;
+import com.backend.onebus.service.RouteTopology;
+import com.backend.onebus.service.RouteTopologyService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.redis.core.RedisTemplate;
 
-import java.util.List;
 import java.util.ArrayList;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * Base abstract class for bus company routing strategies.
@@ -26,22 +31,33 @@ public abstract class BusCompanyRoutingStrategy {
     
     protected static final Logger logger = LoggerFactory.getLogger(BusCompanyRoutingStrategy.class);
     protected static final double STOP_PROXIMITY_METERS = 30.0;
-    private static final String BUS_LOCATION_KEY = "bus:location:";
     
-    protected RouteStopRepository routeStopRepository;
+    protected RouteTopologyService routeTopologyService;
     protected RedisTemplate<String, Object> redisTemplate;
+    protected BusLocationIndex busLocationIndex;
+    protected RouteDistanceSelector routeDistanceSelector;
+    private Supplier<BusSelectionMode> selectionModeSource = () -> BusSelectionMode.STOP_INDEX;
     
-    // Intensively cache route stops locally within the strategy to ensure sub-5ms performance
-    private static final java.util.Map<String, List<RouteStop>> localRouteStopsCache = new java.util.concurrent.ConcurrentHashMap<>();
-    
-    public void setRouteStopRepository(RouteStopRepository routeStopRepository) {
-        this.routeStopRepository = routeStopRepository;
+    public void setRouteTopologyService(RouteTopologyService routeTopologyService) {
+        this.routeTopologyService = routeTopologyService;
     }
     
     public void setRedisTemplate(RedisTemplate<String, Object> redisTemplate) {
         this.redisTemplate = redisTemplate;
     }
     
+    public void setBusLocationIndex(BusLocationIndex busLocationIndex) {
+        this.busLocationIndex = busLocationIndex;
+    }
+    
+    public void setRouteDistanceSelector(RouteDistanceSelector routeDistanceSelector) {
+        this.routeDistanceSelector = routeDistanceSelector;
+    }
+    
+    public void setSelectionModeSource(Supplier<BusSelectionMode> selectionModeSource) {
+        this.selectionModeSource = selectionModeSource;
+    }
+    
     /**
      * Apply global routing rules that apply to all bus companies.
      * This is called before company-specific inference.
@@ -111,29 +127,20 @@ public abstract class BusCompanyRoutingStrategy {
      * Get total number of stops in a given direction for a route
      */
     protected int getTotalStopsInDirection(Route route, String direction) {
-        if (route == null) return 0;
-        List<RouteStop> stops = getRouteStopsCached(route.getId(), direction);
-        return stops.size();
+        RouteTopology topology = getTopology(route);
+        return topology != null ? topology.getStopCount(direction) : 0;
     }
     
-    private List<RouteStop> getRouteStopsCached(Long routeId, String direction) {
-        String cacheKey = routeId + "_" + direction;
-        return localRouteStopsCache.computeIfAbsent(cacheKey, k -> {
-            if (routeStopRepository == null) {
-                logger.warn("RouteStopRepository is null in strategy - cannot load stops");
-                return new java.util.ArrayList<>();
-            }
-            try {
-                long start = System.currentTimeMillis();
-                List<RouteStop> stops = routeStopRepository.findByRouteIdAndDirectionOrderByBusStopIndex(routeId, direction);
-                logger.info("[STRATEGY-CACHE] Loaded {} stops for route {} {} from DB in {}ms", 
-                    stops.size(), routeId, direction, (System.currentTimeMillis() - start));
-                return stops;
-            } catch (Exception e) {
-                logger.error("Error loading stops for strategy cache: {}", e.getMessage());
-                return new java.util.ArrayList<>();
-            }
-        });
+    /**
+     * Compiled stop topology for a route, shared with the rest of the tracking pipeline
+     */
+    protected RouteTopology getTopology(Route route) {
+        if (route == null) return null;
+        if (routeTopologyService == null) {
+            logger.warn("RouteTopologyService is null in strategy - cannot load stops");
+            return null;
+        }
+        return routeTopologyService.get(route);
     }
     
     /**
@@ -152,18 +159,16 @@ public abstract class BusCompanyRoutingStrategy {
      * Find the first stop of a route in a given direction
      */
     protected RouteStop getFirstStop(Route route, String direction) {
-        if (route == null) return null;
-        List<RouteStop> stops = getRouteStopsCached(route.getId(), direction);
-        return stops.isEmpty() ? null : stops.get(0);
+        RouteTopology topology = getTopology(route);
+        return topology != null ? topology.getFirstStop(direction) : null;
     }
     
     /**
      * Find the last stop of a route in a given direction
      */
     protected RouteStop getLastStop(Route route, String direction) {
-        if (route == null) return null;
-        List<RouteStop> stops = getRouteStopsCached(route.getId(), direction);
-        return stops.isEmpty() ? null : stops.get(stops.size() - 1);
+        RouteTopology topology = getTopology(route);
+        return topology != null ? topology.getLastStop(direction) : null;
     }
     
     /**
@@ -232,6 +237,20 @@ public abstract class BusCompanyRoutingStrategy {
         return selectBestBusDefault(busNumber, direction, clientLat, clientLon, clientBusStopIndex);
     }
     
+    /**
+     * Select the best bus for many clients of the same route and direction at once, e.g. riders
+     * resubscribing after a deploy. Same rules and selection mode as
+     * {@link #selectBestBusForClient}, but the rosters and route geometry are looked up once.
+     * 
+     * @return The selected bus ID for each client, in order (null where no suitable bus was found)
+     */
+    public List<String> selectBestBusesForClients(String busNumber, String direction, List<ClientPosition> clients) {
+        logger.info("[{}] Using default bulk bus selection for {} clients on route {} {}", 
+                   getCompanyName(), clients.size(), busNumber, direction);
+        
+        return selectBestBusesDefault(busNumber, direction, clients);
+    }
+    
     /**
      * Check if this company supports smart bus selection (Shadow Bus strategy).
      * Companies that don't support it will use traditional subscription only.
@@ -242,111 +261,120 @@ public abstract class BusCompanyRoutingStrategy {
         return false; // Default: no smart selection
     }
     
+    /**
+     * How this company ranks buses approaching a client. Defaults to the configured mode
+     * (company rule BUS_SELECTION_MODE, else app.tracking.selection.mode); companies can override.
+     */
+    public BusSelectionMode getSelectionMode() {
+        BusSelectionMode mode = selectionModeSource.get();
+        return mode != null ? mode : BusSelectionMode.STOP_INDEX;
+    }
+    
     /**
      * Default bus selection logic that can be used by any company.
      * This implements the basic Shadow Bus strategy.
      */
     protected String selectBestBusDefault(String busNumber, String direction, 
                                         double clientLat, double clientLon, int clientBusStopIndex) {
-        // 1. Get all active buses for this route in the requested direction
-        List<BusLocation> busesRequestedDir = getActiveBusesForRoute(busNumber, direction);
-        // 2. Get all active buses for this route in the opposite direction
-        String oppositeDirection = direction.equalsIgnoreCase("Northbound") ? "Southbound" : "Northbound";
-        List<BusLocation> busesOppositeDir = getActiveBusesForRoute(busNumber, oppositeDirection);
-
-        // 3. Filter buses in requested direction: BEHIND or AT client (approaching)
-        List<BusLocation> suitableRequested = busesRequestedDir.stream()
-            .filter(bus -> bus.getBusStopIndex() != null && bus.getBusStopIndex() <= clientBusStopIndex)
-            .collect(Collectors.toList());
+        // 1. Live buses for this route in the requested direction, ordered by stop index
+        BusRoster requested = getRoster(busNumber, direction);
 
-        if (!suitableRequested.isEmpty()) {
-            // 4. Return the closest bus in requested direction
-            BusLocation best = findClosestIndexBus(suitableRequested, clientBusStopIndex);
-            logger.info("[{}] Selected bus {} (index: {}) in requested direction {} for client at index {} (Approaching)", 
-                getCompanyName(), best.getBusId(), best.getBusStopIndex(), direction, clientBusStopIndex);
+        // 2. Closest bus BEHIND or AT client (approaching): by distance along the route or ETA when
+        // the company selects by those and the route has geometry, else a stop index floor lookup
+        BusSelectionMode mode = getSelectionMode();
+        RouteGeometry geometry = mode != BusSelectionMode.STOP_INDEX && routeDistanceSelector != null
+            ? routeDistanceSelector.geometryFor(busNumber, direction)
+            : null;
+        BusLocation best = geometry != null
+            ? routeDistanceSelector.closestApproaching(geometry, clientLat, clientLon, requested.toList(), mode)
+            : requested.closestAtOrBehind(clientBusStopIndex);
+        if (best != null) {
+            logger.info("[{}] Selected bus {} (index: {}) in requested direction {} for client at index {} (Approaching, by {})", 
+                getCompanyName(), best.getBusId(), best.getBusStopIndex(), direction, clientBusStopIndex,
+                geometry != null ? mode : BusSelectionMode.STOP_INDEX);
             return best.getBusId();
         }
 
-        // 5. If no suitable bus in requested direction, try opposite direction
+        // 3. If no suitable bus in requested direction, try opposite direction
         // BUT ONLY IF there are NO buses in the requested direction at all.
-        // If there ARE buses in the requested direction, but they have passed the user (filtered out because index > clientIndex),
+        // If there ARE buses in the requested direction, but they have passed the user (index > clientIndex),
         // we should NOT fallback to the opposite direction (per user request).
-        if (busesRequestedDir.isEmpty() && !busesOppositeDir.isEmpty()) {
+        if (requested.isEmpty()) {
+            String oppositeDirection = direction.equalsIgnoreCase("Northbound") ? "Southbound" : "Northbound";
             // Never suggest a bus with a negative index
-            List<BusLocation> suitableOpposite = busesOppositeDir.stream()
-                .filter(bus -> bus.getBusStopIndex() != null && bus.getBusStopIndex() >= 0)
-                .collect(Collectors.toList());
-            if (!suitableOpposite.isEmpty()) {
-                BusLocation bestOpp = findClosestIndexBus(suitableOpposite, clientBusStopIndex);
+            BusLocation bestOpp = getRoster(busNumber, oppositeDirection).closest(clientBusStopIndex, 0);
+            if (bestOpp != null) {
                 logger.info("[{}] Selected bus {} (index: {}) in opposite direction {} for client at index {}", 
                     getCompanyName(), bestOpp.getBusId(), bestOpp.getBusStopIndex(), oppositeDirection, clientBusStopIndex);
                 return bestOpp.getBusId();
             }
-        }
-        
-        // Log explicitly if we are not falling back because buses exist but passed (index > clientIndex)
-        if (!busesRequestedDir.isEmpty() && suitableRequested.isEmpty()) {
+        } else {
+            // Log explicitly if we are not falling back because buses exist but passed (index > clientIndex)
             logger.info("[{}] Buses exist in requested direction {} but have all passed client at index {} (Indices > {}). Not falling back to opposite.", 
                 getCompanyName(), direction, clientBusStopIndex, clientBusStopIndex);
         }
 
-        // 6. No buses available in either direction
+        // 4. No buses available in either direction
         logger.warn("[{}] No suitable buses available for route {}.", getCompanyName(), busNumber);
         return null;
     }
     
     /**
-     * Get all active buses for a specific route and direction
+     * Default bulk selection: {@link #selectBestBusDefault} for each client, sharing one roster
+     * and geometry lookup (and one opposite-direction roster when the requested one is empty).
      */
-    protected List<BusLocation> getActiveBusesForRoute(String busNumber, String direction) {
-        List<BusLocation> activeBuses = new ArrayList<>();
-        
-        if (redisTemplate == null) {
-            logger.warn("[{}] RedisTemplate not available for bus selection", getCompanyName());
-            return activeBuses;
-        }
-        
-        try {
-            Set<String> keys = redisTemplate.keys(BUS_LOCATION_KEY + "*");
-            
-            if (keys != null) {
-                for (String key : keys) {
-                    BusLocation location = (BusLocation) redisTemplate.opsForValue().get(key);
-                    
-                    if (location != null && 
-                        busNumber.equalsIgnoreCase(location.getBusNumber()) && 
-                        direction.equalsIgnoreCase(location.getTripDirection()) &&
-                        location.getBusStopIndex() != null) {
-                        activeBuses.add(location);
-                    }
-                }
+    protected List<String> selectBestBusesDefault(String busNumber, String direction, List<ClientPosition> clients) {
+        BusRoster requested = getRoster(busNumber, direction);
+        BusSelectionMode mode = getSelectionMode();
+        RouteGeometry geometry = mode != BusSelectionMode.STOP_INDEX && routeDistanceSelector != null
+            && !requested.isEmpty()
+            ? routeDistanceSelector.geometryFor(busNumber, direction)
+            : null;
+        List<BusLocation> candidates = geometry != null ? requested.toList() : null;
+        // Only fall back to the opposite direction when there are no buses in the requested one
+        BusRoster opposite = requested.isEmpty()
+            ? getRoster(busNumber, direction.equalsIgnoreCase("Northbound") ? "Southbound" : "Northbound")
+            : null;
+
+        List<String> selected = new ArrayList<>(clients.size());
+        for (ClientPosition client : clients) {
+            BusLocation best;
+            if (opposite != null) {
+                // Never suggest a bus with a negative index
+                best = opposite.closest(client.busStopIndex(), 0);
+            } else if (geometry != null) {
+                best = routeDistanceSelector.closestApproaching(geometry, client.lat(), client.lon(), candidates, mode);
+            } else {
+                best = requested.closestAtOrBehind(client.busStopIndex());
             }
-        } catch (Exception e) {
-            logger.error("[{}] Error getting active buses for route {} {}: {}", 
-                        getCompanyName(), busNumber, direction, e.getMessage());
+            selected.add(best != null ? best.getBusId() : null);
         }
-        
-        return activeBuses;
+        logger.info("[{}] Bulk selected buses for {} clients on route {} {} (by {})", 
+            getCompanyName(), clients.size(), busNumber, direction, geometry != null ? mode : BusSelectionMode.STOP_INDEX);
+        return selected;
     }
     
     /**
-     * Find the bus with the closest index to the client's index
+     * A client's position for bulk selection: its coordinates and bus stop index
      */
-    protected BusLocation findClosestIndexBus(List<BusLocation> suitableBuses, int clientBusStopIndex) {
-        if (suitableBuses.isEmpty()) return null;
-        
-        // Sort by index difference (closest first)
-        suitableBuses.sort((bus1, bus2) -> {
-            int diff1 = Math.abs(bus1.getBusStopIndex() - clientBusStopIndex);
-            int diff2 = Math.abs(bus2.getBusStopIndex() - clientBusStopIndex);
-            return Integer.compare(diff1, diff2);
-        });
-        
-        BusLocation bestBus = suitableBuses.get(0);
-        logger.debug("[{}] Closest bus: {} (index: {}, difference: {})", 
-                    getCompanyName(), bestBus.getBusId(), bestBus.getBusStopIndex(), 
-                    Math.abs(bestBus.getBusStopIndex() - clientBusStopIndex));
+    public record ClientPosition(double lat, double lon, int busStopIndex) {}
+    
+    /**
+     * Live buses for a specific route and direction, ordered by stop index
+     */
+    protected BusRoster getRoster(String busNumber, String direction) {
+        if (busLocationIndex == null) {
+            logger.warn("[{}] BusLocationIndex not available for bus selection", getCompanyName());
+            return BusRoster.empty();
+        }
         
-        return bestBus;
+        try {
+            BusRoster roster = busLocationIndex.getRoster(busNumber, direction);
+            return roster != null ? roster : BusRoster.empty();
+        } catch (Exception e) {
+            logger.error("[{}] Error getting bus roster for route {} {}: {}", 
+                        getCompanyName(), busNumber, direction, e.getMessage());
+            return BusRoster.empty();
+        }
     }
 }
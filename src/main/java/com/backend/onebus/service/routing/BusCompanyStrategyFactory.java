@@ -1,9 +1,15 @@
 package com.backend.onebus.service.routing;
 
-import com.backend.onebus.repository.RouteStopRepository;
+import com.backend.onebus.constants.RuleConstants;
+import com.backend.onebus.service.BusLocationIndex;
+import com.backend.onebus.service.BusSelectionMode;
+import com.backend.onebus.service.RouteDistanceSelector;
+import com.backend.onebus.service.RouteTopologyService;
+import com.backend.onebus.service.RuleEngineService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Component;
 
@@ -19,11 +25,23 @@ public class BusCompanyStrategyFactory {
     private static final Logger logger = LoggerFactory.getLogger(BusCompanyStrategyFactory.class);
     
     @Autowired
-    private RouteStopRepository routeStopRepository;
+    private RouteTopologyService routeTopologyService;
     
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
     
+    @Autowired
+    private BusLocationIndex busLocationIndex;
+    
+    @Autowired
+    private RouteDistanceSelector routeDistanceSelector;
+    
+    @Autowired
+    private RuleEngineService ruleEngineService;
+    
+    @Value("${app.tracking.selection.mode:stop-index}")
+    private String defaultSelectionMode;
+    
     private final java.util.Map<String, BusCompanyRoutingStrategy> strategyCache = new java.util.concurrent.ConcurrentHashMap<>();
     
     /**
@@ -53,11 +71,32 @@ public class BusCompanyStrategyFactory {
                 strategy = new DefaultRoutingStrategy();
             }
             
-            // Set the repository and Redis template on the strategy
-            strategy.setRouteStopRepository(routeStopRepository);
+            // Set the route topology, Redis template and live location index on the strategy
+            strategy.setRouteTopologyService(routeTopologyService);
             strategy.setRedisTemplate(redisTemplate);
+            strategy.setBusLocationIndex(busLocationIndex);
+            strategy.setRouteDistanceSelector(routeDistanceSelector);
+            // Read on each selection so rule changes apply without a restart
+            strategy.setSelectionModeSource(() -> selectionModeFor(companyName));
             
             return strategy;
         });
     }
+    
+    /**
+     * The company's BUS_SELECTION_MODE rule when set, otherwise app.tracking.selection.mode.
+     */
+    private BusSelectionMode selectionModeFor(String companyName) {
+        BusSelectionMode fallback = BusSelectionMode.parse(defaultSelectionMode, BusSelectionMode.STOP_INDEX);
+        if (companyName == null || ruleEngineService == null) return fallback;
+        try {
+            return ruleEngineService.resolveCompanyIdByName(companyName)
+                .flatMap(companyId -> ruleEngineService.getValue(companyId, RuleConstants.BUS_SELECTION_MODE))
+                .map(value -> BusSelectionMode.parse(value, fallback))
+                .orElse(fallback);
+        } catch (Exception e) {
+            logger.warn("Failed to read bus selection mode for company {}: {}", companyName, e.getMessage());
+            return fallback;
+        }
+    }
 }
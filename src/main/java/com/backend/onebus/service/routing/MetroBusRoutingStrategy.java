@@ -22,10 +22,10 @@ public class MetroBusRoutingStrategy extends BusCompanyRoutingStrategy {
     }
     
     @Override
-    public void setRouteStopRepository(com.backend.onebus.repository.RouteStopRepository routeStopRepository) {
-        super.setRouteStopRepository(routeStopRepository);
-        // Pass repository to fallback strategy as well
-        reaVayaFallback.setRouteStopRepository(routeStopRepository);
+    public void setRouteTopologyService(com.backend.onebus.service.RouteTopologyService routeTopologyService) {
+        super.setRouteTopologyService(routeTopologyService);
+        // Pass route topology to fallback strategy as well
+        reaVayaFallback.setRouteTopologyService(routeTopologyService);
     }
     
     /**
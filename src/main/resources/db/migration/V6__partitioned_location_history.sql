@@ -0,0 +1,27 @@
+-- V6: Compact, time-partitioned location history
+-- Used when app.tracking.history.mode=partitioned. Rows are range-partitioned on recorded_at
+-- (server receive time, epoch milliseconds). Daily or hourly partitions are created ahead of time
+-- and dropped after the retention period by LocationHistoryService. Bus number, driver and
+-- company names are not repeated on every row; they are joined from buses / bus_companies.
+
+CREATE TABLE IF NOT EXISTS bus_location_history (
+    recorded_at BIGINT NOT NULL,
+    fix_time BIGINT,
+    bus_id VARCHAR(255) REFERENCES buses(bus_id) ON DELETE SET NULL,
+    company_id BIGINT REFERENCES bus_companies(id) ON DELETE SET NULL,
+    tracker_imei VARCHAR(32) NOT NULL,
+    lat DOUBLE PRECISION NOT NULL,
+    lon DOUBLE PRECISION NOT NULL,
+    speed_kmh REAL,
+    heading_degrees REAL,
+    trip_direction VARCHAR(16),
+    bus_stop_index SMALLINT
+) PARTITION BY RANGE (recorded_at);
+
+-- Catches rows outside every pre-created partition so inserts never fail
+CREATE TABLE IF NOT EXISTS bus_location_history_default PARTITION OF bus_location_history DEFAULT;
+
+-- Latest-fix-per-bus lookups
+CREATE INDEX IF NOT EXISTS idx_bus_location_history_bus_time ON bus_location_history (bus_id, recorded_at DESC);
+
+COMMENT ON TABLE bus_location_history IS 'Partitioned GPS history; partitions named bus_location_history_pYYYYMMDD[HH] are managed by the application';
@@ -3,17 +3,25 @@ package com.backend.onebus.controller;
 import com.backend.onebus.model.BusCompany;
 import com.backend.onebus.model.BusNumber;
 import com.backend.onebus.repository.BusNumberRepository;
+import com.backend.onebus.service.BusStreamingService;
+import com.backend.onebus.service.MetricsService;
 import com.backend.onebus.service.routing.BusCompanyStrategyFactory;
 import com.backend.onebus.service.routing.BusCompanyRoutingStrategy;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.Mockito.when;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
 
 /**
  * Test that BusStreamingController correctly identifies company strategies
@@ -110,4 +118,29 @@ class BusStreamingControllerStrategyTest {
         assertEquals("Metro Bus", metroBusStrategy.getCompanyName());
         assertEquals("Default", defaultStrategy.getCompanyName());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testSmartSubscriberWithNoBusYetIsStoredAsWaiting() {
+        BusStreamingService streamingService = mock(BusStreamingService.class);
+        BusCompanyStrategyFactory mockFactory = mock(BusCompanyStrategyFactory.class);
+        BusCompanyRoutingStrategy strategy = mock(BusCompanyRoutingStrategy.class);
+        ReflectionTestUtils.setField(controller, "streamingService", streamingService);
+        ReflectionTestUtils.setField(controller, "strategyFactory", mockFactory);
+        ReflectionTestUtils.setField(controller, "metricsService", mock(MetricsService.class));
+        when(busNumberRepository.findByIsActiveTrue()).thenReturn(List.of());
+        when(mockFactory.getStrategy(any())).thenReturn(strategy);
+        when(strategy.supportsSmartBusSelection()).thenReturn(true);
+        when(strategy.selectBestBusForClient(anyString(), anyString(), anyDouble(), anyDouble(), anyInt())).thenReturn(null);
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create();
+        headers.setSessionId("session-1");
+
+        Map<String, Object> response = controller.subscribeToBus(Map.of(
+            "busNumber", "C6", "direction", "Northbound",
+            "latitude", -26.18, "longitude", 28.04, "busStopIndex", 2), headers);
+
+        assertEquals("traditional", response.get("selectionType"));
+        verify(streamingService).subscribeToBus("session-1", "C6", "Northbound");
+        verify(streamingService).storeClientSubscription("session-1", "C6", "Northbound", -26.18, 28.04, 2, null, strategy);
+        verify(streamingService, never()).subscribeToSpecificBus(anyString(), anyString());
+    }
+}
@@ -0,0 +1,76 @@
+package com.backend.onebus.controller;
+
+import com.backend.onebus.model.BusLocation;
+import com.backend.onebus.service.MetricsService;
+import com.backend.onebus.service.TrackerIngestService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test the limits BusTrackingController puts on batched tracker payloads.
+ */
+class BusTrackingControllerBatchTest {
+
+    @Mock
+    private TrackerIngestService trackerIngestService;
+
+    @Mock
+    private MetricsService metricsService;
+
+    private BusTrackingController controller;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        controller = new BusTrackingController();
+        ReflectionTestUtils.setField(controller, "trackerIngestService", trackerIngestService);
+        ReflectionTestUtils.setField(controller, "metricsService", metricsService);
+        when(trackerIngestService.getMaxBatch()).thenReturn(3);
+        when(trackerIngestService.submitAll(anyList())).thenAnswer(invocation -> ((List<?>) invocation.getArgument(0)).size());
+    }
+
+    private static List<BusLocation> payloads(int count) {
+        List<BusLocation> payloads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            BusLocation payload = new BusLocation();
+            payload.setTrackerImei("imei-" + i);
+            payloads.add(payload);
+        }
+        return payloads;
+    }
+
+    @Test
+    void testBatchWithinTheLimitIsAccepted() {
+        ResponseEntity<?> response = controller.receiveTrackerPayloadBatch(payloads(3));
+
+        assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+        assertEquals(Map.of("accepted", 3, "rejected", 0), response.getBody());
+    }
+
+    @Test
+    void testOversizedBatchIsRejectedWithoutQueueingAnything() {
+        ResponseEntity<?> response = controller.receiveTrackerPayloadBatch(payloads(4));
+
+        assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, response.getStatusCode());
+        Map<?, ?> body = (Map<?, ?>) response.getBody();
+        assertEquals(0, body.get("accepted"));
+        assertEquals(4, body.get("rejected"));
+        assertEquals(3, body.get("maxBatch"));
+        verify(trackerIngestService, never()).submitAll(any());
+        verify(metricsService).recordTrackerPayloadsRejected(4);
+    }
+}
@@ -0,0 +1,118 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.dto.ActiveBusDTO;
+import com.backend.onebus.model.BusLocation;
+import com.backend.onebus.model.Route;
+import com.backend.onebus.model.RouteStop;
+import com.backend.onebus.repository.RouteRepository;
+import com.backend.onebus.repository.RouteStopRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class ActiveBusServiceTest {
+    @Mock
+    private BusLocationIndex busLocationIndex;
+
+    @Mock
+    private TrackerRegistry trackerRegistry;
+
+    @Mock
+    private RouteRepository routeRepository;
+
+    @Mock
+    private RouteStopRepository routeStopRepository;
+
+    @InjectMocks
+    private ActiveBusService activeBusService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        RouteTopologyService routeTopologyService = new RouteTopologyService();
+        ReflectionTestUtils.setField(routeTopologyService, "routeStopRepository", routeStopRepository);
+        ReflectionTestUtils.setField(activeBusService, "routeTopologyService", routeTopologyService);
+    }
+
+    private BusLocation createLocation(String busId, String busNumber, String direction, Integer stopIndex) {
+        BusLocation location = new BusLocation();
+        location.setBusId(busId);
+        location.setTrackerImei("imei-" + busId);
+        location.setBusNumber(busNumber);
+        location.setTripDirection(direction);
+        location.setBusStopIndex(stopIndex);
+        location.setBusCompany("Rea Vaya");
+        return location;
+    }
+
+    private Route createRoute(Long id, String busNumber, String direction) {
+        Route route = new Route();
+        route.setId(id);
+        route.setBusNumber(busNumber);
+        route.setDirection(direction);
+        return route;
+    }
+
+    private RouteStop createStop(Route route, long id, String direction, int index) {
+        RouteStop stop = new RouteStop();
+        stop.setId(id);
+        stop.setRoute(route);
+        stop.setDirection(direction);
+        stop.setBusStopIndex(index);
+        stop.setAddress("Stop " + id);
+        return stop;
+    }
+
+    @Test
+    void testAssemblesAllBusesWithTwoBulkQueries() {
+        Route northbound = createRoute(1L, "C5", "Northbound");
+        Route southbound = createRoute(2L, "C5", "Southbound");
+        when(busLocationIndex.getUpdatedSince(anyLong())).thenReturn(List.of(
+            createLocation("bus-1", "C5", "Northbound", 1),
+            createLocation("bus-2", "C5", "Southbound", 0),
+            createLocation("bus-3", "C5", "Northbound", 2)));
+        when(routeRepository.findByBusNumberIn(anyCollection())).thenReturn(List.of(northbound, southbound));
+        when(routeStopRepository.findByRouteIdIn(anyCollection())).thenReturn(List.of(
+            createStop(northbound, 10, "Northbound", 0),
+            createStop(northbound, 11, "Northbound", 1),
+            createStop(southbound, 20, "Southbound", 0)));
+
+        List<ActiveBusDTO> buses = activeBusService.getActiveBuses(null, null);
+
+        assertEquals(3, buses.size());
+        ActiveBusDTO first = buses.get(0);
+        assertEquals(Long.valueOf(1L), first.getRoute().getId());
+        assertEquals("11", first.getNextStop().getId());
+        assertEquals("10", first.getLastStop().getId());
+        assertEquals(Long.valueOf(2L), buses.get(1).getRoute().getId());
+        verify(routeRepository, times(1)).findByBusNumberIn(anyCollection());
+        verify(routeStopRepository, times(1)).findByRouteIdIn(anyCollection());
+        verify(routeRepository, never()).findByBusNumber(anyString());
+    }
+
+    @Test
+    void testFiltersByCompanyAndBusNumber() {
+        BusLocation otherCompany = createLocation("bus-2", "C5", "Northbound", 1);
+        otherCompany.setBusCompany("Metro Bus");
+        when(busLocationIndex.getUpdatedSince(anyLong())).thenReturn(List.of(
+            createLocation("bus-1", "C5", "Northbound", 1),
+            otherCompany,
+            createLocation("bus-3", "T1", "Northbound", 1)));
+
+        List<ActiveBusDTO> buses = activeBusService.getActiveBuses("rea vaya", "c5");
+
+        assertEquals(1, buses.size());
+        assertEquals("bus-1", buses.get(0).getBus().getId());
+    }
+}
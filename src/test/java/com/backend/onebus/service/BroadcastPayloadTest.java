@@ -0,0 +1,58 @@
+package com.backend.onebus.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BroadcastPayloadTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void testSplicedDistanceMatchesSerializingTheFullMap() throws Exception {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("busId", "bus-1");
+        body.put("lat", -26.2041);
+        body.put("isFallback", false);
+        RouteGeometryService.RouteDistanceResult distance =
+            new RouteGeometryService.RouteDistanceResult(1234.5678, 1.2345678, 2.4691356, 3, 7, 4.2, 8.1);
+
+        BroadcastPayload payload = BroadcastPayload.of(objectMapper, body, "bus-1");
+        body.put("distanceMeters", distance.distanceMeters);
+        body.put("distanceKm", distance.distanceKm);
+        body.put("estimatedTimeMinutes", distance.estimatedTimeMinutes);
+
+        assertArrayEquals(objectMapper.writeValueAsBytes(body), payload.withRouteDistance(distance).getPayload());
+        assertSame(payload.message(), payload.withRouteDistance(null));
+        assertEquals(MimeTypeUtils.APPLICATION_JSON, payload.message().getHeaders().get(MessageHeaders.CONTENT_TYPE));
+        assertEquals("{\"distanceMeters\":1234.5678,\"distanceKm\":1.2345678,\"estimatedTimeMinutes\":2.4691356}",
+            new String(BroadcastPayload.of(objectMapper, Map.of(), "bus-1").withRouteDistance(distance).getPayload()));
+    }
+
+    @Test
+    void testDestinationsShareTheSerializedBytes() throws Exception {
+        List<Message<?>> sent = new ArrayList<>();
+        SimpMessagingTemplate template = new SimpMessagingTemplate((message, timeout) -> sent.add(message));
+        BroadcastPayload payload = BroadcastPayload.of(objectMapper, Map.of("busId", "bus-1"), "bus-1");
+
+        template.send("/topic/bus/C5_Northbound", payload.message());
+        template.send("/topic/bus/c5_northbound", payload.message());
+
+        assertEquals(2, sent.size());
+        assertSame(sent.get(0).getPayload(), sent.get(1).getPayload());
+        assertEquals("/topic/bus/C5_Northbound", SimpMessageHeaderAccessor.getDestination(sent.get(0).getHeaders()));
+        assertEquals("/topic/bus/c5_northbound", SimpMessageHeaderAccessor.getDestination(sent.get(1).getHeaders()));
+        assertNull(SimpMessageHeaderAccessor.getDestination(payload.message().getHeaders()));
+    }
+}
@@ -0,0 +1,243 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.BusLocation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class BusLocationIndexTest {
+    @Mock
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Mock
+    private SetOperations<String, Object> setOperations;
+
+    @Mock
+    private ValueOperations<String, Object> valueOperations;
+
+    @Mock
+    private HashOperations<String, Object, Object> hashOperations;
+
+    @InjectMocks
+    private BusLocationIndex busLocationIndex;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(redisTemplate.opsForSet()).thenReturn(setOperations);
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        doReturn(hashOperations).when(redisTemplate).opsForHash();
+    }
+
+    private BusLocation createLocation(String imei, String busId, String direction, Integer stopIndex) {
+        BusLocation location = new BusLocation();
+        location.setTrackerImei(imei);
+        location.setBusId(busId);
+        location.setBusNumber("C5");
+        location.setTripDirection(direction);
+        location.setBusStopIndex(stopIndex);
+        return location;
+    }
+
+    @Test
+    void testUpdateMovesBusBetweenRouteBuckets() {
+        busLocationIndex.update(createLocation("imei-1", "bus-1", "Northbound", 3));
+        busLocationIndex.update(createLocation("imei-1", "bus-1", "Southbound", 0));
+
+        assertTrue(busLocationIndex.getRoster("C5", "Northbound").isEmpty(),
+            "Bus should no longer be listed under its old direction");
+        List<BusLocation> southbound = busLocationIndex.getRoster("c5", "SOUTHBOUND").toList();
+        assertEquals(1, southbound.size());
+        assertEquals("bus-1", southbound.get(0).getBusId());
+        verify(redisTemplate, never()).keys(anyString());
+    }
+
+    @Test
+    void testLookupByBusIdUsesLocalMirror() {
+        busLocationIndex.update(createLocation("imei-2", "bus-2", "Northbound", 5));
+
+        BusLocation location = busLocationIndex.getByBusId("bus-2");
+
+        assertNotNull(location);
+        assertEquals("imei-2", location.getTrackerImei());
+        verifyNoInteractions(valueOperations);
+    }
+
+    @Test
+    void testSelectionCandidatesRequireStopIndex() {
+        busLocationIndex.update(createLocation("imei-3", "bus-3", "Northbound", null));
+
+        assertTrue(busLocationIndex.getRoster("C5", "Northbound").isEmpty());
+        assertEquals(1, busLocationIndex.getLocationsForRoute("C5", "Northbound").size());
+    }
+
+    @Test
+    void testColdMirrorFallsBackToSingleMultiGet() {
+        BusLocation stored = createLocation("imei-4", "bus-4", "Northbound", 2);
+        when(setOperations.members("bus:route:c5_northbound")).thenReturn(Set.of("imei-4"));
+        when(valueOperations.multiGet(anyList())).thenReturn(Arrays.asList(stored));
+
+        List<BusLocation> buses = busLocationIndex.getRoster("C5", "Northbound").toList();
+
+        assertEquals(1, buses.size());
+        verify(valueOperations, times(1)).multiGet(anyList());
+        verify(valueOperations, never()).get(anyString());
+        assertSame(stored, busLocationIndex.getByBusId("bus-4"), "Fetched locations should warm the mirror");
+    }
+
+    @Test
+    void testRemoveDropsBusFromIndex() {
+        busLocationIndex.update(createLocation("imei-5", "bus-5", "Northbound", 1));
+
+        busLocationIndex.remove("imei-5");
+
+        assertTrue(busLocationIndex.getLocationsForRoute("C5", "Northbound").isEmpty());
+        assertTrue(busLocationIndex.getAll().isEmpty());
+    }
+
+    @Test
+    void testRosterFollowsBusesBetweenStopsAndRoutes() {
+        busLocationIndex.update(createLocation("imei-6", "bus-6", "Northbound", 2));
+        busLocationIndex.update(createLocation("imei-7", "bus-7", "Northbound", 5));
+        BusRoster roster = busLocationIndex.getRoster("C5", "Northbound");
+        assertEquals("bus-6", roster.closestAtOrBehind(4).getBusId());
+        assertNull(roster.closestAtOrBehind(1));
+
+        // bus-6 moves past bus-7, then bus-7 turns around
+        busLocationIndex.update(createLocation("imei-6", "bus-6", "Northbound", 7));
+        busLocationIndex.update(createLocation("imei-7", "bus-7", "Southbound", 0));
+        assertNull(roster.closestAtOrBehind(6));
+        assertEquals("bus-6", roster.closestAtOrBehind(7).getBusId());
+        assertEquals(List.of("bus-6"), roster.toList().stream().map(BusLocation::getBusId).toList());
+        assertEquals("bus-7", busLocationIndex.getRoster("c5", "southbound").closest(3, 0).getBusId());
+
+        busLocationIndex.remove("imei-6");
+        assertTrue(roster.isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testSilentBusesAreLeftOutOfRosters() {
+        ReflectionTestUtils.setField(busLocationIndex, "staleMs", 120_000L);
+        busLocationIndex.update(createLocation("imei-8", "bus-8", "Northbound", 2));
+        busLocationIndex.update(createLocation("imei-9", "bus-9", "Northbound", 1));
+        long now = System.currentTimeMillis();
+        ((Map<String, Long>) ReflectionTestUtils.getField(busLocationIndex, "updatedAtByImei")).put("imei-8", now - 180_000L);
+
+        assertTrue(busLocationIndex.isStale("imei-8", now));
+        assertFalse(busLocationIndex.isStale("imei-9", now));
+        assertEquals("bus-9", busLocationIndex.getRoster("C5", "Northbound").closestAtOrBehind(4).getBusId());
+
+        // A new fix brings it back
+        busLocationIndex.update(createLocation("imei-8", "bus-8", "Northbound", 2));
+        assertEquals("bus-8", busLocationIndex.getRoster("C5", "Northbound").closestAtOrBehind(4).getBusId());
+    }
+
+    @Test
+    void testBusesLoadedFromRedisAgeFromTheirFixTime() {
+        ReflectionTestUtils.setField(busLocationIndex, "staleMs", 120_000L);
+        long now = System.currentTimeMillis();
+        BusLocation dead = createLocation("imei-10", "bus-10", "Northbound", 2);
+        dead.setTimestamp(String.valueOf(now - 3_600_000L));
+        BusLocation live = createLocation("imei-11", "bus-11", "Northbound", 1);
+        live.setTimestamp(String.valueOf(now - 10_000L));
+        BusLocation unknown = createLocation("imei-12", "bus-12", "Northbound", 3);
+        when(setOperations.members("bus:route:c5_northbound")).thenReturn(Set.of("imei-10", "imei-11", "imei-12"));
+        when(valueOperations.multiGet(anyList())).thenReturn(Arrays.asList(dead, live, unknown));
+
+        BusRoster roster = busLocationIndex.getRoster("C5", "Northbound");
+
+        assertTrue(busLocationIndex.isStale("imei-10", now));
+        assertFalse(busLocationIndex.isStale("imei-11", now));
+        assertTrue(busLocationIndex.isStale("imei-12", now), "No known update time counts as stale");
+        assertEquals("bus-11", roster.closestAtOrBehind(4).getBusId());
+        assertEquals(List.of("bus-11"), busLocationIndex.getUpdatedSince(now - 60_000L).stream()
+            .map(BusLocation::getBusId).toList());
+    }
+
+    @Test
+    void testClearDeletesTrackedRouteSetsWithoutKeys() {
+        when(setOperations.members("bus:routes")).thenReturn(Set.of("c5_northbound"));
+
+        busLocationIndex.clear();
+
+        verify(redisTemplate).delete(List.of("bus:route:c5_northbound", "bus:routes", "bus:ids"));
+        verify(redisTemplate, never()).keys(anyString());
+    }
+
+    @Test
+    void testActiveBusesMissingFromAColdMirrorAreReadFromRedis() {
+        long now = System.currentTimeMillis();
+        BusLocation live = createLocation("imei-20", "bus-20", "Northbound", 1);
+        live.setTimestamp(String.valueOf(now - 60_000L));
+        BusLocation gone = createLocation("imei-21", "bus-21", "Northbound", 2);
+        gone.setTimestamp(String.valueOf(now - 3_600_000L));
+        busLocationIndex.update(createLocation("imei-22", "bus-22", "Southbound", 0));
+        when(hashOperations.values("bus:ids")).thenReturn(List.of("imei-20", "imei-21", "imei-22"));
+        when(valueOperations.multiGet(List.of("bus:location:imei-20", "bus:location:imei-21")))
+            .thenReturn(Arrays.asList(live, gone));
+
+        List<String> active = busLocationIndex.getUpdatedSince(now - 600_000L).stream()
+            .map(BusLocation::getBusId).sorted().toList();
+        busLocationIndex.getUpdatedSince(now - 600_000L);
+
+        assertEquals(List.of("bus-20", "bus-22"), active);
+        // Only buses the mirror lacks are fetched, and only once
+        verify(valueOperations, times(1)).multiGet(anyList());
+        // A window that started after the mirror did is served locally
+        busLocationIndex.getUpdatedSince(System.currentTimeMillis() + 1);
+        verify(hashOperations, times(2)).values("bus:ids");
+    }
+
+    @Test
+    void testColdReadDoesNotReplaceANewerFixFromIngest() {
+        BusLocation stored = createLocation("imei-30", "bus-30", "Northbound", 2);
+        BusLocation newer = createLocation("imei-30", "bus-30", "Northbound", 3);
+        // Ingest mirrors a newer fix while the Redis read is in flight
+        when(valueOperations.get("bus:location:imei-30")).thenAnswer(invocation -> {
+            busLocationIndex.updateLocal(newer);
+            return stored;
+        });
+
+        assertSame(newer, busLocationIndex.getByImei("imei-30"));
+        assertSame(newer, busLocationIndex.getByBusId("bus-30"));
+        assertEquals(3, busLocationIndex.getRoster("C5", "Northbound").closestAtOrBehind(5).getBusStopIndex());
+    }
+
+    @Test
+    void testSweepTrimsRouteSetMembersOutsideTheActiveWindow() {
+        ReflectionTestUtils.setField(busLocationIndex, "memberTtlMs", 600_000L);
+        long now = System.currentTimeMillis();
+        BusLocation live = createLocation("imei-40", "bus-40", "Northbound", 1);
+        live.setTimestamp(String.valueOf(now - 60_000L));
+        BusLocation silent = createLocation("imei-41", "bus-41", "Northbound", 2);
+        silent.setTimestamp(String.valueOf(now - 3_600_000L));
+        BusLocation turned = createLocation("imei-42", "bus-42", "Southbound", 0);
+        turned.setTimestamp(String.valueOf(now - 60_000L));
+        when(setOperations.members("bus:routes")).thenReturn(Set.of("c5_northbound"));
+        when(setOperations.members("bus:route:c5_northbound"))
+            .thenReturn(new LinkedHashSet<>(List.of("imei-40", "imei-41", "imei-42", "imei-43")));
+        when(valueOperations.multiGet(anyList())).thenReturn(Arrays.asList(live, silent, turned, null));
+
+        busLocationIndex.trimRouteSets(now);
+
+        verify(setOperations).remove("bus:route:c5_northbound", "imei-41", "imei-42", "imei-43");
+    }
+}
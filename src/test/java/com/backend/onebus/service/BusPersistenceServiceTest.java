@@ -0,0 +1,75 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.BusLocation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class BusPersistenceServiceTest {
+    @Mock
+    private LocationHistoryService locationHistoryService;
+
+    @Mock
+    private MetricsService metricsService;
+
+    @InjectMocks
+    private BusPersistenceService persistenceService;
+
+    private BlockingQueue<BusLocation> buffer;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        // Exercise the enqueue side only; the writer thread is not started
+        buffer = new ArrayBlockingQueue<>(2);
+        ReflectionTestUtils.setField(persistenceService, "persistenceEnabled", true);
+        ReflectionTestUtils.setField(persistenceService, "minIntervalMs", 10_000L);
+        ReflectionTestUtils.setField(persistenceService, "buffer", buffer);
+    }
+
+    private BusLocation createFix(String imei, long timestamp, Integer stopIndex) {
+        BusLocation location = new BusLocation();
+        location.setTrackerImei(imei);
+        location.setTimestamp(String.valueOf(timestamp));
+        location.setTripDirection("Northbound");
+        location.setBusStopIndex(stopIndex);
+        return location;
+    }
+
+    @Test
+    void testDownsamplesToOneRowPerIntervalUnlessStopChanges() {
+        persistenceService.enqueueLocation(createFix("imei-1", 1_000, 3));
+        persistenceService.enqueueLocation(createFix("imei-1", 4_000, 3));   // same stop, 3s later: dropped
+        persistenceService.enqueueLocation(createFix("imei-1", 6_000, 4));   // new stop: kept
+
+        List<BusLocation> queued = new ArrayList<>(buffer);
+        assertEquals(2, queued.size());
+        assertEquals(Integer.valueOf(4), queued.get(1).getBusStopIndex());
+        verify(metricsService).recordPersistenceRowsDownsampled(1);
+    }
+
+    @Test
+    void testFullBufferDropsOldestRow() {
+        persistenceService.enqueueLocation(createFix("imei-1", 1_000, 1));
+        persistenceService.enqueueLocation(createFix("imei-2", 1_000, 1));
+        persistenceService.enqueueLocation(createFix("imei-3", 1_000, 1));
+
+        List<BusLocation> queued = new ArrayList<>(buffer);
+        assertEquals(2, queued.size());
+        assertEquals("imei-2", queued.get(0).getTrackerImei());
+        assertEquals("imei-3", queued.get(1).getTrackerImei());
+        verify(metricsService).recordPersistenceRowsDropped(1);
+        verifyNoInteractions(locationHistoryService);
+    }
+}
@@ -6,20 +6,16 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
 
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 class BusSelectionServiceTest {
     @Mock
-    private RedisTemplate<String, Object> redisTemplate;
-
-    @Mock
-    private ValueOperations<String, Object> valueOperations;
+    private BusLocationIndex busLocationIndex;
 
     @InjectMocks
     private BusSelectionService busSelectionService;
@@ -27,7 +23,17 @@ class BusSelectionServiceTest {
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+    }
+
+    private void givenLiveBuses(BusLocation... buses) {
+        when(busLocationIndex.getRoster(anyString(), anyString())).thenAnswer(invocation -> {
+            String busNumber = invocation.getArgument(0);
+            String direction = invocation.getArgument(1);
+            return BusRoster.of(Arrays.stream(buses)
+                .filter(bus -> busNumber.equalsIgnoreCase(bus.getBusNumber()))
+                .filter(bus -> direction.equalsIgnoreCase(bus.getTripDirection()))
+                .collect(Collectors.toList()));
+        });
     }
 
     private BusLocation createBus(String busId, String direction, int stopIndex) {
@@ -41,7 +47,7 @@ class BusSelectionServiceTest {
 
     @Test
     void testNoBusesAvailable() {
-        when(redisTemplate.keys(anyString())).thenReturn(Collections.emptySet());
+        givenLiveBuses();
         String result = busSelectionService.selectBestBusForClient("C6", "Northbound", 0, 0, 1);
         assertNull(result, "Should return null when no buses are available");
     }
@@ -51,10 +57,7 @@ class BusSelectionServiceTest {
         // Bus at index 3 is approaching client at index 4 (BEHIND client)
         BusLocation bus1 = createBus("bus1", "Northbound", 3);
         BusLocation bus2 = createBus("bus2", "Northbound", 1);
-        Set<String> keys = new HashSet<>(Arrays.asList("bus:location:bus1", "bus:location:bus2"));
-        when(redisTemplate.keys(anyString())).thenReturn(keys);
-        when(valueOperations.get("bus:location:bus1")).thenReturn(bus1);
-        when(valueOperations.get("bus:location:bus2")).thenReturn(bus2);
+        givenLiveBuses(bus1, bus2);
         
         // Client at index 4
         String result = busSelectionService.selectBestBusForClient("C6", "Northbound", 0, 0, 4);
@@ -64,9 +67,7 @@ class BusSelectionServiceTest {
     @Test
     void testBusInRequestedDirectionAtClient() {
         BusLocation bus1 = createBus("bus1", "Northbound", 3);
-        Set<String> keys = new HashSet<>(Collections.singletonList("bus:location:bus1"));
-        when(redisTemplate.keys(anyString())).thenReturn(keys);
-        when(valueOperations.get("bus:location:bus1")).thenReturn(bus1);
+        givenLiveBuses(bus1);
         String result = busSelectionService.selectBestBusForClient("C6", "Northbound", 0, 0, 3);
         assertEquals("bus1", result, "Should assign bus at client's stop");
     }
@@ -74,9 +75,7 @@ class BusSelectionServiceTest {
     @Test
     void testFallbackToOppositeDirection() {
         BusLocation bus1 = createBus("bus1", "Southbound", 10);
-        Set<String> keys = new HashSet<>(Collections.singletonList("bus:location:bus1"));
-        when(redisTemplate.keys(anyString())).thenReturn(keys);
-        when(valueOperations.get("bus:location:bus1")).thenReturn(bus1);
+        givenLiveBuses(bus1);
         String result = busSelectionService.selectBestBusForClient("C6", "Northbound", 0, 0, 1);
         assertEquals("bus1", result, "Should assign closest bus in opposite direction");
     }
@@ -84,9 +83,7 @@ class BusSelectionServiceTest {
     @Test
     void testNoNegativeIndexBusSuggested() {
         BusLocation bus1 = createBus("bus1", "Southbound", -1);
-        Set<String> keys = new HashSet<>(Collections.singletonList("bus:location:bus1"));
-        when(redisTemplate.keys(anyString())).thenReturn(keys);
-        when(valueOperations.get("bus:location:bus1")).thenReturn(bus1);
+        givenLiveBuses(bus1);
         String result = busSelectionService.selectBestBusForClient("C6", "Northbound", 0, 0, 1);
         assertNull(result, "Should not suggest bus with negative index");
     }
@@ -95,10 +92,7 @@ class BusSelectionServiceTest {
     void testMultipleBusesOppositeDirectionClosestSelected() {
         BusLocation bus1 = createBus("bus1", "Southbound", 2);
         BusLocation bus2 = createBus("bus2", "Southbound", 8);
-        Set<String> keys = new HashSet<>(Arrays.asList("bus:location:bus1", "bus:location:bus2"));
-        when(redisTemplate.keys(anyString())).thenReturn(keys);
-        when(valueOperations.get("bus:location:bus1")).thenReturn(bus1);
-        when(valueOperations.get("bus:location:bus2")).thenReturn(bus2);
+        givenLiveBuses(bus1, bus2);
         String result = busSelectionService.selectBestBusForClient("C6", "Northbound", 0, 0, 5);
         assertEquals("bus1", result, "Should select closest bus in opposite direction");
     }
@@ -110,14 +104,11 @@ class BusSelectionServiceTest {
         // Bus in opposite direction exists (would normally be selected as fallback)
         BusLocation busOpposite = createBus("busOpposite", "Southbound", 5);
         
-        Set<String> keys = new HashSet<>(Arrays.asList("bus:location:busRequested", "bus:location:busOpposite"));
-        when(redisTemplate.keys(anyString())).thenReturn(keys);
-        when(valueOperations.get("bus:location:busRequested")).thenReturn(busRequested);
-        when(valueOperations.get("bus:location:busOpposite")).thenReturn(busOpposite);
+        givenLiveBuses(busRequested, busOpposite);
         
         // Client is at index 6 in Northbound
         String result = busSelectionService.selectBestBusForClient("C6", "Northbound", 0, 0, 6);
         
         assertNull(result, "Should return null (not fall back) because a bus exists in the requested direction, even though it passed");
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,85 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.BusLocation;
+import com.backend.onebus.repository.RouteRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Load test for the shadow-bus fan-out: one bus update with a fixed number of interested
+ * sessions while the total number of connected sessions grows. With the busId index the cost
+ * per update should stay flat across {@code totalSessions}.
+ *
+ * Only compiled with the {@code benchmark} Maven profile; see pom.xml for how to run it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BusStreamingBroadcastBenchmark {
+
+    private static final int INTERESTED_SESSIONS = 20;
+
+    @Param({"100", "10000", "100000"})
+    public int totalSessions;
+
+    private BusStreamingService busStreamingService;
+    private BusLocation location;
+
+    @Setup
+    public void setUp() {
+        busStreamingService = new BusStreamingService();
+        // Messages go nowhere; this measures the fan-out itself
+        ReflectionTestUtils.setField(busStreamingService, "messagingTemplate",
+            new SimpMessagingTemplate((message, timeout) -> true));
+        ReflectionTestUtils.setField(busStreamingService, "metricsService", new MetricsService());
+        ReflectionTestUtils.setField(busStreamingService, "routeRepository", mock(RouteRepository.class));
+        ReflectionTestUtils.setField(busStreamingService, "routeGeometryService", new RouteGeometryService());
+        ReflectionTestUtils.setField(busStreamingService, "mapMatchingService", new MapMatchingService());
+        ReflectionTestUtils.setField(busStreamingService, "objectMapper", new ObjectMapper());
+
+        for (int i = 0; i < totalSessions; i++) {
+            String busId = i < INTERESTED_SESSIONS ? "bus-0" : "bus-" + (1 + i % 500);
+            busStreamingService.storeClientSubscription("session-" + i, "C5", "Northbound",
+                -26.18, 28.04, 2, busId);
+        }
+
+        location = new BusLocation();
+        location.setBusId("bus-0");
+        location.setTrackerImei("imei-0");
+        location.setBusNumber("C5");
+        location.setTripDirection("Northbound");
+        location.setLat(-26.20);
+        location.setLon(28.04);
+    }
+
+    @Benchmark
+    public void broadcastBusUpdate() {
+        busStreamingService.broadcastBusUpdate(location);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(BusStreamingBroadcastBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,398 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.BusLocation;
+import com.backend.onebus.model.FullRoute;
+import com.backend.onebus.model.Route;
+import com.backend.onebus.repository.FullRouteRepository;
+import com.backend.onebus.repository.RouteRepository;
+import com.backend.onebus.service.routing.BusCompanyRoutingStrategy;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.endsWith;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class BusStreamingServiceTest {
+    @Mock
+    private BusLocationIndex busLocationIndex;
+
+    @Mock
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Mock
+    private MetricsService metricsService;
+
+    @Mock
+    private RouteRepository routeRepository;
+
+    @Mock
+    private FullRouteRepository fullRouteRepository;
+
+    @Mock
+    private BusSelectionService busSelectionService;
+
+    @Mock
+    private SubscriberOutbox subscriberOutbox;
+
+    @Mock
+    private SegmentTravelTimeService segmentTravelTimeService;
+
+    @InjectMocks
+    private BusStreamingService busStreamingService;
+
+    private MapMatchingService mapMatchingService;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        RouteGeometryService routeGeometryService = new RouteGeometryService();
+        ReflectionTestUtils.setField(routeGeometryService, "fullRouteRepository", fullRouteRepository);
+        ReflectionTestUtils.setField(routeGeometryService, "objectMapper", new ObjectMapper());
+        mapMatchingService = spy(new MapMatchingService());
+        ReflectionTestUtils.setField(mapMatchingService, "windowMeters", 1000.0);
+        ReflectionTestUtils.setField(mapMatchingService, "maxProjectionMeters", 60.0);
+        ReflectionTestUtils.setField(busStreamingService, "routeGeometryService", routeGeometryService);
+        ReflectionTestUtils.setField(busStreamingService, "mapMatchingService", mapMatchingService);
+        ReflectionTestUtils.setField(busStreamingService, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(busStreamingService, "heartbeatIntervalMs", 5000L);
+        when(segmentTravelTimeService.estimateMinutes(any(), anyInt(), anyLong())).thenReturn(null);
+        when(messagingTemplate.getUserDestinationPrefix()).thenReturn("/user/");
+
+        Route route = new Route();
+        route.setId(1L);
+        route.setBusNumber("C5");
+        route.setDirection("Northbound");
+        when(routeRepository.findByBusNumber("C5")).thenReturn(List.of(route));
+
+        FullRoute fullRoute = new FullRoute();
+        fullRoute.setRouteId(1L);
+        fullRoute.setDirection("Northbound");
+        // Straight line north along one meridian, ~1112m per 0.01 degree
+        fullRoute.setCoordinatesJson("[{\"lat\":-26.20,\"lon\":28.04},{\"lat\":-26.19,\"lon\":28.04},{\"lat\":-26.18,\"lon\":28.04}]");
+        when(fullRouteRepository.findByRouteIdAndDirection(1L, "Northbound")).thenReturn(List.of(fullRoute));
+    }
+
+    private BusLocation createLocation(double lat) {
+        BusLocation location = new BusLocation();
+        location.setBusId("bus-1");
+        location.setTrackerImei("imei-1");
+        location.setBusNumber("C5");
+        location.setTripDirection("Northbound");
+        location.setLat(lat);
+        location.setLon(28.04);
+        return location;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testSnapsBusOncePerUpdateAndSubscriberOncePerSubscription() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            busStreamingService.storeClientSubscription("session-" + i, "C5", "Northbound",
+                -26.18, 28.04, 2, "bus-1");
+        }
+
+        busStreamingService.broadcastBusUpdate(createLocation(-26.20));
+        busStreamingService.broadcastBusUpdate(createLocation(-26.19));
+
+        verify(mapMatchingService, times(2)).match(eq("bus-1"), any(RouteGeometry.class), anyDouble(), anyDouble());
+        verify(routeRepository, times(50)).findByBusNumber("C5");
+        verify(fullRouteRepository, times(1)).findByRouteIdAndDirection(1L, "Northbound");
+
+        ArgumentCaptor<Message<byte[]>> messages = ArgumentCaptor.forClass(Message.class);
+        verify(messagingTemplate, times(100)).send(endsWith("/topic/bus/C5_Northbound"), messages.capture());
+        verify(messagingTemplate, times(2)).send(eq("/user/session-0/topic/bus/C5_Northbound"), any(Message.class));
+        Map<String, Object> first = objectMapper.readValue(messages.getAllValues().get(0).getPayload(), Map.class);
+        Map<String, Object> last = objectMapper.readValue(messages.getAllValues().get(99).getPayload(), Map.class);
+        assertEquals(2224.0, (Double) first.get("distanceMeters"), 2.0);
+        assertEquals(1112.0, (Double) last.get("distanceMeters"), 2.0);
+        assertEquals("bus-1", last.get("busId"));
+        assertEquals(false, last.get("isFallback"));
+    }
+
+    @Test
+    void testFanOutOnlyTouchesSessionsSelectingTheBus() {
+        for (int i = 0; i < 1000; i++) {
+            busStreamingService.storeClientSubscription("other-" + i, "C5", "Northbound",
+                -26.18, 28.04, 2, "bus-" + (2 + i % 10));
+        }
+        busStreamingService.storeClientSubscription("a", "C5", "Northbound", -26.18, 28.04, 2, "bus-2");
+        busStreamingService.storeClientSubscription("b", "C5", "Northbound", -26.18, 28.04, 2, "bus-1");
+        busStreamingService.storeClientSubscription("c", "C5", "Northbound", -26.18, 28.04, 2, "bus-1");
+        // Re-selection moves a session to the updated bus; leaving removes it
+        busStreamingService.storeClientSubscription("a", "C5", "Northbound", -26.18, 28.04, 2, "bus-1");
+        busStreamingService.unsubscribeFromSpecificBus("b", "bus-1");
+
+        busStreamingService.broadcastBusUpdate(createLocation(-26.20));
+        verify(messagingTemplate, times(1)).send(eq("/user/a/topic/bus/C5_Northbound"), any(Message.class));
+        verify(messagingTemplate, times(1)).send(eq("/user/c/topic/bus/C5_Northbound"), any(Message.class));
+        verify(messagingTemplate, times(2)).send(anyString(), any(Message.class));
+
+        busStreamingService.removeClientSubscriptions("a");
+        busStreamingService.removeClientSubscriptions("c");
+        busStreamingService.broadcastBusUpdate(createLocation(-26.19));
+        verify(messagingTemplate, times(2)).send(anyString(), any(Message.class));
+        assertNull(((Map<?, ?>) ReflectionTestUtils.getField(busStreamingService, "subscriptionsByBus")).get("bus-1"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testEachRiderGetsOnlyTheirOwnDistanceFrame() throws Exception {
+        busStreamingService.subscribeToBus("near", "C5", "Northbound");
+        busStreamingService.subscribeToBus("far", "C5", "Northbound");
+        busStreamingService.storeClientSubscription("near", "C5", "Northbound", -26.19, 28.04, 1, "bus-1");
+        busStreamingService.storeClientSubscription("far", "C5", "Northbound", -26.18, 28.04, 2, "bus-1");
+
+        busStreamingService.broadcastBusUpdate(createLocation(-26.20));
+
+        ArgumentCaptor<Message<byte[]>> near = ArgumentCaptor.forClass(Message.class);
+        ArgumentCaptor<Message<byte[]>> far = ArgumentCaptor.forClass(Message.class);
+        verify(messagingTemplate, times(1)).send(eq("/user/near/topic/bus/C5_Northbound"), near.capture());
+        verify(messagingTemplate, times(1)).send(eq("/user/far/topic/bus/C5_Northbound"), far.capture());
+        assertEquals(1112.0, (Double) objectMapper.readValue(near.getValue().getPayload(), Map.class).get("distanceMeters"), 2.0);
+        assertEquals(2224.0, (Double) objectMapper.readValue(far.getValue().getPayload(), Map.class).get("distanceMeters"), 2.0);
+        // The shared route topic carries one frame without anyone's distance
+        ArgumentCaptor<Message<byte[]>> shared = ArgumentCaptor.forClass(Message.class);
+        verify(messagingTemplate, times(1)).send(eq("/topic/bus/C5_Northbound"), shared.capture());
+        assertFalse(objectMapper.readValue(shared.getValue().getPayload(), Map.class).containsKey("distanceMeters"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Set<String>> index(String field) {
+        return (Map<String, Set<String>>) ReflectionTestUtils.getField(busStreamingService, field);
+    }
+
+    @Test
+    void testDisconnectOnlyRemovesTheSessionsOwnKeys() {
+        busStreamingService.subscribeToBus("leaving", "C5", "Northbound");
+        busStreamingService.subscribeToBus("leaving", "c5", "northbound");
+        busStreamingService.subscribeToSpecificBus("leaving", "bus-1");
+        busStreamingService.subscribeToBus("staying", "C5", "Northbound");
+        busStreamingService.subscribeToSpecificBus("staying", "bus-2");
+
+        busStreamingService.removeClientSubscriptions("leaving");
+
+        assertEquals(Set.of("C5_Northbound"), index("activeSubscriptions").keySet());
+        assertEquals(Set.of("staying"), index("activeSubscriptions").get("C5_Northbound"));
+        assertEquals(Set.of("C5_Northbound"), index("canonicalToOriginalKeys").get("c5_northbound"));
+        assertEquals(Set.of("bus-2"), index("specificBusSubscriptions").keySet());
+        assertFalse(index("routeKeysBySession").containsKey("leaving"));
+        assertFalse(index("busIdsBySession").containsKey("leaving"));
+
+        busStreamingService.unsubscribeFromBus("staying", "C5", "Northbound");
+        busStreamingService.removeClientSubscriptions("staying");
+        assertTrue(index("activeSubscriptions").isEmpty());
+        assertTrue(index("canonicalToOriginalKeys").isEmpty());
+        assertTrue(index("specificBusSubscriptions").isEmpty());
+        assertTrue(index("routeKeysBySession").isEmpty());
+    }
+
+    @Test
+    void testCanonicalKeysStayConsistentUnderConcurrentSubscribeAndUnsubscribe() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int thread = 0; thread < 8; thread++) {
+            String sessionId = "session-" + thread;
+            String finalDirection = thread % 2 == 0 ? "Northbound" : "NORTHBOUND";
+            executor.submit(() -> {
+                for (int i = 0; i < 300; i++) {
+                    busStreamingService.subscribeToBus(sessionId, "C5", "Northbound");
+                    busStreamingService.unsubscribeFromBus(sessionId, "C5", "Northbound");
+                }
+                busStreamingService.subscribeToBus(sessionId, "C5", finalDirection);
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+
+        for (String subscriptionKey : index("activeSubscriptions").keySet()) {
+            assertTrue(index("canonicalToOriginalKeys").get(subscriptionKey.toLowerCase()).contains(subscriptionKey));
+        }
+        assertEquals(8, index("activeSubscriptions").values().stream().mapToInt(Set::size).sum());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testHeartbeatsOnlyResendQuietKeysWithUnsentState() {
+        BusLocation moving = createLocation(-26.20);
+        BusLocation parked = createLocation(-26.19);
+        parked.setBusId("bus-2");
+        parked.setTrackerImei("imei-2");
+        parked.setBusNumber("C6");
+        when(busLocationIndex.getLocationsForRoute("C5", "Northbound")).thenReturn(List.of(moving));
+        when(busLocationIndex.getLocationsForRoute("C6", "Northbound")).thenReturn(List.of(parked));
+        busStreamingService.subscribeToBus("session-1", "C5", "Northbound");
+        busStreamingService.subscribeToBus("session-2", "C6", "Northbound");
+        busStreamingService.subscribeToBus("session-3", "C5", "Eastbound");
+        busStreamingService.unsubscribeFromBus("session-3", "C5", "Eastbound");
+        long now = System.currentTimeMillis();
+
+        // Not due yet
+        busStreamingService.sendDueHeartbeats(now + 1000);
+        verify(messagingTemplate, never()).send(anyString(), any(Message.class));
+
+        // The real-time broadcast already carried the C5 bus; only C6 is resent
+        busStreamingService.broadcastBusUpdate(moving);
+        busStreamingService.sendDueHeartbeats(now + 10000);
+        verify(messagingTemplate, times(1)).send(eq("/topic/bus/C5_Northbound"), any(Message.class));
+        verify(messagingTemplate, times(1)).send(eq("/topic/bus/C6_Northbound"), any(Message.class));
+        // Only the subscribe-time lookup; the abandoned key is dropped from the wheel
+        verify(busLocationIndex, times(1)).getLocationsForRoute("C5", "Eastbound");
+
+        // Unchanged since the last heartbeat: nothing to send
+        busStreamingService.sendDueHeartbeats(now + 20000);
+        verify(messagingTemplate, times(2)).send(anyString(), any(Message.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testReselectsOnlyRidersTheirBusHasPassed() {
+        busStreamingService.storeClientSubscription("a", "C5", "Northbound", -26.18, 28.04, 2, "bus-1");
+        busStreamingService.storeClientSubscription("b", "C5", "Northbound", -26.18, 28.04, 5, "bus-1");
+        busStreamingService.storeClientSubscription("z", "C5", "Northbound", -26.18, 28.04, 2, "bus-2");
+        when(busSelectionService.selectBestBusForClient(eq("C5"), eq("Northbound"), anyDouble(), anyDouble(), eq(2)))
+            .thenReturn("bus-2");
+
+        BusLocation location = createLocation(-26.19);
+        location.setBusStopIndex(3);
+        busStreamingService.broadcastBusUpdate(location);
+        // Still passed, but "a" is no longer assigned to it
+        busStreamingService.broadcastBusUpdate(location);
+
+        ArgumentCaptor<Map<String, Object>> frame = ArgumentCaptor.forClass(Map.class);
+        verify(messagingTemplate, times(1)).convertAndSendToUser(anyString(), eq("/topic/subscription/status"), frame.capture());
+        assertEquals("assignment-changed", frame.getValue().get("event"));
+        assertEquals("bus-passed", frame.getValue().get("reason"));
+        assertEquals("bus-1", frame.getValue().get("previousBusId"));
+        assertEquals("bus-2", frame.getValue().get("selectedBusId"));
+        verify(busSelectionService, times(1)).selectBestBusForClient(anyString(), anyString(), anyDouble(), anyDouble(), anyInt());
+
+        Map<String, Set<?>> byBus = (Map<String, Set<?>>) ReflectionTestUtils.getField(busStreamingService, "subscriptionsByBus");
+        assertEquals(1, byBus.get("bus-1").size());
+        assertEquals(2, byBus.get("bus-2").size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRiderLeftWithoutABusWaitsForTheNextFixOnTheRoute() {
+        busStreamingService.storeClientSubscription("a", "C5", "Northbound", -26.18, 28.04, 2, "bus-1");
+        when(busSelectionService.selectBestBusForClient(eq("C5"), eq("Northbound"), anyDouble(), anyDouble(), eq(2)))
+            .thenReturn(null, "bus-3");
+
+        busStreamingService.broadcastBusOffline(createLocation(-26.19));
+        BusLocation replacement = createLocation(-26.20);
+        replacement.setBusId("bus-3");
+        replacement.setTrackerImei("imei-3");
+        busStreamingService.broadcastBusUpdate(replacement);
+
+        ArgumentCaptor<Map<String, Object>> frames = ArgumentCaptor.forClass(Map.class);
+        verify(messagingTemplate, times(2)).convertAndSendToUser(eq("a"), eq("/topic/subscription/status"), frames.capture());
+        assertEquals("bus-offline", frames.getAllValues().get(0).get("reason"));
+        assertNull(frames.getAllValues().get(0).get("selectedBusId"));
+        assertEquals("bus-available", frames.getAllValues().get(1).get("reason"));
+        assertEquals("bus-3", frames.getAllValues().get(1).get("selectedBusId"));
+        assertTrue(((Map<?, ?>) ReflectionTestUtils.getField(busStreamingService, "waitingByBusNumber")).isEmpty());
+
+        // Stale sweep: bus-3 is no longer in the live index
+        when(busSelectionService.selectBestBusForClient(eq("C5"), eq("Northbound"), anyDouble(), anyDouble(), eq(2)))
+            .thenReturn("bus-4");
+        busStreamingService.reselectStaleAssignments(System.currentTimeMillis());
+        verify(messagingTemplate, times(3)).convertAndSendToUser(eq("a"), eq("/topic/subscription/status"), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRidersOfASilentBusAreMovedToAnotherBus() {
+        busStreamingService.storeClientSubscription("a", "C5", "Northbound", -26.18, 28.04, 2, "bus-1");
+        busStreamingService.storeClientSubscription("b", "C5", "Northbound", -26.18, 28.04, 2, "bus-2");
+        BusLocation silent = createLocation(-26.19);
+        BusLocation live = createLocation(-26.20);
+        live.setBusId("bus-2");
+        live.setTrackerImei("imei-2");
+        when(busLocationIndex.getByBusId("bus-1")).thenReturn(silent);
+        when(busLocationIndex.getByBusId("bus-2")).thenReturn(live);
+        long now = System.currentTimeMillis();
+        when(busLocationIndex.isStale("imei-1", now)).thenReturn(true);
+        when(busSelectionService.selectBestBusForClient(eq("C5"), eq("Northbound"), anyDouble(), anyDouble(), eq(2)))
+            .thenReturn("bus-2");
+
+        busStreamingService.reselectStaleAssignments(now);
+
+        ArgumentCaptor<Map<String, Object>> frame = ArgumentCaptor.forClass(Map.class);
+        verify(messagingTemplate, times(1)).convertAndSendToUser(eq("a"), eq("/topic/subscription/status"), frame.capture());
+        assertEquals("bus-stale", frame.getValue().get("reason"));
+        assertEquals("bus-2", frame.getValue().get("selectedBusId"));
+        verify(messagingTemplate, never()).convertAndSendToUser(eq("b"), anyString(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRidersOfAnOfflineBusAreReselectedInBulkPerRoute() {
+        BusCompanyRoutingStrategy strategy = mock(BusCompanyRoutingStrategy.class);
+        busStreamingService.storeClientSubscription("a", "C5", "Northbound", -26.18, 28.04, 2, "bus-1", strategy);
+        busStreamingService.storeClientSubscription("b", "C5", "Northbound", -26.18, 28.04, 4, "bus-1", strategy);
+        busStreamingService.storeClientSubscription("c", "C5", "Northbound", -26.18, 28.04, 6, "bus-1", strategy);
+        when(strategy.selectBestBusesForClients(eq("C5"), eq("Northbound"), anyList()))
+            .thenAnswer(invocation -> {
+                List<BusCompanyRoutingStrategy.ClientPosition> clients = invocation.getArgument(2);
+                return clients.stream().map(client -> client.busStopIndex() < 5 ? "bus-2" : null).toList();
+            });
+
+        busStreamingService.broadcastBusOffline(createLocation(-26.19));
+
+        verify(strategy, times(1)).selectBestBusesForClients(eq("C5"), eq("Northbound"), anyList());
+        verify(strategy, never()).selectBestBusForClient(anyString(), anyString(), anyDouble(), anyDouble(), anyInt());
+        ArgumentCaptor<Map<String, Object>> frame = ArgumentCaptor.forClass(Map.class);
+        verify(messagingTemplate).convertAndSendToUser(eq("b"), eq("/topic/subscription/status"), frame.capture());
+        assertEquals("bus-2", frame.getValue().get("selectedBusId"));
+        verify(messagingTemplate).convertAndSendToUser(eq("c"), eq("/topic/subscription/status"), frame.capture());
+        assertNull(frame.getValue().get("selectedBusId"));
+        Map<String, Set<?>> byBus = (Map<String, Set<?>>) ReflectionTestUtils.getField(busStreamingService, "subscriptionsByBus");
+        assertEquals(2, byBus.get("bus-2").size());
+        assertNull(byBus.get("bus-1"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRiderWhoSubscribedBeforeAnyBusIsAssignedOnTheFirstFix() {
+        BusCompanyRoutingStrategy strategy = mock(BusCompanyRoutingStrategy.class);
+        busStreamingService.storeClientSubscription("a", "C5", "Northbound", -26.18, 28.04, 2, null, strategy);
+        when(strategy.selectBestBusesForClients(eq("C5"), eq("Northbound"), anyList())).thenReturn(List.of("bus-1"));
+
+        BusLocation first = createLocation(-26.20);
+        first.setBusStopIndex(0);
+        busStreamingService.broadcastBusUpdate(first);
+
+        ArgumentCaptor<Map<String, Object>> frame = ArgumentCaptor.forClass(Map.class);
+        verify(messagingTemplate).convertAndSendToUser(eq("a"), eq("/topic/subscription/status"), frame.capture());
+        assertEquals("assignment-changed", frame.getValue().get("event"));
+        assertEquals("bus-available", frame.getValue().get("reason"));
+        assertNull(frame.getValue().get("previousBusId"));
+        assertEquals("bus-1", frame.getValue().get("selectedBusId"));
+        assertTrue(((Map<?, ?>) ReflectionTestUtils.getField(busStreamingService, "waitingByBusNumber")).isEmpty());
+        assertEquals(1, ((Map<String, Set<?>>) ReflectionTestUtils.getField(busStreamingService, "subscriptionsByBus")).get("bus-1").size());
+    }
+}
@@ -2,9 +2,12 @@ package com.backend.onebus.service;
 
 import com.backend.onebus.model.BusLocation;
 import com.backend.onebus.model.Bus;
-import com.backend.onebus.model.BusStop;
+import com.backend.onebus.model.Route;
+import com.backend.onebus.model.RouteStop;
 import com.backend.onebus.repository.BusRepository;
-import com.backend.onebus.repository.BusLocationRepository;
+import com.backend.onebus.repository.RouteRepository;
+import com.backend.onebus.service.routing.BusCompanyRoutingStrategy;
+import com.backend.onebus.service.routing.BusCompanyStrategyFactory;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
@@ -12,9 +15,10 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
-import org.springframework.data.redis.core.GeoOperations;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
-import java.lang.reflect.Field;
+
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -23,13 +27,35 @@ class BusTrackingServiceTest {
     @Mock
     private BusRepository busRepository;
     @Mock
-    private BusLocationRepository busLocationRepository;
+    private RouteRepository routeRepository;
     @Mock
     private RedisTemplate<String, Object> redisTemplate;
     @Mock
+    private ValueOperations<String, Object> valueOperations;
+    @Mock
     private SimpMessagingTemplate messagingTemplate;
     @Mock
     private BusStreamingService streamingService;
+    @Mock
+    private BusUpdateRelay busUpdateRelay;
+    @Mock
+    private TrackerRegistry trackerRegistry;
+    @Mock
+    private RouteTopologyService routeTopologyService;
+    @Mock
+    private BusCompanyStrategyFactory strategyFactory;
+    @Mock
+    private BusCompanyRoutingStrategy strategy;
+    @Mock
+    private RuleEngineService ruleEngineService;
+    @Mock
+    private BusLocationIndex busLocationIndex;
+    @Mock
+    private BusPersistenceService busPersistenceService;
+    @Mock
+    private SegmentTravelTimeService segmentTravelTimeService;
+    @Mock
+    private StopArrivalService stopArrivalService;
 
     @InjectMocks
     private BusTrackingService busTrackingService;
@@ -37,42 +63,50 @@ class BusTrackingServiceTest {
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        // No prior payload or location in Redis: every fix is the bus's first
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(strategyFactory.getStrategy(anyString())).thenReturn(strategy);
     }
 
-    @Test
-    void testProcessTrackerPayloadUpdatesDirectionAndStopIndex() throws Exception {
-        // Arrange: mock bus and location
+    private void givenRegisteredBus(String busId, String imei, String driverId, String driverName, String company) {
         Bus bus = new Bus();
-        bus.setBusId("bus-1");
+        bus.setBusId(busId);
         bus.setBusNumber("C5");
-        bus.setTrackerImei("imei-123");
-        bus.setDriverId("driver-1");
-        bus.setDriverName("John Doe");
-        bus.setBusCompanyName("CompanyX");
-        when(busRepository.findByTrackerImei("imei-123")).thenReturn(bus);
-
-        // Mock ValueOperations for Redis
-        ValueOperations<String, Object> mockValueOps = mock(ValueOperations.class);
-        when(redisTemplate.opsForValue()).thenReturn(mockValueOps);
-        when(mockValueOps.get(anyString())).thenReturn(null);
-
-        // Mock GeoOperations for Redis
-        GeoOperations<String, Object> mockGeoOps = mock(GeoOperations.class);
-        when(redisTemplate.opsForGeo()).thenReturn(mockGeoOps);
-
-        // Pre-populate the routeStopsCache with a C5 stop
-        BusStop stop = new BusStop();
-        stop.setLatitude(-26.20282);
-        stop.setLongitude(28.04011);
+        bus.setTrackerImei(imei);
+        bus.setDriverId(driverId);
+        bus.setDriverName(driverName);
+        bus.setBusCompanyName(company);
+        when(busRepository.findByTrackerImei(imei)).thenReturn(bus);
+        when(trackerRegistry.get(imei)).thenReturn(TrackerRegistry.TrackerInfo.from(bus));
+    }
+
+    private void givenStops(String company, RouteStop... stops) {
+        Route route = new Route();
+        route.setId(1L);
+        route.setBusNumber("C5");
+        route.setCompany(company);
+        when(routeTopologyService.forBus(company, "C5")).thenReturn(new RouteTopology(route, Arrays.asList(stops)));
+    }
+
+    private static RouteStop createStop(long id, double lat, double lon, String direction) {
+        RouteStop stop = new RouteStop();
+        stop.setId(id);
+        stop.setLatitude(lat);
+        stop.setLongitude(lon);
+        stop.setDirection(direction);
+        return stop;
+    }
+
+    @Test
+    void testProcessTrackerPayloadUpdatesDirectionAndStopIndex() {
+        givenRegisteredBus("bus-1", "imei-123", "driver-1", "John Doe", "CompanyX");
+
+        // A C5 Southbound stop (e.g., Harrison Street Bus Station)
+        RouteStop stop = createStop(1, -26.20282, 28.04011, "Southbound");
         stop.setBusStopIndex(2);
-        stop.setDirection("Southbound");
-        Field cacheField = BusTrackingService.class.getDeclaredField("routeStopsCache");
-        cacheField.setAccessible(true);
-        @SuppressWarnings("unchecked")
-        java.util.Map<String, java.util.List<BusStop>> cache = (java.util.Map<String, java.util.List<BusStop>>) cacheField.get(null);
-        cache.put("C5", java.util.Collections.singletonList(stop));
-
-        // Location near a known C5 Southbound stop (e.g., Harrison Street Bus Station)
+        givenStops("CompanyX", stop);
+
+        // Location at the known C5 Southbound stop
         BusLocation payload = new BusLocation();
         payload.setTrackerImei("imei-123");
         payload.setLat(-26.20282);
@@ -85,35 +119,17 @@ class BusTrackingServiceTest {
         // Assert: direction and stop index should be set
         assertEquals("Southbound", payload.getTripDirection());
         assertEquals(2, payload.getBusStopIndex());
+        verify(busPersistenceService).enqueueLocation(payload);
+        verify(busUpdateRelay).publishUpdate(payload);
     }
 
     @Test
-    void testProcessTrackerPayloadUpdatesDirectionAndStopIndex_Northbound() throws Exception {
-        Bus bus = new Bus();
-        bus.setBusId("bus-2");
-        bus.setBusNumber("C5");
-        bus.setTrackerImei("imei-456");
-        bus.setDriverId("driver-2");
-        bus.setDriverName("Jane Doe");
-        bus.setBusCompanyName("CompanyY");
-        when(busRepository.findByTrackerImei("imei-456")).thenReturn(bus);
-
-        ValueOperations<String, Object> mockValueOps = mock(ValueOperations.class);
-        when(redisTemplate.opsForValue()).thenReturn(mockValueOps);
-        when(mockValueOps.get(anyString())).thenReturn(null);
-        GeoOperations<String, Object> mockGeoOps = mock(GeoOperations.class);
-        when(redisTemplate.opsForGeo()).thenReturn(mockGeoOps);
-
-        BusStop stop = new BusStop();
-        stop.setLatitude(-26.173968);
-        stop.setLongitude(27.957238);
+    void testProcessTrackerPayloadUpdatesDirectionAndStopIndex_Northbound() {
+        givenRegisteredBus("bus-2", "imei-456", "driver-2", "Jane Doe", "CompanyY");
+
+        RouteStop stop = createStop(1, -26.173968, 27.957238, "Northbound");
         stop.setBusStopIndex(1);
-        stop.setDirection("Northbound");
-        Field cacheField = BusTrackingService.class.getDeclaredField("routeStopsCache");
-        cacheField.setAccessible(true);
-        @SuppressWarnings("unchecked")
-        java.util.Map<String, java.util.List<BusStop>> cache = (java.util.Map<String, java.util.List<BusStop>>) cacheField.get(null);
-        cache.put("C5", java.util.Collections.singletonList(stop));
+        givenStops("CompanyY", stop);
 
         BusLocation payload = new BusLocation();
         payload.setTrackerImei("imei-456");
@@ -127,33 +143,13 @@ class BusTrackingServiceTest {
     }
 
     @Test
-    void testProcessTrackerPayloadUpdatesDirectionAndStopIndex_Bidirectional_Northbound() throws Exception {
-        Bus bus = new Bus();
-        bus.setBusId("bus-3");
-        bus.setBusNumber("C5");
-        bus.setTrackerImei("imei-789");
-        bus.setDriverId("driver-3");
-        bus.setDriverName("Alex Smith");
-        bus.setBusCompanyName("CompanyZ");
-        when(busRepository.findByTrackerImei("imei-789")).thenReturn(bus);
-
-        ValueOperations<String, Object> mockValueOps = mock(ValueOperations.class);
-        when(redisTemplate.opsForValue()).thenReturn(mockValueOps);
-        when(mockValueOps.get(anyString())).thenReturn(null);
-        GeoOperations<String, Object> mockGeoOps = mock(GeoOperations.class);
-        when(redisTemplate.opsForGeo()).thenReturn(mockGeoOps);
-
-        BusStop stop = new BusStop();
-        stop.setLatitude(-26.183160);
-        stop.setLongitude(28.020200);
-        stop.setDirection("bidirectional");
+    void testProcessTrackerPayloadUpdatesDirectionAndStopIndex_Bidirectional_Northbound() {
+        givenRegisteredBus("bus-3", "imei-789", "driver-3", "Alex Smith", "CompanyZ");
+
+        RouteStop stop = createStop(1, -26.183160, 28.020200, "bidirectional");
         stop.setNorthboundIndex(11);
         stop.setSouthboundIndex(8);
-        Field cacheField = BusTrackingService.class.getDeclaredField("routeStopsCache");
-        cacheField.setAccessible(true);
-        @SuppressWarnings("unchecked")
-        java.util.Map<String, java.util.List<BusStop>> cache = (java.util.Map<String, java.util.List<BusStop>>) cacheField.get(null);
-        cache.put("C5", java.util.Collections.singletonList(stop));
+        givenStops("CompanyZ", stop);
 
         BusLocation payload = new BusLocation();
         payload.setTrackerImei("imei-789");
@@ -168,33 +164,13 @@ class BusTrackingServiceTest {
     }
 
     @Test
-    void testProcessTrackerPayloadUpdatesDirectionAndStopIndex_Bidirectional_Southbound() throws Exception {
-        Bus bus = new Bus();
-        bus.setBusId("bus-4");
-        bus.setBusNumber("C5");
-        bus.setTrackerImei("imei-101");
-        bus.setDriverId("driver-4");
-        bus.setDriverName("Sam Lee");
-        bus.setBusCompanyName("CompanyA");
-        when(busRepository.findByTrackerImei("imei-101")).thenReturn(bus);
-
-        ValueOperations<String, Object> mockValueOps = mock(ValueOperations.class);
-        when(redisTemplate.opsForValue()).thenReturn(mockValueOps);
-        when(mockValueOps.get(anyString())).thenReturn(null);
-        GeoOperations<String, Object> mockGeoOps = mock(GeoOperations.class);
-        when(redisTemplate.opsForGeo()).thenReturn(mockGeoOps);
-
-        BusStop stop = new BusStop();
-        stop.setLatitude(-26.183160);
-        stop.setLongitude(28.020200);
-        stop.setDirection("bidirectional");
+    void testProcessTrackerPayloadUpdatesDirectionAndStopIndex_Bidirectional_Southbound() {
+        givenRegisteredBus("bus-4", "imei-101", "driver-4", "Sam Lee", "CompanyA");
+
+        RouteStop stop = createStop(1, -26.183160, 28.020200, "bidirectional");
         stop.setNorthboundIndex(11);
         stop.setSouthboundIndex(8);
-        Field cacheField = BusTrackingService.class.getDeclaredField("routeStopsCache");
-        cacheField.setAccessible(true);
-        @SuppressWarnings("unchecked")
-        java.util.Map<String, java.util.List<BusStop>> cache = (java.util.Map<String, java.util.List<BusStop>>) cacheField.get(null);
-        cache.put("C5", java.util.Collections.singletonList(stop));
+        givenStops("CompanyA", stop);
 
         BusLocation payload = new BusLocation();
         payload.setTrackerImei("imei-101");
@@ -209,28 +185,11 @@ class BusTrackingServiceTest {
     }
 
     @Test
-    void testProcessTrackerPayloadUpdatesDirectionAndStopIndex_NoNearbyStop() throws Exception {
-        Bus bus = new Bus();
-        bus.setBusId("bus-5");
-        bus.setBusNumber("C5");
-        bus.setTrackerImei("imei-202");
-        bus.setDriverId("driver-5");
-        bus.setDriverName("Chris Kim");
-        bus.setBusCompanyName("CompanyB");
-        when(busRepository.findByTrackerImei("imei-202")).thenReturn(bus);
-
-        ValueOperations<String, Object> mockValueOps = mock(ValueOperations.class);
-        when(redisTemplate.opsForValue()).thenReturn(mockValueOps);
-        when(mockValueOps.get(anyString())).thenReturn(null);
-        GeoOperations<String, Object> mockGeoOps = mock(GeoOperations.class);
-        when(redisTemplate.opsForGeo()).thenReturn(mockGeoOps);
+    void testProcessTrackerPayloadUpdatesDirectionAndStopIndex_NoNearbyStop() {
+        givenRegisteredBus("bus-5", "imei-202", "driver-5", "Chris Kim", "CompanyB");
 
         // No stop within proximity
-        Field cacheField = BusTrackingService.class.getDeclaredField("routeStopsCache");
-        cacheField.setAccessible(true);
-        @SuppressWarnings("unchecked")
-        java.util.Map<String, java.util.List<BusStop>> cache = (java.util.Map<String, java.util.List<BusStop>>) cacheField.get(null);
-        cache.put("C5", java.util.Collections.emptyList());
+        givenStops("CompanyB");
 
         BusLocation payload = new BusLocation();
         payload.setTrackerImei("imei-202");
@@ -245,4 +204,18 @@ class BusTrackingServiceTest {
         assertEquals("Northbound", payload.getTripDirection());
         assertEquals(99, payload.getBusStopIndex());
     }
-} 
\ No newline at end of file
+
+    @Test
+    void testUnregisteredTrackerIsRejected() {
+        BusLocation payload = new BusLocation();
+        payload.setTrackerImei("imei-unknown");
+        payload.setLat(-26.20282);
+        payload.setLon(28.04011);
+
+        busTrackingService.processTrackerPayload(payload);
+
+        verify(busLocationIndex, never()).updateLocal(any());
+        verify(busPersistenceService, never()).enqueueLocation(any());
+        verify(busUpdateRelay, never()).publishUpdate(any());
+    }
+}
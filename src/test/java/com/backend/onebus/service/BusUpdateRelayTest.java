@@ -0,0 +1,104 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.BusLocation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class BusUpdateRelayTest {
+
+    private final InMemoryBusUpdateChannel channel = new InMemoryBusUpdateChannel();
+    private Node nodeA;
+    private Node nodeB;
+
+    private static class Node {
+        final BusStreamingService streamingService = mock(BusStreamingService.class);
+        final BusLocationIndex busLocationIndex = new BusLocationIndex();
+        final BusUpdateRelay relay = new BusUpdateRelay();
+
+        Node(BusUpdateChannel channel) {
+            ReflectionTestUtils.setField(relay, "streamingService", streamingService);
+            ReflectionTestUtils.setField(relay, "busLocationIndex", busLocationIndex);
+            ReflectionTestUtils.setField(relay, "segmentTravelTimeService", mock(SegmentTravelTimeService.class));
+            ReflectionTestUtils.setField(relay, "stopArrivalService", mock(StopArrivalService.class));
+            ReflectionTestUtils.setField(relay, "objectMapper", new ObjectMapper());
+            relay.connect(channel);
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        nodeA = new Node(channel);
+        nodeB = new Node(channel);
+    }
+
+    private BusLocation location(double lat) {
+        BusLocation location = new BusLocation();
+        location.setBusId("bus-1");
+        location.setTrackerImei("imei-1");
+        location.setBusNumber("C5");
+        location.setTripDirection("Northbound");
+        location.setLat(lat);
+        location.setLon(28.04);
+        return location;
+    }
+
+    @Test
+    void testUpdateIngestedOnOneNodeReachesSessionsOnEveryNode() {
+        BusLocation location = location(-26.20);
+        nodeA.relay.publishUpdate(location);
+
+        // The ingesting node broadcasts its own copy once and ignores the echo
+        verify(nodeA.streamingService, times(1)).broadcastBusUpdate(any());
+        verify(nodeA.streamingService).broadcastBusUpdate(location);
+
+        ArgumentCaptor<BusLocation> relayed = ArgumentCaptor.forClass(BusLocation.class);
+        verify(nodeB.streamingService, times(1)).broadcastBusUpdate(relayed.capture());
+        assertEquals("bus-1", relayed.getValue().getBusId());
+        assertEquals(-26.20, relayed.getValue().getLat());
+        // The other node mirrors it for subscribe-time and periodic sends
+        assertEquals(-26.20, nodeB.busLocationIndex.getByBusId("bus-1").getLat());
+        assertEquals(1, nodeB.busLocationIndex.getLocationsForRoute("C5", "Northbound").size());
+    }
+
+    @Test
+    void testOfflineIsRelayedAndDropsTheRemoteMirror() {
+        nodeA.relay.publishUpdate(location(-26.20));
+        nodeA.relay.publishOffline(location(-26.20));
+
+        verify(nodeA.streamingService, times(1)).broadcastBusOffline(any());
+        verify(nodeB.streamingService, times(1)).broadcastBusOffline(argThat(l -> "bus-1".equals(l.getBusId())));
+        assertTrue(nodeB.busLocationIndex.getAll().isEmpty());
+    }
+
+    @Test
+    void testOutOfOrderRelayedFixDoesNotRegressTheRemoteMirror() {
+        BusLocation newer = location(-26.19);
+        newer.setTimestamp("2000");
+        BusLocation older = location(-26.20);
+        older.setTimestamp("1000");
+
+        // Delivered to node B newest first
+        nodeB.relay.receive(relayed(newer));
+        nodeB.relay.receive(relayed(older));
+
+        assertEquals(-26.19, nodeB.busLocationIndex.getByBusId("bus-1").getLat());
+        verify(nodeB.streamingService, times(1)).broadcastBusUpdate(any());
+    }
+
+    private String relayed(BusLocation location) {
+        try {
+            return new ObjectMapper().writeValueAsString(Map.of(
+                "type", "update", "origin", "node-a", "location", location));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
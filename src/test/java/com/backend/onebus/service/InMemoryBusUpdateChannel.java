@@ -0,0 +1,24 @@
+package com.backend.onebus.service;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * In-process stand-in for the shared pub/sub channel: delivers every message synchronously to
+ * every subscriber, like Redis delivers to every node.
+ */
+class InMemoryBusUpdateChannel implements BusUpdateChannel {
+
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(String message) {
+        listeners.forEach(listener -> listener.accept(message));
+    }
+
+    @Override
+    public void subscribe(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+}
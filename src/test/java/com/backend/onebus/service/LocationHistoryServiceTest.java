@@ -0,0 +1,80 @@
+package com.backend.onebus.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class LocationHistoryServiceTest {
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @InjectMocks
+    private LocationHistoryService locationHistoryService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(locationHistoryService, "mode", "partitioned");
+        ReflectionTestUtils.setField(locationHistoryService, "partitionInterval", "daily");
+        ReflectionTestUtils.setField(locationHistoryService, "partitionsAhead", 1);
+        ReflectionTestUtils.setField(locationHistoryService, "retentionDays", 30);
+        doAnswer(invocation -> {
+            ((Consumer<TransactionStatus>) invocation.getArgument(0)).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        when(jdbcTemplate.queryForList(startsWith("SELECT c.relname"), eq(String.class), any()))
+            .thenReturn(List.of());
+    }
+
+    private static String partitionName(LocalDateTime day) {
+        return "bus_location_history_p" + day.format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+    }
+
+    @Test
+    void testRowsInTheDefaultPartitionAreMovedIntoANewPartition() {
+        LocalDateTime yesterday = LocalDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS).minusDays(1);
+        when(jdbcTemplate.queryForList(startsWith("SELECT DISTINCT"), eq(Long.class), any(), any()))
+            .thenReturn(List.of(yesterday.toInstant(ZoneOffset.UTC).toEpochMilli()));
+
+        locationHistoryService.maintainPartitions();
+
+        String name = partitionName(yesterday);
+        verify(jdbcTemplate).execute(startsWith("CREATE TABLE " + name + " (LIKE"));
+        verify(jdbcTemplate).execute(argThat((String sql) ->
+            sql.startsWith("WITH moved AS (DELETE FROM bus_location_history_default") && sql.contains("INSERT INTO " + name)));
+        verify(jdbcTemplate).execute(startsWith("ALTER TABLE bus_location_history ATTACH PARTITION " + name));
+    }
+
+    @Test
+    void testAFailingPartitionDoesNotBlockTheOthersOrRetention() {
+        LocalDateTime today = LocalDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS);
+        doThrow(new RuntimeException("conflict")).when(jdbcTemplate)
+            .execute(startsWith("CREATE TABLE " + partitionName(today) + " "));
+
+        locationHistoryService.maintainPartitions();
+
+        verify(jdbcTemplate).execute(startsWith("CREATE TABLE " + partitionName(today.plusDays(1)) + " "));
+        verify(jdbcTemplate).queryForList(startsWith("SELECT c.relname"), eq(String.class), any());
+        verify(jdbcTemplate).update(startsWith("DELETE FROM bus_location_history_default"), anyLong());
+    }
+}
@@ -0,0 +1,70 @@
+package com.backend.onebus.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MapMatchingServiceTest {
+
+    private MapMatchingService mapMatchingService;
+    private RouteGeometry geometry;
+
+    @BeforeEach
+    void setUp() {
+        mapMatchingService = new MapMatchingService();
+        ReflectionTestUtils.setField(mapMatchingService, "windowMeters", 1000.0);
+        ReflectionTestUtils.setField(mapMatchingService, "maxProjectionMeters", 60.0);
+        ReflectionTestUtils.setField(mapMatchingService, "stateTtlMs", 900000L);
+
+        // Out-and-back: ~1.1km north along one meridian, then back south ~10m further east
+        int legPoints = 11;
+        double[] lats = new double[legPoints * 2];
+        double[] lons = new double[legPoints * 2];
+        for (int i = 0; i < legPoints; i++) {
+            lats[i] = -26.20 + i * 0.001;
+            lons[i] = 28.0400;
+            lats[legPoints + i] = -26.19 - i * 0.001;
+            lons[legPoints + i] = 28.0401;
+        }
+        geometry = RouteGeometry.of(1L, "Northbound", lats, lons, null);
+    }
+
+    @Test
+    void testStaysOnReturnLegOfOutAndBackRoad() {
+        // Closer to the outbound line, but the bus has already turned around
+        double lat = -26.1950;
+        double lon = 28.04004;
+        double outboundDistance = geometry.snap(lat, lon).cumulativeDistance;
+        assertTrue(outboundDistance < geometry.getLengthMeters() / 2);
+
+        mapMatchingService.match("bus-1", geometry, -26.1900, 28.0401);
+        RouteGeometryService.SnapResult matched = mapMatchingService.match("bus-1", geometry, lat, lon);
+
+        assertTrue(matched.segmentIndex >= 10);
+        assertTrue(matched.cumulativeDistance > geometry.getLengthMeters() / 2);
+        assertEquals(matched.cumulativeDistance,
+            mapMatchingService.getDistanceAlongRoute("bus-1", 1L, "Northbound"), 0.0);
+        assertNull(mapMatchingService.getDistanceAlongRoute("bus-2", 1L, "Northbound"));
+    }
+
+    @Test
+    void testDistanceIsMonotonicUntilGlobalRematch() {
+        RouteGeometryService.SnapResult first = mapMatchingService.match("bus-1", geometry, -26.1950, 28.0400);
+        // GPS jitter ~10m backwards
+        RouteGeometryService.SnapResult jitter = mapMatchingService.match("bus-1", geometry, -26.1951, 28.0400);
+        assertEquals(first.cumulativeDistance, jitter.cumulativeDistance, 0.0);
+
+        RouteGeometryService.SnapResult ahead = mapMatchingService.match("bus-1", geometry, -26.1940, 28.0400);
+        assertEquals(first.cumulativeDistance + 111.3, ahead.cumulativeDistance, 1.0);
+
+        // Far behind the window and off the windowed segments: matched globally again
+        RouteGeometryService.SnapResult restart = mapMatchingService.match("bus-1", geometry, -26.2000, 28.0395);
+        assertEquals(0.0, restart.cumulativeDistance, 0.001);
+        assertEquals(geometry.snap(-26.2000, 28.0395).projectionDistance, restart.projectionDistance, 0.001);
+
+        mapMatchingService.reset("bus-1");
+        assertEquals(0, mapMatchingService.size());
+    }
+}
@@ -0,0 +1,107 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.BusLocation;
+import com.backend.onebus.model.FullRoute;
+import com.backend.onebus.model.Route;
+import com.backend.onebus.repository.FullRouteRepository;
+import com.backend.onebus.repository.RouteRepository;
+import com.backend.onebus.service.routing.ReaVayaRoutingStrategy;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class RouteDistanceSelectorTest {
+    @Mock
+    private RouteRepository routeRepository;
+
+    @Mock
+    private FullRouteRepository fullRouteRepository;
+
+    @Mock
+    private BusLocationIndex busLocationIndex;
+
+    @InjectMocks
+    private RouteDistanceSelector routeDistanceSelector;
+
+    private ReaVayaRoutingStrategy strategy;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        RouteGeometryService routeGeometryService = new RouteGeometryService();
+        ReflectionTestUtils.setField(routeGeometryService, "fullRouteRepository", fullRouteRepository);
+        ReflectionTestUtils.setField(routeGeometryService, "objectMapper", new ObjectMapper());
+        MapMatchingService mapMatchingService = new MapMatchingService();
+        ReflectionTestUtils.setField(mapMatchingService, "windowMeters", 1000.0);
+        ReflectionTestUtils.setField(mapMatchingService, "maxProjectionMeters", 60.0);
+        ReflectionTestUtils.setField(routeDistanceSelector, "routeGeometryService", routeGeometryService);
+        ReflectionTestUtils.setField(routeDistanceSelector, "mapMatchingService", mapMatchingService);
+
+        Route route = new Route();
+        route.setId(1L);
+        route.setBusNumber("C5");
+        route.setDirection("Northbound");
+        when(routeRepository.findByBusNumber("C5")).thenReturn(List.of(route));
+        FullRoute fullRoute = new FullRoute();
+        fullRoute.setRouteId(1L);
+        fullRoute.setDirection("Northbound");
+        // Straight line north along one meridian, ~1112m per 0.01 degree
+        fullRoute.setCoordinatesJson("[{\"lat\":-26.21,\"lon\":28.04},{\"lat\":-26.16,\"lon\":28.04}]");
+        when(fullRouteRepository.findByRouteIdAndDirection(1L, "Northbound")).thenReturn(List.of(fullRoute));
+
+        // Stop indexes are only updated near stops, so they say little about how far behind a bus is:
+        // bus-far is at stop 4 but ~2.2km behind the client, bus-near still shows stop 2 but is ~550m behind
+        BusLocation far = bus("bus-far", 4, -26.200, 60);
+        BusLocation near = bus("bus-near", 2, -26.185, 5);
+        BusLocation passed = bus("bus-passed", 6, -26.170, 40);
+        when(busLocationIndex.getRoster("C5", "Northbound")).thenReturn(BusRoster.of(List.of(far, near, passed)));
+
+        strategy = new ReaVayaRoutingStrategy();
+        strategy.setBusLocationIndex(busLocationIndex);
+        strategy.setRouteDistanceSelector(routeDistanceSelector);
+    }
+
+    private BusLocation bus(String busId, int stopIndex, double lat, double speedKmh) {
+        BusLocation bus = new BusLocation();
+        bus.setBusId(busId);
+        bus.setBusNumber("C5");
+        bus.setTripDirection("Northbound");
+        bus.setBusStopIndex(stopIndex);
+        bus.setLat(lat);
+        bus.setLon(28.04);
+        bus.setSpeedKmh(speedKmh);
+        return bus;
+    }
+
+    private String select(BusSelectionMode mode) {
+        strategy.setSelectionModeSource(() -> mode);
+        return strategy.selectBestBusForClient("C5", "Northbound", -26.180, 28.0401, 5);
+    }
+
+    @Test
+    void testModesRankApproachingBusesDifferently() {
+        assertEquals("bus-far", select(BusSelectionMode.STOP_INDEX));
+        assertEquals("bus-near", select(BusSelectionMode.DISTANCE));
+        // ~2.2km at 60km/h beats ~550m crawling at 5km/h (ranked at the 10km/h floor)
+        assertEquals("bus-far", select(BusSelectionMode.ETA));
+    }
+
+    @Test
+    void testFallsBackToStopIndexWithoutRouteGeometry() {
+        when(fullRouteRepository.findByRouteIdAndDirection(1L, "Northbound")).thenReturn(List.of());
+
+        assertEquals("bus-far", select(BusSelectionMode.DISTANCE));
+        assertEquals(BusSelectionMode.DISTANCE, BusSelectionMode.parse("distance", BusSelectionMode.STOP_INDEX));
+        assertEquals(BusSelectionMode.STOP_INDEX, BusSelectionMode.parse("Stop-Index", BusSelectionMode.ETA));
+        assertEquals(BusSelectionMode.ETA, BusSelectionMode.parse("nearest", BusSelectionMode.ETA));
+    }
+}
@@ -0,0 +1,88 @@
+package com.backend.onebus.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test geometry built from the bundled Rea Vaya C5 stops (reayVayaC5Route.json).
+ *
+ * The file only holds stops, so they are ordered along the corridor and densified with small
+ * deterministic wiggles to get a road-like polyline of a few thousand vertices.
+ */
+final class RouteGeometryFixtures {
+
+    private RouteGeometryFixtures() {
+    }
+
+    static RouteGeometry c5Geometry(int verticesPerStopGap) throws IOException {
+        List<double[]> stops = new ArrayList<>();
+        try (InputStream in = new ClassPathResource("reayVayaC5Route.json").getInputStream()) {
+            JsonNode root = new ObjectMapper().readTree(in);
+            for (JsonNode stop : root.path("bus_stops")) {
+                JsonNode coordinates = stop.path("coordinates");
+                stops.add(new double[] {coordinates.path("latitude").asDouble(), coordinates.path("longitude").asDouble()});
+            }
+        }
+        // The corridor runs east-west
+        stops.sort(Comparator.comparingDouble(point -> point[1]));
+
+        Random random = new Random(7);
+        int n = (stops.size() - 1) * verticesPerStopGap + 1;
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        int v = 0;
+        for (int s = 0; s < stops.size() - 1; s++) {
+            double[] from = stops.get(s);
+            double[] to = stops.get(s + 1);
+            for (int k = 0; k < verticesPerStopGap; k++) {
+                double f = (double) k / verticesPerStopGap;
+                double wiggle = k == 0 ? 0 : (random.nextDouble() - 0.5) * 0.0002;
+                lats[v] = from[0] + (to[0] - from[0]) * f + wiggle;
+                lons[v] = from[1] + (to[1] - from[1]) * f;
+                v++;
+            }
+        }
+        lats[v] = stops.get(stops.size() - 1)[0];
+        lons[v] = stops.get(stops.size() - 1)[1];
+        return RouteGeometry.of(1L, "Northbound", lats, lons, null);
+    }
+
+    /**
+     * Random GPS positions around the C5 corridor, up to ~500m off the route.
+     */
+    static double[][] positionsNearC5(int count, long seed) {
+        Random random = new Random(seed);
+        double[][] positions = new double[count][];
+        for (int i = 0; i < count; i++) {
+            positions[i] = new double[] {
+                -26.2078 + random.nextDouble() * 0.0390,
+                27.9522 + random.nextDouble() * 0.0946
+            };
+        }
+        return positions;
+    }
+
+    /**
+     * GPS fixes along the C5 polyline with up to ~30m of noise.
+     */
+    static double[][] positionsAlongC5(RouteGeometry geometry, int count, long seed) {
+        Random random = new Random(seed);
+        double[][] positions = new double[count][];
+        for (int i = 0; i < count; i++) {
+            int vertex = random.nextInt(geometry.size());
+            positions[i] = new double[] {
+                geometry.getLat(vertex) + (random.nextDouble() - 0.5) * 0.0005,
+                geometry.getLon(vertex) + (random.nextDouble() - 0.5) * 0.0005
+            };
+        }
+        return positions;
+    }
+}
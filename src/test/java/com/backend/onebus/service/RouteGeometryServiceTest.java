@@ -0,0 +1,76 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.FullRoute;
+import com.backend.onebus.repository.FullRouteRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class RouteGeometryServiceTest {
+    @Mock
+    private FullRouteRepository fullRouteRepository;
+
+    @InjectMocks
+    private RouteGeometryService routeGeometryService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(routeGeometryService, "objectMapper", new ObjectMapper());
+    }
+
+    private FullRoute createFullRoute(String cumulativeDistancesJson) {
+        FullRoute fullRoute = new FullRoute();
+        fullRoute.setRouteId(1L);
+        fullRoute.setDirection("Northbound");
+        // Straight line north along one meridian, ~1112m per 0.01 degree
+        fullRoute.setCoordinatesJson("[{\"lat\":-26.20,\"lon\":28.04},{\"lat\":-26.19,\"lon\":28.04},{\"lat\":-26.18,\"lon\":28.04}]");
+        fullRoute.setCumulativeDistancesJson(cumulativeDistancesJson);
+        return fullRoute;
+    }
+
+    @Test
+    void testCompilesOnceAndMeasuresAlongRoute() {
+        when(fullRouteRepository.findByRouteIdAndDirection(1L, "Northbound"))
+            .thenReturn(List.of(createFullRoute(null)));
+
+        RouteGeometryService.RouteDistanceResult first =
+            routeGeometryService.calculateRouteDistance(-26.20, 28.04, -26.18, 28.04, 1L, "Northbound");
+        RouteGeometryService.RouteDistanceResult second =
+            routeGeometryService.calculateRouteDistance(-26.195, 28.0401, -26.19, 28.04, 1L, "Northbound");
+
+        assertNotNull(first);
+        assertEquals(2224.0, first.distanceMeters, 2.0);
+        assertEquals(556.0, second.distanceMeters, 2.0);
+        assertEquals(0, second.busSnapIndex);
+        verify(fullRouteRepository, times(1)).findByRouteIdAndDirection(1L, "Northbound");
+    }
+
+    @Test
+    void testMissingRouteIsCachedUntilInvalidated() {
+        when(fullRouteRepository.findByRouteIdAndDirection(1L, "Northbound")).thenReturn(List.of());
+
+        assertNull(routeGeometryService.calculateRouteDistance(-26.20, 28.04, -26.18, 28.04, 1L, "Northbound"));
+        assertNull(routeGeometryService.calculateRouteDistance(-26.20, 28.04, -26.18, 28.04, 1L, "Northbound"));
+        verify(fullRouteRepository, times(1)).findByRouteIdAndDirection(1L, "Northbound");
+
+        when(fullRouteRepository.findByRouteIdAndDirection(1L, "Northbound"))
+            .thenReturn(List.of(createFullRoute("[0, 1000, 2000]")));
+        routeGeometryService.invalidateRoute(1L);
+
+        RouteGeometryService.RouteDistanceResult result =
+            routeGeometryService.calculateRouteDistance(-26.20, 28.04, -26.18, 28.04, 1L, "Northbound");
+        assertNotNull(result);
+        // Stored cumulative distances are used as-is
+        assertEquals(2000.0, result.distanceMeters, 0.001);
+    }
+}
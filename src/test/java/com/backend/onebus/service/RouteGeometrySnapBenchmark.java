@@ -0,0 +1,69 @@
+package com.backend.onebus.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexed vs linear snap-to-path on the C5 geometry (see {@link RouteGeometryFixtures}).
+ *
+ * Only compiled with the {@code benchmark} Maven profile; see pom.xml for how to run it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteGeometrySnapBenchmark {
+
+    // Vertices per gap between consecutive stops; 150 gives ~4200 vertices
+    @Param({"30", "150"})
+    public int density;
+
+    private RouteGeometry geometry;
+    private double[][] positions;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        geometry = RouteGeometryFixtures.c5Geometry(density);
+        positions = RouteGeometryFixtures.positionsAlongC5(geometry, 1024, 42);
+    }
+
+    private double[] nextPosition() {
+        double[] position = positions[next];
+        next = (next + 1) & (positions.length - 1);
+        return position;
+    }
+
+    @Benchmark
+    public RouteGeometryService.SnapResult linear() {
+        double[] position = nextPosition();
+        return geometry.snapLinear(position[0], position[1]);
+    }
+
+    @Benchmark
+    public RouteGeometryService.SnapResult indexed() {
+        double[] position = nextPosition();
+        return geometry.snap(position[0], position[1]);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RouteGeometrySnapBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,43 @@
+package com.backend.onebus.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RouteGeometryTest {
+
+    private void assertSameSnap(RouteGeometryService.SnapResult expected, RouteGeometryService.SnapResult actual) {
+        assertEquals(expected.segmentIndex, actual.segmentIndex);
+        assertEquals(expected.cumulativeDistance, actual.cumulativeDistance, 0.0);
+        assertEquals(expected.snappedLat, actual.snappedLat, 0.0);
+        assertEquals(expected.snappedLon, actual.snappedLon, 0.0);
+        assertEquals(expected.projectionDistance, actual.projectionDistance, 0.0);
+    }
+
+    @Test
+    void testIndexedSnapMatchesLinearScanOnC5() throws IOException {
+        RouteGeometry geometry = RouteGeometryFixtures.c5Geometry(60);
+        assertTrue(geometry.size() > 1500);
+
+        for (double[] position : RouteGeometryFixtures.positionsNearC5(2000, 11)) {
+            assertSameSnap(geometry.snapLinear(position[0], position[1]), geometry.snap(position[0], position[1]));
+        }
+    }
+
+    @Test
+    void testIndexedSnapMatchesLinearScanOnVerticesAndFarPositions() throws IOException {
+        RouteGeometry geometry = RouteGeometryFixtures.c5Geometry(60);
+        // Exactly on shared vertices, where adjacent segments tie; the lowest index must win
+        for (int i = 1; i < geometry.size() - 1; i += 97) {
+            RouteGeometryService.SnapResult onVertex = geometry.snap(geometry.getLat(i), geometry.getLon(i));
+            assertSameSnap(geometry.snapLinear(geometry.getLat(i), geometry.getLon(i)), onVertex);
+            assertEquals(0.0, onVertex.projectionDistance, 1e-6);
+        }
+        double[][] far = {{-26.0, 28.0}, {-26.5, 27.5}, {0.0, 0.0}};
+        for (double[] position : far) {
+            assertSameSnap(geometry.snapLinear(position[0], position[1]), geometry.snap(position[0], position[1]));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.Route;
+import com.backend.onebus.model.RouteStop;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RouteTopologyTest {
+
+    private RouteStop createStop(long id, String direction, int index, double lat, double lon) {
+        RouteStop stop = new RouteStop();
+        stop.setId(id);
+        stop.setDirection(direction);
+        stop.setBusStopIndex(index);
+        stop.setLatitude(lat);
+        stop.setLongitude(lon);
+        return stop;
+    }
+
+    private RouteTopology createTopology() {
+        Route route = new Route();
+        route.setId(1L);
+        route.setBusNumber("C5");
+        route.setDirection("Northbound");
+        RouteStop shared = createStop(3, "bidirectional", 1, -26.2050, 28.0450);
+        shared.setNorthboundIndex(1);
+        shared.setSouthboundIndex(4);
+        return new RouteTopology(route, List.of(
+            createStop(1, "Northbound", 0, -26.2000, 28.0400),
+            createStop(2, "Southbound", 0, -26.2100, 28.0500),
+            shared,
+            createStop(4, "Northbound", 2, -26.2200, 28.0600)));
+    }
+
+    @Test
+    void testPrecomputesDirectionalStopsAndTerminals() {
+        RouteTopology topology = createTopology();
+
+        assertEquals(2, topology.getStopCount("Northbound"));
+        assertEquals(1L, topology.getFirstStop("Northbound").getId());
+        assertEquals(4L, topology.getLastStop("Northbound").getId());
+        assertEquals(4L, topology.getStop("Northbound", 2).getId());
+        assertNull(topology.getStop("Northbound", 5));
+        assertEquals(0, topology.getStopCount("Eastbound"));
+        assertEquals(Integer.valueOf(1), topology.getMaxDirectionalIndex("Northbound"));
+        assertEquals(Integer.valueOf(4), topology.getMaxDirectionalIndex("Southbound"));
+    }
+
+    @Test
+    void testFindNearbyStopHonoursDirection() {
+        RouteTopology topology = createTopology();
+
+        // ~10m from the southbound stop
+        assertNull(topology.findNearbyStop(-26.2101, 28.0500, "Northbound", 30.0));
+        assertEquals(2L, topology.findNearbyStop(-26.2101, 28.0500, "Southbound", 30.0).getId());
+        assertEquals(2L, topology.findNearbyStop(-26.2101, 28.0500, null, 30.0).getId());
+        // Bidirectional stops match either direction
+        assertEquals(3L, topology.findNearbyStop(-26.2050, 28.0451, "Southbound", 30.0).getId());
+        assertNull(topology.findNearbyStop(-26.3000, 28.0500, null, 30.0));
+    }
+
+    @Test
+    void testGridLookupMatchesLinearScan() {
+        Random random = new Random(42);
+        List<RouteStop> stops = new ArrayList<>();
+        String[] directions = {"Northbound", "Southbound", "bidirectional"};
+        for (int i = 0; i < 150; i++) {
+            stops.add(createStop(i, directions[i % 3], i / 3,
+                -26.20 + random.nextDouble() * 0.02, 28.04 + random.nextDouble() * 0.02));
+        }
+        RouteTopology topology = new RouteTopology(new Route(), stops);
+
+        for (int trial = 0; trial < 2000; trial++) {
+            double lat = -26.20 + random.nextDouble() * 0.02;
+            double lon = 28.04 + random.nextDouble() * 0.02;
+            String direction = trial % 4 == 0 ? null : directions[trial % 2];
+            RouteStop expected = null;
+            for (RouteStop stop : stops) {
+                boolean directionMatches = direction == null
+                    || "bidirectional".equalsIgnoreCase(stop.getDirection())
+                    || direction.equalsIgnoreCase(stop.getDirection());
+                if (directionMatches && RouteTopology.distanceMeters(lat, lon, stop.getLatitude(), stop.getLongitude()) <= 60.0) {
+                    expected = stop;
+                    break;
+                }
+            }
+            assertSame(expected, topology.findNearbyStop(lat, lon, direction, 60.0));
+        }
+    }
+}
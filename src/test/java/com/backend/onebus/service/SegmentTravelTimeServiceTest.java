@@ -0,0 +1,112 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.BusLocation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class SegmentTravelTimeServiceTest {
+    @Mock
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Mock
+    private HashOperations<String, Object, Object> hashOperations;
+
+    private SegmentTravelTimeService segmentTravelTimeService;
+
+    // 08:00 local time
+    private final long morning = LocalDate.of(2026, 3, 2).atTime(8, 0)
+        .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(redisTemplate.opsForHash()).thenReturn(hashOperations);
+        segmentTravelTimeService = newService();
+    }
+
+    private SegmentTravelTimeService newService() {
+        SegmentTravelTimeService service = new SegmentTravelTimeService();
+        ReflectionTestUtils.setField(service, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(service, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(service, "bucketMinutes", 60);
+        ReflectionTestUtils.setField(service, "alpha", 0.5);
+        ReflectionTestUtils.setField(service, "maxSegmentSeconds", 1800.0);
+        ReflectionTestUtils.setField(service, "maxStopsPerSample", 3);
+        return service;
+    }
+
+    private BusLocation fix(String busId, Integer stopIndex) {
+        BusLocation location = new BusLocation();
+        location.setBusId(busId);
+        location.setBusNumber("C5");
+        location.setTripDirection("Northbound");
+        location.setBusStopIndex(stopIndex);
+        return location;
+    }
+
+    @Test
+    void testLearnsSegmentAveragesAndEstimatesFromTheBusPosition() {
+        // Stop 0 -> 1 in 120s, then 1 -> 3 in 240s (split over two segments)
+        segmentTravelTimeService.observe(fix("bus-1", 0), morning);
+        segmentTravelTimeService.observe(fix("bus-1", 0), morning + 30_000);
+        segmentTravelTimeService.observe(fix("bus-1", 1), morning + 120_000);
+        segmentTravelTimeService.observe(fix("bus-1", 3), morning + 360_000);
+        // A second bus takes 240s over segment 0: EWMA with alpha 0.5 gives 180s
+        segmentTravelTimeService.observe(fix("bus-2", 0), morning);
+        segmentTravelTimeService.observe(fix("bus-2", 1), morning + 240_000);
+        // Long gaps are not travel
+        segmentTravelTimeService.observe(fix("bus-3", 3), morning);
+        segmentTravelTimeService.observe(fix("bus-3", 4), morning + 3_600_000);
+
+        assertEquals(3.0, segmentTravelTimeService.travelMinutes("C5", "Northbound", 0, 1, morning), 1e-9);
+        assertEquals(7.0, segmentTravelTimeService.travelMinutes("c5", "northbound", 0, 3, morning), 1e-9);
+        assertNull(segmentTravelTimeService.travelMinutes("C5", "Northbound", 0, 4, morning));
+        assertNull(segmentTravelTimeService.travelMinutes("C5", "Southbound", 0, 1, morning));
+        // Other hours fall back to the all-day average
+        assertEquals(7.0, segmentTravelTimeService.travelMinutes("C5", "Northbound", 0, 3, morning + 6 * 3_600_000L), 1e-9);
+
+        // bus-2 reached stop 1 at +240s; a minute later it has 1 minute of the 2 minute segment left
+        BusLocation bus = fix("bus-2", 1);
+        assertEquals(3.0, segmentTravelTimeService.estimateMinutes(bus, 3, morning + 300_000), 1e-9);
+        // Overdue on the first segment: never less than the segments after it
+        assertEquals(2.0, segmentTravelTimeService.estimateMinutes(bus, 3, morning + 900_000), 1e-9);
+        assertNull(segmentTravelTimeService.estimateMinutes(bus, 0, morning));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testPersistsChangedTablesAndRestoresThem() {
+        segmentTravelTimeService.observe(fix("bus-1", 0), morning);
+        segmentTravelTimeService.observe(fix("bus-1", 1), morning + 120_000);
+
+        segmentTravelTimeService.persist();
+        ArgumentCaptor<Map<String, Object>> written = ArgumentCaptor.forClass(Map.class);
+        verify(hashOperations).putAll(eq("eta:segments"), written.capture());
+        assertEquals(1, written.getValue().size());
+        // Unchanged since: nothing to write
+        segmentTravelTimeService.persist();
+        verify(hashOperations, times(1)).putAll(any(), any());
+
+        when(hashOperations.entries("eta:segments")).thenReturn(new HashMap<>(written.getValue()));
+        SegmentTravelTimeService restarted = newService();
+        restarted.load();
+        assertEquals(2.0, restarted.travelMinutes("C5", "Northbound", 0, 1, morning), 1e-9);
+        assertNull(restarted.travelMinutes("C5", "Northbound", 1, 2, morning));
+    }
+}
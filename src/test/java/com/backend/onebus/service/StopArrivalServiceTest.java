@@ -0,0 +1,139 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.BusLocation;
+import com.backend.onebus.model.Route;
+import com.backend.onebus.model.RouteStop;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class StopArrivalServiceTest {
+    @Mock
+    private RouteTopologyService routeTopologyService;
+
+    @Mock
+    private SegmentTravelTimeService segmentTravelTimeService;
+
+    @Mock
+    private SimpMessagingTemplate messagingTemplate;
+
+    @InjectMocks
+    private StopArrivalService stopArrivalService;
+
+    private final long now = 1_000_000L;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(stopArrivalService, "arrivalLimit", 5);
+        ReflectionTestUtils.setField(stopArrivalService, "overdueMs", 600_000L);
+
+        Route route = new Route();
+        route.setId(1L);
+        route.setBusNumber("C5");
+        route.setDirection("Northbound");
+        RouteStop shared = createStop(12, "bidirectional", 2, -26.18);
+        shared.setNorthboundIndex(2);
+        shared.setSouthboundIndex(0);
+        RouteTopology topology = new RouteTopology(route, List.of(
+            createStop(10, "Northbound", 0, -26.20),
+            createStop(11, "Northbound", 1, -26.19),
+            shared,
+            createStop(13, "Southbound", 1, -26.19)));
+        when(routeTopologyService.forBus(any(), eq("C5"))).thenReturn(topology);
+        when(segmentTravelTimeService.estimateMinutes(any(), anyInt(), anyLong())).thenReturn(null);
+    }
+
+    private RouteStop createStop(long id, String direction, int index, double lat) {
+        RouteStop stop = new RouteStop();
+        stop.setId(id);
+        stop.setDirection(direction);
+        stop.setBusStopIndex(index);
+        stop.setLatitude(lat);
+        stop.setLongitude(28.04);
+        return stop;
+    }
+
+    private BusLocation createLocation(String busId, int stopIndex, double lat) {
+        BusLocation location = new BusLocation();
+        location.setBusId(busId);
+        location.setBusNumber("C5");
+        location.setBusCompany("Rea Vaya");
+        location.setTripDirection("Northbound");
+        location.setBusStopIndex(stopIndex);
+        location.setLat(lat);
+        location.setLon(28.04);
+        return location;
+    }
+
+    @Test
+    void testBoardsChangeOnlyWhenTheBusReachesAnotherStop() {
+        stopArrivalService.onBusUpdate(createLocation("bus-1", 0, -26.20), now, now);
+        // Stops 11 and 12 are ahead; the Southbound stop and the one it is at are not
+        verify(messagingTemplate, times(2)).convertAndSend(anyString(), any(Object.class));
+        List<Map<String, Object>> board = stopArrivalService.getArrivals(12L, 5, now);
+        assertEquals(1, board.size());
+        assertEquals(2, board.get(0).get("stopsAway"));
+        // ~2224m at 30 km/h
+        assertEquals(4.45, (Double) board.get(0).get("etaMinutes"), 0.01);
+        assertEquals("distance", board.get(0).get("etaSource"));
+
+        // Same stop: nothing recomputed or pushed
+        stopArrivalService.onBusUpdate(createLocation("bus-1", 0, -26.199), now + 10_000, now + 10_000);
+        verify(messagingTemplate, times(2)).convertAndSend(anyString(), any(Object.class));
+
+        // Reaching stop 1 takes it off stop 11's board
+        when(segmentTravelTimeService.estimateMinutes(any(), eq(2), anyLong())).thenReturn(1.5);
+        stopArrivalService.onBusUpdate(createLocation("bus-1", 1, -26.19), now + 60_000, now + 60_000);
+        verify(messagingTemplate, times(4)).convertAndSend(anyString(), any(Object.class));
+        verify(messagingTemplate, times(2)).convertAndSend(eq("/topic/stops/11/arrivals"), any(Object.class));
+        assertTrue(stopArrivalService.getArrivals(11L, 5, now + 60_000).isEmpty());
+        board = stopArrivalService.getArrivals(12L, 5, now + 60_000);
+        assertEquals(1.5, (Double) board.get(0).get("etaMinutes"), 1e-9);
+        assertEquals("learned", board.get(0).get("etaSource"));
+
+        stopArrivalService.removeBus("bus-1");
+        assertTrue(stopArrivalService.getArrivals(12L, 5, now + 60_000).isEmpty());
+    }
+
+    @Test
+    void testBoardListsTheSoonestBusesFirst() {
+        stopArrivalService.onBusUpdate(createLocation("far", 0, -26.20), now, now);
+        stopArrivalService.onBusUpdate(createLocation("near", 1, -26.19), now, now);
+
+        List<Map<String, Object>> board = stopArrivalService.getArrivals(12L, 5, now);
+        assertEquals(List.of("near", "far"), board.stream().map(arrival -> arrival.get("busId")).toList());
+        assertEquals(1, stopArrivalService.getArrivals(12L, 1, now).size());
+        // Long overdue predictions are dropped
+        assertTrue(stopArrivalService.getArrivals(12L, 5, now + 3_600_000).isEmpty());
+    }
+
+    @Test
+    void testArrivalTimesFollowTheServerClockNotTheFixTime() {
+        // A tracker a day behind, with a learned 1.5 minutes to the next stop
+        long fixTime = now - 86_400_000L;
+        when(segmentTravelTimeService.estimateMinutes(any(), eq(1), eq(fixTime))).thenReturn(1.5);
+
+        stopArrivalService.onBusUpdate(createLocation("bus-1", 0, -26.20), fixTime, now);
+
+        List<Map<String, Object>> board = stopArrivalService.getArrivals(11L, 5, now);
+        assertEquals(1, board.size());
+        assertEquals(now + 90_000L, board.get(0).get("arrivalAt"));
+        assertEquals(1.5, (Double) board.get(0).get("etaMinutes"), 1e-9);
+    }
+}
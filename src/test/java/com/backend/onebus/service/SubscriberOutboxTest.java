@@ -0,0 +1,122 @@
+package com.backend.onebus.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SubscriberOutboxTest {
+    @Mock
+    private MessageChannel clientOutboundChannel;
+
+    private SubscriberOutbox subscriberOutbox;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        subscriberOutbox = new SubscriberOutbox();
+        ReflectionTestUtils.setField(subscriberOutbox, "clientOutboundChannel", clientOutboundChannel);
+        ReflectionTestUtils.setField(subscriberOutbox, "enabled", true);
+        ReflectionTestUtils.setField(subscriberOutbox, "mapIntervalMs", 1000L);
+        ReflectionTestUtils.setField(subscriberOutbox, "backgroundIntervalMs", 5000L);
+        when(clientOutboundChannel.send(any())).thenAnswer(invocation ->
+            subscriberOutbox.preSend(invocation.getArgument(0), clientOutboundChannel) != null);
+    }
+
+    private Message<String> frame(String sessionId, String busId, String body) {
+        return frame(sessionId, "/topic/bus/C5_Northbound", busId, body);
+    }
+
+    private Message<String> frame(String sessionId, String destination, String busId, String body) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination(destination);
+        if (busId != null) accessor.setHeader(SubscriberOutbox.BUS_ID_HEADER, busId);
+        return MessageBuilder.createMessage(body, accessor.getMessageHeaders());
+    }
+
+    private SubscriberOutbox.OutboxStats stats(String sessionId) {
+        return subscriberOutbox.getSessionStats().stream()
+            .filter(s -> s.getSessionId().equals(sessionId))
+            .findFirst()
+            .orElseThrow();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testConflatesToLatestPerBusAndFlushesAtSessionRate() {
+        Message<String> first = frame("s1", "bus-1", "1");
+        assertSame(first, subscriberOutbox.offer(first, 0));
+        assertNull(subscriberOutbox.offer(frame("s1", "bus-1", "2"), 100));
+        assertNull(subscriberOutbox.offer(frame("s1", "bus-1", "3"), 200));
+        assertNull(subscriberOutbox.offer(frame("s1", "bus-2", "A"), 300));
+        // Other sessions and non-bus frames are not held back
+        assertNotNull(subscriberOutbox.offer(frame("s2", "bus-1", "3"), 300));
+        Message<String> status = frame("s1", null, "status");
+        assertSame(status, subscriberOutbox.offer(status, 300));
+
+        assertEquals(2, stats("s1").getQueueDepth());
+        assertEquals(1, stats("s1").getDropped());
+
+        subscriberOutbox.flush(999);
+        verify(clientOutboundChannel, never()).send(any());
+
+        subscriberOutbox.flush(1000);
+        ArgumentCaptor<Message<?>> sent = ArgumentCaptor.forClass(Message.class);
+        verify(clientOutboundChannel, times(2)).send(sent.capture());
+        assertEquals(List.of("3", "A"), sent.getAllValues().stream().map(Message::getPayload).toList());
+        assertEquals(0, stats("s1").getQueueDepth());
+        assertEquals(3, stats("s1").getDelivered());
+
+        // Next window starts at the flush
+        assertNull(subscriberOutbox.offer(frame("s1", "bus-1", "4"), 1500));
+        subscriberOutbox.flush(2000);
+        verify(clientOutboundChannel, times(3)).send(any());
+    }
+
+    @Test
+    void testBackgroundModeAndOfflineDiscard() {
+        subscriberOutbox.setMode("s1", SubscriberOutbox.DeliveryMode.BACKGROUND);
+        assertEquals(5000, stats("s1").getIntervalMs());
+        assertNotNull(subscriberOutbox.offer(frame("s1", "bus-1", "1"), 0));
+        assertNull(subscriberOutbox.offer(frame("s1", "bus-1", "2"), 1000));
+        assertNull(subscriberOutbox.offer(frame("s1", "bus-2", "A"), 1000));
+
+        subscriberOutbox.flush(4999);
+        verify(clientOutboundChannel, never()).send(any());
+
+        subscriberOutbox.discardBus("bus-1");
+        assertEquals(1, stats("s1").getQueueDepth());
+
+        subscriberOutbox.removeSession("s1");
+        assertTrue(subscriberOutbox.getSessionStats().isEmpty());
+    }
+
+    @Test
+    void testOwnDistanceFramesAreNotConflatedWithTheSharedRouteFrame() {
+        // A user destination reaches the outbound channel resolved to the session's own topic
+        String own = "/topic/bus/C5_Northbound-users1";
+        assertNotNull(subscriberOutbox.offer(frame("s1", own, "bus-1", "shared-0"), 0));
+        assertNull(subscriberOutbox.offer(frame("s1", own, "bus-1", "own-1"), 100));
+        assertNull(subscriberOutbox.offer(frame("s1", "bus-1", "shared-1"), 100));
+        assertNull(subscriberOutbox.offer(frame("s1", own, "bus-1", "own-2"), 200));
+
+        subscriberOutbox.flush(1000);
+        ArgumentCaptor<Message<?>> sent = ArgumentCaptor.forClass(Message.class);
+        verify(clientOutboundChannel, times(2)).send(sent.capture());
+        assertEquals(List.of("own-2", "shared-1"), sent.getAllValues().stream().map(Message::getPayload).toList());
+    }
+}
@@ -0,0 +1,70 @@
+package com.backend.onebus.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimerWheelTest {
+
+    @Test
+    void testExpiresKeysAtTheirLatestDeadline() {
+        TimerWheel<String> wheel = new TimerWheel<>(100, 8);
+        wheel.schedule("a", 250);
+        wheel.schedule("b", 250);
+        wheel.schedule("c", 250);
+        wheel.schedule("b", 650);
+        wheel.cancel("c");
+        // Beyond one revolution (800ms)
+        wheel.schedule("d", 2050);
+
+        assertEquals(List.of(), wheel.advance(200));
+        assertEquals(List.of("a"), wheel.advance(299));
+        assertEquals(List.of(), wheel.advance(600));
+        assertEquals(List.of("b"), wheel.advance(700));
+        assertEquals(List.of(), wheel.advance(1300));
+        assertEquals(1, wheel.size());
+        assertEquals(List.of("d"), wheel.advance(2100));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void testPastDeadlinesAndLongPausesAreNotMissed() {
+        TimerWheel<String> wheel = new TimerWheel<>(100, 8);
+        wheel.advance(1000);
+        // Scheduled in an already visited slot: due on the next advance
+        wheel.schedule("late", 900);
+        wheel.schedule("soon", 1150);
+        assertEquals(List.of("late"), wheel.advance(1050));
+
+        // Advancing several revolutions at once visits every slot once
+        assertEquals(List.of("soon"), wheel.advance(10000));
+    }
+
+    @Test
+    void testKeyRescheduledDuringAdvanceIsNotLost() {
+        TimerWheel<String> wheel = new TimerWheel<>(100, 8);
+        // Push "a" out to 650 right after advance reads its (expired) 250 deadline
+        ReflectionTestUtils.setField(wheel, "deadlines", new ConcurrentHashMap<String, Long>() {
+            private boolean rescheduled;
+
+            @Override
+            public Long get(Object key) {
+                Long deadline = super.get(key);
+                if (!rescheduled && "a".equals(key) && deadline != null && deadline == 250L) {
+                    rescheduled = true;
+                    wheel.schedule("a", 650);
+                }
+                return deadline;
+            }
+        });
+        wheel.schedule("a", 250);
+
+        assertEquals(List.of(), wheel.advance(300));
+        assertEquals(1, wheel.size());
+        assertEquals(List.of("a"), wheel.advance(700));
+    }
+}
@@ -0,0 +1,128 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.BusLocation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class TrackerIngestServiceTest {
+    @Mock
+    private BusTrackingService trackingService;
+
+    @Mock
+    private MetricsService metricsService;
+
+    @InjectMocks
+    private TrackerIngestService ingestService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(ingestService, "configuredWorkers", 1);
+        ReflectionTestUtils.setField(ingestService, "queueCapacity", 2);
+        ReflectionTestUtils.setField(ingestService, "retryAfterSeconds", 2);
+        when(trackingService.newShardState()).thenAnswer(invocation -> new TrackerShardState());
+    }
+
+    @AfterEach
+    void tearDown() {
+        ingestService.stop();
+    }
+
+    private BusLocation createPayload(String imei, String timestamp) {
+        BusLocation payload = new BusLocation();
+        payload.setTrackerImei(imei);
+        payload.setTimestamp(timestamp);
+        return payload;
+    }
+
+    @Test
+    void testPayloadsForOneTrackerAreProcessedInOrder() throws Exception {
+        List<String> processed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(2);
+        doAnswer(invocation -> {
+            processed.add(((BusLocation) invocation.getArgument(0)).getTimestamp());
+            done.countDown();
+            return null;
+        }).when(trackingService).processTrackerPayload(any(BusLocation.class), any(TrackerShardState.class));
+        ingestService.start();
+
+        int accepted = ingestService.submitAll(List.of(createPayload("imei-1", "1000"), createPayload("imei-1", "2000")));
+
+        assertEquals(2, accepted);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("1000", "2000"), processed);
+    }
+
+    @Test
+    void testFullQueueRejectsInsteadOfBlocking() throws Exception {
+        CountDownLatch workerBusy = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            workerBusy.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(trackingService).processTrackerPayload(any(BusLocation.class), any(TrackerShardState.class));
+        ingestService.start();
+
+        // First payload occupies the worker, the next two fill the queue
+        assertTrue(ingestService.submit(createPayload("imei-1", "1000")));
+        assertTrue(workerBusy.await(5, TimeUnit.SECONDS));
+        int accepted = ingestService.submitAll(List.of(
+            createPayload("imei-1", "2000"),
+            createPayload("imei-1", "3000"),
+            createPayload("imei-1", "4000"),
+            createPayload("imei-1", "5000")));
+        release.countDown();
+
+        assertEquals(2, accepted, "Batch should stop at the first payload that does not fit");
+        // One for the payload that did not fit, one for the unsent remainder of the batch
+        verify(metricsService, times(2)).recordTrackerPayloadsRejected(1);
+    }
+
+    @Test
+    void testStopProcessesQueuedPayloadsAndRefusesNewOnes() throws Exception {
+        List<String> processed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch workerBusy = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            workerBusy.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            processed.add(((BusLocation) invocation.getArgument(0)).getTimestamp());
+            return null;
+        }).when(trackingService).processTrackerPayload(any(BusLocation.class), any(TrackerShardState.class));
+        ingestService.start();
+
+        // First payload occupies the worker; the other two are still queued when shutdown begins
+        assertTrue(ingestService.submit(createPayload("imei-1", "1000")));
+        assertTrue(workerBusy.await(5, TimeUnit.SECONDS));
+        assertEquals(2, ingestService.submitAll(List.of(createPayload("imei-1", "2000"), createPayload("imei-1", "3000"))));
+        Thread stopper = new Thread(ingestService::stop);
+        stopper.start();
+        // Wait until stop() is joining the worker before letting it continue
+        while (stopper.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        stopper.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertFalse(stopper.isAlive());
+        assertEquals(List.of("1000", "2000", "3000"), processed);
+        verify(trackingService, atLeast(2)).flushTrackerState(any());
+        assertFalse(ingestService.submit(createPayload("imei-1", "4000")), "Payloads should be refused after shutdown");
+    }
+}
@@ -0,0 +1,114 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.event.TrackerRegistryChangedEvent;
+import com.backend.onebus.model.Bus;
+import com.backend.onebus.model.BusCompany;
+import com.backend.onebus.repository.BusRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class TrackerRegistryTest {
+    @Mock
+    private BusRepository busRepository;
+
+    @InjectMocks
+    private TrackerRegistry trackerRegistry;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(trackerRegistry, "missTtlMs", 30000L);
+    }
+
+    private Bus createBus(String busId, String imei, String status) {
+        BusCompany company = new BusCompany();
+        company.setId(7L);
+        company.setName("Rea Vaya");
+        Bus bus = new Bus();
+        bus.setBusId(busId);
+        bus.setBusNumber("C5");
+        bus.setTrackerImei(imei);
+        bus.setBusCompany(company);
+        bus.setOperationalStatus(status);
+        return bus;
+    }
+
+    @Test
+    void testReloadAllBuildsSnapshotWithCompany() {
+        when(busRepository.findAllWithTrackerFetchCompany()).thenReturn(List.of(
+            createBus("bus-1", "imei-1", "active"),
+            createBus("bus-2", "imei-2", "maintenance")));
+
+        trackerRegistry.reloadAll();
+
+        TrackerRegistry.TrackerInfo info = trackerRegistry.get("imei-1");
+        assertEquals("bus-1", info.getBusId());
+        assertEquals(7L, info.getCompanyId());
+        assertEquals("Rea Vaya", info.getCompanyName());
+        assertTrue(info.isActive());
+        assertFalse(trackerRegistry.get("imei-2").isActive());
+        assertNull(trackerRegistry.get("imei-unknown"));
+    }
+
+    @Test
+    void testChangeEventReloadsOnlyAffectedTrackers() {
+        when(busRepository.findAllWithTrackerFetchCompany()).thenReturn(List.of(
+            createBus("bus-1", "imei-1", "active"),
+            createBus("bus-2", "imei-2", "active")));
+        trackerRegistry.reloadAll();
+        TrackerRegistry.TrackerInfo untouched = trackerRegistry.get("imei-2");
+        when(busRepository.findByTrackerImeiInFetchCompany(Set.of("imei-1")))
+            .thenReturn(List.of(createBus("bus-1", "imei-1", "inactive")));
+
+        trackerRegistry.onTrackerRegistryChanged(TrackerRegistryChangedEvent.forImeis("imei-1"));
+
+        assertFalse(trackerRegistry.get("imei-1").isActive());
+        assertSame(untouched, trackerRegistry.get("imei-2"));
+        verify(busRepository, times(1)).findAllWithTrackerFetchCompany();
+    }
+
+    @Test
+    void testUnassignedTrackerIsDropped() {
+        when(busRepository.findAllWithTrackerFetchCompany()).thenReturn(List.of(createBus("bus-1", "imei-1", "active")));
+        trackerRegistry.reloadAll();
+        when(busRepository.findByTrackerImeiInFetchCompany(Set.of("imei-1"))).thenReturn(List.of());
+
+        trackerRegistry.onTrackerRegistryChanged(TrackerRegistryChangedEvent.forImeis("imei-1"));
+
+        assertNull(trackerRegistry.get("imei-1"));
+        assertEquals(0, trackerRegistry.size());
+    }
+
+    @Test
+    void testMissFallsBackToTheDatabaseOnceAndCachesUnknownTrackers() {
+        // Initial load failed: the snapshot is empty
+        when(busRepository.findAllWithTrackerFetchCompany()).thenThrow(new RuntimeException("db down"));
+        trackerRegistry.reloadAll();
+        when(busRepository.findByTrackerImeiInFetchCompany(Set.of("imei-1")))
+            .thenReturn(List.of(createBus("bus-1", "imei-1", "active")));
+        when(busRepository.findByTrackerImeiInFetchCompany(Set.of("imei-unknown"))).thenReturn(List.of());
+
+        assertEquals("bus-1", trackerRegistry.get("imei-1").getBusId());
+        assertEquals("bus-1", trackerRegistry.get("imei-1").getBusId());
+        assertNull(trackerRegistry.get("imei-unknown"));
+        assertNull(trackerRegistry.get("imei-unknown"));
+        verify(busRepository, times(1)).findByTrackerImeiInFetchCompany(Set.of("imei-1"));
+        verify(busRepository, times(1)).findByTrackerImeiInFetchCompany(Set.of("imei-unknown"));
+
+        // Assigning the tracker clears the negative entry
+        when(busRepository.findByTrackerImeiInFetchCompany(Set.of("imei-unknown")))
+            .thenReturn(List.of(createBus("bus-2", "imei-unknown", "active")));
+        trackerRegistry.onTrackerRegistryChanged(TrackerRegistryChangedEvent.forImeis("imei-unknown"));
+        assertEquals("bus-2", trackerRegistry.get("imei-unknown").getBusId());
+    }
+}
@@ -0,0 +1,65 @@
+package com.backend.onebus.service;
+
+import com.backend.onebus.model.BusLocation;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrackerShardStateTest {
+
+    private BusLocation createLocation(String direction, String timestamp) {
+        BusLocation location = new BusLocation();
+        location.setTrackerImei("imei-1");
+        location.setBusId("bus-1");
+        location.setBusNumber("C5");
+        location.setTripDirection(direction);
+        location.setTimestamp(timestamp);
+        return location;
+    }
+
+    @Test
+    void testPendingWritesCoalescePerTracker() {
+        TrackerShardState state = new TrackerShardState();
+        BusLocation stored = createLocation("Northbound", "1000");
+        BusLocation first = createLocation("Northbound", "2000");
+        BusLocation second = createLocation("Southbound", "3000");
+
+        state.recordProcessed("imei-1", "last:payload:imei-1", "bus:location:imei-1", "active:bus:1:bus-1", stored, first);
+        state.recordProcessed("imei-1", "last:payload:imei-1", "bus:location:imei-1", "active:bus:1:bus-1", first, second);
+
+        List<TrackerShardState.PendingWrite> writes = state.drainPendingWrites();
+        assertEquals(1, writes.size());
+        assertSame(second, writes.get(0).getLocation(), "Only the newest location should be written");
+        assertSame(stored, writes.get(0).getPrevious(), "Index move must start from the location Redis last saw");
+        assertSame(second, state.get("imei-1").getLocation());
+        assertTrue(state.drainPendingWrites().isEmpty());
+    }
+
+    @Test
+    void testRejectedPayloadKeepsQueuedLocation() {
+        TrackerShardState state = new TrackerShardState();
+        BusLocation processed = createLocation("Northbound", "1000");
+        BusLocation rejected = createLocation("Northbound", "2000");
+
+        state.recordProcessed("imei-1", "last:payload:imei-1", "bus:location:imei-1", "active:bus:1:bus-1", null, processed);
+        state.recordSeen("imei-1", "last:payload:imei-1", rejected);
+
+        TrackerShardState.PendingWrite write = state.drainPendingWrites().get(0);
+        assertSame(rejected, write.getLastPayload());
+        assertSame(processed, write.getLocation());
+    }
+
+    @Test
+    void testForgetDropsStateAndUnflushedWrites() {
+        TrackerShardState state = new TrackerShardState();
+        state.recordProcessed("imei-1", "last:payload:imei-1", "bus:location:imei-1", "active:bus:1:bus-1", null,
+            createLocation("Northbound", "1000"));
+
+        state.forget("imei-1");
+
+        assertNull(state.get("imei-1"));
+        assertTrue(state.drainPendingWrites().isEmpty());
+    }
+}
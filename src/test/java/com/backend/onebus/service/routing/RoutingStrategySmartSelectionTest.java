@@ -1,19 +1,29 @@
 package com.backend.onebus.service.routing;
 
 import com.backend.onebus.model.BusLocation;
+import com.backend.onebus.service.BusLocationIndex;
+import com.backend.onebus.service.BusRoster;
+import com.backend.onebus.service.BusSelectionMode;
+import com.backend.onebus.service.RouteDistanceSelector;
+import com.backend.onebus.service.RouteGeometry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
 import static org.mockito.ArgumentMatchers.anyString;
-import static org.mockito.Mockito.when;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
 
 /**
  * Test smart bus selection functionality in routing strategies.
@@ -25,7 +35,7 @@ class RoutingStrategySmartSelectionTest {
     private RedisTemplate<String, Object> redisTemplate;
 
     @Mock
-    private ValueOperations<String, Object> valueOperations;
+    private BusLocationIndex busLocationIndex;
 
     private ReaVayaRoutingStrategy reaVayaStrategy;
     private MetroBusRoutingStrategy metroBusStrategy;
@@ -34,16 +44,18 @@ class RoutingStrategySmartSelectionTest {
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
 
         reaVayaStrategy = new ReaVayaRoutingStrategy();
         reaVayaStrategy.setRedisTemplate(redisTemplate);
+        reaVayaStrategy.setBusLocationIndex(busLocationIndex);
 
         metroBusStrategy = new MetroBusRoutingStrategy();
         metroBusStrategy.setRedisTemplate(redisTemplate);
+        metroBusStrategy.setBusLocationIndex(busLocationIndex);
 
         defaultStrategy = new DefaultRoutingStrategy();
         defaultStrategy.setRedisTemplate(redisTemplate);
+        defaultStrategy.setBusLocationIndex(busLocationIndex);
     }
 
     @Test
@@ -64,9 +76,41 @@ class RoutingStrategySmartSelectionTest {
                    "Default strategy should not support smart bus selection");
     }
 
+    private void givenLiveBuses(BusLocation... buses) {
+        when(busLocationIndex.getRoster(anyString(), anyString())).thenAnswer(invocation -> {
+            String busNumber = invocation.getArgument(0);
+            String direction = invocation.getArgument(1);
+            return BusRoster.of(Arrays.stream(buses)
+                .filter(bus -> busNumber.equalsIgnoreCase(bus.getBusNumber()))
+                .filter(bus -> direction.equalsIgnoreCase(bus.getTripDirection()))
+                .collect(Collectors.toList()));
+        });
+    }
+
+    private BusLocation createBus(String busId, int stopIndex) {
+        return createBus(busId, "Northbound", stopIndex);
+    }
+
+    private BusLocation createBus(String busId, String direction, int stopIndex) {
+        BusLocation bus = new BusLocation();
+        bus.setBusId(busId);
+        bus.setBusNumber("C6");
+        bus.setTripDirection(direction);
+        bus.setBusStopIndex(stopIndex);
+        return bus;
+    }
+
+    private static List<BusCompanyRoutingStrategy.ClientPosition> clientsAt(int... stopIndexes) {
+        List<BusCompanyRoutingStrategy.ClientPosition> clients = new ArrayList<>();
+        for (int stopIndex : stopIndexes) {
+            clients.add(new BusCompanyRoutingStrategy.ClientPosition(0, 0, stopIndex));
+        }
+        return clients;
+    }
+
     @Test
     void testReaVayaSmartSelectionWithNoBuses() {
-        when(redisTemplate.keys(anyString())).thenReturn(Collections.emptySet());
+        givenLiveBuses();
         
         String result = reaVayaStrategy.selectBestBusForClient("C6", "Northbound", 0, 0, 1);
         
@@ -75,7 +119,7 @@ class RoutingStrategySmartSelectionTest {
 
     @Test
     void testMetroBusSmartSelectionWithNoBuses() {
-        when(redisTemplate.keys(anyString())).thenReturn(Collections.emptySet());
+        givenLiveBuses();
         
         String result = metroBusStrategy.selectBestBusForClient("C6", "Northbound", 0, 0, 1);
         
@@ -84,20 +128,21 @@ class RoutingStrategySmartSelectionTest {
 
     @Test
     void testReaVayaSmartSelectionWithAvailableBus() {
-        // Setup mock data
-        BusLocation bus1 = new BusLocation();
-        bus1.setBusId("bus1");
-        bus1.setBusNumber("C6");
-        bus1.setTripDirection("Northbound");
-        bus1.setBusStopIndex(5);
+        // bus1 at index 3 is approaching a client at index 4; bus2 at index 5 has already passed
+        givenLiveBuses(createBus("bus1", 3), createBus("bus2", 5));
+
+        String result = reaVayaStrategy.selectBestBusForClient("C6", "Northbound", 0, 0, 4);
+
+        assertEquals("bus1", result, "Should select the bus approaching the client");
+    }
 
-        Set<String> keys = Set.of("bus:location:bus1");
-        when(redisTemplate.keys(anyString())).thenReturn(keys);
-        when(valueOperations.get("bus:location:bus1")).thenReturn(bus1);
+    @Test
+    void testReaVayaSmartSelectionIgnoresBusThatPassedClient() {
+        givenLiveBuses(createBus("bus1", 5));
 
         String result = reaVayaStrategy.selectBestBusForClient("C6", "Northbound", 0, 0, 4);
 
-        assertEquals("bus1", result, "Should select the available bus ahead of client");
+        assertNull(result, "A bus past the client should not be selected");
     }
 
     @Test
@@ -106,4 +151,55 @@ class RoutingStrategySmartSelectionTest {
         assertEquals("Metro Bus", metroBusStrategy.getCompanyName());
         assertEquals("Default", defaultStrategy.getCompanyName());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testBulkSelectionMatchesPerClientSelection() {
+        givenLiveBuses(createBus("bus1", 2), createBus("bus2", 6), createBus("bus3", 6),
+            createBus("bus4", "Southbound", 4));
+        List<BusCompanyRoutingStrategy.ClientPosition> clients = clientsAt(0, 1, 2, 5, 6, 9);
+
+        List<String> selected = reaVayaStrategy.selectBestBusesForClients("C6", "Northbound", clients);
+
+        assertEquals(Arrays.asList(null, null, "bus1", "bus1"), selected.subList(0, 4));
+        assertTrue(Set.of("bus2", "bus3").contains(selected.get(4)));
+        for (int i = 0; i < clients.size(); i++) {
+            assertEquals(reaVayaStrategy.selectBestBusForClient("C6", "Northbound", 0, 0, clients.get(i).busStopIndex()),
+                selected.get(i), "Bulk selection should match per-client selection at index " + clients.get(i).busStopIndex());
+        }
+        // Buses exist in the requested direction, so the opposite roster is never read
+        verify(busLocationIndex, never()).getRoster("C6", "Southbound");
+    }
+
+    @Test
+    void testBulkSelectionFallsBackToOppositeDirectionOnce() {
+        givenLiveBuses(createBus("bus1", "Southbound", 2), createBus("bus2", "Southbound", 8));
+
+        List<String> selected = metroBusStrategy.selectBestBusesForClients("C6", "Northbound", clientsAt(1, 5, 9));
+
+        assertEquals(Arrays.asList("bus1", "bus1", "bus2"), selected);
+        verify(busLocationIndex, times(1)).getRoster("C6", "Northbound");
+        verify(busLocationIndex, times(1)).getRoster("C6", "Southbound");
+    }
+
+    @Test
+    void testBulkSelectionUsesTheCompanySelectionMode() {
+        RouteDistanceSelector routeDistanceSelector = mock(RouteDistanceSelector.class);
+        RouteGeometry geometry = mock(RouteGeometry.class);
+        BusLocation bus1 = createBus("bus1", 2);
+        BusLocation bus2 = createBus("bus2", 3);
+        givenLiveBuses(bus1, bus2);
+        reaVayaStrategy.setRouteDistanceSelector(routeDistanceSelector);
+        reaVayaStrategy.setSelectionModeSource(() -> BusSelectionMode.ETA);
+        when(routeDistanceSelector.geometryFor("C6", "Northbound")).thenReturn(geometry);
+        when(routeDistanceSelector.closestApproaching(eq(geometry), anyDouble(), anyDouble(), any(), eq(BusSelectionMode.ETA)))
+            .thenReturn(bus1);
+
+        List<String> selected = reaVayaStrategy.selectBestBusesForClients("C6", "Northbound", clientsAt(3, 3, 3));
+
+        // By ETA, not by stop index (which would pick bus2)
+        assertEquals(List.of("bus1", "bus1", "bus1"), selected);
+        verify(routeDistanceSelector, times(1)).geometryFor("C6", "Northbound");
+        verify(routeDistanceSelector, times(3))
+            .closestApproaching(eq(geometry), anyDouble(), anyDouble(), any(), eq(BusSelectionMode.ETA));
+    }
+}